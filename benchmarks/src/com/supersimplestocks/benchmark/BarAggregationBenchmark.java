@@ -0,0 +1,103 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.BarAggregator;
+import com.supersimplestocks.business.ManualClock;
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.BarSeries;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures the cost of aggregating the trades into 1 second, 1 minute and 5 minutes bars
+ * when they are recorded, and the query of the highest price of a stock in the last hour
+ * answered from the 60 bars of 1 minute. The stock is traded every 100 milliseconds and
+ * starts with one hour of trades.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BarAggregationBenchmark {
+    
+    /** The time between two trades in milliseconds */
+    private static final long TRADE_INTERVAL = 100;
+    
+    /** One hour in milliseconds */
+    private static final long HOUR = 3600000;
+    
+    /** Whether a bar aggregator is attached */
+    @Param({"false", "true"})
+    public boolean bars;
+    
+    private ManualClock clock;
+    
+    private StockTradeUtil stockTrader;
+    
+    private BarSeries hourBars;
+    
+    /**
+     * Attaches the aggregator and records one hour of trades before every iteration
+     * 
+     * @throws BusinessException - if a trade is rejected
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws BusinessException {
+        clock = new ManualClock(HOUR);
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(BenchmarkData.createStockSymbols(1)), clock);
+        hourBars = new BarSeries(60000, 61);
+        
+        if (bars) {
+            stockTrader.attachBarAggregator(new long[] {1000, 60000, 300000}, (int) (HOUR / 1000));
+        }
+        
+        for (long t = 0; t < HOUR; t += TRADE_INTERVAL) {
+            stockTrader.tradeStock(0, t, BenchmarkData.QUANTITY, BenchmarkData.PRICE + t % 7, true);
+        }
+    }
+    
+    /**
+     * Records a trade 100 milliseconds after the previous one
+     * 
+     * @throws BusinessException - if the trade is rejected
+     */
+    @Benchmark
+    public void tradeStock() throws BusinessException {
+        long now = clock.millis();
+        stockTrader.tradeStock(0, now, BenchmarkData.QUANTITY, BenchmarkData.PRICE + now % 7, true);
+        clock.setMillis(now + TRADE_INTERVAL);
+    }
+    
+    /**
+     * Finds the highest price of the stock in the last hour from its bars
+     * 
+     * @return - the highest price, zero if no aggregator is attached
+     * @throws BusinessException - if the query is rejected
+     */
+    @Benchmark
+    public long getHourHigh() throws BusinessException {
+        BarAggregator barAggregator = stockTrader.getBarAggregator();
+        if (barAggregator == null) {
+            return 0;
+        }
+        
+        long now = clock.millis();
+        barAggregator.getBars(0, 60000, now - HOUR, now, hourBars);
+        return hourBars.getHigh();
+    }
+}
@@ -0,0 +1,91 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.CommonStock;
+import com.supersimplestocks.data.PreferredStock;
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Utility class which builds the stock universes and the trade windows used by the benchmarks
+ */
+public class BenchmarkData {
+    
+    /** The price of the trades recorded to fill the windows */
+    public static final int PRICE = 100;
+    
+    /** The quantity of the trades recorded to fill the windows */
+    public static final int QUANTITY = 10;
+    
+    /**
+     * Creates the stock symbols of a universe: S0, S1, ...
+     * 
+     * @param symbolCount - the number of stocks in the universe
+     * @return - the stock symbols
+     */
+    public static String[] createStockSymbols(int symbolCount) {
+        String[] stockSymbols = new String[symbolCount];
+        
+        for (int i = 0; i < symbolCount; i++) {
+            stockSymbols[i] = "S" + i;
+        }
+        
+        return stockSymbols;
+    }
+    
+    /**
+     * Creates a universe of stocks: one in five stocks is preferred, the others are common.
+     * All stocks have a positive last dividend, so the P/E ratio can be calculated.
+     * 
+     * @param stockSymbols - the stock symbols
+     * @return - a map of the stocks by symbol
+     */
+    public static Map<String, Stock> createStockMap(String[] stockSymbols) {
+        Map<String, Stock> stockMap = new HashMap<String, Stock>();
+        
+        for (int i = 0; i < stockSymbols.length; i++) {
+            String stockSymbol = stockSymbols[i];
+            
+            if (i % 5 == 3) {
+                stockMap.put(stockSymbol, new PreferredStock(stockSymbol, 8, 0.02, 100));
+            } else {
+                stockMap.put(stockSymbol, new CommonStock(stockSymbol, i % 20 + 1, 100));
+            }
+        }
+        
+        return stockMap;
+    }
+    
+    /**
+     * Fills the window of every stock with the given number of trades
+     * 
+     * @param stockTrader - the object which records the trades
+     * @param stockSymbols - the stock symbols
+     * @param windowTrades - the number of trades recorded for every stock
+     * @throws BusinessException - if a trade is rejected
+     */
+    public static void fillWindows(StockTradeUtil stockTrader, String[] stockSymbols, int windowTrades) throws BusinessException {
+        for (int i = 0; i < windowTrades; i++) {
+            for (String stockSymbol : stockSymbols) {
+                stockTrader.tradeStock(stockSymbol, QUANTITY, PRICE + i % 7, (i & 1) == 0);
+            }
+        }
+    }
+    
+    /**
+     * A per-thread pseudo-random sequence used to pick the stock of the next operation,
+     * so the threads of a benchmark do not all hit the same stock at the same time.
+     * 
+     * @param seed - the current value of the sequence, must not be zero
+     * @return - the next value of the sequence
+     */
+    public static int nextRandom(int seed) {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+}
@@ -0,0 +1,45 @@
+package com.supersimplestocks.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every thread count, with the allocation profiler enabled.
+ * 
+ * Usage: java -jar benchmarks.jar [thread counts separated by commas] [benchmark name regex]
+ * 
+ * For example "java -jar benchmarks.jar 1,4 TradeStock" runs the trade benchmark with 1 and 4 threads.
+ * To pass any other option to JMH, run its own main class: java -cp benchmarks.jar org.openjdk.jmh.Main
+ */
+public class BenchmarkRunner {
+    
+    /** The thread counts used if none are given */
+    private static final String DEFAULT_THREADS = "1,2,4,8";
+    
+    /** The benchmarks run if no regex is given */
+    private static final String DEFAULT_INCLUDE = BenchmarkRunner.class.getPackage().getName() + ".*Benchmark";
+    
+    /**
+     * Main method, used to run the benchmarks.
+     * 
+     * @param args - method arguments: the thread counts and the regex of the benchmarks
+     * @throws RunnerException - if a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        String threads = args.length > 0 ? args[0] : DEFAULT_THREADS;
+        String include = args.length > 1 ? args[1] : DEFAULT_INCLUDE;
+        
+        for (String threadCount : threads.split(",")) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threadCount.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            
+            new Runner(options).run();
+        }
+    }
+}
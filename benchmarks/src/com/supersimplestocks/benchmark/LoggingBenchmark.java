@@ -0,0 +1,102 @@
+package com.supersimplestocks.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.logging.AsyncLogger;
+import com.supersimplestocks.logging.Logger;
+import com.supersimplestocks.logging.MessageTemplate;
+
+/**
+ * Measures the logging of a trade: with Logger writing on the caller's thread, with the same message
+ * and String parameters handed to an AsyncLogger (as Logger does once it is set), and with the
+ * parameters logged as primitives into the AsyncLogger.
+ * The messages are written to an output which drops them, so the benchmarks measure the formatting
+ * and the encoding but not the console; the caller of the AsyncLogger waits for its writer thread
+ * whenever the ring is full.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+    
+    /** An output which drops everything written to it */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    
+    private static final MessageTemplate BUY_STOCK = MessageTemplate.of(Messages.MSG_BUY_STOCK);
+    
+    private PrintStream console;
+    
+    private AsyncLogger asyncLogger;
+    
+    private long price;
+    
+    /**
+     * Redirects the console to the null output and starts the asynchronous logger
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        console = System.out;
+        System.setOut(new PrintStream(NULL_OUTPUT));
+        asyncLogger = new AsyncLogger(NULL_OUTPUT, AsyncLogger.DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Stops the asynchronous logger and restores the console
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        asyncLogger.close();
+        System.setOut(console);
+    }
+    
+    /**
+     * Logs a trade with Logger, on the caller's thread
+     */
+    @Benchmark
+    public void syncLog() {
+        Logger.log(Messages.MSG_BUY_STOCK, new String[] {Long.toString(BenchmarkData.QUANTITY), "POP", Long.toString(BenchmarkData.PRICE + price++ % 7)});
+    }
+    
+    /**
+     * Logs a trade with the String parameters of Logger into the asynchronous logger
+     */
+    @Benchmark
+    public void asyncLog() {
+        asyncLogger.log(Messages.MSG_BUY_STOCK, new String[] {Long.toString(BenchmarkData.QUANTITY), "POP", Long.toString(BenchmarkData.PRICE + price++ % 7)});
+    }
+    
+    /**
+     * Logs a trade into the asynchronous logger, the quantity and the price as primitives
+     */
+    @Benchmark
+    public void asyncLogPrimitives() {
+        asyncLogger.log(BUY_STOCK).append(BenchmarkData.QUANTITY).append("POP").append(BenchmarkData.PRICE + price++ % 7).commit();
+    }
+}
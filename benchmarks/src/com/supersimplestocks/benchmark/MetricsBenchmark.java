@@ -0,0 +1,88 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.ManualClock;
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures the cost of the metrics on a trade and on the query of the Volume Weighted Stock
+ * Price: without metrics (a sample interval of 0), with every call timed (1) and with one
+ * call in 64 timed. The stock is traded every 100 milliseconds and starts with 5 minutes of
+ * trades.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    
+    /** The time between two trades in milliseconds */
+    private static final long TRADE_INTERVAL = 100;
+    
+    /** One call in this number is timed, 0 for no metrics */
+    @Param({"0", "1", "64"})
+    public int sampleInterval;
+    
+    private ManualClock clock;
+    
+    private StockTradeUtil stockTrader;
+    
+    /**
+     * Attaches the metrics and records 5 minutes of trades before every iteration
+     * 
+     * @throws BusinessException - if a trade is rejected
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws BusinessException {
+        clock = new ManualClock(StockTradeUtil.VOL_WEIGH_WINDOW);
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(BenchmarkData.createStockSymbols(1)), clock);
+        
+        if (sampleInterval > 0) {
+            stockTrader.attachMetrics(sampleInterval);
+        }
+        
+        for (long t = 0; t < StockTradeUtil.VOL_WEIGH_WINDOW; t += TRADE_INTERVAL) {
+            stockTrader.tradeStock(0, t, BenchmarkData.QUANTITY, BenchmarkData.PRICE + t % 7, true);
+        }
+    }
+    
+    /**
+     * Records a trade 100 milliseconds after the previous one
+     * 
+     * @throws BusinessException - if the trade is rejected
+     */
+    @Benchmark
+    public void tradeStock() throws BusinessException {
+        long now = clock.millis();
+        stockTrader.tradeStock(0, now, BenchmarkData.QUANTITY, BenchmarkData.PRICE + now % 7, true);
+        clock.setMillis(now + TRADE_INTERVAL);
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price of the stock
+     * 
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException - if the query is rejected
+     */
+    @Benchmark
+    public double getVolumeWeightedStockPrice() throws BusinessException {
+        return stockTrader.getVolumeWeightedStockPrice(0);
+    }
+}
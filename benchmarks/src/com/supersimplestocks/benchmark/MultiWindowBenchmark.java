@@ -0,0 +1,82 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.data.StockTradeWindow;
+
+/**
+ * Measures the cost of keeping several windows over the buffer of a
+ * {@link com.supersimplestocks.data.StockTradeWindow}: one window, or four windows whose
+ * lengths have the ratios of 1, 5, 15 and 60 minutes. The buffer holds the trades of the
+ * longest window, so every trade evicts one trade from each window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MultiWindowBenchmark {
+    
+    /** The number of trades in the shortest window, one trade per millisecond */
+    private static final int SHORTEST_WINDOW_TRADES = 64;
+    
+    /** The number of windows: 1 or 4 */
+    @Param({"1", "4"})
+    public int windowCount;
+    
+    private long timestamp;
+    
+    private double[] volWeighPrices;
+    
+    private StockTradeWindow tradeWindow;
+    
+    /** Fills the windows with trades one millisecond apart */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        long[] windowLengths = windowCount == 1 ? new long[] {SHORTEST_WINDOW_TRADES}
+                : new long[] {SHORTEST_WINDOW_TRADES, 5 * SHORTEST_WINDOW_TRADES, 15 * SHORTEST_WINDOW_TRADES, 60 * SHORTEST_WINDOW_TRADES};
+        long longestWindow = windowLengths[windowLengths.length - 1];
+        
+        tradeWindow = new StockTradeWindow(windowLengths, 0, (int) longestWindow + 1, null);
+        volWeighPrices = new double[windowLengths.length];
+        
+        for (timestamp = 0; timestamp <= longestWindow; timestamp++) {
+            tradeWindow.add(timestamp, BenchmarkData.QUANTITY, BenchmarkData.PRICE + (timestamp & 7));
+        }
+    }
+    
+    /**
+     * Adds a trade which evicts the oldest trade of every window
+     */
+    @Benchmark
+    public void add() {
+        tradeWindow.add(timestamp, BenchmarkData.QUANTITY, BenchmarkData.PRICE + (timestamp & 7));
+        timestamp++;
+    }
+    
+    /**
+     * Adds a trade and reads the Volume Weighted Prices of all the windows
+     * 
+     * @return - the array of the Volume Weighted Prices
+     */
+    @Benchmark
+    public double[] addAndGetVolumeWeightedPrices() {
+        tradeWindow.add(timestamp, BenchmarkData.QUANTITY, BenchmarkData.PRICE + (timestamp & 7));
+        tradeWindow.getVolumeWeightedPrices(timestamp++, volWeighPrices);
+        return volWeighPrices;
+    }
+}
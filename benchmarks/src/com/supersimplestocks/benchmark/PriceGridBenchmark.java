@@ -0,0 +1,127 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures the dividend yields of a grid of prices of one stock, calculated one price at a time
+ * with {@link com.supersimplestocks.business.StockTradeUtil#getDividendYield(String, long)} or
+ * in one call with the grid methods, and the dividend yields and P/E ratios of the grid for all
+ * the stocks of a universe of 100 stocks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PriceGridBenchmark {
+    
+    /** The number of stocks in the universe */
+    private static final int SYMBOL_COUNT = 100;
+    
+    /** The number of prices in the grid */
+    @Param({"16", "1024"})
+    public int priceCount;
+    
+    private String[] stockSymbols;
+    
+    private StockTradeUtil stockTrader;
+    
+    private long[] prices;
+    
+    private double[] results;
+    
+    private double[] allResults;
+    
+    /** Creates the universe and the grid of prices */
+    @Setup(Level.Trial)
+    public void setUp() {
+        stockSymbols = BenchmarkData.createStockSymbols(SYMBOL_COUNT);
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(stockSymbols));
+        prices = new long[priceCount];
+        results = new double[priceCount];
+        allResults = new double[SYMBOL_COUNT * priceCount];
+        
+        for (int i = 0; i < priceCount; i++) {
+            prices[i] = BenchmarkData.PRICE + i;
+        }
+    }
+    
+    /**
+     * Calculates the dividend yields of the grid one price at a time
+     * 
+     * @return - the dividend yields
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double[] getDividendYield() throws BusinessException {
+        for (int i = 0; i < priceCount; i++) {
+            results[i] = stockTrader.getDividendYield(stockSymbols[3], prices[i]);
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Calculates the dividend yields of the grid in one call, by stock symbol
+     * 
+     * @return - the dividend yields
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double[] getDividendYields() throws BusinessException {
+        return stockTrader.getDividendYields(stockSymbols[3], prices);
+    }
+    
+    /**
+     * Calculates the dividend yields of the grid in one call, by stock ID, into a reused array
+     * 
+     * @return - the dividend yields
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double[] getDividendYieldsById() throws BusinessException {
+        stockTrader.getDividendYields(3, prices, results);
+        return results;
+    }
+    
+    /**
+     * Calculates the dividend yields of the grid for all the stocks
+     * 
+     * @return - the dividend yields
+     * @throws BusinessException - if a price is invalid
+     */
+    @Benchmark
+    public double[] getAllDividendYields() throws BusinessException {
+        stockTrader.getAllDividendYields(prices, allResults);
+        return allResults;
+    }
+    
+    /**
+     * Calculates the P/E ratios of the grid for all the stocks
+     * 
+     * @return - the P/E ratios
+     * @throws BusinessException - if a price is invalid
+     */
+    @Benchmark
+    public double[] getAllPERatios() throws BusinessException {
+        stockTrader.getAllPERatios(prices, allResults);
+        return allResults;
+    }
+}
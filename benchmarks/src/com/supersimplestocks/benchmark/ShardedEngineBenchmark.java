@@ -0,0 +1,86 @@
+package com.supersimplestocks.benchmark;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.ShardedTradeEngine;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures the time to record a fixed number of trades of random stocks of a universe of 10000
+ * stocks through a {@link com.supersimplestocks.business.ShardedTradeEngine} with a given number
+ * of shards, until they have all been recorded, and to read the All Share Index gathered from the
+ * shards. Every iteration uses a fresh engine, so the windows do not keep growing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShardedEngineBenchmark {
+    
+    /** The number of trades recorded in one iteration */
+    public static final int TRADES_PER_ITERATION = 1000000;
+    
+    /** The number of stocks in the universe */
+    private static final int SYMBOL_COUNT = 10000;
+    
+    /** The number of shards */
+    @Param({"1", "2", "4"})
+    public int shardCount;
+    
+    private String[] stockSymbols;
+    
+    private ShardedTradeEngine engine;
+    
+    /**
+     * Creates the engine before every iteration
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        stockSymbols = BenchmarkData.createStockSymbols(SYMBOL_COUNT);
+        engine = new ShardedTradeEngine(BenchmarkData.createStockMap(stockSymbols), Clock.systemUTC(), shardCount, ShardedTradeEngine.DEFAULT_SHARD_CAPACITY);
+    }
+    
+    /**
+     * Stops the workers of the engine after every iteration
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        engine.close();
+    }
+    
+    /**
+     * Trades random stocks and reads the All Share Index, which waits until all the trades have been recorded
+     * 
+     * @return - the All Share Index
+     * @throws BusinessException - if a trade is rejected
+     */
+    @Benchmark
+    public double tradeStocks() throws BusinessException {
+        long now = System.currentTimeMillis();
+        int random = 1;
+        
+        for (int i = 0; i < TRADES_PER_ITERATION; i++) {
+            random = BenchmarkData.nextRandom(random);
+            engine.tradeStock(stockSymbols[(random & Integer.MAX_VALUE) % SYMBOL_COUNT], now, BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+        }
+        
+        return engine.getGBCEAllShareIndex();
+    }
+}
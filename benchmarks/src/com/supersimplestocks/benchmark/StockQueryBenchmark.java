@@ -0,0 +1,152 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.OrderFlow;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures the read operations of {@link com.supersimplestocks.business.StockTradeUtil}: the
+ * Volume Weighted Stock Price, the buy/sell order flow, the All Share Index, the dividend yield
+ * and the P/E ratio.
+ * The windows are filled once per trial and are not changed by the benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StockQueryBenchmark {
+    
+    /** The number of stocks in the universe */
+    @Param({"5", "1000", "10000"})
+    public int symbolCount;
+    
+    /** The number of trades in the window of every stock */
+    @Param({"16", "256"})
+    public int windowTrades;
+    
+    private String[] stockSymbols;
+    
+    private StockTradeUtil stockTrader;
+    
+    /**
+     * Creates the universe and fills the windows
+     * 
+     * @throws BusinessException - if a trade is rejected
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws BusinessException {
+        stockSymbols = BenchmarkData.createStockSymbols(symbolCount);
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(stockSymbols));
+        BenchmarkData.fillWindows(stockTrader, stockSymbols, windowTrades);
+    }
+    
+    /** The stock picked by each thread */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int random = System.identityHashCode(this) | 1;
+        
+        /** The order flow reused by every read of the thread */
+        private final OrderFlow orderFlow = new OrderFlow();
+        
+        /**
+         * Picks the index of the next stock
+         * 
+         * @param symbolCount - the number of stocks
+         * @return - the index of the stock
+         */
+        public int nextStock(int symbolCount) {
+            random = BenchmarkData.nextRandom(random);
+            return (random & Integer.MAX_VALUE) % symbolCount;
+        }
+    }
+    
+    /**
+     * Reads the Volume Weighted Stock Price of a random stock
+     * 
+     * @param threadState - the state of the calling thread
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double getVolumeWeightedStockPrice(ThreadState threadState) throws BusinessException {
+        return stockTrader.getVolumeWeightedStockPrice(stockSymbols[threadState.nextStock(symbolCount)]);
+    }
+    
+    /**
+     * Reads the Volume Weighted Stock Price of a random stock, found by its ID
+     * 
+     * @param threadState - the state of the calling thread
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double getVolumeWeightedStockPriceById(ThreadState threadState) throws BusinessException {
+        return stockTrader.getVolumeWeightedStockPrice(threadState.nextStock(symbolCount));
+    }
+    
+    /**
+     * Reads the buy-side and sell-side analytics of a random stock, found by its ID, into an
+     * object reused by the thread
+     * 
+     * @param threadState - the state of the calling thread
+     * @return - the order-flow imbalance
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double getOrderFlowById(ThreadState threadState) throws BusinessException {
+        stockTrader.getOrderFlow(threadState.nextStock(symbolCount), threadState.orderFlow);
+        return threadState.orderFlow.getImbalance();
+    }
+    
+    /**
+     * Reads the All Share Index
+     * 
+     * @return - the All Share Index
+     * @throws BusinessException - if the index cannot be calculated
+     */
+    @Benchmark
+    public double getGBCEAllShareIndex() throws BusinessException {
+        return stockTrader.getGBCEAllShareIndex();
+    }
+    
+    /**
+     * Calculates the dividend yield of a random stock
+     * 
+     * @param threadState - the state of the calling thread
+     * @return - the dividend yield
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double getDividendYield(ThreadState threadState) throws BusinessException {
+        return stockTrader.getDividendYield(stockSymbols[threadState.nextStock(symbolCount)], BenchmarkData.PRICE);
+    }
+    
+    /**
+     * Calculates the P/E ratio of a random stock
+     * 
+     * @param threadState - the state of the calling thread
+     * @return - the P/E ratio
+     * @throws BusinessException - if the stock is not found
+     */
+    @Benchmark
+    public double getPERatio(ThreadState threadState) throws BusinessException {
+        return stockTrader.getPERatio(stockSymbols[threadState.nextStock(symbolCount)], BenchmarkData.PRICE);
+    }
+}
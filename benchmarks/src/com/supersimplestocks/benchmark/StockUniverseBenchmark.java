@@ -0,0 +1,104 @@
+package com.supersimplestocks.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.loader.StockFileLoader;
+
+/**
+ * Measures the startup of a stock universe read by {@link com.supersimplestocks.loader.StockFileLoader}:
+ * the stock file, kept in memory so the disk is not measured, is parsed and a utility is created for
+ * its stocks. It also measures the reload of a file in which one stock in a hundred has been replaced,
+ * into a utility whose stocks have all been traded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StockUniverseBenchmark {
+    
+    /** The number of stocks in the universe */
+    @Param({"1000", "50000"})
+    public int symbolCount;
+    
+    private String stockFile;
+    
+    private String changedStockFile;
+    
+    private StockTradeUtil stockTrader;
+    
+    /**
+     * Creates the contents of the stock file, and of the file in which one stock in a hundred is
+     * replaced by a new one
+     */
+    @Setup(Level.Trial)
+    public void setUpFiles() {
+        StringBuilder stocks = new StringBuilder("symbol,type,lastDividend,fixedDividend,parValue\n");
+        StringBuilder changedStocks = new StringBuilder(stocks);
+        
+        for (int i = 0; i < symbolCount; i++) {
+            String stock = (i % 5 == 3 ? ",PREFERRED,8,0.02," : ",COMMON," + (i % 20 + 1) + ",,") + "100\n";
+            stocks.append('S').append(i).append(stock);
+            changedStocks.append(i % 100 == 0 ? "N" : "S").append(i).append(stock);
+        }
+        
+        stockFile = stocks.toString();
+        changedStockFile = changedStocks.toString();
+    }
+    
+    /**
+     * Creates a utility whose stocks have all been traded before every iteration
+     * 
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a stock is malformed
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, BusinessException {
+        stockTrader = new StockTradeUtil(StockFileLoader.load(new BufferedReader(new StringReader(stockFile))));
+        BenchmarkData.fillWindows(stockTrader, BenchmarkData.createStockSymbols(symbolCount), 1);
+    }
+    
+    /**
+     * Reads the stock file and creates a utility for its stocks
+     * 
+     * @return - the utility
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a stock is malformed
+     */
+    @Benchmark
+    public StockTradeUtil load() throws IOException, BusinessException {
+        return new StockTradeUtil(StockFileLoader.load(new BufferedReader(new StringReader(stockFile))));
+    }
+    
+    /**
+     * Reads the changed stock file and reloads the stocks of the utility
+     * 
+     * @return - the utility
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a stock is malformed
+     */
+    @Benchmark
+    public StockTradeUtil reload() throws IOException, BusinessException {
+        stockTrader.reloadStockData(StockFileLoader.load(new BufferedReader(new StringReader(changedStockFile))));
+        return stockTrader;
+    }
+}
@@ -0,0 +1,104 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.business.TradeBatch;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures {@link com.supersimplestocks.business.StockTradeUtil#tradeStocks(TradeBatch)}. Every
+ * invocation records {@link TradeStockBenchmark#TRADES_PER_ITERATION} trades in batches of a given
+ * size on a fresh object, so the time is comparable with the time of the same number of single
+ * trades measured by {@link TradeStockBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TradeBatchBenchmark {
+    
+    /** The number of stocks in the universe */
+    @Param({"5", "1000", "10000"})
+    public int symbolCount;
+    
+    /** The number of trades in a batch */
+    @Param({"16", "256"})
+    public int batchTrades;
+    
+    private StockTradeUtil stockTrader;
+    
+    /**
+     * Creates the universe before every iteration
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(BenchmarkData.createStockSymbols(symbolCount)));
+    }
+    
+    /** The batch and the stock picked by each thread */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int random = System.identityHashCode(this) | 1;
+        
+        private TradeBatch tradeBatch;
+        
+        /**
+         * Creates the batch of the thread
+         * 
+         * @param benchmark - the benchmark state
+         */
+        @Setup(Level.Trial)
+        public void setUp(TradeBatchBenchmark benchmark) {
+            tradeBatch = new TradeBatch(benchmark.batchTrades);
+        }
+        
+        /**
+         * Picks the ID of the next stock
+         * 
+         * @param symbolCount - the number of stocks
+         * @return - the ID of the stock
+         */
+        public int nextStock(int symbolCount) {
+            random = BenchmarkData.nextRandom(random);
+            return (random & Integer.MAX_VALUE) % symbolCount;
+        }
+    }
+    
+    /**
+     * Records the trades of random stocks in batches
+     * 
+     * @param threadState - the state of the calling thread
+     * @throws BusinessException - if a batch is rejected
+     */
+    @Benchmark
+    public void tradeStocks(ThreadState threadState) throws BusinessException {
+        TradeBatch tradeBatch = threadState.tradeBatch;
+        
+        for (int trades = 0; trades < TradeStockBenchmark.TRADES_PER_ITERATION; trades += tradeBatch.size()) {
+            long timestamp = System.currentTimeMillis();
+            tradeBatch.clear();
+            
+            while (!tradeBatch.isFull()) {
+                tradeBatch.add(threadState.nextStock(symbolCount), timestamp, BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+            }
+            
+            stockTrader.tradeStocks(tradeBatch);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.supersimplestocks.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.loader.TradeFileLoader;
+import com.supersimplestocks.persistence.TradeJournal;
+
+/**
+ * Measures {@link com.supersimplestocks.loader.TradeFileLoader}. Every invocation loads
+ * {@link TradeStockBenchmark#TRADES_PER_ITERATION} trades of random stocks, kept in memory
+ * so the disk is not measured, on a fresh object, so the time is comparable with the time of
+ * the same number of trades measured by {@link TradeStockBenchmark} and {@link TradeBatchBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TradeFileLoadBenchmark {
+    
+    /** The number of stocks in the universe */
+    @Param({"5", "1000", "10000"})
+    public int symbolCount;
+    
+    /** The format of the file: csv or binary */
+    @Param({"csv", "binary"})
+    public String format;
+    
+    private String[] stockSymbols;
+    
+    private byte[] fileBytes;
+    
+    private TradeFileLoader loader;
+    
+    /**
+     * Creates the contents of the file
+     * 
+     * @throws IOException - if the binary file cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setUpFile() throws IOException {
+        stockSymbols = BenchmarkData.createStockSymbols(symbolCount);
+        StockTradeUtil stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(stockSymbols));
+        long timestamp = System.currentTimeMillis();
+        int random = 1;
+        
+        if (format.equals("csv")) {
+            StringBuilder csv = new StringBuilder("symbol,timestamp,quantity,price,side\n");
+            
+            for (int i = 0; i < TradeStockBenchmark.TRADES_PER_ITERATION; i++) {
+                random = BenchmarkData.nextRandom(random);
+                csv.append(stockSymbols[(random & Integer.MAX_VALUE) % symbolCount]).append(',').append(timestamp).append(',')
+                        .append(BenchmarkData.QUANTITY).append(',').append(BenchmarkData.PRICE).append(",B\n");
+            }
+            
+            fileBytes = csv.toString().getBytes(StandardCharsets.US_ASCII);
+        } else {
+            Path path = Files.createTempFile("trades", ".journal");
+            Files.delete(path);
+            
+            try (TradeJournal journal = new TradeJournal(path, 0)) {
+                for (int i = 0; i < TradeStockBenchmark.TRADES_PER_ITERATION; i++) {
+                    random = BenchmarkData.nextRandom(random);
+                    int stockId = (random & Integer.MAX_VALUE) % symbolCount;
+                    journal.append(stockTrader.getStockRegistry().getSymbolBytes(stockId), timestamp, BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+                }
+            }
+            
+            fileBytes = Files.readAllBytes(path);
+            Files.delete(path);
+        }
+    }
+    
+    /**
+     * Creates the universe and the loader before every iteration
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        loader = new TradeFileLoader(new StockTradeUtil(BenchmarkData.createStockMap(stockSymbols)));
+    }
+    
+    /**
+     * Loads the trades of the file
+     * 
+     * @return - the number of trades loaded
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a trade is malformed
+     */
+    @Benchmark
+    public long load() throws IOException, BusinessException {
+        ByteArrayInputStream input = new ByteArrayInputStream(fileBytes);
+        return format.equals("csv") ? loader.loadCsv(Channels.newChannel(input)) : loader.loadBinary(Channels.newChannel(input));
+    }
+}
@@ -0,0 +1,103 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.business.TradePipeline;
+import com.supersimplestocks.business.TradePipelineListener;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures the time to record a fixed number of trades of random stocks through a
+ * {@link com.supersimplestocks.business.TradePipeline} with a given number of apply partitions,
+ * until they have all been published, against the same trades made directly on the calling thread.
+ * Every iteration uses a fresh utility and pipeline, so the windows do not keep growing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TradePipelineBenchmark {
+    
+    /** The number of trades recorded in one iteration */
+    public static final int TRADES_PER_ITERATION = 1000000;
+    
+    /** The number of stocks in the universe */
+    private static final int SYMBOL_COUNT = 1000;
+    
+    /** The number of threads of the apply stage */
+    @Param({"1", "2", "4"})
+    public int partitionCount;
+    
+    private StockTradeUtil stockTrader;
+    
+    private TradePipeline pipeline;
+    
+    /**
+     * Creates the utility and the pipeline before every iteration
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(BenchmarkData.createStockSymbols(SYMBOL_COUNT)));
+        pipeline = new TradePipeline(stockTrader, partitionCount, TradePipeline.DEFAULT_CAPACITY, new TradePipelineListener() {});
+    }
+    
+    /**
+     * Stops the threads of the pipeline after every iteration
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pipeline.close();
+    }
+    
+    /**
+     * Submits the trades to the pipeline and waits until they have been published
+     * 
+     * @return - the number of trades published
+     */
+    @Benchmark
+    public long pipeline() {
+        long now = System.currentTimeMillis();
+        int random = 1;
+        
+        for (int i = 0; i < TRADES_PER_ITERATION; i++) {
+            random = BenchmarkData.nextRandom(random);
+            pipeline.submit((random & Integer.MAX_VALUE) % SYMBOL_COUNT, now, BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+        }
+        
+        pipeline.flush();
+        return pipeline.getPublishedCount();
+    }
+    
+    /**
+     * Records the trades on the calling thread; the number of partitions is not used
+     * 
+     * @throws BusinessException - if a trade is rejected
+     */
+    @Benchmark
+    public void direct() throws BusinessException {
+        long now = System.currentTimeMillis();
+        int random = 1;
+        
+        for (int i = 0; i < TRADES_PER_ITERATION; i++) {
+            random = BenchmarkData.nextRandom(random);
+            stockTrader.tradeStock((random & Integer.MAX_VALUE) % SYMBOL_COUNT, now, BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+        }
+    }
+}
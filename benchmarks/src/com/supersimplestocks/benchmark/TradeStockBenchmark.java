@@ -0,0 +1,102 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Measures {@link com.supersimplestocks.business.StockTradeUtil#tradeStock(String, int, int, boolean)}
+ * and the overload which finds the stock by its ID.
+ * Every iteration records a fixed batch of trades on a fresh object whose windows hold a given
+ * number of trades, so the heap does not keep growing with the trades of the previous iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = TradeStockBenchmark.TRADES_PER_ITERATION)
+@Measurement(iterations = 10, batchSize = TradeStockBenchmark.TRADES_PER_ITERATION)
+@Fork(1)
+public class TradeStockBenchmark {
+    
+    /** The number of trades recorded by every thread in one iteration */
+    public static final int TRADES_PER_ITERATION = 100000;
+    
+    /** The number of stocks in the universe */
+    @Param({"5", "1000", "10000"})
+    public int symbolCount;
+    
+    /** The number of trades in the window of every stock before the iteration starts */
+    @Param({"16", "256"})
+    public int windowTrades;
+    
+    private String[] stockSymbols;
+    
+    private StockTradeUtil stockTrader;
+    
+    /**
+     * Creates the universe and fills the windows before every iteration
+     * 
+     * @throws BusinessException - if a trade is rejected
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws BusinessException {
+        stockSymbols = BenchmarkData.createStockSymbols(symbolCount);
+        stockTrader = new StockTradeUtil(BenchmarkData.createStockMap(stockSymbols));
+        BenchmarkData.fillWindows(stockTrader, stockSymbols, windowTrades);
+    }
+    
+    /** The stock picked by each thread */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int random = System.identityHashCode(this) | 1;
+        
+        /**
+         * Picks the index of the next stock
+         * 
+         * @param symbolCount - the number of stocks
+         * @return - the index of the stock
+         */
+        public int nextStock(int symbolCount) {
+            random = BenchmarkData.nextRandom(random);
+            return (random & Integer.MAX_VALUE) % symbolCount;
+        }
+    }
+    
+    /**
+     * Records a trade of a random stock
+     * 
+     * @param threadState - the state of the calling thread
+     * @throws BusinessException - if the trade is rejected
+     */
+    @Benchmark
+    public void tradeStock(ThreadState threadState) throws BusinessException {
+        String stockSymbol = stockSymbols[threadState.nextStock(symbolCount)];
+        stockTrader.tradeStock(stockSymbol, BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+    }
+    
+    /**
+     * Records a trade of a random stock, found by its ID
+     * 
+     * @param threadState - the state of the calling thread
+     * @throws BusinessException - if the trade is rejected
+     */
+    @Benchmark
+    public void tradeStockById(ThreadState threadState) throws BusinessException {
+        int stockId = threadState.nextStock(symbolCount);
+        stockTrader.tradeStock(stockId, System.currentTimeMillis(), BenchmarkData.QUANTITY, BenchmarkData.PRICE, true);
+    }
+}
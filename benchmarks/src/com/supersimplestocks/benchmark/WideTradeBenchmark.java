@@ -0,0 +1,81 @@
+package com.supersimplestocks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.supersimplestocks.data.StockTradeWindow;
+
+/**
+ * Compares the cost of the 128 bit running sums of {@link com.supersimplestocks.data.StockTradeWindow}
+ * for trades whose price and quantity fit in an int (the product fits in a long and the high half
+ * is skipped) and for trades whose product needs the full 128 bits. Every trade evicts the oldest
+ * one, so each operation adds one product to the sums and subtracts another.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WideTradeBenchmark {
+    
+    /** The number of trades in the window */
+    private static final int WINDOW_TRADES = 256;
+    
+    /** The size of the trades: int (price 100, quantity 10) or wide (price and quantity around 10^12) */
+    @Param({"int", "wide"})
+    public String tradeSize;
+    
+    private long price;
+    
+    private long quantity;
+    
+    private long timestamp;
+    
+    private StockTradeWindow tradeWindow;
+    
+    /** Fills the window with trades one millisecond apart */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        boolean wide = tradeSize.equals("wide");
+        price = wide ? 1000000000000L : BenchmarkData.PRICE;
+        quantity = wide ? 3000000000000L : BenchmarkData.QUANTITY;
+        
+        tradeWindow = new StockTradeWindow(WINDOW_TRADES - 1, WINDOW_TRADES);
+        for (timestamp = 0; timestamp < WINDOW_TRADES; timestamp++) {
+            tradeWindow.add(timestamp, quantity, price + (timestamp & 7));
+        }
+    }
+    
+    /**
+     * Adds a trade which evicts the oldest trade of the window
+     */
+    @Benchmark
+    public void add() {
+        tradeWindow.add(timestamp, quantity, price + (timestamp & 7));
+        timestamp++;
+    }
+    
+    /**
+     * Adds a trade and reads the Volume Weighted Price
+     * 
+     * @return - the Volume Weighted Price
+     */
+    @Benchmark
+    public double addAndGetVolumeWeightedPrice() {
+        tradeWindow.add(timestamp, quantity, price + (timestamp & 7));
+        return tradeWindow.getVolumeWeightedPrice(timestamp++);
+    }
+}
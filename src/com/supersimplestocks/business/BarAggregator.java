@@ -0,0 +1,315 @@
+package com.supersimplestocks.business;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+import com.supersimplestocks.data.BarSeries;
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.StockSlots;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Aggregates the trades recorded by a {@link StockTradeUtil} into open/high/low/close/volume
+ * bars of every stock, over several intervals at once (for example 1 second, 1 minute and
+ * 5 minutes). Each stock keeps a {@link com.supersimplestocks.data.BarSeries} per interval,
+ * created by its first trade; a bar is completed as soon as a trade or a query passes the end
+ * of its interval, and the completed bars are kept in primitive arrays of a fixed capacity.
+ * A question like the highest price of a stock in the last hour is then answered from the
+ * bars of the hour instead of the trades.
+ * 
+ * The aggregator is created by {@link StockTradeUtil#attachBarAggregator(long[], int)} and
+ * receives the trades recorded after it is attached. It is thread-safe: the series of a stock
+ * are guarded by one lock, so the trades of different stocks are aggregated in parallel.
+ */
+public class BarAggregator {
+    
+    /** The registry of the stocks of the utility, replaced when the stocks are reloaded */
+    private volatile StockRegistry stockRegistry;
+    
+    /** The clock of the utility, which completes the bars when they are queried */
+    private final Clock clock;
+    
+    /** The intervals of the bars in milliseconds, in ascending order */
+    private final long[] intervals;
+    
+    /** The number of completed bars kept per stock and interval */
+    private final int barCapacity;
+    
+    /** The series of every stock indexed by stock ID, one per interval, created by the first trade of the stock */
+    private final StockSlots<BarSeries[]> stockBars;
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockRegistry - the registry of the stocks of the utility
+     * @param clock - the clock of the utility
+     * @param intervals - the intervals of the bars in milliseconds, in any order
+     * @param barCapacity - the number of completed bars kept per stock and interval
+     */
+    BarAggregator(StockRegistry stockRegistry, Clock clock, long[] intervals, int barCapacity) {
+        if (intervals == null || intervals.length == 0) {
+            throw new IllegalArgumentException(Messages.ERR_BAR_INTERVALS_EMPTY);
+        }
+        
+        for (long interval : intervals) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException(Messages.ERR_BAR_INTERVAL_NEGATIVE_ZERO);
+            }
+        }
+        
+        if (!InputValidator.validateIntPositive(barCapacity)) {
+            throw new IllegalArgumentException(Messages.ERR_CAPACITY_NEGATIVE_ZERO);
+        }
+        
+        this.stockRegistry = stockRegistry;
+        this.clock = clock;
+        this.intervals = LongStream.of(intervals).sorted().distinct().toArray();
+        this.barCapacity = barCapacity;
+        this.stockBars = new StockSlots<BarSeries[]>(stockRegistry.size());
+    }
+    
+    /**
+     * Retrieves the intervals of the bars
+     * 
+     * @return - a copy of the intervals in milliseconds, in ascending order
+     */
+    public long[] getIntervals() {
+        return intervals.clone();
+    }
+    
+    /**
+     * Retrieves the number of completed bars kept per stock and interval
+     * 
+     * @return - the number of bars
+     */
+    public int getBarCapacity() {
+        return barCapacity;
+    }
+    
+    /**
+     * Copies the bars of a stock over an interval which start in a time range, including the bar
+     * in progress, to a series with the same interval. It also validates the input parameters; if
+     * the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param interval - the interval of the bars in milliseconds
+     * @param startTime - the start of the range in milliseconds, inclusive
+     * @param endTime - the end of the range in milliseconds, exclusive
+     * @param target - the series which receives the bars; it is cleared first
+     * @return - the number of bars copied, zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public int getBars(String stockSymbol, long interval, long startTime, long endTime, BarSeries target) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        int stockId = stockRegistry.getId(stockSymbol);
+        if (stockId == StockRegistry.NO_STOCK) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
+        }
+        
+        return getBars(stockId, interval, startTime, endTime, target);
+    }
+    
+    /**
+     * Copies the bars of a stock over an interval which start in a time range, including the bar
+     * in progress, to a series with the same interval. It also validates the input parameters; if
+     * the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param interval - the interval of the bars in milliseconds
+     * @param startTime - the start of the range in milliseconds, inclusive
+     * @param endTime - the end of the range in milliseconds, exclusive
+     * @param target - the series which receives the bars; it is cleared first
+     * @return - the number of bars copied, zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public int getBars(int stockId, long interval, long startTime, long endTime, BarSeries target) throws BusinessException {
+        if (!stockRegistry.isValidId(stockId)) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_ID_FOUND + stockId);
+        }
+        
+        int intervalIndex = Arrays.binarySearch(intervals, interval);
+        if (intervalIndex < 0) {
+            throw new BusinessException(Messages.ERR_BAR_INTERVAL_NOT_FOUND + interval);
+        }
+        
+        if (target == null || target.getInterval() != interval) {
+            throw new BusinessException(Messages.ERR_BAR_SERIES_INTERVAL + interval);
+        }
+        
+        BarSeries[] seriesOfStock = stockBars.get(stockId);
+        if (seriesOfStock == null) {
+            target.clear();
+            return 0;
+        }
+        
+        synchronized (seriesOfStock) {
+            BarSeries series = seriesOfStock[intervalIndex];
+            series.complete(clock.millis());
+            return series.copyTo(startTime, endTime, target);
+        }
+    }
+    
+    /**
+     * Replaces the registry of the stocks when the stocks of the utility are reloaded: the bars of
+     * the stocks which are kept are kept, there is a place for the bars of the new stocks, and the
+     * bars of the removed stocks are dropped
+     * 
+     * @param newRegistry - the registry of the reloaded stocks, built from the current registry
+     */
+    void updateStockRegistry(StockRegistry newRegistry) {
+        StockRegistry oldRegistry = stockRegistry;
+        stockBars.ensureCapacity(newRegistry.size());
+        stockRegistry = newRegistry;
+        
+        for (int stockId = 0; stockId < oldRegistry.size(); stockId++) {
+            if (oldRegistry.isValidId(stockId) && !newRegistry.isValidId(stockId)) {
+                stockBars.set(stockId, null);
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the lock which guards the bars of a stock, creating the bars if the stock has not
+     * been traded before. The utility holds it while it adds a trade to the window and the bars of
+     * the stock, so no other trade can fill the bars between the check and the addition.
+     * 
+     * @param stockId - the ID of the stock
+     * @return - the lock of the bars of the stock
+     */
+    Object getLock(int stockId) {
+        return getSeries(stockId);
+    }
+    
+    /**
+     * Checks whether a validated trade can be added to the bars of the stock over every interval
+     * without overflowing the volume of a bar. The bars are not changed.
+     * 
+     * @param stockId - the ID of the stock traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @return - true if the trade can be added
+     */
+    boolean canAdd(int stockId, long timestamp, long quantity) {
+        BarSeries[] seriesOfStock = getSeries(stockId);
+        
+        synchronized (seriesOfStock) {
+            for (BarSeries series : seriesOfStock) {
+                if (!series.canAdd(timestamp, quantity)) {
+                    return false;
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Checks whether several validated trades of a stock can be added to its bars over every
+     * interval, in order, without overflowing the volume of a bar. The bars are not changed.
+     * 
+     * @param stockId - the ID of the stock traded
+     * @param timestamps - the timestamps of the trades in milliseconds
+     * @param quantities - the quantities of shares bought/sold
+     * @param offset - the index of the first trade in the arrays
+     * @param length - the number of trades
+     * @return - true if all the trades can be added
+     */
+    boolean canAddAll(int stockId, long[] timestamps, long[] quantities, int offset, int length) {
+        BarSeries[] seriesOfStock = getSeries(stockId);
+        
+        synchronized (seriesOfStock) {
+            for (BarSeries series : seriesOfStock) {
+                if (!series.canAddAll(timestamps, quantities, offset, length)) {
+                    return false;
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Adds a validated trade to the bars of the stock over every interval. If the volume of a
+     * bar would overflow, an {@link java.lang.IllegalArgumentException} is thrown and none of
+     * the bars is changed.
+     * 
+     * @param stockId - the ID of the stock traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     */
+    void add(int stockId, long timestamp, long quantity, long price) {
+        BarSeries[] seriesOfStock = getSeries(stockId);
+        
+        synchronized (seriesOfStock) {
+            if (!canAdd(stockId, timestamp, quantity)) {
+                throw new IllegalArgumentException(Messages.ERR_BAR_VOLUME_OVERFLOW);
+            }
+            
+            for (BarSeries series : seriesOfStock) {
+                series.add(timestamp, quantity, price);
+            }
+        }
+    }
+    
+    /**
+     * Adds several validated trades of a stock to its bars while holding the lock once. The trades
+     * are taken from the given range of the columnar arrays, in order. If the volume of a bar would
+     * overflow, an {@link java.lang.IllegalArgumentException} is thrown and none of the trades is added.
+     * 
+     * @param stockId - the ID of the stock traded
+     * @param timestamps - the timestamps of the trades in milliseconds
+     * @param quantities - the quantities of shares bought/sold
+     * @param prices - the prices at which the shares were traded
+     * @param offset - the index of the first trade in the arrays
+     * @param length - the number of trades
+     */
+    void addAll(int stockId, long[] timestamps, long[] quantities, long[] prices, int offset, int length) {
+        BarSeries[] seriesOfStock = getSeries(stockId);
+        
+        synchronized (seriesOfStock) {
+            if (!canAddAll(stockId, timestamps, quantities, offset, length)) {
+                throw new IllegalArgumentException(Messages.ERR_BAR_VOLUME_OVERFLOW);
+            }
+            
+            for (int i = offset; i < offset + length; i++) {
+                for (BarSeries series : seriesOfStock) {
+                    series.add(timestamps[i], quantities[i], prices[i]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the series of a stock, creating them if the stock has not been traded before
+     * 
+     * @param stockId - the ID of the stock
+     * @return - the series of the stock, one per interval
+     */
+    private BarSeries[] getSeries(int stockId) {
+        BarSeries[] seriesOfStock = stockBars.get(stockId);
+        
+        if (seriesOfStock == null) {
+            BarSeries[] newSeries = new BarSeries[intervals.length];
+            for (int i = 0; i < intervals.length; i++) {
+                newSeries[i] = new BarSeries(intervals[i], barCapacity);
+            }
+            
+            //Another thread may have created the series in the meantime; the first one wins
+            if (stockBars.compareAndSet(stockId, null, newSeries)) {
+                seriesOfStock = newSeries;
+            } else {
+                seriesOfStock = stockBars.get(stockId);
+            }
+        }
+        
+        return seriesOfStock;
+    }
+}
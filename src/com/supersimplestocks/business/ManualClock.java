@@ -0,0 +1,84 @@
+package com.supersimplestocks.business;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock whose time is set by the application instead of the system clock. It is used by
+ * the tests, which move the time forward instead of waiting for the trades to leave the
+ * 5 minutes window, and by the jobs which replay recorded trades and take the time from
+ * the data. The clock can be read and moved from several threads.
+ */
+public class ManualClock extends Clock {
+    
+    /** The current time in milliseconds, shared with the clocks created by withZone */
+    private final AtomicLong millis;
+    
+    /** The time zone of the clock */
+    private final ZoneId zone;
+    
+    /**
+     * Constructor. Creates a clock in the UTC time zone.
+     * 
+     * @param millis - the initial time in milliseconds since the epoch
+     */
+    public ManualClock(long millis) {
+        this(new AtomicLong(millis), ZoneOffset.UTC);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param millis - the current time in milliseconds
+     * @param zone - the time zone of the clock
+     */
+    private ManualClock(AtomicLong millis, ZoneId zone) {
+        this.millis = millis;
+        this.zone = zone;
+    }
+    
+    /**
+     * Sets the current time.
+     * 
+     * @param millis - the new time in milliseconds since the epoch
+     */
+    public void setMillis(long millis) {
+        this.millis.set(millis);
+    }
+    
+    /**
+     * Moves the current time forward (or backward if the duration is negative).
+     * 
+     * @param duration - the duration by which the time is moved
+     */
+    public void advance(Duration duration) {
+        millis.addAndGet(duration.toMillis());
+    }
+    
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+    
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis.get());
+    }
+    
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+    
+    /**
+     * Returns a clock with the given time zone which shares the time of this clock
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new ManualClock(millis, zone);
+    }
+}
@@ -0,0 +1,382 @@
+package com.supersimplestocks.business;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.StockTradeWindow;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * A trade engine which divides the stocks into shards by the hash of their symbols. Every shard has
+ * its own {@link StockTradeUtil}, holding only its stocks, and its own worker thread, which is the
+ * only thread to record the trades of the shard: the shards share no window, no lock and no counter,
+ * so the trades of different shards are recorded on different cores.
+ * 
+ * A trade is validated on the caller's thread and handed to the worker of its shard through a
+ * preallocated ring; the caller only waits when the ring is full. A trade rejected by its window is
+ * counted by getRejectedCount. The Volume Weighted Stock Price of a stock is read from its shard once
+ * the worker has recorded the trades submitted before the call. The GBCE All Share Index is gathered
+ * from the sums of the logarithms of the prices of all the shards, see
+ * {@link StockTradeUtil#getLogPriceSum()}.
+ * 
+ * The stocks are fixed when the engine is created.
+ */
+public class ShardedTradeEngine implements Closeable {
+    
+    /** The number of trades the ring of a shard holds by default */
+    public static final int DEFAULT_SHARD_CAPACITY = 16384;
+    
+    /** The largest number of trades a worker records before it publishes its progress */
+    private static final int BATCH_SIZE = 1024;
+    
+    private final Clock clock;
+    
+    private final Shard[] shards;
+    
+    /** Whether trades are accepted */
+    private volatile boolean running = true;
+    
+    /**
+     * Constructor. Uses the system clock and rings of the default capacity.
+     * 
+     * @param stockMap - the stocks, by symbol
+     * @param shardCount - the number of shards
+     */
+    public ShardedTradeEngine(Map<String, Stock> stockMap, int shardCount) {
+        this(stockMap, Clock.systemUTC(), shardCount, DEFAULT_SHARD_CAPACITY);
+    }
+    
+    /**
+     * Constructor. Divides the stocks into the shards and starts the worker threads, daemon threads.
+     * It also validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockMap - the stocks, by symbol
+     * @param clock - the clock which gives the time of the trades and of the windows
+     * @param shardCount - the number of shards
+     * @param shardCapacity - the number of trades the ring of every shard holds; a power of two
+     */
+    public ShardedTradeEngine(Map<String, Stock> stockMap, Clock clock, int shardCount, int shardCapacity) {
+        if (stockMap == null || clock == null || shardCount <= 0) {
+            throw new IllegalArgumentException(Messages.ERR_ENGINE_PARAMETERS);
+        }
+        
+        if (shardCapacity <= 0 || Integer.bitCount(shardCapacity) != 1) {
+            throw new IllegalArgumentException(Messages.ERR_SHARD_CAPACITY_INCORRECT);
+        }
+        
+        List<Map<String, Stock>> shardStockMaps = new ArrayList<Map<String, Stock>>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            shardStockMaps.add(new HashMap<String, Stock>());
+        }
+        
+        for (Map.Entry<String, Stock> entry : stockMap.entrySet()) {
+            shardStockMaps.get(getShardIndex(entry.getKey(), shardCount)).put(entry.getKey(), entry.getValue());
+        }
+        
+        this.clock = clock;
+        this.shards = new Shard[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards[shard] = new Shard(new StockTradeUtil(shardStockMaps.get(shard), clock), shardCapacity, "trade-shard-" + shard);
+        }
+    }
+    
+    /**
+     * Finds the shard of a stock: the symbols are spread over the shards by their hash
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param shardCount - the number of shards
+     * @return - the index of the shard
+     */
+    public static int getShardIndex(String stockSymbol, int shardCount) {
+        int hash = stockSymbol.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ hash >>> 16, shardCount);
+    }
+    
+    /**
+     * Retrieves the number of shards
+     * 
+     * @return - the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    /**
+     * Retrieves the utility of a shard, which holds the stocks of the shard only; its trades must be
+     * made through the engine
+     * 
+     * @param shard - the index of the shard
+     * @return - the utility of the shard
+     */
+    public StockTradeUtil getShard(int shard) {
+        return shards[shard].stockTrader;
+    }
+    
+    /**
+     * Performs a stock trade (buy or sell) at the current time of the clock. It also validates the
+     * input parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown. If the engine is closed, an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockSymbol - the stock to be traded
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    public void tradeStock(String stockSymbol, long quantity, long price, boolean isBuy) throws BusinessException {
+        tradeStock(stockSymbol, clock.millis(), quantity, price, isBuy);
+    }
+    
+    /**
+     * Performs a stock trade (buy or sell) made at the given time: the trade is validated and handed
+     * to the worker of the shard of the stock. If the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown. If the engine is closed, an
+     * {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockSymbol - the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    public void tradeStock(String stockSymbol, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        Shard shard = findShard(stockSymbol);
+        int stockId = shard.stockTrader.getStockId(stockSymbol);
+        
+        if (!InputValidator.validateQuantity(quantity)) {
+            throw new BusinessException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validatePrice(price)) {
+            throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validateTimestamp(timestamp)) {
+            throw new BusinessException(Messages.ERR_TIMESTAMP_NEGATIVE);
+        }
+        
+        if (!running) {
+            throw new IllegalStateException(Messages.ERR_ENGINE_CLOSED);
+        }
+        
+        shard.submit(stockId, timestamp, quantity, price, isBuy);
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price based on trades in past 5 minutes, in the shard of
+     * the stock once the trades submitted before the call have been recorded. It also validates the
+     * input parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException
+     */
+    public double getVolumeWeightedStockPrice(String stockSymbol) throws BusinessException {
+        Shard shard = findShard(stockSymbol);
+        shard.flush();
+        
+        return shard.stockTrader.getVolumeWeightedStockPrice(stockSymbol);
+    }
+    
+    /**
+     * Calculates the GBCE All Share Index of the stocks of all the shards, once the trades submitted
+     * before the call have been recorded: the sums of the logarithms of the prices of the shards are
+     * gathered and added together
+     * 
+     * @return - the GBCE All Share Index, zero if no stock has been traded
+     */
+    public double getGBCEAllShareIndex() {
+        flush();
+        
+        long logPriceSum = 0;
+        long tradedStockCount = 0;
+        for (Shard shard : shards) {
+            logPriceSum += shard.stockTrader.getLogPriceSum();
+            tradedStockCount += shard.stockTrader.getTradedStockCount();
+        }
+        
+        return tradedStockCount > 0 ? Math.exp(logPriceSum / StockTradeWindow.LOG_PRICE_SCALE / tradedStockCount) : 0;
+    }
+    
+    /**
+     * Retrieves the number of trades which have been rejected by the window of their stock, for
+     * example because the quantity traded in the window would overflow
+     * 
+     * @return - the number of trades rejected
+     */
+    public long getRejectedCount() {
+        long rejectedCount = 0;
+        for (Shard shard : shards) {
+            rejectedCount += shard.rejectedCount;
+        }
+        
+        return rejectedCount;
+    }
+    
+    /**
+     * Waits until the trades submitted before the call have been recorded by all the shards
+     */
+    public void flush() {
+        for (Shard shard : shards) {
+            shard.flush();
+        }
+    }
+    
+    /**
+     * Records the trades submitted and stops the worker threads; the trades submitted afterwards
+     * throw an {@link java.lang.IllegalStateException}
+     */
+    @Override
+    public void close() {
+        running = false;
+        
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+    
+    /**
+     * Finds the shard of a stock. It also validates the input parameters; if the validation fails,
+     * a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the shard which holds the stock
+     * @throws BusinessException
+     */
+    private Shard findShard(String stockSymbol) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        return shards[getShardIndex(stockSymbol, shards.length)];
+    }
+    
+    /**
+     * A shard: the utility of its stocks, the ring of the trades submitted and the worker thread
+     * which records them
+     */
+    private static class Shard {
+        
+        private final StockTradeUtil stockTrader;
+        
+        /** The trades submitted, whose slots are released once the worker has recorded or rejected them */
+        private final TradeRing ring;
+        
+        /** The number of trades rejected, written by the worker */
+        private volatile long rejectedCount;
+        
+        /** Whether the worker stops once it has no more trades to record */
+        private volatile boolean stopping;
+        
+        private final Thread worker;
+        
+        /**
+         * Constructor. Starts the worker thread.
+         * 
+         * @param stockTrader - the utility of the stocks of the shard
+         * @param capacity - the number of trades the ring holds; a power of two
+         * @param name - the name of the worker thread
+         */
+        Shard(StockTradeUtil stockTrader, int capacity, String name) {
+            this.stockTrader = stockTrader;
+            this.ring = new TradeRing(capacity);
+            this.worker = new Thread(this::record, name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        
+        /**
+         * Writes a validated trade into the next slot of the ring, waiting while the ring is full
+         * 
+         * @param stockId - the ID of the stock in the shard
+         * @param timestamp - the time the trade was made in milliseconds since the epoch
+         * @param quantity - the quantity of shares that were traded
+         * @param price - the price at which the stock was traded
+         * @param isBuy - whether the stock is bought or sold
+         */
+        void submit(int stockId, long timestamp, long quantity, long price, boolean isBuy) {
+            long sequence = ring.claim();
+            
+            int slot = ring.slot(sequence);
+            ring.stockIds[slot] = stockId;
+            ring.timestamps[slot] = timestamp;
+            ring.quantities[slot] = quantity;
+            ring.prices[slot] = price;
+            ring.buys[slot] = isBuy;
+            
+            ring.publish(sequence);
+        }
+        
+        /**
+         * Waits until the trades submitted before the call have been recorded
+         */
+        void flush() {
+            ring.awaitReleased(worker);
+        }
+        
+        /**
+         * Records the trades submitted and stops the worker thread
+         */
+        void close() {
+            flush();
+            stopping = true;
+            LockSupport.unpark(worker);
+            
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * The loop of the worker thread: records the trades submitted, in order, in batches
+         */
+        private void record() {
+            long next = 0;
+            
+            for (int idleCount = 0; true; idleCount++) {
+                long end = ring.getPublishedEnd(next, BATCH_SIZE);
+                
+                if (end == next) {
+                    if (stopping) {
+                        return;
+                    }
+                    
+                    TradeRing.idle(idleCount);
+                    continue;
+                }
+                
+                long rejected = 0;
+                for (long sequence = next; sequence < end; sequence++) {
+                    int slot = ring.slot(sequence);
+                    
+                    try {
+                        stockTrader.tradeStock(ring.stockIds[slot], ring.timestamps[slot], ring.quantities[slot], ring.prices[slot], ring.buys[slot]);
+                    } catch (BusinessException ex) {
+                        rejected++;
+                    }
+                }
+                
+                if (rejected > 0) {
+                    rejectedCount += rejected;
+                }
+                
+                ring.release(end);
+                next = end;
+                idleCount = -1;
+            }
+        }
+    }
+}
@@ -1,20 +1,37 @@
 package com.supersimplestocks.business;
 
 import java.io.Console;
-import java.util.Arrays;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import com.supersimplestocks.data.OrderFlow;
+import com.supersimplestocks.data.Stock;
 import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.StockRegistry;
 import com.supersimplestocks.data.resources.Messages;
 import com.supersimplestocks.exceptions.BusinessException;
 import com.supersimplestocks.exceptions.TestFailedException;
+import com.supersimplestocks.loader.StockFileLoader;
 import com.supersimplestocks.logging.Logger;
+import com.supersimplestocks.persistence.TradeJournal;
 import com.supersimplestocks.test.StockTradeTest;
 
 /**
  * A console-based interface that allows the user to execute operations on the stock market, like
  * retrieving data (dividend yield, price/earnings ratio, Volume Weighted Stock Price), to buy
- * and sell shares and to calculate the All Share Index.
+ * and sell shares and to calculate the All Share Index. If the path of a journal file is given
+ * as an argument, the trades are appended to the journal, and the trades of the last 5 minutes
+ * are replayed from it when the application is started again. If the path of a stock file
+ * (ending in .csv, see {@link com.supersimplestocks.loader.StockFileLoader}) is given, the stocks
+ * are loaded from it instead of the sample stocks, and the file is checked every few seconds and
+ * loaded again when it is modified, while the stocks are traded.
  */
 public class StockTradeExec {
     
@@ -23,30 +40,155 @@ public class StockTradeExec {
     private static final String BUY = "b";
     private static final String SELL = "s";
     private static final String VOL_WGH = "v";
+    private static final String VOL_WGH_WINDOWS = "w";
+    private static final String ORDER_FLOW = "f";
     private static final String ALL_SHARE_INDEX = "a";
+    private static final String METRICS = "m";
     private static final String TEST = "t";
     private static final String HELP = "h";
     private static final String QUIT = "q";
     private static final String YES = "y";
     private static final String NO = "n";
     
+    /** The number of trades after which the journal is forced to the disk */
+    private static final int JOURNAL_SYNC_INTERVAL = 1;
+    
+    /** The windows over which the Volume Weighted Stock Price is kept: 1, 5, 15 and 60 minutes */
+    private static final long[] WINDOW_LENGTHS = {60 * 1000, 5 * 60 * 1000, 15 * 60 * 1000, 60 * 60 * 1000};
+    
+    /** The number of seconds between two checks of the stock file */
+    private static final long STOCK_RELOAD_INTERVAL = 5;
+    
+    /** The name under which the metrics are registered over JMX */
+    private static final String METRICS_NAME = "console";
+    
     private StockTradeUtil stockTradeUtil;
     
+    private TradeJournal tradeJournal;
+    
     /**
      * Main method, used to start the application.
      * 
-     * @param args - method arguments
+     * @param args - method arguments: the optional path of the trade journal and the optional path
+     *        of the stock file, which ends in .csv
      */
     public static void main(String[] args) {
         StockTradeExec stockRunner = new StockTradeExec();
+        String journalPath = null;
+        
+        for (String arg : args) {
+            if (arg.endsWith(".csv")) {
+                stockRunner.loadStocks(arg);
+            } else {
+                journalPath = arg;
+            }
+        }
+        
+        //The journal is attached to the utility of the loaded stocks
+        if (journalPath != null) {
+            stockRunner.openJournal(journalPath);
+        }
+        
+        stockRunner.attachMetrics();
         stockRunner.run();
+        stockRunner.closeJournal();
     }
     
     /**
      * Constructor
      */
     public StockTradeExec() {
-        stockTradeUtil = new StockTradeUtil(StockData.stockMap);
+        stockTradeUtil = new StockTradeUtil(StockData.stockMap, Clock.systemUTC(), WINDOW_LENGTHS);
+    }
+    
+    /**
+     * Loads the stocks of a stock file, which replace the sample stocks, and schedules the checks
+     * which load the file again when it is modified. If the file cannot be loaded, the error is
+     * displayed and the application runs with the sample stocks.
+     * 
+     * @param stockPath - the path of the stock file
+     */
+    public void loadStocks(String stockPath) {
+        StockFileLoader stockLoader = new StockFileLoader(Paths.get(stockPath));
+        
+        try {
+            long start = System.nanoTime();
+            Map<String, Stock> stockMap = stockLoader.load();
+            stockTradeUtil = new StockTradeUtil(stockMap, Clock.systemUTC(), WINDOW_LENGTHS);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            
+            Logger.log(Messages.MSG_STOCKS_LOADED, new String[] {Integer.toString(stockMap.size()), stockPath, Long.toString(elapsed)});
+        } catch (IOException | BusinessException ex) {
+            Logger.error(ex.getMessage());
+            return;
+        }
+        
+        ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "stock-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        StockTradeUtil stockTrader = stockTradeUtil;
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                if (stockLoader.reloadIfModified(stockTrader)) {
+                    Logger.log(Messages.MSG_STOCKS_RELOADED, new String[] {Integer.toString(stockTrader.getStockRegistry().getStockCount()), stockPath});
+                }
+            } catch (IOException | BusinessException ex) {
+                Logger.error(ex.getMessage());
+            }
+        }, STOCK_RELOAD_INTERVAL, STOCK_RELOAD_INTERVAL, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Opens the trade journal and replays its last 5 minutes of trades. If the journal cannot
+     * be opened, the error is displayed and the application runs without a journal.
+     * 
+     * @param journalPath - the path of the journal file
+     */
+    public void openJournal(String journalPath) {
+        try {
+            TradeJournal journal = new TradeJournal(Paths.get(journalPath), JOURNAL_SYNC_INTERVAL);
+            
+            try {
+                long replayedCount = stockTradeUtil.attachJournal(journal);
+                tradeJournal = journal;
+                Logger.log(Messages.MSG_JOURNAL_REPLAYED, new String[] {Long.toString(replayedCount), journalPath});
+            } catch (BusinessException ex) {
+                journal.close();
+                Logger.error(ex.getMessage());
+            }
+        } catch (IOException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Attaches the metrics to the utility and registers them over JMX. If they cannot be
+     * registered, the error is displayed and the metrics are still shown by the menu.
+     */
+    public void attachMetrics() {
+        try {
+            stockTradeUtil.attachMetrics(TradeMetrics.DEFAULT_SAMPLE_INTERVAL).registerMBean(METRICS_NAME);
+        } catch (BusinessException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Forces the trade journal to the disk and closes it, if a journal was opened
+     */
+    public void closeJournal() {
+        if (tradeJournal == null) {
+            return;
+        }
+        
+        try {
+            tradeJournal.close();
+        } catch (IOException ex) {
+            Logger.error(ex.getMessage());
+        }
     }
     
     /**
@@ -79,9 +221,18 @@ public class StockTradeExec {
                 case VOL_WGH:
                     calcVolWeighStockPrice();
                     break;
+                case VOL_WGH_WINDOWS:
+                    calcVolWeighStockPrices();
+                    break;
+                case ORDER_FLOW:
+                    calcOrderFlow();
+                    break;
                 case ALL_SHARE_INDEX:
                     calcAllShareIndex();
                     break;
+                case METRICS:
+                    showMetrics();
+                    break;
                 case TEST:
                     runTests();
                     break;
@@ -115,10 +266,10 @@ public class StockTradeExec {
      */
     private void calcDividendYield() throws BusinessException {
         String stockSymbol = readStockSymbol();
-        int price = readPositiveInt(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
+        long price = readPositiveLong(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
         double dividendYield = stockTradeUtil.getDividendYield(stockSymbol, price);
         
-        Logger.log(Messages.MSG_STOCK_DIVIDEND_YIELD, new String[] {stockSymbol, Double.toString(dividendYield), Integer.toString(price)});
+        Logger.log(Messages.MSG_STOCK_DIVIDEND_YIELD, new String[] {stockSymbol, Double.toString(dividendYield), Long.toString(price)});
     }
     
     /**
@@ -133,10 +284,10 @@ public class StockTradeExec {
      */
     private void calcPERatio() throws BusinessException {
         String stockSymbol = readStockSymbol();
-        int price = readPositiveInt(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
+        long price = readPositiveLong(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
         double dividendYield = stockTradeUtil.getPERatio(stockSymbol, price);
         
-        Logger.log(Messages.MSG_PRICE_EARNINGS_RATIO, new String[] {stockSymbol, Double.toString(dividendYield), Integer.toString(price)});
+        Logger.log(Messages.MSG_PRICE_EARNINGS_RATIO, new String[] {stockSymbol, Double.toString(dividendYield), Long.toString(price)});
     }
     
     /**
@@ -150,11 +301,11 @@ public class StockTradeExec {
      */
     private void buy() throws BusinessException {
         String stockSymbol = readStockSymbol();
-        int price = readPositiveInt(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
-        int quantity = readPositiveInt(Messages.MSG_ENTER_QUANTITY, Messages.ERR_QUANTITY_FORMAT);
+        long price = readPositiveLong(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
+        long quantity = readPositiveLong(Messages.MSG_ENTER_QUANTITY, Messages.ERR_QUANTITY_FORMAT);
         
         stockTradeUtil.tradeStock(stockSymbol, quantity, price, true);
-        Logger.log(Messages.MSG_BUY_STOCK, new String[] {Integer.toString(quantity), stockSymbol, Integer.toString(price)});
+        Logger.log(Messages.MSG_BUY_STOCK, new String[] {Long.toString(quantity), stockSymbol, Long.toString(price)});
     }
     
     /**
@@ -168,11 +319,11 @@ public class StockTradeExec {
      */
     private void sell() throws BusinessException {
         String stockSymbol = readStockSymbol();
-        int price = readPositiveInt(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
-        int quantity = readPositiveInt(Messages.MSG_ENTER_QUANTITY, Messages.ERR_QUANTITY_FORMAT);
+        long price = readPositiveLong(Messages.MSG_ENTER_PRICE, Messages.ERR_PRICE_FORMAT);
+        long quantity = readPositiveLong(Messages.MSG_ENTER_QUANTITY, Messages.ERR_QUANTITY_FORMAT);
         
         stockTradeUtil.tradeStock(stockSymbol, quantity, price, false);
-        Logger.log(Messages.MSG_SELL_STOCK, new String[] {Integer.toString(quantity), stockSymbol, Integer.toString(price)});
+        Logger.log(Messages.MSG_SELL_STOCK, new String[] {Long.toString(quantity), stockSymbol, Long.toString(price)});
     }
     
     /**
@@ -192,6 +343,42 @@ public class StockTradeExec {
         Logger.log(Messages.MSG_VOL_WEIGH_PRICE, new String[] {stockSymbol, Double.toString(volWeighStockPrice)});
     }
     
+    /**
+     * This method calculates the Volume Weighted Stock Price for a given stock over each of the
+     * windows (1, 5, 15 and 60 minutes) at once. It reads and validates the stock symbol before
+     * doing any calculations. The results of the operation are displayed on the command prompt.
+     * 
+     * @throws BusinessException - as an extra precaution if the StockTradeUtil.getVolumeWeightedStockPrices
+     * method is called with bad data (here it should not happen, as the data is validated in the
+     * calcVolWeighStockPrices() method)
+     */
+    private void calcVolWeighStockPrices() throws BusinessException {
+        String stockSymbol = readStockSymbol();
+        double[] volWeighStockPrices = stockTradeUtil.getVolumeWeightedStockPrices(stockSymbol);
+        long[] windowLengths = stockTradeUtil.getWindowLengths();
+        
+        for (int i = 0; i < windowLengths.length; i++) {
+            Logger.log(Messages.MSG_VOL_WEIGH_PRICES, new String[] {stockSymbol, Long.toString(windowLengths[i] / 60000), Double.toString(volWeighStockPrices[i])});
+        }
+    }
+    
+    /**
+     * This method calculates the buy-side and sell-side Volume Weighted Stock Prices and quantities
+     * and the order-flow imbalance for a given stock. It reads and validates the stock symbol before
+     * doing any calculations. The results of the operation are displayed on the command prompt.
+     * 
+     * @throws BusinessException - as an extra precaution if the StockTradeUtil.getOrderFlow
+     * method is called with bad data (here it should not happen, as the data is validated in the
+     * calcOrderFlow() method)
+     */
+    private void calcOrderFlow() throws BusinessException {
+        String stockSymbol = readStockSymbol();
+        OrderFlow orderFlow = stockTradeUtil.getOrderFlow(stockSymbol);
+        
+        Logger.log(Messages.MSG_ORDER_FLOW, new String[] {Long.toString(orderFlow.getBuyQuantity()), stockSymbol, Double.toString(orderFlow.getBuyVolumeWeightedPrice()),
+                Long.toString(orderFlow.getSellQuantity()), Double.toString(orderFlow.getSellVolumeWeightedPrice()), Double.toString(orderFlow.getImbalance())});
+    }
+    
     /**
      * This method calculates the All Share Index, using the geometric mean of the Volume Weighted Stock Price
      * for all stocks. The result of the operation is displayed on the command prompt.
@@ -204,6 +391,17 @@ public class StockTradeExec {
         Logger.log(Messages.MSG_ALL_SHARE_INDEX, new String[] {Double.toString(stockTradeUtil.getGBCEAllShareIndex())});
     }
     
+    /**
+     * Displays the number of calls and the latencies of the operations, and the occupancy of the
+     * windows, if the metrics are attached
+     */
+    private void showMetrics() {
+        TradeMetrics metrics = stockTradeUtil.getMetrics();
+        if (metrics != null) {
+            metrics.dump();
+        }
+    }
+    
     /**
      * Runs the unit tests. If any of the tests fails, throws a {@link com.simplestocks.exceptions.TestFailedException}
      * 
@@ -213,15 +411,38 @@ public class StockTradeExec {
         StockTradeTest stockTest = new StockTradeTest();
         
         Logger.log(Messages.MSG_TESTS_START);
+        stockTest.testTradeWindow();
+        stockTest.testMultiWindow();
+        stockTest.testBarAggregation();
+        stockTest.testOrderFlow();
+        stockTest.testWideTrades();
         stockTest.testBusinessLogic();
+        stockTest.testAllShareIndex();
+        stockTest.testStockIds();
+        stockTest.testPriceGrid();
+        stockTest.testStockData();
+        stockTest.testStockUniverse();
+        stockTest.testTradeGateway();
+        stockTest.testTradeMetrics();
+        stockTest.testAsyncLogger();
+        stockTest.testTradePipeline();
+        stockTest.testShardedTradeEngine();
+        stockTest.testClusterRouter();
+        stockTest.testTradeJournal();
+        stockTest.testTradeBatch();
+        stockTest.testTradeFileLoader();
+        stockTest.testTradeReplay();
         stockTest.testExceptionProcessing();
+        stockTest.testConcurrentTrading();
+        stockTest.testTradeAllocation();
         
         Logger.log(Messages.MSG_TESTS_FINISH);
     }
     
     /**
-     * Reads the stock symbol from the command prompt and compares it against the set of predefined
-     * stock symbols; if the stock symbol is not recognized, the user is prompted to enter it again.
+     * Reads the stock symbol from the command prompt and compares it against the symbols of the
+     * stocks which are traded; if the stock symbol is not recognized, the user is prompted to enter
+     * it again.
      * 
      * @return - the stock symbol
      */
@@ -230,11 +451,18 @@ public class StockTradeExec {
         
         Console console = System.console();
         String selection = console.readLine().trim();
-        Set<String> stockSet = StockData.stockMap.keySet();
-        String strStocks = Arrays.toString(stockSet.toArray(new String[stockSet.size()]));
         
-        while (!stockSet.contains(selection)) {
-            Logger.promptInput(Messages.ERR_STOCK_NOT_RECOGNIZED + strStocks + ": ");
+        while (stockTradeUtil.getStockRegistry().getId(selection) == StockRegistry.NO_STOCK) {
+            StockRegistry stockRegistry = stockTradeUtil.getStockRegistry();
+            List<String> stockSymbols = new ArrayList<String>();
+            
+            for (int stockId = 0; stockId < stockRegistry.size(); stockId++) {
+                if (stockRegistry.isValidId(stockId)) {
+                    stockSymbols.add(stockRegistry.getSymbol(stockId));
+                }
+            }
+            
+            Logger.promptInput(Messages.ERR_STOCK_NOT_RECOGNIZED + stockSymbols + ": ");
             selection = console.readLine().trim();
         }
         
@@ -242,25 +470,25 @@ public class StockTradeExec {
     }
     
     /**
-     * This method reads a positive integer from the command line. If the user enters a wrong
+     * This method reads a positive long integer from the command line. If the user enters a wrong
      * value, he/she is prompted to enter data again.
      * 
      * @param prompt - the prompt, first displayed to the user
      * @param errorPrompt - the prompt, displayed to the user, if he/she enters bad data
-     * @return - the positive integer that was entered
+     * @return - the positive long integer that was entered
      */
-    private int readPositiveInt(String prompt, String errorPrompt) {
+    private long readPositiveLong(String prompt, String errorPrompt) {
         Logger.promptInput(prompt);
         
         Console console = System.console();
         String selection = console.readLine().trim();
         
-        while (!StockTradeUtil.checkStrPositiveInt(selection)) {
+        while (!StockTradeUtil.checkStrPositiveLong(selection)) {
             Logger.promptInput(errorPrompt);
             selection = console.readLine().trim();
         }
         
-        return Integer.parseInt(selection);
+        return Long.parseLong(selection);
     }
     
     /**
@@ -324,6 +552,9 @@ public class StockTradeExec {
                 || strTrim.equals(SELL)
                 || strTrim.equals(TEST)
                 || strTrim.equals(VOL_WGH)
-                || strTrim.equals(ALL_SHARE_INDEX);
+                || strTrim.equals(VOL_WGH_WINDOWS)
+                || strTrim.equals(ORDER_FLOW)
+                || strTrim.equals(ALL_SHARE_INDEX)
+                || strTrim.equals(METRICS);
     }
 }
@@ -1,42 +1,137 @@
 package com.supersimplestocks.business;
 
-import java.util.Date;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
 
+import com.supersimplestocks.data.OrderFlow;
 import com.supersimplestocks.data.Stock;
 import com.supersimplestocks.data.StockData;
-import com.supersimplestocks.data.StockTrade;
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.StockSlots;
+import com.supersimplestocks.data.StockTradeWindow;
+import com.supersimplestocks.data.TradeOperation;
 import com.supersimplestocks.data.resources.Messages;
 import com.supersimplestocks.data.validation.InputValidator;
 import com.supersimplestocks.exceptions.BusinessException;
 import com.supersimplestocks.logging.Logger;
+import com.supersimplestocks.persistence.TradeJournal;
 
 /**
  * A class that executes business operations (buy, sell) on the stock exchange
  * and retrieves information about the stocks such as dividend yield, P/E ratio,
  * Volume Weighted Stock Price for a given stock based on trades in the 5 minutes
  * and All Share Index.
+ * 
+ * The class is thread-safe: the trades of each stock are kept in their own
+ * {@link com.supersimplestocks.data.StockTradeWindow}, so trades of different stocks
+ * are recorded in parallel, and the Volume Weighted Stock Price and the All Share
+ * Index are calculated with optimistic reads that never wait for a trade. A trade
+ * can wait for a reader only while the reader evicts the expired trades of its window,
+ * or, for the first trade of a stock, while the All Share Index evicts expired trades.
+ * 
+ * The All Share Index is kept in log space: every window adds the changes of the
+ * logarithm of its Volume Weighted Stock Price to a shared sum, so the index is the
+ * exponent of the average logarithm and is read without visiting every stock or
+ * multiplying the prices together, which would overflow for a large number of stocks.
+ * 
+ * The time of the trades and of the 5 minutes window is read from a {@link java.time.Clock},
+ * the system clock by default. A {@link com.supersimplestocks.business.ManualClock} lets the
+ * tests and the replay jobs move the time forward instead of waiting.
+ * 
+ * Every stock gets a dense integer ID when the utility is created (see
+ * {@link com.supersimplestocks.data.StockRegistry}); the windows are kept in an array
+ * indexed by this ID. The methods which accept a stock symbol resolve it once, while the
+ * overloads which accept the ID find the stock and its window by array indexing only.
+ * 
+ * The trades can optionally be appended to a {@link com.supersimplestocks.persistence.TradeJournal}.
+ * When the journal is attached, the trades of its tail which are still in the 5 minutes window
+ * (or the longest window) are replayed into the windows, so the state is rebuilt after a restart.
+ * 
+ * The dividend yields and P/E ratios of a grid of prices are calculated in one call by
+ * getDividendYields and getPERatios (or getAllDividendYields and getAllPERatios for every
+ * stock), from the dividends kept by the registry.
+ * 
+ * The registry is an immutable snapshot of the reference data of the stocks. updateStockData
+ * replaces it as a whole with the data of the same symbols, keeping the windows, so a reader
+ * never sees the dividends of two versions at once. reloadStockData also adds and removes
+ * stocks while they are traded: the stocks which are kept keep their IDs and their windows,
+ * the windows of the new stocks are created by their first trade, and the removed stocks
+ * are taken out of the All Share Index.
+ * 
+ * The windows also keep the side (buy or sell) of every trade, so the buy-side and sell-side
+ * Volume Weighted Stock Prices and quantities and the order-flow imbalance of a stock are read
+ * with getOrderFlow, in constant time like the Volume Weighted Stock Price.
+ * 
+ * The trades can also be aggregated into open/high/low/close/volume bars by a {@link BarAggregator}
+ * attached with attachBarAggregator.
+ * 
+ * The calls of the trades, the Volume Weighted Stock Price, the All Share Index, the dividend yield
+ * and the P/E ratio can be counted and timed by {@link TradeMetrics} attached with attachMetrics,
+ * which also report the occupancy of the windows; the calls which fail are not counted.
+ * 
+ * Apart from the 5 minutes window, the Volume Weighted Stock Price can be kept over other windows
+ * (for example 1, 15 and 60 minutes) given to the constructor. All the windows of a stock share
+ * the same buffer of trades and are updated by the same trade, and the prices of all the windows
+ * are read at once with getVolumeWeightedStockPrices. The 5 minutes window is always kept: it
+ * gives the result of getVolumeWeightedStockPrice and the All Share Index.
  */
 public class StockTradeUtil {
     
-    private Map<Stock, List<StockTrade>> tradeMap = new HashMap<Stock, List<StockTrade>>();
-    private Map<String, Stock> stockMap;
+    /** The length of the window used to calculate the Volume Weighted Stock Price (5 minutes) */
+    public static final long VOL_WEIGH_WINDOW = 5 * 60 * 1000;
+    
+    /** The lengths of the windows of every stock in milliseconds, in ascending order */
+    private final long[] windowLengths;
+    
+    /** The index of the 5 minutes window in the lengths */
+    private final int mainWindow;
+    
+    /** The IDs of the stocks used to index the windows and the snapshot of their reference data, replaced as a whole */
+    private volatile StockRegistry stockRegistry;
+    
+    /** The windows of the stocks indexed by stock ID, created by the first trade of each stock */
+    private final StockSlots<StockTradeWindow> tradeWindows;
+    
+    /** The window put in the place of the window of a removed stock, which receives the trades made while it was being removed */
+    private final StockTradeWindow removedStockWindow;
+    
+    /** The number of stocks which have been traded */
+    private AtomicInteger tradedStockCount = new AtomicInteger();
+    
+    private Clock clock;
+    
+    /** The journal to which the trades are appended, null if the trades are not persisted */
+    private volatile TradeJournal tradeJournal;
+    
+    /** The aggregator of the trades into bars, null if no bars are kept */
+    private volatile BarAggregator barAggregator;
+    
+    /** The counters and latencies of the operations, null if they are not measured */
+    private volatile TradeMetrics tradeMetrics;
+    
+    /** The sum of the fixed point logarithms of the Volume Weighted Stock Prices of the traded stocks */
+    private LongAdder logPriceSum = new LongAdder();
+    
+    /** The windows of the traded stocks, ordered by the time at which their oldest trade expires */
+    private PriorityQueue<WindowExpiry> expiryQueue = new PriorityQueue<WindowExpiry>();
     
     /**
      * Main method to run the basic class functionality.
      * 
      * @param args - method arguments
      * @throws BusinessException - if there is a business problem like a bad user input
-     * @throws InterruptedException - if the current thread is interrupted while waiting for notification
      */
-    public static void main(String[] args) throws BusinessException, InterruptedException {
-        StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap);
+    public static void main(String[] args) throws BusinessException {
+        ManualClock clock = new ManualClock(System.currentTimeMillis());
+        StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, clock);
         double dividendYield = stockTrader.getDividendYield(StockData.TEA, 50);
         Logger.log(Messages.MSG_STOCK_DIVIDEND_YIELD, new String[] {StockData.TEA, Double.toString(dividendYield), "50"});
         
@@ -73,10 +168,10 @@ public class StockTradeUtil {
         double allShareIndex = stockTrader.getGBCEAllShareIndex();
         Logger.log(Messages.MSG_ALL_SHARE_INDEX, new String[] {Double.toString(allShareIndex)});
         
-        //Sleep 6 minutes to ensure that in the subsequent transactions the Volume Weighted Stock Price is calculated
-        //based on transactions only from the last 5 minutes
-        Logger.log(Messages.MSG_SLEEP);
-        Thread.sleep(6 * 60 * 1000);
+        //Move the clock 6 minutes forward to ensure that in the subsequent transactions the Volume Weighted Stock Price
+        //is calculated based on transactions only from the last 5 minutes
+        Logger.log(Messages.MSG_ADVANCE_CLOCK);
+        clock.advance(Duration.ofMinutes(6));
         
         stockTrader.tradeStock(StockData.TEA, 10, 80, false);
         Logger.log(Messages.MSG_SELL_STOCK, new String[] {"10", StockData.TEA, "80"});
@@ -106,7 +201,97 @@ public class StockTradeUtil {
      * @param stockMap - the stock data sample that will be used while running the application
      */
     public StockTradeUtil(Map<String, Stock> stockMap) {
-        this.stockMap = stockMap;
+        this(stockMap, Clock.systemUTC());
+    }
+    
+    /**
+     * Constructor. Accepts a map that contains sample data for several stocks to be used in the stock trade
+     * and the clock which gives the time of the trades. If the clock is null, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockMap - the stock data sample that will be used while running the application
+     * @param clock - the clock which gives the current time
+     */
+    public StockTradeUtil(Map<String, Stock> stockMap, Clock clock) {
+        this(stockMap, clock, new long[] {VOL_WEIGH_WINDOW});
+    }
+    
+    /**
+     * Constructor. Accepts a map that contains sample data for several stocks to be used in the stock trade,
+     * the clock which gives the time of the trades and the lengths of the windows over which the Volume
+     * Weighted Stock Price is kept, in any order; the 5 minutes window is added if it is not among them.
+     * If the clock is null or a length is not positive, an {@link java.lang.IllegalArgumentException}
+     * is thrown.
+     * 
+     * @param stockMap - the stock data sample that will be used while running the application
+     * @param clock - the clock which gives the current time
+     * @param windowLengths - the lengths of the windows in milliseconds
+     */
+    public StockTradeUtil(Map<String, Stock> stockMap, Clock clock, long[] windowLengths) {
+        if (!InputValidator.validateClock(clock)) {
+            throw new IllegalArgumentException(Messages.ERR_CLOCK_NULL);
+        }
+        
+        if (windowLengths == null) {
+            throw new IllegalArgumentException(Messages.ERR_WINDOW_LENGTHS_INCORRECT);
+        }
+        
+        for (long windowLength : windowLengths) {
+            if (windowLength <= 0) {
+                throw new IllegalArgumentException(Messages.ERR_WINDOW_LENGTH_NEGATIVE_ZERO);
+            }
+        }
+        
+        this.windowLengths = LongStream.concat(Arrays.stream(windowLengths), LongStream.of(VOL_WEIGH_WINDOW)).sorted().distinct().toArray();
+        this.mainWindow = Arrays.binarySearch(this.windowLengths, VOL_WEIGH_WINDOW);
+        this.stockRegistry = new StockRegistry(stockMap);
+        this.tradeWindows = new StockSlots<StockTradeWindow>(stockRegistry.size());
+        this.removedStockWindow = new StockTradeWindow(this.windowLengths, mainWindow, StockTradeWindow.DEFAULT_CAPACITY, null);
+        this.clock = clock;
+    }
+    
+    /**
+     * Retrieves the ID of a stock, to be used with the overloads which accept the stock ID.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the ID of the stock
+     * @throws BusinessException
+     */
+    public int getStockId(String stockSymbol) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        return findStockId(stockSymbol);
+    }
+    
+    /**
+     * Retrieves the lengths of the windows over which the Volume Weighted Stock Price is kept
+     * 
+     * @return - a copy of the lengths in milliseconds, in ascending order
+     */
+    public long[] getWindowLengths() {
+        return windowLengths.clone();
+    }
+    
+    /**
+     * Retrieves the clock which gives the time of the trades
+     * 
+     * @return - the clock
+     */
+    public Clock getClock() {
+        return clock;
+    }
+    
+    /**
+     * Retrieves the registry which holds the IDs of the stocks
+     * 
+     * @return - the stock registry
+     */
+    public StockRegistry getStockRegistry() {
+        return stockRegistry;
     }
     
     /**
@@ -119,7 +304,10 @@ public class StockTradeUtil {
      * @return - the dividend yield of the stock
      * @throws BusinessException
      */
-    public double getDividendYield(String stockSymbol, int price) throws BusinessException {
+    public double getDividendYield(String stockSymbol, long price) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
         if (!InputValidator.validateStockSymbol(stockSymbol)) {
             throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
         }
@@ -128,12 +316,42 @@ public class StockTradeUtil {
             throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
         }
         
-        Stock stock = stockMap.get(stockSymbol);
-        if (stock == null) {
-            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
+        double dividendYield = stockRegistry.getDividendYield(findStockId(stockSymbol), price);
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.DIVIDEND_YIELD, startTime);
+        }
+        
+        return dividendYield;
+    }
+    
+    /**
+     * Returns the dividend yield for a stock based on a given price. It also
+     * validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param price - the price at which the stock was traded
+     * @return - the dividend yield of the stock
+     * @throws BusinessException
+     */
+    public double getDividendYield(int stockId, long price) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
+        validateStockId(stockId);
+        
+        if (!InputValidator.validatePrice(price)) {
+            throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
         }
         
-        return stock.getDividendYield(price);
+        double dividendYield = stockRegistry.getDividendYield(stockId, price);
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.DIVIDEND_YIELD, startTime);
+        }
+        
+        return dividendYield;
     }
     
     /**
@@ -146,7 +364,10 @@ public class StockTradeUtil {
      * @return - the price/earnings ratio of the stock
      * @throws BusinessException
      */
-    public double getPERatio(String stockSymbol, int price) throws BusinessException {
+    public double getPERatio(String stockSymbol, long price) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
         if (!InputValidator.validateStockSymbol(stockSymbol)) {
             throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
         }
@@ -155,137 +376,1442 @@ public class StockTradeUtil {
             throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
         }
         
-        Stock stock = stockMap.get(stockSymbol);
-        if (stock == null) {
-            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
+        double peRatio = stockRegistry.getPERatio(findStockId(stockSymbol), price);
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.PE_RATIO, startTime);
         }
         
-        return stock.getPERatio(price);        
+        return peRatio;
     }
     
     /**
-     * Performs a stock trade (buy or sell). It also validates the input parameters;
-     * if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
-     * is thrown.
+     * Returns the price/earnings ratio for a stock based on a given price.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
      * 
-     * @param stockSymbol - the stock to be traded
-     * @param quantity - the quantity of shares that were traded
+     * @param stockId - the stock ID
      * @param price - the price at which the stock was traded
-     * @param isBuy - whether the stock is bought or sold
+     * @return - the price/earnings ratio of the stock
      * @throws BusinessException
      */
-    public void tradeStock(String stockSymbol, int quantity, int price, boolean isBuy) throws BusinessException {
-        if (!InputValidator.validateStockSymbol(stockSymbol)) {
-            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
-        }
+    public double getPERatio(int stockId, long price) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
         
-        if (!InputValidator.validateQuantity(quantity)) {
-            throw new BusinessException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
-        }
+        validateStockId(stockId);
         
         if (!InputValidator.validatePrice(price)) {
             throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
         }
         
-        Stock stock = stockMap.get(stockSymbol);
-        if (stock == null) {
-            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
+        double peRatio = stockRegistry.getPERatio(stockId, price);
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.PE_RATIO, startTime);
+        }
+        
+        return peRatio;
+    }
+    
+    /**
+     * Returns the dividend yields of a stock for a grid of prices in one call. The prices are
+     * validated in a single pass, and the yields are calculated from the dividend of the stock
+     * kept by the {@link com.supersimplestocks.data.StockRegistry}. It also validates the input
+     * parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param prices - the prices
+     * @return - the dividend yields in the order of the prices
+     * @throws BusinessException
+     */
+    public double[] getDividendYields(String stockSymbol, long[] prices) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
         }
         
-        List<StockTrade> tradeList = tradeMap.get(stock);
+        int stockId = findStockId(stockSymbol);
+        validatePrices(prices);
+        
+        double[] dividendYields = new double[prices.length];
+        divide(stockRegistry.getYieldDividend(stockId), prices, dividendYields, 0);
+        return dividendYields;
+    }
+    
+    /**
+     * Calculates the dividend yields of a stock for a grid of prices, without allocating any
+     * memory. It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param prices - the prices
+     * @param dividendYields - the array which receives the dividend yields in the order of the prices
+     * @throws BusinessException
+     */
+    public void getDividendYields(int stockId, long[] prices, double[] dividendYields) throws BusinessException {
+        validateStockId(stockId);
+        validatePrices(prices);
+        validateResultLength(dividendYields, prices.length);
+        
+        divide(stockRegistry.getYieldDividend(stockId), prices, dividendYields, 0);
+    }
+    
+    /**
+     * Calculates the dividend yields of every stock for a grid of prices in one call. The yields of
+     * a stock are stored in the given array from the index of its ID multiplied by the number of
+     * prices, in the order of the prices. It also validates the input parameters; if the validation
+     * fails, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param prices - the prices
+     * @param dividendYields - the array which receives the dividend yields, at least as long as the
+     *        number of stocks multiplied by the number of prices
+     * @throws BusinessException
+     */
+    public void getAllDividendYields(long[] prices, double[] dividendYields) throws BusinessException {
+        //All the stocks are read from the same snapshot of the reference data
+        StockRegistry registry = stockRegistry;
+        validatePrices(prices);
+        validateResultLength(dividendYields, (long) registry.size() * prices.length);
         
-        if (tradeList == null) {
-            tradeList = new LinkedList<StockTrade>();
-            tradeMap.put(stock, tradeList);
+        for (int stockId = 0; stockId < registry.size(); stockId++) {
+            divide(registry.getYieldDividend(stockId), prices, dividendYields, stockId * prices.length);
+        }
+    }
+    
+    /**
+     * Returns the price/earnings ratios of a stock for a grid of prices in one call. It also
+     * validates the input parameters; if the validation fails, or if the last dividend of the
+     * stock is zero, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param prices - the prices
+     * @return - the price/earnings ratios in the order of the prices
+     * @throws BusinessException
+     */
+    public double[] getPERatios(String stockSymbol, long[] prices) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
         }
         
-        tradeList.add(new StockTrade(stock, new Date(), quantity, price, isBuy));
+        int stockId = findStockId(stockSymbol);
+        validatePrices(prices);
+        
+        double[] peRatios = new double[prices.length];
+        divideByDividend(stockId, prices, peRatios);
+        return peRatios;
     }
     
     /**
-     * Calculates the GBCE All Share Index using the geometric mean of the Volume Weighted Stock Price for all stocks.
-     * It also validates the input parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * Calculates the price/earnings ratios of a stock for a grid of prices, without allocating any
+     * memory. It also validates the input parameters; if the validation fails, or if the last
+     * dividend of the stock is zero, a {@link com.supersimplestocks.exceptions.BusinessException}
      * is thrown.
      * 
-     * @return the GBCE All Share Index
+     * @param stockId - the stock ID
+     * @param prices - the prices
+     * @param peRatios - the array which receives the price/earnings ratios in the order of the prices
      * @throws BusinessException
      */
-    public double getGBCEAllShareIndex() throws BusinessException {
-        Set<Stock> stockSet = tradeMap.keySet();
-        Iterator<Stock> stockIter = stockSet.iterator();
-        double stockProduct = 1.0;
-        int stockCount = 0;
+    public void getPERatios(int stockId, long[] prices, double[] peRatios) throws BusinessException {
+        validateStockId(stockId);
+        validatePrices(prices);
+        validateResultLength(peRatios, prices.length);
         
-        while (stockIter.hasNext()) {
-            Stock stock = stockIter.next();
+        divideByDividend(stockId, prices, peRatios);
+    }
+    
+    /**
+     * Calculates the price/earnings ratios of every stock for a grid of prices in one call. The ratios
+     * of a stock are stored in the given array from the index of its ID multiplied by the number of
+     * prices, in the order of the prices; a stock whose last dividend is zero gets NaN. It also
+     * validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param prices - the prices
+     * @param peRatios - the array which receives the price/earnings ratios, at least as long as the
+     *        number of stocks multiplied by the number of prices
+     * @throws BusinessException
+     */
+    public void getAllPERatios(long[] prices, double[] peRatios) throws BusinessException {
+        StockRegistry registry = stockRegistry;
+        validatePrices(prices);
+        validateResultLength(peRatios, (long) registry.size() * prices.length);
+        
+        for (int stockId = 0; stockId < registry.size(); stockId++) {
+            int lastDividend = registry.getLastDividend(stockId);
+            int offset = stockId * prices.length;
             
-            stockProduct *= getVolumeWeightedStockPrice(stock.getSymbol());
-            stockCount++;
+            if (lastDividend != 0) {
+                divide(prices, lastDividend, peRatios, offset);
+            } else {
+                Arrays.fill(peRatios, offset, offset + prices.length, Double.NaN);
+            }
+        }
+    }
+    
+    /**
+     * Validates a grid of prices in a single pass; if a price is negative or zero, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} naming its index is thrown.
+     * 
+     * @param prices - the prices
+     * @throws BusinessException
+     */
+    private static void validatePrices(long[] prices) throws BusinessException {
+        if (prices == null) {
+            throw new BusinessException(Messages.ERR_PRICES_NULL);
         }
         
-        if (stockCount > 0) {
-            return Math.pow(stockProduct, (double)1 / stockCount);
+        //The prices are checked without branches, so the loop does not depend on the data
+        boolean valid = true;
+        for (int i = 0; i < prices.length; i++) {
+            valid &= prices[i] > 0;
         }
         
-        return 0;
+        if (!valid) {
+            for (int i = 0; i < prices.length; i++) {
+                if (!InputValidator.validatePrice(prices[i])) {
+                    throw new BusinessException(Messages.ERR_PRICE_AT_INDEX + i + ": " + Messages.ERR_PRICE_NEGATIVE_ZERO);
+                }
+            }
+        }
     }
     
     /**
-     * Calculates the Volume Weighted Stock Price based on trades in past 5 minutes.
+     * Validates the array which receives the results of a grid of prices; if it is shorter than the
+     * number of results, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param results - the array which receives the results
+     * @param length - the number of results
+     * @throws BusinessException
+     */
+    private static void validateResultLength(double[] results, long length) throws BusinessException {
+        if (results == null || results.length < length) {
+            throw new BusinessException(Messages.ERR_RESULT_ARRAY_LENGTH + length);
+        }
+    }
+    
+    /**
+     * Calculates the price/earnings ratios of a valid stock ID for valid prices; if the last dividend
+     * of the stock is zero, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param prices - the prices
+     * @param peRatios - the array which receives the price/earnings ratios
+     * @throws BusinessException
+     */
+    private void divideByDividend(int stockId, long[] prices, double[] peRatios) throws BusinessException {
+        int lastDividend = stockRegistry.getLastDividend(stockId);
+        if (lastDividend == 0) {
+            throw new BusinessException(Messages.ERR_PE_DIVIDEND_ZERO);
+        }
+        
+        divide(prices, lastDividend, peRatios, 0);
+    }
+    
+    /**
+     * Divides a dividend by every price, in a loop without calls or branches which the JIT
+     * compiler can unroll and vectorize
+     * 
+     * @param dividend - the dividend
+     * @param prices - the prices
+     * @param results - the array which receives the quotients
+     * @param offset - the index of the first quotient in the array
+     */
+    private static void divide(double dividend, long[] prices, double[] results, int offset) {
+        for (int i = 0; i < prices.length; i++) {
+            results[offset + i] = dividend / prices[i];
+        }
+    }
+    
+    /**
+     * Divides every price by a dividend, in a loop without calls or branches which the JIT
+     * compiler can unroll and vectorize
+     * 
+     * @param prices - the prices
+     * @param dividend - the dividend, not zero
+     * @param results - the array which receives the quotients
+     * @param offset - the index of the first quotient in the array
+     */
+    private static void divide(long[] prices, int dividend, double[] results, int offset) {
+        for (int i = 0; i < prices.length; i++) {
+            results[offset + i] = (double) prices[i] / dividend;
+        }
+    }
+    
+    /**
+     * Performs a stock trade (buy or sell) at the current time of the clock. It also
+     * validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock to be traded
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    public void tradeStock(String stockSymbol, long quantity, long price, boolean isBuy) throws BusinessException {
+        tradeStock(stockSymbol, clock.millis(), quantity, price, isBuy);
+    }
+    
+    /**
+     * Performs a stock trade (buy or sell) made at the given time. The trade is recorded
+     * directly in the primitive arrays of the stock's window, without creating a
+     * {@link com.supersimplestocks.data.StockTrade} or any other object, so recording
+     * trades does not produce garbage once the window of the stock has been created.
      * It also validates the input parameters; if the validation fails, a
-     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown. 
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
      * 
-     * @param stockSymbol - the stock symbol
-     * @return - the Volume Weighted Stock Price
+     * @param stockSymbol - the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
      * @throws BusinessException
      */
-    public double getVolumeWeightedStockPrice(String stockSymbol) throws BusinessException {
+    public void tradeStock(String stockSymbol, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
         if (!InputValidator.validateStockSymbol(stockSymbol)) {
             throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
         }
         
-        Stock stock = stockMap.get(stockSymbol);
-        if (stock == null) {
-            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
-        }
+        validateTrade(timestamp, quantity, price);
+        recordTrade(findStockId(stockSymbol), timestamp, quantity, price, isBuy);
         
-        List<StockTrade> tradeList = tradeMap.get(stock);
-        if (tradeList == null) {
-            throw new BusinessException(Messages.ERR_NO_STOCK_DATA_FOUND + stockSymbol);
+        if (metrics != null) {
+            metrics.record(TradeOperation.TRADE, startTime);
         }
+    }
+    
+    /**
+     * Performs a stock trade (buy or sell) made at the given time, finding the stock's
+     * window by its ID. Like the overload which accepts the stock symbol, it does not
+     * create any object once the window of the stock has been created.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the ID of the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    public void tradeStock(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
         
-        if (tradeList != null) {
-            ListIterator<StockTrade> listIterator = tradeList.listIterator(tradeList.size());
-            int sumPriceQuantity = 0;
-            int sumQuantity = 0;
-            long fiveMinsBefore = (new Date()).getTime() - 5 * 60 * 1000;
-            
-            while (listIterator.hasPrevious()) {
-                StockTrade stockTrade = listIterator.previous();
-                
-                if (stockTrade.getTimestamp().getTime() >= fiveMinsBefore) {
-                    sumPriceQuantity += stockTrade.getPrice() * stockTrade.getQuantity();
-                    sumQuantity += stockTrade.getQuantity();
-                }
-            }
-            
-            if (sumQuantity != 0) {
-                return (double) sumPriceQuantity / sumQuantity;
-            }
+        validateStockId(stockId);
+        validateTrade(timestamp, quantity, price);
+        recordTrade(stockId, timestamp, quantity, price, isBuy);
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.TRADE, startTime);
+        }
+    }
+    
+    /**
+     * Performs one trade of a batch on its own, e.g. to find which trades of a rejected batch
+     * can be recorded. It validates the trade like the overload which accepts the stock ID; if
+     * the validation fails, or the batch holds no trade at the index, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param batch - the batch which holds the trade
+     * @param index - the index of the trade in the batch
+     * @throws BusinessException
+     */
+    public void tradeStock(TradeBatch batch, int index) throws BusinessException {
+        if (index < 0 || index >= batch.size()) {
+            throw new BusinessException(Messages.ERR_BATCH_INDEX_INCORRECT + index);
         }
         
-        return 1;
+        tradeStock(batch.stockIds[index], batch.timestamps[index], batch.quantities[index], batch.prices[index], batch.buys[index]);
     }
     
     /**
-     * Utility method to check if a user-entered value is positive integer
+     * Validates the values of a trade; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
      * 
-     * @param str - the entered value
-     * @return - true if the entered value is a positive integer
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @throws BusinessException
      */
-    public static boolean checkStrPositiveInt(String str) {
-        try {
-            if (Integer.parseInt(str) <= 0) {
+    private void validateTrade(long timestamp, long quantity, long price) throws BusinessException {
+        if (!InputValidator.validateQuantity(quantity)) {
+            throw new BusinessException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validatePrice(price)) {
+            throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validateTimestamp(timestamp)) {
+            throw new BusinessException(Messages.ERR_TIMESTAMP_NEGATIVE);
+        }
+    }
+    
+    /**
+     * Records a validated trade in the window and the bars of the stock and appends it to the
+     * journal, if one is attached. If the trade is rejected by the window or the bars, it is not
+     * recorded; if it is rejected or cannot be written to the journal, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the ID of the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    private void recordTrade(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        addToWindowAndBars(stockId, timestamp, quantity, price, isBuy);
+        
+        TradeJournal journal = tradeJournal;
+        if (journal != null) {
+            try {
+                journal.append(stockRegistry.getSymbolBytes(stockId), timestamp, quantity, price, isBuy);
+            } catch (IOException ex) {
+                throw new BusinessException(Messages.ERR_JOURNAL_WRITE + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Adds a validated trade to the window of the stock, creating the window on the first trade.
+     * If the window rejects the trade, because the quantity traded in the window would overflow,
+     * a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the ID of the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    private void addToWindow(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        StockTradeWindow tradeWindow = getTradeWindow(stockId, timestamp);
+        
+        try {
+            tradeWindow.add(timestamp, quantity, price, isBuy);
+        } catch (IllegalArgumentException ex) {
+            throw new BusinessException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Adds a validated trade to the window of the stock and to its bars, if a bar aggregator is
+     * attached. The bars are checked before the window is changed, while their lock is held, so
+     * the trade is either added to both or to none. If the volume of a bar or the quantity of the
+     * window would overflow, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the ID of the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    private void addToWindowAndBars(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        BarAggregator bars = barAggregator;
+        if (bars == null) {
+            addToWindow(stockId, timestamp, quantity, price, isBuy);
+            return;
+        }
+        
+        synchronized (bars.getLock(stockId)) {
+            if (!bars.canAdd(stockId, timestamp, quantity)) {
+                throw new BusinessException(Messages.ERR_BAR_VOLUME_OVERFLOW);
+            }
+            
+            addToWindow(stockId, timestamp, quantity, price, isBuy);
+            bars.add(stockId, timestamp, quantity, price);
+        }
+    }
+    
+    /**
+     * Retrieves the window of a stock, creating it and adding it to the expiry queue if the
+     * stock has not been traded before
+     * 
+     * @param stockId - the ID of the stock
+     * @param timestamp - the time of the first trade to be added to the window
+     * @return - the window of the stock
+     */
+    private StockTradeWindow getTradeWindow(int stockId, long timestamp) {
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        
+        if (tradeWindow == null) {
+            //Another thread may have created the window in the meantime; the first one wins
+            StockTradeWindow newTradeWindow = new StockTradeWindow(windowLengths, mainWindow, StockTradeWindow.DEFAULT_CAPACITY, logPriceSum);
+            
+            if (tradeWindows.compareAndSet(stockId, null, newTradeWindow)) {
+                tradeWindow = newTradeWindow;
+                tradedStockCount.incrementAndGet();
+                
+                synchronized (expiryQueue) {
+                    expiryQueue.add(new WindowExpiry(tradeWindow, timestamp + VOL_WEIGH_WINDOW + 1));
+                }
+            } else {
+                tradeWindow = tradeWindows.get(stockId);
+            }
+        }
+        
+        return tradeWindow;
+    }
+    
+    /**
+     * Performs all the trades of a batch. The trades are first validated together, in a single
+     * pass over the columns of the batch; if any trade is not valid, none is recorded and a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown with the index of
+     * the first invalid trade. The trades are then grouped by stock, and the trades of each stock
+     * are added to its window and its bars at once, taking their locks a single time. Finally the
+     * trades are appended to the journal, if one is attached. Before any window is changed, every
+     * window and every bar is checked against the quantities of its trades: if the quantity traded
+     * in a window would overflow, counting the trades it holds which have not yet been evicted, or
+     * the volume of a bar would overflow, none of the trades is recorded and the exception is thrown.
+     * The window and the bars of a stock check its trades again when they are added, as another
+     * thread may trade the same stock in the meantime; if they reject them, none of the trades of
+     * that stock is recorded, and the trades of the stocks already recorded are appended to the
+     * journal before the exception is thrown, so the windows, the bars and the journal always hold
+     * the same trades. The batch then tells which trades have been recorded, with
+     * {@link TradeBatch#isRecorded(int)}, and why they could not be journaled, with
+     * {@link TradeBatch#getJournalError()}.
+     * 
+     * @param batch - the trades to be performed
+     * @throws BusinessException
+     */
+    public void tradeStocks(TradeBatch batch) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
+        int size = batch.size();
+        StockRegistry registry = stockRegistry;
+        int stockCount = registry.size();
+        boolean valid = true;
+        
+        //The columns are checked without branches, so the loop does not depend on the data
+        for (int i = 0; i < size; i++) {
+            int stockId = batch.stockIds[i];
+            valid &= registry.isValidId(stockId) & batch.quantities[i] > 0 & batch.prices[i] > 0 & batch.timestamps[i] >= 0;
+        }
+        
+        if (!valid) {
+            batch.setRecorded(0, null);
+            rejectBatch(batch);
+        }
+        
+        batch.group(stockCount);
+        BarAggregator bars = barAggregator;
+        int recordedStockCount = 0;
+        String journalError = null;
+        
+        try {
+            checkBatchQuantities(batch, bars);
+            
+            int groupStart = 0;
+            while (groupStart < size) {
+                int stockId = batch.groupStockIds[groupStart];
+                int groupEnd = groupStart + 1;
+                
+                while (groupEnd < size && batch.groupStockIds[groupEnd] == stockId) {
+                    groupEnd++;
+                }
+                
+                try {
+                    addGroup(batch, bars, stockId, groupStart, groupEnd);
+                } catch (IllegalArgumentException ex) {
+                    //Neither the window nor the bars took the trades of the stock; the stocks before it keep theirs
+                    try {
+                        appendToJournal(batch.groupStockIds, batch.groupTimestamps, batch.groupQuantities, batch.groupPrices, batch.groupBuys, groupStart);
+                    } catch (BusinessException journalEx) {
+                        journalError = journalEx.getMessage();
+                    }
+                    
+                    throw new BusinessException(ex.getMessage());
+                }
+                
+                recordedStockCount++;
+                groupStart = groupEnd;
+            }
+            
+            try {
+                appendToJournal(batch.stockIds, batch.timestamps, batch.quantities, batch.prices, batch.buys, size);
+            } catch (BusinessException ex) {
+                journalError = ex.getMessage();
+                throw ex;
+            }
+        } finally {
+            batch.setRecorded(recordedStockCount, journalError);
+        }
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.TRADE_BATCH, startTime);
+        }
+    }
+    
+    /**
+     * Adds the trades of a stock of a grouped batch to its window and to its bars, if a bar aggregator
+     * is attached. The bars are checked again while their lock is held, before the window is changed,
+     * so the trades are either added to both or to none. If the window or the bars reject the trades,
+     * an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param batch - the batch, grouped by stock
+     * @param bars - the bar aggregator, null if no bars are kept
+     * @param stockId - the ID of the stock
+     * @param groupStart - the index of the first trade of the stock in the group arrays
+     * @param groupEnd - the index following the last trade of the stock in the group arrays
+     */
+    private void addGroup(TradeBatch batch, BarAggregator bars, int stockId, int groupStart, int groupEnd) {
+        StockTradeWindow tradeWindow = getTradeWindow(stockId, batch.groupTimestamps[groupStart]);
+        int length = groupEnd - groupStart;
+        
+        if (bars == null) {
+            tradeWindow.addAll(batch.groupTimestamps, batch.groupQuantities, batch.groupPrices, batch.groupBuys, groupStart, length);
+            return;
+        }
+        
+        synchronized (bars.getLock(stockId)) {
+            if (!bars.canAddAll(stockId, batch.groupTimestamps, batch.groupQuantities, groupStart, length)) {
+                throw new IllegalArgumentException(Messages.ERR_BAR_VOLUME_OVERFLOW);
+            }
+            
+            tradeWindow.addAll(batch.groupTimestamps, batch.groupQuantities, batch.groupPrices, batch.groupBuys, groupStart, length);
+            bars.addAll(stockId, batch.groupTimestamps, batch.groupQuantities, batch.groupPrices, groupStart, length);
+        }
+    }
+    
+    /**
+     * Appends trades recorded in the windows to the journal, if one is attached; if the journal
+     * cannot be written, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockIds - the IDs of the stocks traded
+     * @param timestamps - the timestamps of the trades
+     * @param quantities - the quantities of the trades
+     * @param prices - the prices of the trades
+     * @param buys - whether the trades were buys
+     * @param count - the number of trades, from the start of the arrays
+     * @throws BusinessException
+     */
+    private void appendToJournal(int[] stockIds, long[] timestamps, long[] quantities, long[] prices, boolean[] buys, int count) throws BusinessException {
+        TradeJournal journal = tradeJournal;
+        if (journal == null) {
+            return;
+        }
+        
+        try {
+            for (int i = 0; i < count; i++) {
+                journal.append(stockRegistry.getSymbolBytes(stockIds[i]), timestamps[i], quantities[i], prices[i], buys[i]);
+            }
+        } catch (IOException ex) {
+            throw new BusinessException(Messages.ERR_JOURNAL_WRITE + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Checks, before any window is changed, that the trades of every stock of a grouped batch can be
+     * added to its window without overflowing the quantity it holds, and to its bars without
+     * overflowing the volume of a bar; if a window or a bar would overflow, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown. Adding trades can only
+     * evict older trades, so the windows which pass the check accept all their trades.
+     * 
+     * @param batch - the batch, grouped by stock
+     * @param bars - the bar aggregator, null if no bars are kept
+     * @throws BusinessException
+     */
+    private void checkBatchQuantities(TradeBatch batch, BarAggregator bars) throws BusinessException {
+        int size = batch.size();
+        long available = 0;
+        
+        for (int i = 0; i < size; i++) {
+            int stockId = batch.groupStockIds[i];
+            
+            if (i == 0 || stockId != batch.groupStockIds[i - 1]) {
+                StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+                available = Long.MAX_VALUE - (tradeWindow != null ? tradeWindow.getBufferQuantity() : 0);
+                
+                int groupEnd = i + 1;
+                while (groupEnd < size && batch.groupStockIds[groupEnd] == stockId) {
+                    groupEnd++;
+                }
+                
+                if (bars != null && !bars.canAddAll(stockId, batch.groupTimestamps, batch.groupQuantities, i, groupEnd - i)) {
+                    throw new BusinessException(Messages.ERR_BAR_VOLUME_OVERFLOW);
+                }
+            }
+            
+            if (batch.groupQuantities[i] > available) {
+                throw new BusinessException(Messages.ERR_WINDOW_QUANTITY_OVERFLOW);
+            }
+            
+            available -= batch.groupQuantities[i];
+        }
+    }
+    
+    /**
+     * Finds the first invalid trade of a batch and throws a
+     * {@link com.supersimplestocks.exceptions.BusinessException} with its index and the reason.
+     * 
+     * @param batch - the batch which holds an invalid trade
+     * @throws BusinessException
+     */
+    private void rejectBatch(TradeBatch batch) throws BusinessException {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                validateStockId(batch.stockIds[i]);
+                validateTrade(batch.timestamps[i], batch.quantities[i], batch.prices[i]);
+            } catch (BusinessException ex) {
+                throw new BusinessException(Messages.ERR_BATCH_TRADE + i + ": " + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Attaches a journal to which all the subsequent trades are appended. The trades of the
+     * tail of the journal which are still in the 5 minutes window are first replayed into
+     * the windows; the trades of stocks which are not in the stock data are skipped, as are
+     * damaged records. The journal should be attached before the trading starts, as the trades
+     * recorded while it is being attached are not appended to it. It also validates the input
+     * parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown.
+     * 
+     * @param journal - the trade journal
+     * @return - the number of trades replayed from the journal
+     * @throws BusinessException
+     */
+    public synchronized long attachJournal(TradeJournal journal) throws BusinessException {
+        if (journal == null) {
+            throw new BusinessException(Messages.ERR_JOURNAL_NULL);
+        }
+        
+        if (tradeJournal != null) {
+            throw new BusinessException(Messages.ERR_JOURNAL_ATTACHED);
+        }
+        
+        validateJournalSymbols(stockRegistry);
+        
+        long replayedCount = 0;
+        long recordCount = journal.getRecordCount();
+        
+        for (long index = journal.findTail(clock.millis() - windowLengths[windowLengths.length - 1]); index < recordCount; index++) {
+            int stockId = journal.getStockId(index, stockRegistry);
+            if (stockId == StockRegistry.NO_STOCK) {
+                continue;
+            }
+            
+            try {
+                validateTrade(journal.getTimestamp(index), journal.getQuantity(index), journal.getPrice(index));
+                addToWindowAndBars(stockId, journal.getTimestamp(index), journal.getQuantity(index), journal.getPrice(index), journal.isBuy(index));
+                replayedCount++;
+            } catch (BusinessException ex) {
+                //A damaged record is skipped, the rest of the journal is still replayed
+            }
+        }
+        
+        tradeJournal = journal;
+        return replayedCount;
+    }
+    
+    /**
+     * Checks that the symbols of the stocks of a registry can be stored in the trade journal; if a
+     * symbol is too long, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param registry - the registry of the stocks
+     * @throws BusinessException
+     */
+    private static void validateJournalSymbols(StockRegistry registry) throws BusinessException {
+        for (int stockId = 0; stockId < registry.size(); stockId++) {
+            if (registry.isValidId(stockId) && !TradeJournal.canStoreSymbol(registry.getSymbolBytes(stockId))) {
+                throw new BusinessException(Messages.ERR_JOURNAL_SYMBOL_LENGTH + registry.getSymbol(stockId));
+            }
+        }
+    }
+    
+    /**
+     * Creates a {@link BarAggregator} which aggregates the trades recorded from now on into
+     * open/high/low/close/volume bars over the given intervals. It also validates the input
+     * parameters; if the validation fails, or if an aggregator is already attached, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param intervals - the intervals of the bars in milliseconds, for example 1 second, 1 minute and 5 minutes
+     * @param barCapacity - the number of completed bars kept per stock and interval
+     * @return - the aggregator, which answers the queries on the bars
+     * @throws BusinessException
+     */
+    public synchronized BarAggregator attachBarAggregator(long[] intervals, int barCapacity) throws BusinessException {
+        if (barAggregator != null) {
+            throw new BusinessException(Messages.ERR_BAR_AGGREGATOR_ATTACHED);
+        }
+        
+        try {
+            barAggregator = new BarAggregator(stockRegistry, clock, intervals, barCapacity);
+        } catch (IllegalArgumentException ex) {
+            throw new BusinessException(ex.getMessage());
+        }
+        
+        return barAggregator;
+    }
+    
+    /**
+     * Retrieves the bar aggregator
+     * 
+     * @return - the aggregator, or null if none is attached
+     */
+    public BarAggregator getBarAggregator() {
+        return barAggregator;
+    }
+    
+    /**
+     * Creates the {@link TradeMetrics} which count the calls of the operations made from now on
+     * and record their latencies, and the occupancy of the windows. It also validates the input
+     * parameters; if the validation fails, or if metrics are already attached, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param sampleInterval - one call in this number is timed; a power of two, 1 to time every call
+     * @return - the metrics
+     * @throws BusinessException
+     */
+    public synchronized TradeMetrics attachMetrics(int sampleInterval) throws BusinessException {
+        if (tradeMetrics != null) {
+            throw new BusinessException(Messages.ERR_METRICS_ATTACHED);
+        }
+        
+        try {
+            tradeMetrics = new TradeMetrics(this, sampleInterval);
+        } catch (IllegalArgumentException ex) {
+            throw new BusinessException(ex.getMessage());
+        }
+        
+        return tradeMetrics;
+    }
+    
+    /**
+     * Retrieves the metrics
+     * 
+     * @return - the metrics, or null if none are attached
+     */
+    public TradeMetrics getMetrics() {
+        return tradeMetrics;
+    }
+    
+    /**
+     * Retrieves the window of a stock for the metrics
+     * 
+     * @param stockId - the ID of the stock
+     * @return - the window, or null if the stock has not been traded or has been removed
+     */
+    StockTradeWindow findTradeWindow(int stockId) {
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        return tradeWindow != null && !tradeWindow.isDetached() ? tradeWindow : null;
+    }
+    
+    /**
+     * Replaces the reference data of the stocks (type, dividends and par value) with a new snapshot,
+     * built from the given stocks and swapped in atomically: every calculation reads either the old
+     * or the new data, never a mix of both, without taking a lock. The symbols must stay the same, so
+     * every stock keeps its ID and its window; if they differ, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockMap - the stocks with their new data, with their symbols as keys
+     * @throws BusinessException
+     */
+    public synchronized void updateStockData(Map<String, Stock> stockMap) throws BusinessException {
+        if (stockMap == null) {
+            throw new BusinessException(Messages.ERR_STOCK_MAP_NULL);
+        }
+        
+        StockRegistry newRegistry = new StockRegistry(stockMap, stockRegistry);
+        if (!newRegistry.hasSameSymbols(stockRegistry)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOLS_CHANGED);
+        }
+        
+        stockRegistry = newRegistry;
+    }
+    
+    /**
+     * Replaces the stocks with the given stocks while they are traded, for example when the stock
+     * universe is loaded again from a file (see {@link com.supersimplestocks.loader.StockFileLoader}).
+     * The stocks which are kept keep their IDs, their windows and their bars, and get the new reference
+     * data; the new stocks get new IDs and their windows are created by their first trade. The removed
+     * stocks can no longer be traded or queried, their IDs are not given to other stocks, and their
+     * Volume Weighted Stock Prices are taken out of the All Share Index. The trades are not stopped:
+     * a trade of a removed stock made while it is being removed is either recorded before it is
+     * removed or ignored. If a journal is attached and the symbol of a new stock cannot be stored
+     * in it, or if the map is null, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown and the stocks are not changed.
+     * 
+     * @param stockMap - the stocks, with their symbols as keys
+     * @throws BusinessException
+     */
+    public synchronized void reloadStockData(Map<String, Stock> stockMap) throws BusinessException {
+        if (stockMap == null) {
+            throw new BusinessException(Messages.ERR_STOCK_MAP_NULL);
+        }
+        
+        StockRegistry oldRegistry = stockRegistry;
+        StockRegistry newRegistry = new StockRegistry(stockMap, oldRegistry);
+        
+        if (tradeJournal != null) {
+            validateJournalSymbols(newRegistry);
+        }
+        
+        //The windows and the bars must have a place for the new stocks before their IDs are published
+        tradeWindows.ensureCapacity(newRegistry.size());
+        BarAggregator bars = barAggregator;
+        if (bars != null) {
+            bars.updateStockRegistry(newRegistry);
+        }
+        
+        stockRegistry = newRegistry;
+        
+        for (int stockId = 0; stockId < oldRegistry.size(); stockId++) {
+            if (oldRegistry.isValidId(stockId) && !newRegistry.isValidId(stockId)) {
+                removeTradeWindow(stockId);
+            }
+        }
+    }
+    
+    /**
+     * Adds a stock while the stocks are traded, or replaces the reference data of a stock with the
+     * same symbol, keeping the other stocks (see {@link #reloadStockData(Map)}). A cluster node is
+     * given the stocks it owns this way. If the stock is null, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stock - the stock
+     * @throws BusinessException
+     */
+    public synchronized void addStock(Stock stock) throws BusinessException {
+        if (!InputValidator.validateStockObject(stock)) {
+            throw new BusinessException(Messages.ERR_STOCK_NULL);
+        }
+        
+        Map<String, Stock> stockMap = getStockMap();
+        stockMap.put(stock.getSymbol(), stock);
+        reloadStockData(stockMap);
+    }
+    
+    /**
+     * Removes a stock while the stocks are traded, keeping the other stocks (see
+     * {@link #reloadStockData(Map)}): its window is taken out of the All Share Index and its ID
+     * is no longer valid. If there is no stock with this symbol, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @throws BusinessException
+     */
+    public synchronized void removeStock(String stockSymbol) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        findStockId(stockSymbol);
+        
+        Map<String, Stock> stockMap = getStockMap();
+        stockMap.remove(stockSymbol);
+        reloadStockData(stockMap);
+    }
+    
+    /**
+     * Builds a map of the stocks which have not been removed
+     * 
+     * @return - the stocks, with their symbols as keys
+     */
+    private Map<String, Stock> getStockMap() {
+        StockRegistry registry = stockRegistry;
+        Map<String, Stock> stockMap = new HashMap<String, Stock>(registry.getStockCount() * 2);
+        
+        for (int stockId = 0; stockId < registry.size(); stockId++) {
+            if (registry.isValidId(stockId)) {
+                stockMap.put(registry.getSymbol(stockId), registry.getStock(stockId));
+            }
+        }
+        
+        return stockMap;
+    }
+    
+    /**
+     * Takes the window of a removed stock out of the All Share Index. The window is replaced by
+     * the window of the removed stocks, so a trade which was validated before the stock was
+     * removed does not create a new window; the expiry queue drops the window at its next expiry.
+     * 
+     * @param stockId - the ID of the removed stock
+     */
+    private void removeTradeWindow(int stockId) {
+        StockTradeWindow tradeWindow = tradeWindows.getAndSet(stockId, removedStockWindow);
+        
+        if (tradeWindow != null) {
+            tradeWindow.detach();
+            tradedStockCount.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Finds the ID of a stock; if there is no stock with this symbol, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the ID of the stock
+     * @throws BusinessException
+     */
+    private int findStockId(String stockSymbol) throws BusinessException {
+        int stockId = stockRegistry.getId(stockSymbol);
+        if (stockId == StockRegistry.NO_STOCK) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
+        }
+        
+        return stockId;
+    }
+    
+    /**
+     * Validates a stock ID; if there is no stock with this ID, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @throws BusinessException
+     */
+    private void validateStockId(int stockId) throws BusinessException {
+        if (!stockRegistry.isValidId(stockId)) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_ID_FOUND + stockId);
+        }
+    }
+    
+    /**
+     * Calculates the GBCE All Share Index using the geometric mean of the Volume Weighted Stock Price for all stocks.
+     * The geometric mean is the exponent of the average logarithm of the prices; the sum of the logarithms is
+     * kept up to date by the trades, so only the stocks whose trades have expired since the last call are visited.
+     * It also validates the input parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown.
+     * 
+     * @return the GBCE All Share Index
+     * @throws BusinessException
+     */
+    public double getGBCEAllShareIndex() throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
+        int stockCount = tradedStockCount.get();
+        double allShareIndex = 0;
+        
+        if (stockCount > 0) {
+            evictExpiredTrades(clock.millis());
+            allShareIndex = Math.exp(logPriceSum.sum() / StockTradeWindow.LOG_PRICE_SCALE / stockCount);
+        }
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.ALL_SHARE_INDEX, startTime);
+        }
+        
+        return allShareIndex;
+    }
+    
+    /**
+     * Retrieves the sum of the fixed point logarithms of the Volume Weighted Stock Prices of the traded
+     * stocks, once the expired trades have been evicted. The All Share Index of the stocks of several
+     * utilities, like the shards of a {@link ShardedTradeEngine} or the nodes of a
+     * {@link com.supersimplestocks.cluster.ClusterRouter}, is the exponent of the total of their sums
+     * divided by {@link com.supersimplestocks.data.StockTradeWindow#LOG_PRICE_SCALE} and by the total of
+     * their traded stock counts: the same index as a single utility holding all the stocks.
+     * 
+     * @return - the sum of the logarithms, scaled by LOG_PRICE_SCALE
+     */
+    public long getLogPriceSum() {
+        if (tradedStockCount.get() > 0) {
+            evictExpiredTrades(clock.millis());
+        }
+        
+        return logPriceSum.sum();
+    }
+    
+    /**
+     * Retrieves the number of stocks which have been traded, whose prices make the All Share Index
+     * 
+     * @return - the number of stocks traded
+     */
+    public int getTradedStockCount() {
+        return tradedStockCount.get();
+    }
+    
+    /**
+     * Evicts the expired trades from the windows whose oldest trade has expired, so their
+     * logarithms in the sum used by the All Share Index are up to date. A window which is
+     * being written is skipped and checked again on the next call, since the writer evicts
+     * the expired trades itself.
+     * 
+     * @param now - the current time in milliseconds
+     */
+    private void evictExpiredTrades(long now) {
+        synchronized (expiryQueue) {
+            WindowExpiry windowExpiry = expiryQueue.peek();
+            
+            while (windowExpiry != null && windowExpiry.expiryTime <= now) {
+                expiryQueue.poll();
+                
+                //The window of a removed stock is no longer part of the index, it leaves the queue
+                if (windowExpiry.tradeWindow.isDetached()) {
+                    windowExpiry = expiryQueue.peek();
+                    continue;
+                }
+                
+                if (windowExpiry.tradeWindow.tryEvict(now)) {
+                    //The trades added to an empty window cannot expire earlier than a window length from now
+                    long expiryTime = windowExpiry.tradeWindow.getExpiryTime();
+                    windowExpiry.expiryTime = expiryTime != Long.MAX_VALUE ? expiryTime : now + VOL_WEIGH_WINDOW + 1;
+                } else {
+                    windowExpiry.expiryTime = now + 1;
+                }
+                
+                expiryQueue.add(windowExpiry);
+                windowExpiry = expiryQueue.peek();
+            }
+        }
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price based on trades in past 5 minutes.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown. 
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException
+     */
+    public double getVolumeWeightedStockPrice(String stockSymbol) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        double volWeighPrice = getVolumeWeightedPrice(findStockId(stockSymbol));
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.VOLUME_WEIGHTED_PRICE, startTime);
+        }
+        
+        return volWeighPrice;
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price based on trades in past 5 minutes.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown. 
+     * 
+     * @param stockId - the stock ID
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException
+     */
+    public double getVolumeWeightedStockPrice(int stockId) throws BusinessException {
+        TradeMetrics metrics = tradeMetrics;
+        long startTime = metrics != null ? metrics.startTimer() : 0;
+        
+        validateStockId(stockId);
+        double volWeighPrice = getVolumeWeightedPrice(stockId);
+        
+        if (metrics != null) {
+            metrics.record(TradeOperation.VOLUME_WEIGHTED_PRICE, startTime);
+        }
+        
+        return volWeighPrice;
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Prices of a stock over all the windows (see
+     * {@link #getWindowLengths()}) at once. It also validates the input parameters; if the validation
+     * fails, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the Volume Weighted Stock Prices in the order of the window lengths
+     * @throws BusinessException
+     */
+    public double[] getVolumeWeightedStockPrices(String stockSymbol) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        double[] volWeighPrices = new double[windowLengths.length];
+        getVolumeWeightedPrices(findStockId(stockSymbol), volWeighPrices);
+        return volWeighPrices;
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Prices of a stock over all the windows (see
+     * {@link #getWindowLengths()}) at once, without allocating any memory. It also validates the
+     * input parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param volWeighPrices - the array which receives the prices in the order of the window lengths
+     * @throws BusinessException
+     */
+    public void getVolumeWeightedStockPrices(int stockId, double[] volWeighPrices) throws BusinessException {
+        validateStockId(stockId);
+        
+        if (volWeighPrices == null || volWeighPrices.length < windowLengths.length) {
+            throw new BusinessException(Messages.ERR_WINDOW_PRICE_ARRAY_LENGTH + windowLengths.length);
+        }
+        
+        getVolumeWeightedPrices(stockId, volWeighPrices);
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Prices of a valid stock ID over all the windows; if the
+     * stock has not been traded, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * Like the price of a single window, the price of a window without trades is 1.
+     * 
+     * @param stockId - the stock ID
+     * @param volWeighPrices - the array which receives the prices in the order of the window lengths
+     * @throws BusinessException
+     */
+    private void getVolumeWeightedPrices(int stockId, double[] volWeighPrices) throws BusinessException {
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        if (tradeWindow == null) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_DATA_FOUND + stockRegistry.getSymbol(stockId));
+        }
+        
+        tradeWindow.getVolumeWeightedPrices(clock.millis(), volWeighPrices);
+        
+        for (int window = 0; window < windowLengths.length; window++) {
+            if (volWeighPrices[window] == 0) {
+                volWeighPrices[window] = 1;
+            }
+        }
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price of every stock based on trades in past 5 minutes,
+     * in one pass over the windows. The price of a stock is stored in the given array at the index
+     * of its ID; a stock which has not been traded or has been removed gets NaN. It also validates
+     * the input parameters; if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown.
+     * 
+     * @param volWeighPrices - the array which receives the prices, at least as long as the number of stock IDs
+     * @return - the number of stocks which have been traded
+     * @throws BusinessException
+     */
+    public int getAllVolumeWeightedStockPrices(double[] volWeighPrices) throws BusinessException {
+        int stockCount = stockRegistry.size();
+        if (volWeighPrices == null || volWeighPrices.length < stockCount) {
+            throw new BusinessException(Messages.ERR_PRICE_ARRAY_LENGTH + stockCount);
+        }
+        
+        long now = clock.millis();
+        int tradedCount = 0;
+        
+        for (int stockId = 0; stockId < stockCount; stockId++) {
+            StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+            
+            if (tradeWindow == null || tradeWindow == removedStockWindow) {
+                volWeighPrices[stockId] = Double.NaN;
+            } else {
+                double volWeighPrice = tradeWindow.getVolumeWeightedPrice(now);
+                volWeighPrices[stockId] = volWeighPrice != 0 ? volWeighPrice : 1;
+                tradedCount++;
+            }
+        }
+        
+        return tradedCount;
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price of a valid stock ID; if the stock
+     * has not been traded, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException
+     */
+    private double getVolumeWeightedPrice(int stockId) throws BusinessException {
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        if (tradeWindow == null) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_DATA_FOUND + stockRegistry.getSymbol(stockId));
+        }
+        
+        //Only the trades from the last 5 minutes are taken into account
+        double volWeighPrice = tradeWindow.getVolumeWeightedPrice(clock.millis());
+        
+        if (volWeighPrice != 0) {
+            return volWeighPrice;
+        }
+        
+        return 1;
+    }
+    
+    /**
+     * Calculates the buy-side and sell-side analytics of a stock based on trades in past 5 minutes:
+     * the quantities bought and sold, the Volume Weighted Stock Price of each side and the
+     * order-flow imbalance. It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the analytics of both sides, all zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public OrderFlow getOrderFlow(String stockSymbol) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        OrderFlow orderFlow = new OrderFlow();
+        getOrderFlow(findStockId(stockSymbol), orderFlow);
+        return orderFlow;
+    }
+    
+    /**
+     * Calculates the buy-side and sell-side analytics of a stock based on trades in past 5 minutes,
+     * without allocating any memory. It also validates the input parameters; if the validation
+     * fails, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param orderFlow - the object which receives the analytics, all zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public void getOrderFlow(int stockId, OrderFlow orderFlow) throws BusinessException {
+        validateStockId(stockId);
+        
+        if (orderFlow == null) {
+            throw new BusinessException(Messages.ERR_ORDER_FLOW_NULL);
+        }
+        
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        if (tradeWindow == null) {
+            orderFlow.clear();
+        } else {
+            tradeWindow.getOrderFlow(clock.millis(), orderFlow);
+        }
+    }
+    
+    /**
+     * Retrieves the number of shares of a stock traded in the past 5 minutes.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the number of shares traded, zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public long getTradedQuantity(String stockSymbol) throws BusinessException {
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        return getQuantity(findStockId(stockSymbol));
+    }
+    
+    /**
+     * Retrieves the number of shares of a stock traded in the past 5 minutes.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @return - the number of shares traded, zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public long getTradedQuantity(int stockId) throws BusinessException {
+        validateStockId(stockId);
+        return getQuantity(stockId);
+    }
+    
+    /**
+     * Retrieves the number of shares of a valid stock ID traded in the past 5 minutes
+     * 
+     * @param stockId - the stock ID
+     * @return - the number of shares traded, zero if the stock has not been traded
+     */
+    private long getQuantity(int stockId) {
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        if (tradeWindow == null) {
+            return 0;
+        }
+        
+        return tradeWindow.getQuantity(clock.millis());
+    }
+    
+    /**
+     * Copies the trades of a stock held by its windows, oldest first, for example to move the stock
+     * to another cluster node. As many trades as the arrays can hold are copied; the number returned
+     * is the number of trades held, so the arrays were too small if it is larger than their length.
+     * It also validates the input parameters; if the validation fails, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param timestamps - the array which receives the timestamps of the trades
+     * @param quantities - the array which receives the quantities of the trades
+     * @param prices - the array which receives the prices of the trades
+     * @param buys - the array which receives whether the trades were buys
+     * @return - the number of trades held, zero if the stock has not been traded
+     * @throws BusinessException
+     */
+    public int getTrades(int stockId, long[] timestamps, long[] quantities, long[] prices, boolean[] buys) throws BusinessException {
+        validateStockId(stockId);
+        
+        StockTradeWindow tradeWindow = tradeWindows.get(stockId);
+        if (tradeWindow == null) {
+            return 0;
+        }
+        
+        return tradeWindow.getTrades(timestamps, quantities, prices, buys);
+    }
+    
+    /**
+     * The time at which the oldest trade of a window expires, used to order the
+     * windows in the queue checked by the All Share Index. The time may be earlier
+     * than the actual expiry, if the trade was already evicted by a writer, but
+     * it is never later.
+     */
+    private static class WindowExpiry implements Comparable<WindowExpiry> {
+        
+        /** The window of the stock */
+        private final StockTradeWindow tradeWindow;
+        
+        /** The time at which the window has to be checked for expired trades */
+        private long expiryTime;
+        
+        /**
+         * Constructor
+         * 
+         * @param tradeWindow - the window of the stock
+         * @param expiryTime - the time at which the window has to be checked
+         */
+        private WindowExpiry(StockTradeWindow tradeWindow, long expiryTime) {
+            this.tradeWindow = tradeWindow;
+            this.expiryTime = expiryTime;
+        }
+        
+        @Override
+        public int compareTo(WindowExpiry other) {
+            return Long.compare(expiryTime, other.expiryTime);
+        }
+    }
+    
+    /**
+     * Utility method to check if a user-entered value is positive integer
+     * 
+     * @param str - the entered value
+     * @return - true if the entered value is a positive integer
+     */
+    public static boolean checkStrPositiveInt(String str) {
+        try {
+            if (Integer.parseInt(str) <= 0) {
+                return false;
+            }
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Utility method to check if a user-entered value is positive long integer
+     * 
+     * @param str - the entered value
+     * @return - true if the entered value is a positive long integer
+     */
+    public static boolean checkStrPositiveLong(String str) {
+        try {
+            if (Long.parseLong(str) <= 0) {
                 return false;
             }
         } catch (NumberFormatException ex) {
@@ -0,0 +1,247 @@
+package com.supersimplestocks.business;
+
+import java.util.Arrays;
+
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+
+/**
+ * A reusable buffer of trades recorded together by
+ * {@link com.supersimplestocks.business.StockTradeUtil#tradeStocks(TradeBatch)}. The trades
+ * are kept in columnar primitive arrays (stock IDs, timestamps, quantities, prices and
+ * buy/sell indicators), which are allocated once when the batch is created; the batch is
+ * cleared and filled again for every burst of trades, so recording a batch does not allocate
+ * any memory. The trades are not validated when they are added, but all together when the
+ * batch is recorded.
+ * 
+ * The batch also holds the scratch arrays in which the trades are grouped by stock before
+ * they are added to the windows. If the batch is rejected, isRecorded tells which trades
+ * had been recorded nevertheless. A batch must not be used by several threads at once.
+ */
+public class TradeBatch {
+    
+    /** The stock IDs of the trades */
+    final int[] stockIds;
+    
+    /** The timestamps of the trades in milliseconds since the epoch */
+    final long[] timestamps;
+    
+    /** The quantities of shares traded */
+    final long[] quantities;
+    
+    /** The prices at which the stocks were traded */
+    final long[] prices;
+    
+    /** Whether the stocks were bought or sold */
+    final boolean[] buys;
+    
+    /** The stock IDs of the trades grouped by stock */
+    final int[] groupStockIds;
+    
+    /** The timestamps of the trades grouped by stock */
+    final long[] groupTimestamps;
+    
+    /** The quantities of the trades grouped by stock */
+    final long[] groupQuantities;
+    
+    /** The prices of the trades grouped by stock */
+    final long[] groupPrices;
+    
+    /** The sides of the trades grouped by stock */
+    final boolean[] groupBuys;
+    
+    /** The stocks traded in the batch, in the order of their first trade, which is the order of their groups */
+    private final int[] tradedStocks;
+    
+    /** The number of stocks traded in the batch, set when the trades are grouped */
+    private int tradedStockCount;
+    
+    /** Whether every trade has been recorded by the last call of tradeStocks */
+    private final boolean[] recorded;
+    
+    /** The reason why the trades recorded could not be written to the journal, null if they were */
+    private String journalError;
+    
+    /** The number of trades of every stock, then the position of its next trade in the group arrays; indexed by stock ID */
+    private int[] stockPositions = new int[0];
+    
+    /** The number of trades in the batch */
+    private int size;
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param capacity - the maximum number of trades in the batch
+     */
+    public TradeBatch(int capacity) {
+        if (!InputValidator.validateIntPositive(capacity)) {
+            throw new IllegalArgumentException(Messages.ERR_CAPACITY_NEGATIVE_ZERO);
+        }
+        
+        stockIds = new int[capacity];
+        timestamps = new long[capacity];
+        quantities = new long[capacity];
+        prices = new long[capacity];
+        buys = new boolean[capacity];
+        groupStockIds = new int[capacity];
+        tradedStocks = new int[capacity];
+        groupTimestamps = new long[capacity];
+        groupQuantities = new long[capacity];
+        groupPrices = new long[capacity];
+        groupBuys = new boolean[capacity];
+        recorded = new boolean[capacity];
+    }
+    
+    /**
+     * Adds a trade to the batch, if the batch is not full. The trade is validated when the batch is recorded.
+     * 
+     * @param stockId - the ID of the stock traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @return - true if the trade was added, false if the batch is full
+     */
+    public boolean add(int stockId, long timestamp, long quantity, long price, boolean isBuy) {
+        if (size == stockIds.length) {
+            return false;
+        }
+        
+        stockIds[size] = stockId;
+        timestamps[size] = timestamp;
+        quantities[size] = quantity;
+        prices[size] = price;
+        buys[size] = isBuy;
+        recorded[size] = false;
+        size++;
+        
+        return true;
+    }
+    
+    /** Removes all the trades from the batch */
+    public void clear() {
+        size = 0;
+        journalError = null;
+    }
+    
+    /**
+     * Retrieves the number of trades in the batch
+     * 
+     * @return - the number of trades
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Retrieves the maximum number of trades in the batch
+     * 
+     * @return - the capacity of the batch
+     */
+    public int capacity() {
+        return stockIds.length;
+    }
+    
+    /**
+     * Checks if a trade has been recorded in the window of its stock by the last call of tradeStocks.
+     * When a batch is rejected, the trades of the stocks recorded before the rejection are kept, so
+     * only the other trades may be made again.
+     * 
+     * @param index - the index of the trade in the batch
+     * @return - true if the trade has been recorded
+     */
+    public boolean isRecorded(int index) {
+        return index >= 0 && index < size && recorded[index];
+    }
+    
+    /**
+     * Retrieves the reason why the trades recorded by the last call of tradeStocks could not be
+     * written to the journal
+     * 
+     * @return - the error, null if the trades recorded have been journaled or no journal is attached
+     */
+    public String getJournalError() {
+        return journalError;
+    }
+    
+    /**
+     * Marks the trades of the first stocks of the grouped batch as recorded, and the others as not
+     * recorded
+     * 
+     * @param recordedStockCount - the number of stocks, in the order of their groups, whose trades have been recorded
+     * @param journalError - the reason why the trades recorded could not be journaled, null if they were
+     */
+    void setRecorded(int recordedStockCount, String journalError) {
+        this.journalError = journalError;
+        
+        if (recordedStockCount == 0 || recordedStockCount == tradedStockCount) {
+            Arrays.fill(recorded, 0, size, recordedStockCount > 0);
+            return;
+        }
+        
+        //The positions are free between two batches, so they mark the stocks recorded
+        for (int i = 0; i < recordedStockCount; i++) {
+            stockPositions[tradedStocks[i]] = 1;
+        }
+        
+        for (int i = 0; i < size; i++) {
+            recorded[i] = stockPositions[stockIds[i]] != 0;
+        }
+        
+        for (int i = 0; i < recordedStockCount; i++) {
+            stockPositions[tradedStocks[i]] = 0;
+        }
+    }
+    
+    /**
+     * Checks if the batch is full
+     * 
+     * @return - true if no more trades can be added
+     */
+    public boolean isFull() {
+        return size == stockIds.length;
+    }
+    
+    /**
+     * Groups the trades by stock into the group arrays with a counting sort, which takes time
+     * proportional to the number of trades: the trades are counted by stock, every traded stock
+     * gets a range of the group arrays, and the trades are copied into the ranges. The trades
+     * of each stock keep their order in the batch. The stock IDs must have been validated.
+     * 
+     * @param stockCount - the number of stocks in the universe
+     */
+    void group(int stockCount) {
+        if (stockPositions.length < stockCount) {
+            stockPositions = new int[stockCount];
+        }
+        
+        tradedStockCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (stockPositions[stockIds[i]]++ == 0) {
+                tradedStocks[tradedStockCount++] = stockIds[i];
+            }
+        }
+        
+        int position = 0;
+        for (int i = 0; i < tradedStockCount; i++) {
+            int tradeCount = stockPositions[tradedStocks[i]];
+            stockPositions[tradedStocks[i]] = position;
+            position += tradeCount;
+        }
+        
+        for (int i = 0; i < size; i++) {
+            int groupIndex = stockPositions[stockIds[i]]++;
+            groupStockIds[groupIndex] = stockIds[i];
+            groupTimestamps[groupIndex] = timestamps[i];
+            groupQuantities[groupIndex] = quantities[i];
+            groupPrices[groupIndex] = prices[i];
+            groupBuys[groupIndex] = buys[i];
+        }
+        
+        //The positions are cleared for the next batch, visiting only the traded stocks
+        for (int i = 0; i < tradedStockCount; i++) {
+            stockPositions[tradedStocks[i]] = 0;
+        }
+    }
+}
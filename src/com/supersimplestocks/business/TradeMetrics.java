@@ -0,0 +1,308 @@
+package com.supersimplestocks.business;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.supersimplestocks.data.LatencyHistogram;
+import com.supersimplestocks.data.OperationStatistics;
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.StockTradeWindow;
+import com.supersimplestocks.data.TradeOperation;
+import com.supersimplestocks.data.WindowStatistics;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * The metrics of a {@link StockTradeUtil}, attached with attachMetrics: the number of calls of every
+ * {@link com.supersimplestocks.data.TradeOperation} and a {@link com.supersimplestocks.data.LatencyHistogram}
+ * of their latencies, and the occupancy and the number of evicted trades of the window of every stock,
+ * read from the windows when they are asked for.
+ * 
+ * A call is counted in a {@link java.util.concurrent.atomic.LongAdder}, which does not make the threads
+ * wait for each other. Reading the time takes longer than the rest of the bookkeeping, so only one call
+ * in sampleInterval (a power of two) is timed, chosen at random: with an interval of 1 every call is
+ * timed, with an interval of 64 the metrics add a few nanoseconds to a call and the percentiles are
+ * still estimated from thousands of calls per second. A utility without metrics only checks that none
+ * are attached.
+ * 
+ * The metrics are exposed over JMX, as a {@link TradeMetricsMXBean} registered with registerMBean, and
+ * can be written to the log periodically with startDump.
+ */
+public class TradeMetrics implements TradeMetricsMXBean {
+    
+    /** The sample interval which keeps the cost of the metrics to a few nanoseconds per call */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+    
+    /** The domain and type of the JMX names of the metrics */
+    public static final String OBJECT_NAME_PREFIX = "com.supersimplestocks:type=TradeMetrics,name=";
+    
+    /** The utility whose operations are measured */
+    private final StockTradeUtil stockTrader;
+    
+    /** The interval between the timed calls minus one, used as a mask */
+    private final int sampleMask;
+    
+    /** The number of calls of every operation, indexed by its ordinal */
+    private final LongAdder[] counts;
+    
+    /** The latencies of the timed calls of every operation, indexed by its ordinal */
+    private final LatencyHistogram[] latencies;
+    
+    /** The name under which the metrics are registered, null if they are not */
+    private ObjectName objectName;
+    
+    /** The thread which writes the metrics to the log, null if they are not written */
+    private ScheduledExecutorService dumpExecutor;
+    
+    /**
+     * Constructor. It also validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockTrader - the utility whose operations are measured
+     * @param sampleInterval - one call in this number is timed; a power of two
+     */
+    TradeMetrics(StockTradeUtil stockTrader, int sampleInterval) {
+        if (sampleInterval <= 0 || Integer.bitCount(sampleInterval) != 1) {
+            throw new IllegalArgumentException(Messages.ERR_SAMPLE_INTERVAL_INCORRECT);
+        }
+        
+        this.stockTrader = stockTrader;
+        this.sampleMask = sampleInterval - 1;
+        
+        int operationCount = TradeOperation.values().length;
+        this.counts = new LongAdder[operationCount];
+        this.latencies = new LatencyHistogram[operationCount];
+        
+        for (int i = 0; i < operationCount; i++) {
+            counts[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+    
+    /**
+     * Starts the measure of a call
+     * 
+     * @return - the current value of the nanosecond timer if the call is timed, otherwise zero
+     */
+    long startTimer() {
+        if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return 0;
+        }
+        
+        return System.nanoTime();
+    }
+    
+    /**
+     * Counts a call and records its latency if it is timed
+     * 
+     * @param operation - the operation called
+     * @param startTime - the value returned by startTimer at the start of the call
+     */
+    void record(TradeOperation operation, long startTime) {
+        int index = operation.ordinal();
+        counts[index].increment();
+        
+        if (startTime != 0) {
+            latencies[index].record(System.nanoTime() - startTime);
+        }
+    }
+    
+    /**
+     * Retrieves the number of calls of an operation
+     * 
+     * @param operation - the operation
+     * @return - the number of calls
+     */
+    public long getCount(TradeOperation operation) {
+        return counts[operation.ordinal()].sum();
+    }
+    
+    /**
+     * Retrieves the histogram of the latencies of the timed calls of an operation
+     * 
+     * @param operation - the operation
+     * @return - the histogram of the latencies in nanoseconds
+     */
+    public LatencyHistogram getLatencies(TradeOperation operation) {
+        return latencies[operation.ordinal()];
+    }
+    
+    @Override
+    public OperationStatistics[] getOperationStatistics() {
+        TradeOperation[] operations = TradeOperation.values();
+        OperationStatistics[] statistics = new OperationStatistics[operations.length];
+        
+        for (int i = 0; i < operations.length; i++) {
+            statistics[i] = OperationStatistics.of(operations[i], counts[i].sum(), latencies[i]);
+        }
+        
+        return statistics;
+    }
+    
+    @Override
+    public WindowStatistics[] getWindowStatistics() {
+        StockRegistry registry = stockTrader.getStockRegistry();
+        List<WindowStatistics> statistics = new ArrayList<WindowStatistics>();
+        
+        for (int stockId = 0; stockId < registry.size(); stockId++) {
+            StockTradeWindow tradeWindow = stockTrader.findTradeWindow(stockId);
+            
+            if (tradeWindow != null) {
+                statistics.add(new WindowStatistics(registry.getSymbol(stockId), tradeWindow.size(), tradeWindow.capacity(), tradeWindow.getEvictedCount()));
+            }
+        }
+        
+        return statistics.toArray(new WindowStatistics[statistics.size()]);
+    }
+    
+    @Override
+    public long getWindowTradeCount() {
+        long tradeCount = 0;
+        for (WindowStatistics statistics : getWindowStatistics()) {
+            tradeCount += statistics.getSize();
+        }
+        
+        return tradeCount;
+    }
+    
+    @Override
+    public long getEvictedTradeCount() {
+        long evictedCount = 0;
+        for (WindowStatistics statistics : getWindowStatistics()) {
+            evictedCount += statistics.getEvictedCount();
+        }
+        
+        return evictedCount;
+    }
+    
+    @Override
+    public void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i].reset();
+            latencies[i].reset();
+        }
+    }
+    
+    /**
+     * Registers the metrics with the platform MBean server, so they can be read over JMX. If they
+     * cannot be registered, for example because the name is taken, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param name - the name of the metrics, which tells apart the metrics of several utilities
+     * @return - the JMX name under which the metrics are registered
+     * @throws BusinessException
+     */
+    public synchronized ObjectName registerMBean(String name) throws BusinessException {
+        if (objectName != null) {
+            throw new BusinessException(Messages.ERR_METRICS_REGISTERED + objectName);
+        }
+        
+        try {
+            ObjectName newObjectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+            objectName = newObjectName;
+        } catch (JMException ex) {
+            throw new BusinessException(Messages.ERR_METRICS_JMX + ex.getMessage());
+        }
+        
+        return objectName;
+    }
+    
+    /**
+     * Unregisters the metrics from the platform MBean server, if they are registered. If they cannot
+     * be unregistered, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @throws BusinessException
+     */
+    public synchronized void unregisterMBean() throws BusinessException {
+        if (objectName == null) {
+            return;
+        }
+        
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        } catch (JMException ex) {
+            throw new BusinessException(Messages.ERR_METRICS_JMX + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Starts writing the metrics to the log periodically, from a daemon thread; a dump already
+     * started is stopped first. It also validates the input parameters; if the validation fails,
+     * an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param period - the time between two dumps, of at least a millisecond
+     */
+    public synchronized void startDump(Duration period) {
+        if (period == null || period.toMillis() <= 0) {
+            throw new IllegalArgumentException(Messages.ERR_DUMP_PERIOD_INCORRECT);
+        }
+        
+        long periodMillis = period.toMillis();
+        stopDump();
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        dumpExecutor.scheduleAtFixedRate(this::dump, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stops writing the metrics to the log, waiting for a dump being written to finish
+     */
+    public synchronized void stopDump() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+            
+            try {
+                dumpExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            
+            dumpExecutor = null;
+        }
+    }
+    
+    /**
+     * Writes the statistics of the operations which have been called, and a summary of the windows,
+     * to the log
+     */
+    public void dump() {
+        for (OperationStatistics statistics : getOperationStatistics()) {
+            if (statistics.getCount() > 0) {
+                Logger.log(Messages.MSG_METRICS_OPERATION, new String[] {statistics.getOperation(), Long.toString(statistics.getCount()),
+                        Long.toString(Math.round(statistics.getMeanLatency())), Long.toString(statistics.getMedianLatency()),
+                        Long.toString(statistics.getP99Latency()), Long.toString(statistics.getP999Latency()), Long.toString(statistics.getMaxLatency())});
+            }
+        }
+        
+        WindowStatistics[] windowStatistics = getWindowStatistics();
+        long tradeCount = 0;
+        long evictedCount = 0;
+        int largestSize = 0;
+        
+        for (WindowStatistics statistics : windowStatistics) {
+            tradeCount += statistics.getSize();
+            evictedCount += statistics.getEvictedCount();
+            largestSize = Math.max(largestSize, statistics.getSize());
+        }
+        
+        Logger.log(Messages.MSG_METRICS_WINDOWS, new String[] {Integer.toString(windowStatistics.length), Long.toString(tradeCount),
+                Integer.toString(largestSize), Long.toString(evictedCount)});
+    }
+}
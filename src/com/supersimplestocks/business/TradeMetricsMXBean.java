@@ -0,0 +1,44 @@
+package com.supersimplestocks.business;
+
+import com.supersimplestocks.data.OperationStatistics;
+import com.supersimplestocks.data.WindowStatistics;
+
+/**
+ * The management interface of the {@link TradeMetrics}, through which the metrics of a
+ * {@link StockTradeUtil} are read over JMX (for example with JConsole or VisualVM)
+ */
+public interface TradeMetricsMXBean {
+    
+    /**
+     * Retrieves the number of calls and the latencies of every operation
+     * 
+     * @return - the statistics of the operations, in the order of the operations
+     */
+    OperationStatistics[] getOperationStatistics();
+    
+    /**
+     * Retrieves the occupancy and the number of evicted trades of the window of every traded stock
+     * 
+     * @return - the statistics of the windows, in the order of the stock IDs
+     */
+    WindowStatistics[] getWindowStatistics();
+    
+    /**
+     * Retrieves the number of trades in the windows of all the stocks
+     * 
+     * @return - the number of trades in the windows
+     */
+    long getWindowTradeCount();
+    
+    /**
+     * Retrieves the number of trades evicted from the windows of all the stocks
+     * 
+     * @return - the number of trades evicted
+     */
+    long getEvictedTradeCount();
+    
+    /**
+     * Resets the number of calls and the latencies of every operation
+     */
+    void reset();
+}
@@ -0,0 +1,465 @@
+package com.supersimplestocks.business;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * A staged pipeline in front of a {@link StockTradeUtil}, in the manner of the LMAX Disruptor: the
+ * trades are submitted into a preallocated ring and go through three stages, each on its own thread.
+ * 
+ * 1) validate: the symbol is resolved to a stock ID and the quantity, price and timestamp are checked
+ *    with the {@link com.supersimplestocks.data.validation.InputValidator};
+ * 2) apply: the valid trades are recorded in the windows of their stocks. The stocks are divided into
+ *    partitions by ID, and every partition has its own thread, which is the only one to write the
+ *    windows of its stocks, so their locks are never contended;
+ * 3) publish: once all the partitions have applied a batch, the Volume Weighted Stock Price of every
+ *    stock traded in the batch and the All Share Index are handed to a {@link TradePipelineListener},
+ *    as are the trades which have been rejected.
+ * 
+ * The stages do not copy the trades from one ring to the next: the trades stay in the columns of the
+ * ring, and every stage follows the sequence number of the stage before it, processing all the trades
+ * it has passed in one batch. The sequence numbers are the only state shared between the threads and
+ * are updated without locks; a trade is written by its producer, and then only by the stage which owns
+ * it. The producers wait when the ring is full, until the publish stage has released the oldest slots.
+ * 
+ * A trade is submitted from any thread and processed asynchronously: submit returns its sequence number,
+ * which identifies it to the listener, and flush waits until all the trades submitted have been published.
+ */
+public class TradePipeline implements Closeable {
+    
+    /** The number of trades the ring holds by default */
+    public static final int DEFAULT_CAPACITY = 65536;
+    
+    /** The largest number of trades a stage processes before handing them to the next stage */
+    private static final int BATCH_SIZE = 1024;
+    
+    /** The distance between two sequence numbers of the stages, so they are kept in different cache lines */
+    private static final int SEQUENCE_PADDING = 16;
+    
+    private final StockTradeUtil stockTrader;
+    
+    private final TradePipelineListener listener;
+    
+    private final int partitionCount;
+    
+    /** The trades submitted, whose slots are released by the publish stage */
+    private final TradeRing ring;
+    
+    /** The symbols of the trades of the ring, indexed by slot, null for a trade identified by its ID */
+    private final String[] symbols;
+    
+    /** The reason why every trade has been rejected, null for a trade which has been recorded */
+    private final String[] errors;
+    
+    /**
+     * The number of trades processed by the validate stage, then by every partition of the apply
+     * stage, SEQUENCE_PADDING longs apart
+     */
+    private final AtomicLongArray sequences;
+    
+    /** The threads of the stages */
+    private final Thread[] threads;
+    
+    /** Whether trades are accepted */
+    private volatile boolean running = true;
+    
+    /** Whether the threads stop once they have no more trades to process */
+    private volatile boolean stopping;
+    
+    /** The number of trades rejected, written by the publish stage */
+    private volatile long rejectedCount;
+    
+    /** The IDs of the stocks traded in the batch being published, and a bit for every stock traded */
+    private int[] tradedIds = new int[0];
+    
+    private long[] tradedBits = new long[0];
+    
+    /**
+     * Constructor. Starts the threads of the stages, daemon threads. It also validates the input
+     * parameters; if the validation fails, an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockTrader - the utility which records the trades
+     * @param partitionCount - the number of threads of the apply stage
+     * @param capacity - the number of trades the ring holds; a power of two
+     * @param listener - the listener which receives the results
+     */
+    public TradePipeline(StockTradeUtil stockTrader, int partitionCount, int capacity, TradePipelineListener listener) {
+        if (stockTrader == null || listener == null || partitionCount <= 0) {
+            throw new IllegalArgumentException(Messages.ERR_PIPELINE_PARAMETERS);
+        }
+        
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(Messages.ERR_PIPELINE_CAPACITY_INCORRECT);
+        }
+        
+        this.stockTrader = stockTrader;
+        this.listener = listener;
+        this.partitionCount = partitionCount;
+        this.ring = new TradeRing(capacity);
+        this.symbols = new String[capacity];
+        this.errors = new String[capacity];
+        this.sequences = new AtomicLongArray((partitionCount + 1) * SEQUENCE_PADDING);
+        
+        threads = new Thread[partitionCount + 2];
+        threads[0] = new Thread(this::validate, "pipeline-validate");
+        for (int partition = 0; partition < partitionCount; partition++) {
+            int applyPartition = partition;
+            threads[partition + 1] = new Thread(() -> apply(applyPartition), "pipeline-apply-" + partition);
+        }
+        
+        threads[partitionCount + 1] = new Thread(this::publish, "pipeline-publish");
+        
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    /**
+     * Submits a stock trade (buy or sell) made at the current time of the clock of the utility.
+     * If the pipeline is closed, an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockSymbol - the stock to be traded
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @return - the sequence number of the trade
+     */
+    public long submit(String stockSymbol, long quantity, long price, boolean isBuy) {
+        return submit(stockSymbol, StockRegistry.NO_STOCK, stockTrader.getClock().millis(), quantity, price, isBuy);
+    }
+    
+    /**
+     * Submits a stock trade (buy or sell) made at the given time. If the pipeline is closed, an
+     * {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockSymbol - the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @return - the sequence number of the trade
+     */
+    public long submit(String stockSymbol, long timestamp, long quantity, long price, boolean isBuy) {
+        return submit(stockSymbol, StockRegistry.NO_STOCK, timestamp, quantity, price, isBuy);
+    }
+    
+    /**
+     * Submits a stock trade (buy or sell) made at the given time, identifying the stock by its ID.
+     * If the pipeline is closed, an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockId - the ID of the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @return - the sequence number of the trade
+     */
+    public long submit(int stockId, long timestamp, long quantity, long price, boolean isBuy) {
+        return submit(null, stockId, timestamp, quantity, price, isBuy);
+    }
+    
+    /**
+     * Waits until all the trades submitted before the call have been published
+     */
+    public void flush() {
+        ring.awaitReleased(threads[threads.length - 1]);
+    }
+    
+    /**
+     * Retrieves the number of trades published, recorded or rejected
+     * 
+     * @return - the number of trades published
+     */
+    public long getPublishedCount() {
+        return ring.getReleasedSequence();
+    }
+    
+    /**
+     * Retrieves the number of trades rejected
+     * 
+     * @return - the number of trades rejected
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+    
+    /**
+     * Retrieves the number of threads of the apply stage
+     * 
+     * @return - the number of partitions of the stocks
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+    
+    /**
+     * Publishes the trades submitted and stops the threads; the trades submitted afterwards throw
+     * an {@link java.lang.IllegalStateException}
+     */
+    @Override
+    public void close() {
+        running = false;
+        flush();
+        stopping = true;
+        
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+            
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Writes a trade into the next slot of the ring, waiting while the ring is full
+     * 
+     * @param stockSymbol - the stock to be traded, null if it is identified by its ID
+     * @param stockId - the ID of the stock to be traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock is bought or sold
+     * @return - the sequence number of the trade
+     */
+    private long submit(String stockSymbol, int stockId, long timestamp, long quantity, long price, boolean isBuy) {
+        if (!running) {
+            throw new IllegalStateException(Messages.ERR_PIPELINE_CLOSED);
+        }
+        
+        long sequence = ring.claim();
+        
+        int slot = ring.slot(sequence);
+        symbols[slot] = stockSymbol;
+        ring.stockIds[slot] = stockId;
+        ring.timestamps[slot] = timestamp;
+        ring.quantities[slot] = quantity;
+        ring.prices[slot] = price;
+        ring.buys[slot] = isBuy;
+        
+        ring.publish(sequence);
+        return sequence;
+    }
+    
+    /**
+     * The loop of the validate stage: resolves the symbols of the trades submitted, in order, and
+     * validates their values, writing the reason of the trades rejected
+     */
+    private void validate() {
+        long next = 0;
+        
+        for (int idleCount = 0; true; idleCount++) {
+            long end = ring.getPublishedEnd(next, BATCH_SIZE);
+            
+            if (end == next) {
+                if (stopping) {
+                    return;
+                }
+                
+                TradeRing.idle(idleCount);
+                continue;
+            }
+            
+            StockRegistry registry = stockTrader.getStockRegistry();
+            for (long sequence = next; sequence < end; sequence++) {
+                int slot = ring.slot(sequence);
+                errors[slot] = validateTrade(registry, slot);
+            }
+            
+            sequences.lazySet(0, end);
+            next = end;
+            idleCount = -1;
+        }
+    }
+    
+    /**
+     * Resolves the stock of a trade and validates its values
+     * 
+     * @param registry - the stock registry
+     * @param slot - the slot of the trade
+     * @return - the reason why the trade is rejected, null if it is valid
+     */
+    private String validateTrade(StockRegistry registry, int slot) {
+        String stockSymbol = symbols[slot];
+        if (stockSymbol != null) {
+            if (!InputValidator.validateStockSymbol(stockSymbol)) {
+                return Messages.ERR_STOCK_SYMBOL_NULL_EMPTY;
+            }
+            
+            ring.stockIds[slot] = registry.getId(stockSymbol);
+            if (ring.stockIds[slot] == StockRegistry.NO_STOCK) {
+                return Messages.ERR_NO_STOCK_FOUND + stockSymbol;
+            }
+        } else if (!registry.isValidId(ring.stockIds[slot])) {
+            return Messages.ERR_NO_STOCK_ID_FOUND + ring.stockIds[slot];
+        }
+        
+        if (!InputValidator.validateQuantity(ring.quantities[slot])) {
+            return Messages.ERR_QUANTITY_NEGATIVE_ZERO;
+        }
+        
+        if (!InputValidator.validatePrice(ring.prices[slot])) {
+            return Messages.ERR_PRICE_NEGATIVE_ZERO;
+        }
+        
+        if (!InputValidator.validateTimestamp(ring.timestamps[slot])) {
+            return Messages.ERR_TIMESTAMP_NEGATIVE;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * The loop of a partition of the apply stage: records the valid trades of the stocks of the
+     * partition which have been validated, in order
+     * 
+     * @param partition - the partition, which owns the stocks whose ID modulo the number of
+     * partitions is equal to it
+     */
+    private void apply(int partition) {
+        int sequenceIndex = (partition + 1) * SEQUENCE_PADDING;
+        long next = 0;
+        
+        for (int idleCount = 0; true; idleCount++) {
+            long end = Math.min(sequences.get(0), next + BATCH_SIZE);
+            
+            if (end == next) {
+                if (stopping) {
+                    return;
+                }
+                
+                TradeRing.idle(idleCount);
+                continue;
+            }
+            
+            for (long sequence = next; sequence < end; sequence++) {
+                int slot = ring.slot(sequence);
+                
+                if (errors[slot] == null && ring.stockIds[slot] % partitionCount == partition) {
+                    try {
+                        stockTrader.tradeStock(ring.stockIds[slot], ring.timestamps[slot], ring.quantities[slot], ring.prices[slot], ring.buys[slot]);
+                    } catch (BusinessException ex) {
+                        errors[slot] = ex.getMessage();
+                    }
+                }
+            }
+            
+            sequences.lazySet(sequenceIndex, end);
+            next = end;
+            idleCount = -1;
+        }
+    }
+    
+    /**
+     * The loop of the publish stage: once all the partitions have applied a batch, hands the
+     * trades rejected and the prices of the stocks traded to the listener, and releases the slots
+     */
+    private void publish() {
+        long next = 0;
+        
+        for (int idleCount = 0; true; idleCount++) {
+            long end = next + BATCH_SIZE;
+            for (int partition = 1; partition <= partitionCount; partition++) {
+                end = Math.min(end, sequences.get(partition * SEQUENCE_PADDING));
+            }
+            
+            if (end == next) {
+                if (stopping) {
+                    return;
+                }
+                
+                TradeRing.idle(idleCount);
+                continue;
+            }
+            
+            try {
+                publishBatch(next, end);
+            } catch (RuntimeException ex) {
+                Logger.error(ex.getMessage());
+            }
+            
+            ring.release(end);
+            next = end;
+            idleCount = -1;
+        }
+    }
+    
+    /**
+     * Hands the results of a batch to the listener and releases the slots of the batch. An exception
+     * thrown by the listener is logged, so the rest of the batch is still handed over and released.
+     * 
+     * @param start - the sequence number of the first trade of the batch
+     * @param end - the sequence number following the last trade of the batch
+     */
+    private void publishBatch(long start, long end) {
+        int stockCount = stockTrader.getStockRegistry().size();
+        if (tradedIds.length < stockCount) {
+            tradedIds = new int[stockCount];
+            tradedBits = new long[(stockCount + Long.SIZE - 1) / Long.SIZE];
+        }
+        
+        int tradedCount = 0;
+        long rejected = 0;
+        
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = ring.slot(sequence);
+            String error = errors[slot];
+            
+            if (error != null) {
+                rejected++;
+                errors[slot] = null;
+                
+                try {
+                    listener.onTradeRejected(sequence, error);
+                } catch (RuntimeException ex) {
+                    Logger.error(ex.getMessage());
+                }
+            } else {
+                int stockId = ring.stockIds[slot];
+                long bit = 1L << stockId;
+                
+                if ((tradedBits[stockId / Long.SIZE] & bit) == 0) {
+                    tradedBits[stockId / Long.SIZE] |= bit;
+                    tradedIds[tradedCount++] = stockId;
+                }
+            }
+            
+            symbols[slot] = null;
+        }
+        
+        for (int i = 0; i < tradedCount; i++) {
+            int stockId = tradedIds[i];
+            tradedBits[stockId / Long.SIZE] = 0;
+            
+            try {
+                listener.onVolumeWeightedPrice(stockId, stockTrader.getVolumeWeightedStockPrice(stockId));
+            } catch (BusinessException ex) {
+                //The stock has been removed since its trade was recorded
+            } catch (RuntimeException ex) {
+                Logger.error(ex.getMessage());
+            }
+        }
+        
+        if (tradedCount > 0) {
+            try {
+                listener.onAllShareIndex(stockTrader.getGBCEAllShareIndex());
+            } catch (BusinessException | RuntimeException ex) {
+                Logger.error(ex.getMessage());
+            }
+        }
+        
+        if (rejected > 0) {
+            rejectedCount += rejected;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.supersimplestocks.business;
+
+/**
+ * Receives the results of the trades of a {@link TradePipeline}, on the thread of its publish stage.
+ * The methods are called in the order of the trades: after every batch, the Volume Weighted Stock
+ * Price of every stock traded in the batch, then the GBCE All Share Index. A runtime exception thrown
+ * by a method is logged, and the pipeline goes on with the next result.
+ */
+public interface TradePipelineListener {
+    
+    /**
+     * Receives a trade which has not been recorded
+     * 
+     * @param sequence - the sequence number returned when the trade was submitted
+     * @param error - the reason why the trade has been rejected
+     */
+    default void onTradeRejected(long sequence, String error) {
+    }
+    
+    /**
+     * Receives the Volume Weighted Stock Price of a stock traded in the last batch
+     * 
+     * @param stockId - the ID of the stock
+     * @param volWeighPrice - the Volume Weighted Stock Price
+     */
+    default void onVolumeWeightedPrice(int stockId, double volWeighPrice) {
+    }
+    
+    /**
+     * Receives the GBCE All Share Index after the last batch
+     * 
+     * @param allShareIndex - the GBCE All Share Index
+     */
+    default void onAllShareIndex(double allShareIndex) {
+    }
+}
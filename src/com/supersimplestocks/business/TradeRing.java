@@ -0,0 +1,168 @@
+package com.supersimplestocks.business;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated ring of trades, written by any number of producers and read in order by the threads
+ * of its owner, used by {@link TradePipeline} and {@link ShardedTradeEngine}. A producer claims the next
+ * sequence number, writes the trade into the columns at its slot and publishes it; a reader finds the
+ * trades published after the last one it has processed with getPublishedEnd, without any lock. The owner
+ * releases the slots once their trades are no longer needed, and a producer waits while the ring is full.
+ * 
+ * The threads which wait for work or for free slots spin, then yield, then sleep, as they stay idle longer.
+ */
+class TradeRing {
+    
+    /** The number of times an idle thread checks for work before it yields, then sleeps */
+    private static final int SPIN_TRIES = 100;
+    
+    private static final int YIELD_TRIES = 200;
+    
+    /** The time an idle thread sleeps between two checks for work */
+    private static final long IDLE_PARK_NANOS = 50000;
+    
+    private final int capacity;
+    
+    /** The capacity minus one, used as a mask to find the slot of a sequence number */
+    private final int mask;
+    
+    /** The columns of the trades, indexed by slot */
+    final int[] stockIds;
+    
+    final long[] timestamps;
+    
+    final long[] quantities;
+    
+    final long[] prices;
+    
+    final boolean[] buys;
+    
+    /** The sequence number of the trade published in every slot */
+    private final AtomicLongArray published;
+    
+    /** The sequence number of the next trade */
+    private final AtomicLong claimSequence = new AtomicLong();
+    
+    /** The number of trades whose slots have been released */
+    private final AtomicLong releasedSequence = new AtomicLong();
+    
+    /**
+     * Constructor
+     * 
+     * @param capacity - the number of trades the ring holds; a power of two, validated by the owner
+     */
+    TradeRing(int capacity) {
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.stockIds = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.quantities = new long[capacity];
+        this.prices = new long[capacity];
+        this.buys = new boolean[capacity];
+        this.published = new AtomicLongArray(capacity);
+        
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+    
+    /**
+     * Claims the sequence number of the next trade, waiting while its slot has not been released
+     * 
+     * @return - the sequence number
+     */
+    long claim() {
+        long sequence = claimSequence.getAndIncrement();
+        for (int idleCount = 0; sequence - releasedSequence.get() >= capacity; idleCount++) {
+            idle(idleCount);
+        }
+        
+        return sequence;
+    }
+    
+    /**
+     * Finds the slot of a sequence number
+     * 
+     * @param sequence - the sequence number
+     * @return - the index of the slot in the columns
+     */
+    int slot(long sequence) {
+        return (int) sequence & mask;
+    }
+    
+    /**
+     * Publishes a claimed trade once its columns have been written, so it can be read
+     * 
+     * @param sequence - the sequence number of the trade
+     */
+    void publish(long sequence) {
+        published.lazySet(slot(sequence), sequence);
+    }
+    
+    /**
+     * Finds the trades published from a sequence number on, in order
+     * 
+     * @param next - the sequence number of the first trade not yet read
+     * @param maxCount - the largest number of trades to be read
+     * @return - the sequence number following the last trade published, next if there is none
+     */
+    long getPublishedEnd(long next, int maxCount) {
+        long end = next;
+        while (end - next < maxCount && published.get(slot(end)) == end) {
+            end++;
+        }
+        
+        return end;
+    }
+    
+    /**
+     * Releases the slots of the trades before a sequence number, so they can be claimed again
+     * 
+     * @param sequence - the sequence number following the last trade released
+     */
+    void release(long sequence) {
+        releasedSequence.lazySet(sequence);
+    }
+    
+    /**
+     * Retrieves the number of trades whose slots have been released
+     * 
+     * @return - the sequence number following the last trade released
+     */
+    long getReleasedSequence() {
+        return releasedSequence.get();
+    }
+    
+    /**
+     * Waits until the trades claimed before the call have been released, or the thread which
+     * releases them has stopped
+     * 
+     * @param releasingThread - the thread which releases the slots
+     */
+    void awaitReleased(Thread releasingThread) {
+        long sequence = claimSequence.get();
+        
+        for (int idleCount = 0; releasedSequence.get() < sequence && releasingThread.isAlive(); idleCount++) {
+            idle(idleCount);
+        }
+    }
+    
+    /**
+     * Waits for work: spins, then yields, then sleeps, as a thread stays idle longer
+     * 
+     * @param idleCount - the number of times the thread has found no work in a row
+     */
+    static void idle(int idleCount) {
+        if (idleCount < SPIN_TRIES) {
+            return;
+        }
+        
+        if (idleCount < YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.supersimplestocks.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.util.HashMap;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.gateway.TradeGateway;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * A node of a cluster: a {@link com.supersimplestocks.business.StockTradeUtil} served by a
+ * {@link com.supersimplestocks.gateway.TradeGateway}. A node starts without any stock; the
+ * {@link ClusterRouter} gives it the stocks it owns and moves some of them to a node which joins the
+ * cluster, so every node only holds the windows of its own stocks. Several nodes can run in one JVM,
+ * each on its own port, or every node in its own JVM, started by the main method.
+ */
+public class ClusterNode implements Closeable {
+    
+    /** The port on which a node listens if none is specified */
+    public static final int DEFAULT_PORT = 9190;
+    
+    /** The utility which holds the stocks of the node */
+    private final StockTradeUtil stockTrader;
+    
+    /** The gateway which serves the utility */
+    private final TradeGateway gateway;
+    
+    /**
+     * Constructor. Opens the server socket of the node; the requests are served once the node is
+     * started. If the clock is null, an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param clock - the clock which gives the time of the trades
+     * @param address - the address on which the node listens, with port 0 for any free port
+     * @throws IOException - if the server socket cannot be opened
+     */
+    public ClusterNode(Clock clock, InetSocketAddress address) throws IOException {
+        this.stockTrader = new StockTradeUtil(new HashMap<String, Stock>(), clock);
+        this.gateway = new TradeGateway(stockTrader, address, TradeGateway.DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Main method which starts a node on the loopback interface, to be joined by a router in
+     * another JVM
+     * 
+     * @param args - method arguments: the optional port
+     */
+    public static void main(String[] args) {
+        if (args.length > 1 || args.length > 0 && !StockTradeUtil.checkStrPositiveInt(args[0])) {
+            Logger.error(Messages.ERR_CLUSTER_NODE_ARGUMENTS);
+            return;
+        }
+        
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        
+        try {
+            ClusterNode node = new ClusterNode(Clock.systemUTC(), new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            
+            node.start();
+            Logger.log(Messages.MSG_CLUSTER_NODE_STARTED, new String[] {Integer.toString(node.getPort())});
+        } catch (IOException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Starts serving the requests
+     */
+    public void start() {
+        gateway.start();
+    }
+    
+    /**
+     * Retrieves the port on which the node listens
+     * 
+     * @return - the port
+     */
+    public int getPort() {
+        return gateway.getPort();
+    }
+    
+    /**
+     * Retrieves the utility of the node, which holds the stocks owned by the node only; its
+     * stocks and trades must be changed through the router
+     * 
+     * @return - the utility of the node
+     */
+    public StockTradeUtil getStockTrader() {
+        return stockTrader;
+    }
+    
+    /**
+     * Stops the node; its trades are lost
+     * 
+     * @throws IOException - if a channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        gateway.close();
+    }
+}
@@ -0,0 +1,526 @@
+package com.supersimplestocks.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.StockTradeWindow;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.gateway.GatewayProtocol;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * A router which spreads the stocks over the nodes of a cluster, every node being a
+ * {@link ClusterNode} in its own JVM, possibly on its own machine, so the windows of the stocks are
+ * not limited by the memory of one machine. The router holds the reference data of all the stocks
+ * and a connection to every node; it does not hold any trade.
+ * 
+ * Every stock is owned by one node, chosen by rendezvous (highest random weight) hashing: the node
+ * whose address gives the highest hash combined with the symbol. A trade or a query of a stock is
+ * forwarded to its owner. The GBCE All Share Index is gathered from the sums of the logarithms of the
+ * prices of all the nodes, see {@link com.supersimplestocks.business.StockTradeUtil#getLogPriceSum()}.
+ * 
+ * When a node joins, only the stocks for which it has the highest weight change owner, about one in
+ * the number of nodes, and they all move to the new node: every moved stock is added to the new node,
+ * removed from its previous owner with the trades held by its windows, and its trades are recorded on
+ * the new node with their original times, so its Volume Weighted Stock Price and the index do not
+ * change. If the new node does not take all the trades of a stock, the stock is given back to its
+ * previous owner with its trades. The router serializes the requests, so no trade of a stock is made
+ * while it is being moved.
+ */
+public class ClusterRouter implements Closeable {
+    
+    /** The stocks by symbol, in the order of their symbols */
+    private final Map<String, Stock> stockMap;
+    
+    /** The stock symbols in UTF-8 by symbol */
+    private final Map<String, byte[]> symbolBytes = new HashMap<String, byte[]>();
+    
+    /** The owner of every stock by symbol */
+    private final Map<String, NodeConnection> owners = new HashMap<String, NodeConnection>();
+    
+    /** The connections to the nodes, in the order they joined */
+    private final List<NodeConnection> nodes = new ArrayList<NodeConnection>();
+    
+    /** The trades of the stock being moved */
+    private final MovedTrades movedTrades = new MovedTrades();
+    
+    /** The partial sums of the All Share Index of a node */
+    private final long[] sumAndCount = new long[2];
+    
+    /** Whether the router is closed */
+    private boolean closed;
+    
+    /**
+     * Constructor. Connects to the nodes, which must not hold any stock yet, and gives every node the
+     * stocks it owns. It also validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockMap - the stocks, by symbol
+     * @param nodeAddresses - the addresses of the nodes
+     * @throws BusinessException - if a node cannot be reached or rejects a stock
+     */
+    public ClusterRouter(Map<String, Stock> stockMap, List<InetSocketAddress> nodeAddresses) throws BusinessException {
+        if (stockMap == null || nodeAddresses == null || nodeAddresses.isEmpty()) {
+            throw new IllegalArgumentException(Messages.ERR_CLUSTER_PARAMETERS);
+        }
+        
+        this.stockMap = new TreeMap<String, Stock>(stockMap);
+        for (String stockSymbol : this.stockMap.keySet()) {
+            symbolBytes.put(stockSymbol, stockSymbol.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        try {
+            for (InetSocketAddress nodeAddress : nodeAddresses) {
+                connect(nodeAddress);
+            }
+            
+            for (Map.Entry<String, Stock> entry : this.stockMap.entrySet()) {
+                NodeConnection owner = selectOwner(entry.getKey());
+                owner.addStock(symbolBytes.get(entry.getKey()), entry.getValue());
+                owners.put(entry.getKey(), owner);
+            }
+        } catch (IOException ex) {
+            close();
+            throw new BusinessException(Messages.ERR_CLUSTER_NODE_IO + ex.getMessage());
+        } catch (BusinessException ex) {
+            close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Main method which spreads the predefined stocks over nodes started on the loopback interface
+     * by {@link ClusterNode#main(String[])}, trades every stock, then lets the last node join the
+     * cluster and shows that the prices and the index are unchanged.
+     * 
+     * @param args - method arguments: the ports of the nodes
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            Logger.error(Messages.ERR_CLUSTER_ROUTER_ARGUMENTS);
+            return;
+        }
+        
+        List<InetSocketAddress> nodeAddresses = new ArrayList<InetSocketAddress>();
+        for (String arg : args) {
+            if (!StockTradeUtil.checkStrPositiveInt(arg)) {
+                Logger.error(Messages.ERR_CLUSTER_ROUTER_ARGUMENTS);
+                return;
+            }
+            
+            nodeAddresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(arg)));
+        }
+        
+        try (ClusterRouter router = new ClusterRouter(StockData.stockMap, nodeAddresses.subList(0, nodeAddresses.size() - 1))) {
+            Logger.log(Messages.MSG_CLUSTER_SPREAD, new String[] {Integer.toString(StockData.stockMap.size()), Integer.toString(router.getNodeCount())});
+            
+            long price = 100;
+            for (String stockSymbol : StockData.stockMap.keySet()) {
+                router.tradeStock(stockSymbol, 10, price, true);
+                router.tradeStock(stockSymbol, 30, price + 20, false);
+                price += 50;
+            }
+            
+            logPrices(router);
+            
+            InetSocketAddress joiningAddress = nodeAddresses.get(nodeAddresses.size() - 1);
+            int movedCount = router.addNode(joiningAddress);
+            Logger.log(Messages.MSG_CLUSTER_NODE_JOINED, new String[] {joiningAddress.toString(), Integer.toString(movedCount)});
+            
+            logPrices(router);
+        } catch (BusinessException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Logs the Volume Weighted Stock Price of every stock and the All Share Index
+     * 
+     * @param router - the router
+     * @throws BusinessException
+     */
+    private static void logPrices(ClusterRouter router) throws BusinessException {
+        for (String stockSymbol : StockData.stockMap.keySet()) {
+            Logger.log(Messages.MSG_VOL_WEIGH_PRICE, new String[] {stockSymbol, Double.toString(router.getVolumeWeightedStockPrice(stockSymbol))});
+        }
+        
+        Logger.log(Messages.MSG_ALL_SHARE_INDEX, new String[] {Double.toString(router.getGBCEAllShareIndex())});
+    }
+    
+    /**
+     * Mixes a value into a well spread 64 bit hash (the finalizer of SplitMix64)
+     * 
+     * @param value - the value
+     * @return - the hash
+     */
+    static long mix(long value) {
+        value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+        return value ^ value >>> 31;
+    }
+    
+    /**
+     * Hashes a text, such as the address of a node
+     * 
+     * @param text - the text
+     * @return - the hash
+     */
+    static long hash(String text) {
+        return mix(text.hashCode() * 0x9E3779B97F4A7C15L);
+    }
+    
+    /**
+     * Performs a stock trade (buy or sell) on the node which owns the stock, at the current time of
+     * the node. It also validates the input parameters; if the validation fails, or if the node rejects
+     * the trade or cannot be reached, a {@link com.supersimplestocks.exceptions.BusinessException} is
+     * thrown. If the router is closed, an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockSymbol - the stock to be traded
+     * @param quantity - the quantity of shares
+     * @param price - the price at which the stock is traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    public synchronized void tradeStock(String stockSymbol, long quantity, long price, boolean isBuy) throws BusinessException {
+        NodeConnection owner = findOwner(stockSymbol);
+        
+        if (!InputValidator.validateQuantity(quantity)) {
+            throw new BusinessException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validatePrice(price)) {
+            throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
+        }
+        
+        try {
+            owner.trade(symbolBytes.get(stockSymbol), quantity, price, isBuy);
+        } catch (IOException ex) {
+            throw nodeFailed(owner, ex);
+        }
+    }
+    
+    /**
+     * Calculates the Volume Weighted Stock Price of a stock on the node which owns it. It also validates
+     * the input parameters; if the validation fails, or if the node cannot be reached, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the Volume Weighted Stock Price
+     * @throws BusinessException
+     */
+    public synchronized double getVolumeWeightedStockPrice(String stockSymbol) throws BusinessException {
+        NodeConnection owner = findOwner(stockSymbol);
+        
+        try {
+            return owner.getVolumeWeightedPrice(symbolBytes.get(stockSymbol));
+        } catch (IOException ex) {
+            throw nodeFailed(owner, ex);
+        }
+    }
+    
+    /**
+     * Calculates the dividend yield of a stock for a given price on the node which owns it. It also
+     * validates the input parameters; if the validation fails, or if the node cannot be reached, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param price - the price
+     * @return - the dividend yield
+     * @throws BusinessException
+     */
+    public synchronized double getDividendYield(String stockSymbol, long price) throws BusinessException {
+        return getPriceRatio(GatewayProtocol.DIVIDEND_YIELD, stockSymbol, price);
+    }
+    
+    /**
+     * Calculates the P/E ratio of a stock for a given price on the node which owns it. It also
+     * validates the input parameters; if the validation fails, or if the node cannot be reached, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param price - the price
+     * @return - the P/E ratio
+     * @throws BusinessException
+     */
+    public synchronized double getPERatio(String stockSymbol, long price) throws BusinessException {
+        return getPriceRatio(GatewayProtocol.PE_RATIO, stockSymbol, price);
+    }
+    
+    /**
+     * Calculates the GBCE All Share Index from the partial sums of all the nodes. If a node
+     * cannot be reached, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @return - the GBCE All Share Index
+     * @throws BusinessException
+     */
+    public synchronized double getGBCEAllShareIndex() throws BusinessException {
+        checkOpen();
+        
+        long logPriceSum = 0;
+        long stockCount = 0;
+        
+        for (NodeConnection node : nodes) {
+            try {
+                node.getLogPriceSum(sumAndCount);
+            } catch (IOException ex) {
+                throw nodeFailed(node, ex);
+            }
+            
+            logPriceSum += sumAndCount[0];
+            stockCount += sumAndCount[1];
+        }
+        
+        return stockCount > 0 ? Math.exp(logPriceSum / StockTradeWindow.LOG_PRICE_SCALE / stockCount) : 0;
+    }
+    
+    /**
+     * Lets a node join the cluster and moves to it the stocks it now owns, with their trades. The
+     * node must not hold any stock yet. If the node is already in the cluster, or if a node rejects
+     * a request or cannot be reached, a {@link com.supersimplestocks.exceptions.BusinessException}
+     * is thrown; the stocks moved before the failure stay on the new node, and the stock being moved
+     * stays on its previous owner with all its trades.
+     * 
+     * @param nodeAddress - the address of the node
+     * @return - the number of stocks moved to the node
+     * @throws BusinessException
+     */
+    public synchronized int addNode(InetSocketAddress nodeAddress) throws BusinessException {
+        checkOpen();
+        
+        for (NodeConnection node : nodes) {
+            if (node.getAddress().equals(nodeAddress)) {
+                throw new BusinessException(Messages.ERR_CLUSTER_NODE_EXISTS + nodeAddress);
+            }
+        }
+        
+        NodeConnection newNode;
+        try {
+            newNode = connect(nodeAddress);
+        } catch (IOException ex) {
+            throw new BusinessException(Messages.ERR_CLUSTER_NODE_IO + nodeAddress + ": " + ex.getMessage());
+        }
+        
+        int movedCount = 0;
+        for (Map.Entry<String, Stock> entry : stockMap.entrySet()) {
+            if (selectOwner(entry.getKey()) != newNode) {
+                continue;
+            }
+            
+            moveStock(entry.getKey(), entry.getValue(), owners.get(entry.getKey()), newNode);
+            movedCount++;
+        }
+        
+        return movedCount;
+    }
+    
+    /**
+     * Retrieves the number of nodes in the cluster
+     * 
+     * @return - the number of nodes
+     */
+    public synchronized int getNodeCount() {
+        return nodes.size();
+    }
+    
+    /**
+     * Retrieves the address of the node which owns a stock. It also validates the input parameters;
+     * if the validation fails, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the address of the node
+     * @throws BusinessException
+     */
+    public synchronized InetSocketAddress getOwner(String stockSymbol) throws BusinessException {
+        return findOwner(stockSymbol).getAddress();
+    }
+    
+    /**
+     * Closes the connections to the nodes; the nodes keep running
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        
+        for (NodeConnection node : nodes) {
+            try {
+                node.close();
+            } catch (IOException ex) {
+                //The connection is closed anyway
+            }
+        }
+    }
+    
+    /**
+     * Moves a stock from one node to another with its trades. If the new owner does not record all
+     * the trades, the stock is removed from it and given back to its previous owner with the trades.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @param stock - the stock
+     * @param previousOwner - the node which owns the stock
+     * @param newOwner - the node which receives the stock
+     * @throws BusinessException
+     */
+    private void moveStock(String stockSymbol, Stock stock, NodeConnection previousOwner, NodeConnection newOwner) throws BusinessException {
+        byte[] symbol = symbolBytes.get(stockSymbol);
+        NodeConnection node = newOwner;
+        
+        try {
+            newOwner.addStock(symbol, stock);
+            node = previousOwner;
+            previousOwner.removeStock(symbol, movedTrades);
+        } catch (IOException ex) {
+            throw nodeFailed(node, ex);
+        }
+        
+        try {
+            newOwner.importTrades(symbol, movedTrades);
+        } catch (IOException ex) {
+            restoreStock(symbol, stock, previousOwner, newOwner);
+            throw nodeFailed(newOwner, ex);
+        } catch (BusinessException ex) {
+            restoreStock(symbol, stock, previousOwner, newOwner);
+            throw ex;
+        }
+        
+        owners.put(stockSymbol, newOwner);
+    }
+    
+    /**
+     * Gives a stock whose trades have not all been recorded by its new owner back to its previous
+     * owner, with the moved trades, and removes it from the new owner
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @param stock - the stock
+     * @param previousOwner - the node which owned the stock
+     * @param newOwner - the node which did not record the trades
+     * @throws BusinessException - if the previous owner does not take the stock back
+     */
+    private void restoreStock(byte[] symbol, Stock stock, NodeConnection previousOwner, NodeConnection newOwner) throws BusinessException {
+        try {
+            previousOwner.addStock(symbol, stock);
+            previousOwner.importTrades(symbol, movedTrades);
+        } catch (IOException ex) {
+            throw nodeFailed(previousOwner, ex);
+        }
+        
+        try {
+            //The trades the new owner recorded are dropped with the stock
+            newOwner.removeStock(symbol, movedTrades);
+        } catch (IOException | BusinessException ex) {
+            //The stock is routed to its previous owner, so its copy on the new owner is never used
+        }
+    }
+    
+    /**
+     * Forwards a query of the dividend yield or the P/E ratio to the node which owns the stock
+     * 
+     * @param command - DIVIDEND_YIELD or PE_RATIO
+     * @param stockSymbol - the stock symbol
+     * @param price - the price
+     * @return - the dividend yield or the P/E ratio
+     * @throws BusinessException
+     */
+    private double getPriceRatio(byte command, String stockSymbol, long price) throws BusinessException {
+        NodeConnection owner = findOwner(stockSymbol);
+        
+        try {
+            return owner.getPriceRatio(command, symbolBytes.get(stockSymbol), price);
+        } catch (IOException ex) {
+            throw nodeFailed(owner, ex);
+        }
+    }
+    
+    /**
+     * Connects to a node and adds it to the nodes
+     * 
+     * @param nodeAddress - the address of the node
+     * @return - the connection to the node
+     * @throws IOException - if the node cannot be reached
+     */
+    private NodeConnection connect(InetSocketAddress nodeAddress) throws IOException {
+        NodeConnection node = new NodeConnection(nodeAddress);
+        nodes.add(node);
+        return node;
+    }
+    
+    /**
+     * Finds the node which owns a stock; if the symbol is not valid or there is no stock with this
+     * symbol, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown. If the router
+     * is closed, an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the connection to the node
+     * @throws BusinessException
+     */
+    private NodeConnection findOwner(String stockSymbol) throws BusinessException {
+        checkOpen();
+        
+        if (!InputValidator.validateStockSymbol(stockSymbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        NodeConnection owner = owners.get(stockSymbol);
+        if (owner == null) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + stockSymbol);
+        }
+        
+        return owner;
+    }
+    
+    /**
+     * Selects the node with the highest weight for a stock among the nodes of the cluster
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the connection to the node
+     */
+    private NodeConnection selectOwner(String stockSymbol) {
+        long symbolHash = hash(stockSymbol);
+        NodeConnection owner = null;
+        long ownerWeight = 0;
+        
+        for (NodeConnection node : nodes) {
+            long weight = mix(symbolHash ^ node.getNodeHash());
+            
+            if (owner == null || Long.compareUnsigned(weight, ownerWeight) > 0) {
+                owner = node;
+                ownerWeight = weight;
+            }
+        }
+        
+        return owner;
+    }
+    
+    /**
+     * Builds the exception thrown when a node cannot be reached
+     * 
+     * @param node - the connection to the node
+     * @param ex - the failure of the connection
+     * @return - the exception
+     */
+    private static BusinessException nodeFailed(NodeConnection node, IOException ex) {
+        return new BusinessException(Messages.ERR_CLUSTER_NODE_IO + node.getAddress() + ": " + ex.getMessage());
+    }
+    
+    /**
+     * Checks that the router is open; if it is closed, an {@link java.lang.IllegalStateException}
+     * is thrown
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(Messages.ERR_CLUSTER_CLOSED);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.supersimplestocks.cluster;
+
+import java.util.Arrays;
+
+/**
+ * The trades of a stock being moved from one node of a cluster to another, kept in columns which
+ * grow as needed and are reused for every stock moved
+ */
+class MovedTrades {
+    
+    /** The initial number of trades the columns can hold */
+    private static final int INITIAL_CAPACITY = 256;
+    
+    long[] timestamps = new long[INITIAL_CAPACITY];
+    
+    long[] quantities = new long[INITIAL_CAPACITY];
+    
+    long[] prices = new long[INITIAL_CAPACITY];
+    
+    boolean[] buys = new boolean[INITIAL_CAPACITY];
+    
+    /** The number of trades held */
+    int size;
+    
+    /**
+     * Adds a trade, growing the columns if they are full
+     * 
+     * @param timestamp - the time of the trade in milliseconds
+     * @param quantity - the quantity of shares traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock was bought or sold
+     */
+    void add(long timestamp, long quantity, long price, boolean isBuy) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size << 1);
+            quantities = Arrays.copyOf(quantities, size << 1);
+            prices = Arrays.copyOf(prices, size << 1);
+            buys = Arrays.copyOf(buys, size << 1);
+        }
+        
+        timestamps[size] = timestamp;
+        quantities[size] = quantity;
+        prices[size] = price;
+        buys[size] = isBuy;
+        size++;
+    }
+    
+    /**
+     * Removes all the trades
+     */
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,338 @@
+package com.supersimplestocks.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.StockType;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.gateway.GatewayProtocol;
+
+/**
+ * A blocking connection of a {@link ClusterRouter} to a node of the cluster, which sends the requests
+ * of the {@link com.supersimplestocks.gateway.GatewayProtocol} and waits for their responses. A request
+ * which fails on the node throws a {@link com.supersimplestocks.exceptions.BusinessException} with the
+ * error message of the node; a broken connection throws an {@link java.io.IOException}. The trades
+ * moved to the node are pipelined, so a moved stock costs a round trip per batch of trades.
+ */
+class NodeConnection implements Closeable {
+    
+    /** The largest number of moved trades sent before their responses are read */
+    private static final int IMPORT_BATCH_SIZE = 1024;
+    
+    /** The size of the read buffer */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    
+    /** The address of the node */
+    private final InetSocketAddress address;
+    
+    /** The hash of the address, which gives the weight of the node for every stock */
+    private final long nodeHash;
+    
+    private final SocketChannel channel;
+    
+    /** The buffer of the requests being sent */
+    private final ByteBuffer output;
+    
+    /** The buffer of the responses received and not yet read, ready to be read from */
+    private final ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    
+    /** The ID of the last request */
+    private int requestId;
+    
+    /** The ID of the last request whose response has been received */
+    private int answeredId;
+    
+    /**
+     * Constructor. Connects to the node.
+     * 
+     * @param address - the address of the node
+     * @throws IOException - if the node cannot be reached
+     */
+    NodeConnection(InetSocketAddress address) throws IOException {
+        this.address = address;
+        this.nodeHash = ClusterRouter.hash(address.getAddress().getHostAddress() + ":" + address.getPort());
+        this.output = ByteBuffer.allocate(IMPORT_BATCH_SIZE * (GatewayProtocol.LENGTH_SIZE + GatewayProtocol.MAX_FRAME_LENGTH));
+        this.channel = SocketChannel.open(address);
+        this.channel.socket().setTcpNoDelay(true);
+        this.input.flip();
+    }
+    
+    /**
+     * Retrieves the address of the node
+     * 
+     * @return - the address
+     */
+    InetSocketAddress getAddress() {
+        return address;
+    }
+    
+    /**
+     * Retrieves the hash of the address of the node
+     * 
+     * @return - the hash
+     */
+    long getNodeHash() {
+        return nodeHash;
+    }
+    
+    /**
+     * Performs a trade on the node, at the current time of the node
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @param quantity - the quantity of shares traded
+     * @param price - the price at which the stock is traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws IOException
+     * @throws BusinessException
+     */
+    void trade(byte[] symbol, long quantity, long price, boolean isBuy) throws IOException, BusinessException {
+        GatewayProtocol.putTrade(output, ++requestId, symbol, quantity, price, isBuy);
+        send();
+        readResult();
+    }
+    
+    /**
+     * Queries the Volume Weighted Stock Price of a stock of the node
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @return - the Volume Weighted Stock Price
+     * @throws IOException
+     * @throws BusinessException
+     */
+    double getVolumeWeightedPrice(byte[] symbol) throws IOException, BusinessException {
+        GatewayProtocol.putVolumeWeightedPrice(output, ++requestId, symbol);
+        send();
+        return readResult();
+    }
+    
+    /**
+     * Queries the dividend yield or the P/E ratio of a stock of the node for a given price
+     * 
+     * @param command - DIVIDEND_YIELD or PE_RATIO
+     * @param symbol - the stock symbol in UTF-8
+     * @param price - the price
+     * @return - the dividend yield or the P/E ratio
+     * @throws IOException
+     * @throws BusinessException
+     */
+    double getPriceRatio(byte command, byte[] symbol, long price) throws IOException, BusinessException {
+        GatewayProtocol.putPriceQuery(output, command, ++requestId, symbol, price);
+        send();
+        return readResult();
+    }
+    
+    /**
+     * Queries the sum of the fixed point logarithms of the prices of the stocks traded on the node
+     * and their number
+     * 
+     * @param sumAndCount - the array which receives the sum, then the number of stocks traded
+     * @throws IOException
+     * @throws BusinessException
+     */
+    void getLogPriceSum(long[] sumAndCount) throws IOException, BusinessException {
+        GatewayProtocol.putLogPriceSum(output, ++requestId);
+        send();
+        
+        int length = readFrame(GatewayProtocol.OK);
+        if (length != GatewayProtocol.HEADER_SIZE + 16) {
+            throw new IOException(Messages.ERR_CLUSTER_RESPONSE);
+        }
+        
+        int fieldsOffset = input.position() + GatewayProtocol.LENGTH_SIZE + GatewayProtocol.HEADER_SIZE;
+        sumAndCount[0] = input.getLong(fieldsOffset);
+        sumAndCount[1] = input.getLong(fieldsOffset + 8);
+        skipFrame(length);
+    }
+    
+    /**
+     * Adds a stock to the node, or replaces its reference data
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @param stock - the stock
+     * @throws IOException
+     * @throws BusinessException
+     */
+    void addStock(byte[] symbol, Stock stock) throws IOException, BusinessException {
+        GatewayProtocol.putAddStock(output, ++requestId, symbol, stock.getType() == StockType.PREFERRED, stock.getLastDividend(), stock.getFixedDividend(), stock.getParValue());
+        send();
+        readResult();
+    }
+    
+    /**
+     * Removes a stock from the node and receives the trades it held
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @param trades - the trades, which receive the trades of the stock, oldest first
+     * @throws IOException
+     * @throws BusinessException
+     */
+    void removeStock(byte[] symbol, MovedTrades trades) throws IOException, BusinessException {
+        GatewayProtocol.putRemoveStock(output, ++requestId, symbol);
+        send();
+        trades.clear();
+        
+        int length;
+        while ((length = readFrame(GatewayProtocol.MORE)) > 0) {
+            int recordOffset = input.position() + GatewayProtocol.LENGTH_SIZE + GatewayProtocol.HEADER_SIZE;
+            int recordEnd = input.position() + GatewayProtocol.LENGTH_SIZE + length;
+            
+            for (; recordOffset + GatewayProtocol.TRADE_RECORD_SIZE <= recordEnd; recordOffset += GatewayProtocol.TRADE_RECORD_SIZE) {
+                trades.add(input.getLong(recordOffset), input.getLong(recordOffset + 8), input.getLong(recordOffset + 16), input.get(recordOffset + 24) == GatewayProtocol.BUY);
+            }
+            
+            skipFrame(length);
+        }
+        
+        if (readResult() != trades.size) {
+            throw new IOException(Messages.ERR_CLUSTER_RESPONSE);
+        }
+    }
+    
+    /**
+     * Records trades moved from another node with their original times. The trades are sent in
+     * batches without waiting for their responses; if a trade is rejected, the responses of its
+     * batch are read and the first error is thrown.
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @param trades - the trades, oldest first
+     * @throws IOException
+     * @throws BusinessException
+     */
+    void importTrades(byte[] symbol, MovedTrades trades) throws IOException, BusinessException {
+        for (int offset = 0; offset < trades.size; offset += IMPORT_BATCH_SIZE) {
+            int count = Math.min(IMPORT_BATCH_SIZE, trades.size - offset);
+            
+            for (int i = offset; i < offset + count; i++) {
+                GatewayProtocol.putTradeAt(output, ++requestId, symbol, trades.timestamps[i], trades.quantities[i], trades.prices[i], trades.buys[i]);
+            }
+            
+            send();
+            
+            BusinessException error = null;
+            for (int i = 0; i < count; i++) {
+                try {
+                    readResult();
+                } catch (BusinessException ex) {
+                    if (error == null) {
+                        error = ex;
+                    }
+                }
+            }
+            
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+    
+    /**
+     * Closes the connection
+     * 
+     * @throws IOException - if the channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    /**
+     * Sends the requests written into the output buffer
+     * 
+     * @throws IOException
+     */
+    private void send() throws IOException {
+        output.flip();
+        
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        
+        output.clear();
+    }
+    
+    /**
+     * Reads the response to a request: returns its result if it succeeded, or throws a
+     * {@link com.supersimplestocks.exceptions.BusinessException} with its error message
+     * 
+     * @return - the result
+     * @throws IOException
+     * @throws BusinessException
+     */
+    private double readResult() throws IOException, BusinessException {
+        int length = readFrame(GatewayProtocol.OK);
+        if (length != GatewayProtocol.HEADER_SIZE + 8) {
+            throw new IOException(Messages.ERR_CLUSTER_RESPONSE);
+        }
+        
+        double result = input.getDouble(input.position() + GatewayProtocol.LENGTH_SIZE + GatewayProtocol.HEADER_SIZE);
+        skipFrame(length);
+        return result;
+    }
+    
+    /**
+     * Waits for the next frame of the responses and checks its status. A frame with the expected
+     * status is left at the position of the input buffer; an error response is skipped and thrown
+     * as a {@link com.supersimplestocks.exceptions.BusinessException}.
+     * 
+     * @param status - the status expected; a MORE frame may also be followed by the final OK response
+     * @return - the length of the frame, or zero if MORE frames were expected and the OK response came
+     * @throws IOException
+     * @throws BusinessException
+     */
+    private int readFrame(byte status) throws IOException, BusinessException {
+        while (input.remaining() < GatewayProtocol.LENGTH_SIZE || input.remaining() < GatewayProtocol.LENGTH_SIZE + GatewayProtocol.getFrameLength(input, input.position())) {
+            input.compact();
+            int read = channel.read(input);
+            input.flip();
+            
+            if (read < 0) {
+                throw new IOException(Messages.ERR_GATEWAY_CLOSED);
+            }
+        }
+        
+        int position = input.position();
+        int length = GatewayProtocol.getFrameLength(input, position);
+        byte frameStatus = input.get(position + GatewayProtocol.LENGTH_SIZE);
+        
+        //The responses come in the order of the requests, and the MORE frames before the response of their request
+        if (length < GatewayProtocol.HEADER_SIZE || input.getInt(position + GatewayProtocol.LENGTH_SIZE + 1) != answeredId + 1) {
+            throw new IOException(Messages.ERR_CLUSTER_RESPONSE);
+        }
+        
+        if (frameStatus == GatewayProtocol.ERROR) {
+            String message = new String(input.array(), position + GatewayProtocol.LENGTH_SIZE + GatewayProtocol.HEADER_SIZE, length - GatewayProtocol.HEADER_SIZE, StandardCharsets.UTF_8);
+            skipFrame(length);
+            throw new BusinessException(message);
+        }
+        
+        if (frameStatus == status) {
+            return length;
+        }
+        
+        if (status == GatewayProtocol.MORE && frameStatus == GatewayProtocol.OK) {
+            return 0;
+        }
+        
+        throw new IOException(Messages.ERR_CLUSTER_RESPONSE);
+    }
+    
+    /**
+     * Moves the input buffer past a frame; the request of a response other than a MORE frame
+     * has then been answered
+     * 
+     * @param length - the length of the frame
+     */
+    private void skipFrame(int length) {
+        if (input.get(input.position() + GatewayProtocol.LENGTH_SIZE) != GatewayProtocol.MORE) {
+            answeredId++;
+        }
+        
+        input.position(input.position() + GatewayProtocol.LENGTH_SIZE + length);
+    }
+}
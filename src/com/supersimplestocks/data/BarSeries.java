@@ -0,0 +1,470 @@
+package com.supersimplestocks.data;
+
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+
+/**
+ * A series of open/high/low/close/volume bars of a single stock over a fixed interval (for
+ * example 1 second or 1 minute). The bars start at the multiples of the interval since the
+ * epoch; an interval without trades has no bar.
+ * 
+ * The trades are aggregated into the bar in progress, which is completed when a trade or the
+ * time passes the end of its interval. The completed bars are stored in a ring buffer made of
+ * parallel primitive arrays (start times, open, high, low and close prices, volumes and Volume
+ * Weighted Average Prices); when the buffer is full, the oldest bar is overwritten, so the memory
+ * used is bounded by the number of bars kept, not by the number of trades. The sum of price
+ * multiplied by quantity of the bar in progress is kept in 128 bits, like in
+ * {@link com.supersimplestocks.data.StockTradeWindow}.
+ * 
+ * A series can also be used as a buffer into which the bars of another series are copied. The
+ * series is not thread-safe; the callers must synchronize the access to it.
+ */
+public class BarSeries {
+    
+    /** The length of the interval of a bar in milliseconds */
+    private final long interval;
+    
+    /** The start times of the completed bars in milliseconds since the epoch */
+    private final long[] startTimes;
+    
+    /** The prices of the first trades of the completed bars */
+    private final long[] opens;
+    
+    /** The highest prices of the completed bars */
+    private final long[] highs;
+    
+    /** The lowest prices of the completed bars */
+    private final long[] lows;
+    
+    /** The prices of the last trades of the completed bars */
+    private final long[] closes;
+    
+    /** The quantities traded in the completed bars */
+    private final long[] volumes;
+    
+    /** The Volume Weighted Average Prices of the completed bars */
+    private final double[] vwaps;
+    
+    /** The position of the oldest completed bar in the buffer */
+    private int head;
+    
+    /** The number of completed bars in the buffer */
+    private int size;
+    
+    /** The start time of the bar in progress, Long.MIN_VALUE if there is none */
+    private long barStartTime = Long.MIN_VALUE;
+    
+    private long barOpen;
+    
+    private long barHigh;
+    
+    private long barLow;
+    
+    private long barClose;
+    
+    private long barVolume;
+    
+    /** The low 64 bits (unsigned) of the sum of price multiplied by quantity of the bar in progress */
+    private long barSumPriceQuantity;
+    
+    /** The high 64 bits of the sum of price multiplied by quantity of the bar in progress */
+    private long barSumPriceQuantityHigh;
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param interval - the length of the interval of a bar in milliseconds
+     * @param capacity - the number of completed bars kept
+     */
+    public BarSeries(long interval, int capacity) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException(Messages.ERR_BAR_INTERVAL_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validateIntPositive(capacity)) {
+            throw new IllegalArgumentException(Messages.ERR_CAPACITY_NEGATIVE_ZERO);
+        }
+        
+        this.interval = interval;
+        this.startTimes = new long[capacity];
+        this.opens = new long[capacity];
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.closes = new long[capacity];
+        this.volumes = new long[capacity];
+        this.vwaps = new double[capacity];
+    }
+    
+    /**
+     * Adds a trade to the bar in progress. If the trade is after the end of the bar, the bar is
+     * completed first and a new bar is started; a trade older than the bar in progress is added
+     * to it, and a trade older than the end of the last completed bar starts the next bar, so the
+     * bars stay ordered. Adding a trade does not allocate any memory. The trade must have been validated; if
+     * the volume of the bar would exceed {@link java.lang.Long#MAX_VALUE}, an
+     * {@link java.lang.IllegalArgumentException} is thrown and the trade is not added.
+     * 
+     * @param timestamp - the timestamp of the trade in milliseconds
+     * @param quantity - the quantity of shares bought/sold
+     * @param price - the price at which the shares were traded
+     */
+    public void add(long timestamp, long quantity, long price) {
+        complete(timestamp);
+        
+        if (barStartTime == Long.MIN_VALUE) {
+            barStartTime = Math.floorDiv(timestamp, interval) * interval;
+            if (size > 0) {
+                barStartTime = Math.max(barStartTime, getStartTime(size - 1) + interval);
+            }
+            
+            barOpen = price;
+            barHigh = price;
+            barLow = price;
+            barVolume = 0;
+            barSumPriceQuantity = 0;
+            barSumPriceQuantityHigh = 0;
+        }
+        
+        if (barVolume > Long.MAX_VALUE - quantity) {
+            throw new IllegalArgumentException(Messages.ERR_BAR_VOLUME_OVERFLOW);
+        }
+        
+        barHigh = Math.max(barHigh, price);
+        barLow = Math.min(barLow, price);
+        barClose = price;
+        barVolume += quantity;
+        
+        long priceQuantity = price * quantity;
+        barSumPriceQuantity += priceQuantity;
+        barSumPriceQuantityHigh += WideMath.multiplyHigh(price, quantity) + WideMath.carry(barSumPriceQuantity, priceQuantity);
+    }
+    
+    /**
+     * Checks whether a trade can be added to the bar it would fall into without overflowing its
+     * volume. The series is not changed.
+     * 
+     * @param timestamp - the timestamp of the trade in milliseconds
+     * @param quantity - the quantity of shares bought/sold
+     * @return - true if the trade can be added
+     */
+    public boolean canAdd(long timestamp, long quantity) {
+        return barStartTime == Long.MIN_VALUE || timestamp - barStartTime >= interval || barVolume <= Long.MAX_VALUE - quantity;
+    }
+    
+    /**
+     * Checks whether several trades can be added in order without overflowing the volume of any
+     * bar, following the bars they would complete and start as add does. The series is not changed.
+     * 
+     * @param timestamps - the timestamps of the trades in milliseconds
+     * @param quantities - the quantities of shares bought/sold
+     * @param offset - the index of the first trade in the arrays
+     * @param length - the number of trades
+     * @return - true if all the trades can be added
+     */
+    public boolean canAddAll(long[] timestamps, long[] quantities, int offset, int length) {
+        long startTime = barStartTime;
+        long volume = barVolume;
+        long lastStartTime = size > 0 ? getStartTime(size - 1) : Long.MIN_VALUE;
+        
+        for (int i = offset; i < offset + length; i++) {
+            if (startTime != Long.MIN_VALUE && timestamps[i] - startTime >= interval) {
+                lastStartTime = startTime;
+                startTime = Long.MIN_VALUE;
+            }
+            
+            if (startTime == Long.MIN_VALUE) {
+                startTime = Math.floorDiv(timestamps[i], interval) * interval;
+                if (lastStartTime != Long.MIN_VALUE) {
+                    startTime = Math.max(startTime, lastStartTime + interval);
+                }
+                
+                volume = 0;
+            }
+            
+            if (volume > Long.MAX_VALUE - quantities[i]) {
+                return false;
+            }
+            
+            volume += quantities[i];
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Completes the bar in progress if the given time is after the end of its interval, and
+     * stores it with the completed bars
+     * 
+     * @param now - the current time in milliseconds
+     * @return - true if a bar was completed
+     */
+    public boolean complete(long now) {
+        if (barStartTime == Long.MIN_VALUE || now - barStartTime < interval) {
+            return false;
+        }
+        
+        addBar(barStartTime, barOpen, barHigh, barLow, barClose, barVolume, WideMath.toDouble(barSumPriceQuantityHigh, barSumPriceQuantity) / barVolume);
+        barStartTime = Long.MIN_VALUE;
+        return true;
+    }
+    
+    /**
+     * Stores a completed bar after the other completed bars, overwriting the oldest bar if the
+     * buffer is full. The bars must be added in the order of their start times.
+     * 
+     * @param startTime - the start time of the bar in milliseconds since the epoch
+     * @param open - the price of the first trade
+     * @param high - the highest price
+     * @param low - the lowest price
+     * @param close - the price of the last trade
+     * @param volume - the quantity traded
+     * @param vwap - the Volume Weighted Average Price
+     */
+    public void addBar(long startTime, long open, long high, long low, long close, long volume, double vwap) {
+        int capacity = startTimes.length;
+        int tail = head + size < capacity ? head + size : head + size - capacity;
+        
+        startTimes[tail] = startTime;
+        opens[tail] = open;
+        highs[tail] = high;
+        lows[tail] = low;
+        closes[tail] = close;
+        volumes[tail] = volume;
+        vwaps[tail] = vwap;
+        
+        if (size < capacity) {
+            size++;
+        } else {
+            head = head + 1 < capacity ? head + 1 : 0;
+        }
+    }
+    
+    /**
+     * Copies the bars which start in a time range to another series, which is cleared first. The bar
+     * in progress is copied as the last bar if it is in the range. If the other series cannot hold
+     * all the bars, it keeps the newest ones.
+     * 
+     * @param startTime - the start of the range in milliseconds, inclusive
+     * @param endTime - the end of the range in milliseconds, exclusive
+     * @param target - the series which receives the bars
+     * @return - the number of bars copied
+     */
+    public int copyTo(long startTime, long endTime, BarSeries target) {
+        target.clear();
+        
+        int first = findFirstBar(startTime);
+        int copied = 0;
+        
+        for (int i = first; i < size && getStartTime(i) < endTime; i++) {
+            int index = position(i);
+            target.addBar(startTimes[index], opens[index], highs[index], lows[index], closes[index], volumes[index], vwaps[index]);
+            copied++;
+        }
+        
+        if (barStartTime != Long.MIN_VALUE && barStartTime >= startTime && barStartTime < endTime) {
+            target.addBar(barStartTime, barOpen, barHigh, barLow, barClose, barVolume, WideMath.toDouble(barSumPriceQuantityHigh, barSumPriceQuantity) / barVolume);
+            copied++;
+        }
+        
+        return copied;
+    }
+    
+    /**
+     * Removes all the bars, including the bar in progress
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+        barStartTime = Long.MIN_VALUE;
+    }
+    
+    /**
+     * Retrieves the number of completed bars
+     * 
+     * @return - the number of bars
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Retrieves the number of completed bars kept
+     * 
+     * @return - the capacity of the buffer
+     */
+    public int capacity() {
+        return startTimes.length;
+    }
+    
+    /**
+     * Retrieves the length of the interval of a bar
+     * 
+     * @return - the interval in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+    
+    /**
+     * Retrieves the start time of a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the start time in milliseconds since the epoch
+     */
+    public long getStartTime(int i) {
+        return startTimes[position(i)];
+    }
+    
+    /**
+     * Retrieves the price of the first trade of a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the open price
+     */
+    public long getOpen(int i) {
+        return opens[position(i)];
+    }
+    
+    /**
+     * Retrieves the highest price of a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the high price
+     */
+    public long getHigh(int i) {
+        return highs[position(i)];
+    }
+    
+    /**
+     * Retrieves the lowest price of a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the low price
+     */
+    public long getLow(int i) {
+        return lows[position(i)];
+    }
+    
+    /**
+     * Retrieves the price of the last trade of a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the close price
+     */
+    public long getClose(int i) {
+        return closes[position(i)];
+    }
+    
+    /**
+     * Retrieves the quantity traded in a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the volume
+     */
+    public long getVolume(int i) {
+        return volumes[position(i)];
+    }
+    
+    /**
+     * Retrieves the Volume Weighted Average Price of a completed bar
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the Volume Weighted Average Price
+     */
+    public double getVwap(int i) {
+        return vwaps[position(i)];
+    }
+    
+    /**
+     * Calculates the highest price of all the completed bars
+     * 
+     * @return - the high price, zero if there are no bars
+     */
+    public long getHigh() {
+        long high = 0;
+        for (int i = 0; i < size; i++) {
+            high = Math.max(high, getHigh(i));
+        }
+        
+        return high;
+    }
+    
+    /**
+     * Calculates the lowest price of all the completed bars
+     * 
+     * @return - the low price, zero if there are no bars
+     */
+    public long getLow() {
+        long low = size > 0 ? Long.MAX_VALUE : 0;
+        for (int i = 0; i < size; i++) {
+            low = Math.min(low, getLow(i));
+        }
+        
+        return low;
+    }
+    
+    /**
+     * Calculates the quantity traded in all the completed bars
+     * 
+     * @return - the volume, saturated at {@link java.lang.Long#MAX_VALUE}
+     */
+    public long getVolume() {
+        long volume = 0;
+        for (int i = 0; i < size; i++) {
+            volume = volume > Long.MAX_VALUE - getVolume(i) ? Long.MAX_VALUE : volume + getVolume(i);
+        }
+        
+        return volume;
+    }
+    
+    /**
+     * Calculates the Volume Weighted Average Price of all the completed bars, from the
+     * prices and volumes of the bars
+     * 
+     * @return - the Volume Weighted Average Price, zero if there are no bars
+     */
+    public double getVwap() {
+        double sumPriceVolume = 0;
+        double sumVolume = 0;
+        
+        for (int i = 0; i < size; i++) {
+            sumPriceVolume += getVwap(i) * getVolume(i);
+            sumVolume += getVolume(i);
+        }
+        
+        return sumVolume != 0 ? sumPriceVolume / sumVolume : 0;
+    }
+    
+    /**
+     * Finds the first completed bar which starts at or after a given time, by binary search
+     * 
+     * @param time - the time in milliseconds
+     * @return - the index of the bar, or the number of bars if there is none
+     */
+    private int findFirstBar(long time) {
+        int low = 0;
+        int high = size;
+        
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getStartTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        
+        return low;
+    }
+    
+    /**
+     * Converts the index of a completed bar to its position in the buffer
+     * 
+     * @param i - the index of the bar, from 0 for the oldest bar
+     * @return - the position in the arrays
+     */
+    private int position(int i) {
+        int position = head + i;
+        return position < startTimes.length ? position : position - startTimes.length;
+    }
+}
@@ -27,9 +27,19 @@ public class CommonStock extends Stock {
      * @param price - the price at which the stock is traded
      */
     @Override
-    public double getDividendYield(int price) {
+    public double getDividendYield(long price) {
         InputValidator.validatePrice(price);
         
         return (double)getLastDividend() / price;
     }
+    
+    /**
+     * Returns the dividend of the dividend yield for Common stock: the last dividend
+     * 
+     * @return - the last dividend
+     */
+    @Override
+    public double getYieldDividend() {
+        return getLastDividend();
+    }
 }
@@ -0,0 +1,165 @@
+package com.supersimplestocks.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.supersimplestocks.data.resources.Messages;
+
+/**
+ * A histogram of latencies (or of any positive values) in the manner of HdrHistogram: the values
+ * are counted in buckets which double in width from one power of two to the next, each divided into
+ * 16 sub-buckets of equal width, so a value is kept with a relative error below 1/16 over the whole
+ * range of long in 960 counters. Recording a value finds its bucket with a few bit operations and
+ * increments a counter; it does not allocate any memory.
+ * 
+ * The histogram is thread-safe. The statistics read while values are recorded may leave out the
+ * values recorded at the same time.
+ */
+public class LatencyHistogram {
+    
+    /** The number of bits of the index of a sub-bucket in its bucket */
+    private static final int SUB_BUCKET_BITS = 4;
+    
+    /** The number of sub-buckets of a bucket */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    
+    /** The number of counters, enough for any positive long */
+    private static final int COUNTER_COUNT = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+    
+    /** The number of values recorded in every sub-bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(COUNTER_COUNT);
+    
+    /** The sum of the values recorded */
+    private final LongAdder sum = new LongAdder();
+    
+    /** The highest value recorded */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    /**
+     * Records a value; a negative value is recorded as zero
+     * 
+     * @param value - the value, for example a latency in nanoseconds
+     */
+    public void record(long value) {
+        long recordedValue = Math.max(value, 0);
+        
+        counts.incrementAndGet(getIndex(recordedValue));
+        sum.add(recordedValue);
+        max.accumulate(recordedValue);
+    }
+    
+    /**
+     * Retrieves the number of values recorded
+     * 
+     * @return - the number of values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            count += counts.get(i);
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Retrieves the highest value recorded
+     * 
+     * @return - the highest value, zero if no value has been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+    
+    /**
+     * Retrieves the mean of the values recorded
+     * 
+     * @return - the mean, zero if no value has been recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) sum.sum() / count : 0;
+    }
+    
+    /**
+     * Retrieves the value below which a percentage of the values recorded fall, within the
+     * precision of the histogram. It also validates the input parameters; if the validation
+     * fails, an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param percentile - the percentage, between 0 and 100
+     * @return - the highest value of the sub-bucket of the percentile, but not above the highest
+     * value recorded; zero if no value has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException(Messages.ERR_PERCENTILE_INCORRECT);
+        }
+        
+        long[] snapshot = new long[COUNTER_COUNT];
+        long count = 0;
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        
+        long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            seen += snapshot[i];
+            
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), getMax());
+            }
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Forgets all the values recorded
+     */
+    public void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        
+        sum.reset();
+        max.reset();
+    }
+    
+    /**
+     * Finds the counter of a value: the values below 16 have a counter each, the others are
+     * counted by their highest bit and the 4 bits which follow it
+     * 
+     * @param value - the value, not negative
+     * @return - the index of the counter
+     */
+    static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+    
+    /**
+     * Finds the highest value counted by a counter
+     * 
+     * @param index - the index of the counter
+     * @return - the highest value
+     */
+    static long getHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowestValue = (long) (SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1))) << shift;
+        
+        return lowestValue + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,144 @@
+package com.supersimplestocks.data;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The statistics of the calls of an operation: the number of calls and the latencies of the
+ * calls which have been timed, read from a {@link com.supersimplestocks.data.LatencyHistogram}.
+ * The object is a snapshot; it is not updated by the calls made after it was created.
+ */
+public class OperationStatistics {
+    
+    /** The name of the operation */
+    private final String operation;
+    
+    /** The number of calls */
+    private final long count;
+    
+    /** The number of calls which have been timed */
+    private final long sampleCount;
+    
+    /** The mean latency in nanoseconds */
+    private final double meanLatency;
+    
+    /** The median latency in nanoseconds */
+    private final long medianLatency;
+    
+    /** The 99th percentile of the latencies in nanoseconds */
+    private final long p99Latency;
+    
+    /** The 99.9th percentile of the latencies in nanoseconds */
+    private final long p999Latency;
+    
+    /** The highest latency in nanoseconds */
+    private final long maxLatency;
+    
+    /**
+     * Constructor
+     * 
+     * @param operation - the name of the operation
+     * @param count - the number of calls
+     * @param sampleCount - the number of calls which have been timed
+     * @param meanLatency - the mean latency in nanoseconds
+     * @param medianLatency - the median latency in nanoseconds
+     * @param p99Latency - the 99th percentile of the latencies in nanoseconds
+     * @param p999Latency - the 99.9th percentile of the latencies in nanoseconds
+     * @param maxLatency - the highest latency in nanoseconds
+     */
+    @ConstructorProperties({"operation", "count", "sampleCount", "meanLatency", "medianLatency", "p99Latency", "p999Latency", "maxLatency"})
+    public OperationStatistics(String operation, long count, long sampleCount, double meanLatency, long medianLatency, long p99Latency, long p999Latency, long maxLatency) {
+        this.operation = operation;
+        this.count = count;
+        this.sampleCount = sampleCount;
+        this.meanLatency = meanLatency;
+        this.medianLatency = medianLatency;
+        this.p99Latency = p99Latency;
+        this.p999Latency = p999Latency;
+        this.maxLatency = maxLatency;
+    }
+    
+    /**
+     * Creates the statistics of an operation from the histogram of its latencies
+     * 
+     * @param operation - the operation
+     * @param count - the number of calls
+     * @param latencies - the latencies of the calls which have been timed
+     * @return - the statistics
+     */
+    public static OperationStatistics of(TradeOperation operation, long count, LatencyHistogram latencies) {
+        return new OperationStatistics(operation.name(), count, latencies.getCount(), latencies.getMean(), latencies.getValueAtPercentile(50),
+                latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9), latencies.getMax());
+    }
+    
+    /**
+     * Retrieves the name of the operation
+     * 
+     * @return - the name of the operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+    
+    /**
+     * Retrieves the number of calls
+     * 
+     * @return - the number of calls
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * Retrieves the number of calls which have been timed
+     * 
+     * @return - the number of calls which have been timed
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+    
+    /**
+     * Retrieves the mean latency
+     * 
+     * @return - the mean latency in nanoseconds
+     */
+    public double getMeanLatency() {
+        return meanLatency;
+    }
+    
+    /**
+     * Retrieves the median latency
+     * 
+     * @return - the median latency in nanoseconds
+     */
+    public long getMedianLatency() {
+        return medianLatency;
+    }
+    
+    /**
+     * Retrieves the 99th percentile of the latencies
+     * 
+     * @return - the 99th percentile of the latencies in nanoseconds
+     */
+    public long getP99Latency() {
+        return p99Latency;
+    }
+    
+    /**
+     * Retrieves the 99.9th percentile of the latencies
+     * 
+     * @return - the 99.9th percentile of the latencies in nanoseconds
+     */
+    public long getP999Latency() {
+        return p999Latency;
+    }
+    
+    /**
+     * Retrieves the highest latency
+     * 
+     * @return - the highest latency in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+}
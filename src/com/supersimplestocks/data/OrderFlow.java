@@ -0,0 +1,92 @@
+package com.supersimplestocks.data;
+
+/**
+ * The buy-side and sell-side analytics of the trades of a stock in a window: the quantity
+ * bought and sold, the Volume Weighted Price of each side and the order-flow imbalance
+ * between them. The object is filled by
+ * {@link com.supersimplestocks.data.StockTradeWindow#getOrderFlow(long, OrderFlow)} and
+ * can be reused for every read, so polling the analytics does not allocate any memory.
+ */
+public class OrderFlow {
+    
+    /** The quantity of shares bought */
+    private long buyQuantity;
+    
+    /** The Volume Weighted Price of the shares bought, zero if none were bought */
+    private double buyVolumeWeightedPrice;
+    
+    /** The quantity of shares sold */
+    private long sellQuantity;
+    
+    /** The Volume Weighted Price of the shares sold, zero if none were sold */
+    private double sellVolumeWeightedPrice;
+    
+    /**
+     * Sets the analytics of both sides
+     * 
+     * @param buyQuantity - the quantity of shares bought
+     * @param buyVolumeWeightedPrice - the Volume Weighted Price of the shares bought
+     * @param sellQuantity - the quantity of shares sold
+     * @param sellVolumeWeightedPrice - the Volume Weighted Price of the shares sold
+     */
+    void set(long buyQuantity, double buyVolumeWeightedPrice, long sellQuantity, double sellVolumeWeightedPrice) {
+        this.buyQuantity = buyQuantity;
+        this.buyVolumeWeightedPrice = buyVolumeWeightedPrice;
+        this.sellQuantity = sellQuantity;
+        this.sellVolumeWeightedPrice = sellVolumeWeightedPrice;
+    }
+    
+    /**
+     * Resets the analytics to those of a window without trades
+     */
+    public void clear() {
+        set(0, 0, 0, 0);
+    }
+    
+    /**
+     * Retrieves the quantity of shares bought
+     * 
+     * @return - the quantity of shares bought
+     */
+    public long getBuyQuantity() {
+        return buyQuantity;
+    }
+    
+    /**
+     * Retrieves the Volume Weighted Price of the shares bought
+     * 
+     * @return - the Volume Weighted Price of the shares bought, zero if none were bought
+     */
+    public double getBuyVolumeWeightedPrice() {
+        return buyVolumeWeightedPrice;
+    }
+    
+    /**
+     * Retrieves the quantity of shares sold
+     * 
+     * @return - the quantity of shares sold
+     */
+    public long getSellQuantity() {
+        return sellQuantity;
+    }
+    
+    /**
+     * Retrieves the Volume Weighted Price of the shares sold
+     * 
+     * @return - the Volume Weighted Price of the shares sold, zero if none were sold
+     */
+    public double getSellVolumeWeightedPrice() {
+        return sellVolumeWeightedPrice;
+    }
+    
+    /**
+     * Calculates the order-flow imbalance: the quantity bought minus the quantity sold, divided
+     * by the quantity traded. It ranges from -1 (only sells) to 1 (only buys).
+     * 
+     * @return - the imbalance, zero if no shares were traded
+     */
+    public double getImbalance() {
+        long quantity = buyQuantity + sellQuantity;
+        return quantity != 0 ? (double) (buyQuantity - sellQuantity) / quantity : 0;
+    }
+}
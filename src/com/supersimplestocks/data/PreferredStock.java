@@ -29,9 +29,20 @@ public class PreferredStock extends Stock {
      * @param price - the price at which the stock is traded
      */
     @Override
-    public double getDividendYield(int price) {
+    public double getDividendYield(long price) {
         InputValidator.validatePrice(price);
         
         return (double)getFixedDividend() * getParValue() / price;
     }
+    
+    /**
+     * Returns the dividend of the dividend yield for Preferred stock: the fixed dividend
+     * multiplied by the par value
+     * 
+     * @return - the fixed dividend multiplied by the par value
+     */
+    @Override
+    public double getYieldDividend() {
+        return getFixedDividend() * getParValue();
+    }
 }
@@ -1,5 +1,7 @@
 package com.supersimplestocks.data;
 
+import java.util.Objects;
+
 import com.supersimplestocks.data.resources.Messages;
 import com.supersimplestocks.data.validation.InputValidator;
 import com.supersimplestocks.exceptions.BusinessException;
@@ -9,6 +11,9 @@ import com.supersimplestocks.exceptions.BusinessException;
  * It contains information about the stock symbol, type of stock (common or preferred),
  * last dividend, fixed dividend and par value. It also contains methods for calculating
  * the dividend yield (different for common and preferred stock types and price/earnings ratio) 
+ * 
+ * Two stocks are equal if all their data is equal. As the data can be changed with the setters,
+ * a stock must not be changed while it is a key of a hash map or a member of a hash set.
  */
 public abstract class Stock {
     
@@ -159,7 +164,7 @@ public abstract class Stock {
      * @param price - the price at which the stock was traded
      * @return - the P/E ratio
      */
-    public double getPERatio(int price) throws BusinessException {
+    public double getPERatio(long price) throws BusinessException {
         if (lastDividend != 0) {
             return (double)price / lastDividend;
         }
@@ -173,5 +178,45 @@ public abstract class Stock {
      * @param price - the price at which the stock was traded
      * @return - the dividend yield
      */
-    public abstract double getDividendYield(int price);
+    public abstract double getDividendYield(long price);
+    
+    /**
+     * Returns the dividend per share which is divided by the price to give the dividend yield
+     * (the last dividend for Common stocks, the fixed dividend multiplied by the par value for
+     * Preferred stocks)
+     * 
+     * @return - the dividend of the dividend yield
+     */
+    public abstract double getYieldDividend();
+    
+    /**
+     * Checks if another object is a stock with the same symbol, type, dividends and par value
+     * 
+     * @param obj - the object to compare with
+     * @return - true if the object is an equal stock
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        
+        Stock other = (Stock) obj;
+        return Objects.equals(symbol, other.symbol) && type == other.type && lastDividend == other.lastDividend
+                && Double.compare(fixedDividend, other.fixedDividend) == 0 && parValue == other.parValue;
+    }
+    
+    /**
+     * Calculates the hash code from the same data as {@link #equals(Object)}
+     * 
+     * @return - the hash code
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(symbol, type, lastDividend, fixedDividend, parValue);
+    }
 }
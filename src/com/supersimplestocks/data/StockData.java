@@ -1,13 +1,15 @@
 package com.supersimplestocks.data;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * A class that contains sample data for several stocks to be used in the stock trade
+ * A class that contains sample data for several stocks to be used in the stock trade.
+ * The map of the stocks is read-only, so it can be read safely from several threads.
  */
 public class StockData {
-    public static final Map<String, Stock> stockMap = new HashMap<String, Stock>();
+    public static final Map<String, Stock> stockMap;
     
     public static final String TEA = "TEA";
     public static final String POP = "POP";
@@ -17,10 +19,12 @@ public class StockData {
     public static final String NAN = "NAN";
     
     static {
-        stockMap.put(TEA, new CommonStock(TEA, 0, 100));
-        stockMap.put(POP, new CommonStock(POP, 8, 100));
-        stockMap.put(ALE, new CommonStock(ALE, 23, 60));
-        stockMap.put(GIN, new PreferredStock(GIN, 8, 0.02, 100));
-        stockMap.put(JOE, new CommonStock(JOE, 13, 250));
+        Map<String, Stock> stocks = new HashMap<String, Stock>();
+        stocks.put(TEA, new CommonStock(TEA, 0, 100));
+        stocks.put(POP, new CommonStock(POP, 8, 100));
+        stocks.put(ALE, new CommonStock(ALE, 23, 60));
+        stocks.put(GIN, new PreferredStock(GIN, 8, 0.02, 100));
+        stocks.put(JOE, new CommonStock(JOE, 13, 250));
+        stockMap = Collections.unmodifiableMap(stocks);
     }
 }
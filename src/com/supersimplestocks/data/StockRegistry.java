@@ -0,0 +1,379 @@
+package com.supersimplestocks.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * A registry which assigns dense integer IDs (0, 1, 2, ...) to the stock symbols when the
+ * stocks are loaded. The IDs are assigned in the alphabetical order of the symbols, so the
+ * same stocks always get the same IDs. Once the symbol of a stock has been resolved to its
+ * ID, the stock and its data can be found by array indexing instead of hashing the symbol.
+ * A symbol can also be looked up directly from its UTF-8 bytes, for example in a buffer
+ * read from a file, without creating a String. The registry is immutable and can be read
+ * from several threads.
+ * 
+ * The registry is also a snapshot of the reference data of the stocks: the type, dividends
+ * and par value of every stock are copied into parallel arrays indexed by ID when the
+ * registry is built, so changing a {@link com.supersimplestocks.data.Stock} afterwards does
+ * not change the registry, and the dividend yields and P/E ratios of many prices are
+ * calculated without a virtual call per price. When the reference data changes, a new
+ * registry is built and replaces the old one as a whole (see
+ * {@link com.supersimplestocks.business.StockTradeUtil#updateStockData(Map)}).
+ * 
+ * A registry can also be built from a previous one when stocks are added or removed while
+ * they are traded (see {@link com.supersimplestocks.business.StockTradeUtil#reloadStockData(Map)}):
+ * the stocks which are kept keep their IDs, the new stocks get the IDs after the last one, in
+ * the alphabetical order of their symbols, and the IDs of the removed stocks are no longer
+ * valid and are never given to another stock, so an ID held by another thread can never
+ * designate a different stock.
+ */
+public class StockRegistry {
+    
+    /** The ID returned for a symbol which is not registered */
+    public static final int NO_STOCK = -1;
+    
+    /** The stock symbols indexed by ID */
+    private final String[] symbols;
+    
+    /** The stock symbols in UTF-8 indexed by ID */
+    private final byte[][] symbolBytes;
+    
+    /** The stocks indexed by ID, null for a removed stock */
+    private final Stock[] stocks;
+    
+    /** The types of the stocks indexed by ID */
+    private final StockType[] types;
+    
+    /** The fixed dividends of the stocks indexed by ID */
+    private final double[] fixedDividends;
+    
+    /** The par values of the stocks indexed by ID */
+    private final int[] parValues;
+    
+    /** The dividends of the dividend yields of the stocks indexed by ID */
+    private final double[] yieldDividends;
+    
+    /** The last dividends of the stocks indexed by ID, used by the P/E ratios */
+    private final int[] lastDividends;
+    
+    /** The number of stocks which have not been removed */
+    private final int stockCount;
+    
+    /** The IDs of the stocks by symbol */
+    private final Map<String, Integer> ids;
+    
+    /** An open addressing hash table of the IDs plus one by the hash of the symbol bytes, zero for an empty slot */
+    private final int[] byteTable;
+    
+    /**
+     * Constructor. Assigns an ID to every stock of the map.
+     * 
+     * @param stockMap - the stocks by symbol
+     */
+    public StockRegistry(Map<String, Stock> stockMap) {
+        this(stockMap, null);
+    }
+    
+    /**
+     * Constructor. Keeps the IDs of a previous registry: the stocks of the map which were in the
+     * previous registry keep their IDs, the other stocks of the map get the IDs after the last ID
+     * of the previous registry, and the IDs of the stocks which are not in the map are left unused.
+     * A stock removed from the previous registry and given again gets a new ID, its old ID stays unused.
+     * 
+     * @param stockMap - the stocks by symbol
+     * @param previous - the previous registry, or null to assign the IDs in alphabetical order
+     */
+    public StockRegistry(Map<String, Stock> stockMap, StockRegistry previous) {
+        String[] addedSymbols = stockMap.keySet().stream().filter(symbol -> previous == null || previous.getId(symbol) == NO_STOCK).sorted().toArray(String[]::new);
+        int previousSize = previous != null ? previous.size() : 0;
+        
+        symbols = new String[previousSize + addedSymbols.length];
+        if (previous != null) {
+            System.arraycopy(previous.symbols, 0, symbols, 0, previousSize);
+        }
+        
+        System.arraycopy(addedSymbols, 0, symbols, previousSize, addedSymbols.length);
+        
+        symbolBytes = new byte[symbols.length][];
+        stocks = new Stock[symbols.length];
+        types = new StockType[symbols.length];
+        fixedDividends = new double[symbols.length];
+        parValues = new int[symbols.length];
+        yieldDividends = new double[symbols.length];
+        lastDividends = new int[symbols.length];
+        ids = new HashMap<String, Integer>(stockMap.size() * 2);
+        
+        for (int id = 0; id < symbols.length; id++) {
+            symbolBytes[id] = previous != null && id < previousSize ? previous.symbolBytes[id] : symbols[id].getBytes(StandardCharsets.UTF_8);
+            stocks[id] = previous != null && id < previousSize && previous.stocks[id] == null ? null : stockMap.get(symbols[id]);
+            
+            if (stocks[id] == null) {
+                //A removed stock has no dividend, so its dividend yields and P/E ratios are NaN
+                yieldDividends[id] = Double.NaN;
+                continue;
+            }
+            
+            types[id] = stocks[id].getType();
+            fixedDividends[id] = stocks[id].getFixedDividend();
+            parValues[id] = stocks[id].getParValue();
+            yieldDividends[id] = stocks[id].getYieldDividend();
+            lastDividends[id] = stocks[id].getLastDividend();
+            ids.put(symbols[id], id);
+        }
+        
+        stockCount = ids.size();
+        byteTable = new int[Integer.highestOneBit(Math.max(stockCount, 1)) << 2];
+        for (int id = 0; id < symbols.length; id++) {
+            if (stocks[id] == null) {
+                continue;
+            }
+            
+            int slot = hash(symbolBytes[id], 0, symbolBytes[id].length) & (byteTable.length - 1);
+            
+            while (byteTable[slot] != 0) {
+                slot = (slot + 1) & (byteTable.length - 1);
+            }
+            
+            byteTable[slot] = id + 1;
+        }
+    }
+    
+    /**
+     * Retrieves the ID of a stock
+     * 
+     * @param stockSymbol - the stock symbol
+     * @return - the ID of the stock, or {@link #NO_STOCK} if the symbol is not registered
+     */
+    public int getId(String stockSymbol) {
+        Integer id = ids.get(stockSymbol);
+        return id != null ? id : NO_STOCK;
+    }
+    
+    /**
+     * Retrieves the ID of a stock from the UTF-8 bytes of its symbol, without creating a String
+     * 
+     * @param bytes - the array which holds the symbol
+     * @param offset - the position of the symbol in the array
+     * @param length - the length of the symbol in bytes
+     * @return - the ID of the stock, or {@link #NO_STOCK} if the symbol is not registered
+     */
+    public int getId(byte[] bytes, int offset, int length) {
+        int mask = byteTable.length - 1;
+        int slot = hash(bytes, offset, length) & mask;
+        
+        while (byteTable[slot] != 0) {
+            int id = byteTable[slot] - 1;
+            byte[] symbol = symbolBytes[id];
+            
+            if (symbol.length == length && equalBytes(symbol, bytes, offset)) {
+                return id;
+            }
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        return NO_STOCK;
+    }
+    
+    /**
+     * Checks if an ID belongs to a registered stock which has not been removed
+     * 
+     * @param stockId - the stock ID
+     * @return - if a stock has been registered with this ID
+     */
+    public boolean isValidId(int stockId) {
+        return stockId >= 0 && stockId < symbols.length && stocks[stockId] != null;
+    }
+    
+    /**
+     * Retrieves the symbol of a stock, which is kept for the removed stocks as well
+     * 
+     * @param stockId - the stock ID
+     * @return - the stock symbol
+     */
+    public String getSymbol(int stockId) {
+        return symbols[stockId];
+    }
+    
+    /**
+     * Retrieves the symbol of a stock encoded in UTF-8. The array is shared and must not be modified.
+     * 
+     * @param stockId - the stock ID
+     * @return - the stock symbol in UTF-8
+     */
+    public byte[] getSymbolBytes(int stockId) {
+        return symbolBytes[stockId];
+    }
+    
+    /**
+     * Retrieves a stock, as it was given to the registry; its data may have been changed since
+     * the registry was built, unlike the data kept by the registry
+     * 
+     * @param stockId - the stock ID
+     * @return - the stock, or null if it has been removed
+     */
+    public Stock getStock(int stockId) {
+        return stocks[stockId];
+    }
+    
+    /**
+     * Retrieves the type of a stock
+     * 
+     * @param stockId - the stock ID
+     * @return - the stock type (common or preferred), or null if the stock has been removed
+     */
+    public StockType getType(int stockId) {
+        return types[stockId];
+    }
+    
+    /**
+     * Retrieves the fixed dividend of a stock
+     * 
+     * @param stockId - the stock ID
+     * @return - the fixed dividend
+     */
+    public double getFixedDividend(int stockId) {
+        return fixedDividends[stockId];
+    }
+    
+    /**
+     * Retrieves the par value of a stock
+     * 
+     * @param stockId - the stock ID
+     * @return - the par value
+     */
+    public int getParValue(int stockId) {
+        return parValues[stockId];
+    }
+    
+    /**
+     * Calculates the dividend yield of a stock for a given price, from the data kept by the registry;
+     * it is equal to {@link com.supersimplestocks.data.Stock#getDividendYield(long)}
+     * 
+     * @param stockId - the stock ID
+     * @param price - the price, validated by the caller
+     * @return - the dividend yield
+     */
+    public double getDividendYield(int stockId, long price) {
+        return yieldDividends[stockId] / price;
+    }
+    
+    /**
+     * Calculates the P/E ratio of a stock for a given price, from the data kept by the registry;
+     * it is equal to {@link com.supersimplestocks.data.Stock#getPERatio(long)}. If the last dividend
+     * is zero, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param stockId - the stock ID
+     * @param price - the price, validated by the caller
+     * @return - the P/E ratio
+     * @throws BusinessException
+     */
+    public double getPERatio(int stockId, long price) throws BusinessException {
+        if (lastDividends[stockId] != 0) {
+            return (double) price / lastDividends[stockId];
+        }
+        
+        throw new BusinessException(Messages.ERR_PE_DIVIDEND_ZERO);
+    }
+    
+    /**
+     * Checks if another registry has the same symbols, and therefore gives every stock the same ID
+     * 
+     * @param other - the other registry
+     * @return - true if the symbols and the removed stocks are the same
+     */
+    public boolean hasSameSymbols(StockRegistry other) {
+        if (!Arrays.equals(symbols, other.symbols)) {
+            return false;
+        }
+        
+        for (int id = 0; id < symbols.length; id++) {
+            if ((stocks[id] == null) != (other.stocks[id] == null)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Retrieves the dividend which is divided by the price to give the dividend yield of a stock
+     * (see {@link com.supersimplestocks.data.Stock#getYieldDividend()})
+     * 
+     * @param stockId - the stock ID
+     * @return - the dividend of the dividend yield
+     */
+    public double getYieldDividend(int stockId) {
+        return yieldDividends[stockId];
+    }
+    
+    /**
+     * Retrieves the last dividend of a stock, by which the price is divided to give the P/E ratio
+     * 
+     * @param stockId - the stock ID
+     * @return - the last dividend
+     */
+    public int getLastDividend(int stockId) {
+        return lastDividends[stockId];
+    }
+    
+    /**
+     * Retrieves the number of IDs given to the stocks, including the removed stocks; the IDs go
+     * from zero to this number minus one
+     * 
+     * @return - the number of IDs
+     */
+    public int size() {
+        return symbols.length;
+    }
+    
+    /**
+     * Retrieves the number of registered stocks which have not been removed
+     * 
+     * @return - the number of stocks
+     */
+    public int getStockCount() {
+        return stockCount;
+    }
+    
+    /**
+     * Calculates the hash of the bytes of a symbol (FNV-1a)
+     * 
+     * @param bytes - the array which holds the symbol
+     * @param offset - the position of the symbol in the array
+     * @param length - the length of the symbol in bytes
+     * @return - the hash
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * Compares a registered symbol with the bytes at a position of an array
+     * 
+     * @param symbol - the registered symbol
+     * @param bytes - the array which holds the other symbol
+     * @param offset - the position of the other symbol in the array
+     * @return - true if the bytes are equal
+     */
+    private static boolean equalBytes(byte[] symbol, byte[] bytes, int offset) {
+        for (int i = 0; i < symbol.length; i++) {
+            if (symbol[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+}
@@ -0,0 +1,120 @@
+package com.supersimplestocks.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An array of objects indexed by stock ID (for example the trade window of every stock) which
+ * grows when stocks are added while the stocks are traded. The slots are kept in chunks of a
+ * fixed size which are never copied: growing adds chunks and publishes a longer directory of
+ * the chunks, so a slot set with compareAndSet by another thread at the same time is never lost,
+ * as it would be if the slots were copied into a larger array.
+ * 
+ * The slots are read and written like an {@link java.util.concurrent.atomic.AtomicReferenceArray};
+ * the array is thread-safe.
+ * 
+ * @param <T> - the type of the objects kept in the slots
+ */
+public class StockSlots<T> {
+    
+    /** The number of bits of the index of a slot in its chunk */
+    private static final int CHUNK_BITS = 10;
+    
+    /** The number of slots of a chunk */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    
+    /** The chunks of slots, replaced by a longer directory when the array grows */
+    private volatile AtomicReferenceArray<T>[] chunks;
+    
+    /**
+     * Constructor
+     * 
+     * @param capacity - the number of slots, usually the number of stock IDs
+     */
+    public StockSlots(int capacity) {
+        chunks = newChunks(0, capacity);
+    }
+    
+    /**
+     * Retrieves the number of slots, which is a multiple of the size of a chunk
+     * 
+     * @return - the number of slots
+     */
+    public int capacity() {
+        return chunks.length << CHUNK_BITS;
+    }
+    
+    /**
+     * Makes sure that the array has at least the given number of slots; the slots
+     * already set are kept
+     * 
+     * @param capacity - the number of slots needed
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        if (capacity > capacity()) {
+            chunks = newChunks(chunks.length, capacity);
+        }
+    }
+    
+    /**
+     * Retrieves the object of a slot
+     * 
+     * @param index - the index of the slot
+     * @return - the object, or null if the slot is empty
+     */
+    public T get(int index) {
+        return chunks[index >>> CHUNK_BITS].get(index & (CHUNK_SIZE - 1));
+    }
+    
+    /**
+     * Sets the object of a slot
+     * 
+     * @param index - the index of the slot
+     * @param value - the object, or null to empty the slot
+     */
+    public void set(int index, T value) {
+        chunks[index >>> CHUNK_BITS].set(index & (CHUNK_SIZE - 1), value);
+    }
+    
+    /**
+     * Sets the object of a slot if it holds the expected object
+     * 
+     * @param index - the index of the slot
+     * @param expected - the expected object, or null if the slot is expected to be empty
+     * @param value - the new object
+     * @return - true if the slot has been set
+     */
+    public boolean compareAndSet(int index, T expected, T value) {
+        return chunks[index >>> CHUNK_BITS].compareAndSet(index & (CHUNK_SIZE - 1), expected, value);
+    }
+    
+    /**
+     * Sets the object of a slot and returns the object it held
+     * 
+     * @param index - the index of the slot
+     * @param value - the new object
+     * @return - the previous object, or null if the slot was empty
+     */
+    public T getAndSet(int index, T value) {
+        return chunks[index >>> CHUNK_BITS].getAndSet(index & (CHUNK_SIZE - 1), value);
+    }
+    
+    /**
+     * Creates a directory of chunks which keeps the existing chunks and adds new ones
+     * 
+     * @param existingCount - the number of existing chunks
+     * @param capacity - the number of slots needed
+     * @return - the directory of the chunks
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AtomicReferenceArray<T>[] newChunks(int existingCount, int capacity) {
+        int chunkCount = Math.max((capacity + CHUNK_SIZE - 1) >>> CHUNK_BITS, 1);
+        AtomicReferenceArray<T>[] newChunks = existingCount > 0 ? Arrays.copyOf(chunks, chunkCount) : new AtomicReferenceArray[chunkCount];
+        
+        for (int i = existingCount; i < chunkCount; i++) {
+            newChunks[i] = new AtomicReferenceArray<T>(CHUNK_SIZE);
+        }
+        
+        return newChunks;
+    }
+}
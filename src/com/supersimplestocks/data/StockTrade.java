@@ -1,5 +1,6 @@
 package com.supersimplestocks.data;
 
+import java.time.Clock;
 import java.util.Date;
 
 import com.supersimplestocks.data.resources.Messages;
@@ -23,7 +24,7 @@ public class StockTrade {
      * @param price - the price at which the shares were traded
      * @param isBuy - whether the shares were bought or sold
      */
-    public StockTrade(Stock stock, Date timestamp, int quantity, int price, boolean isBuy) {
+    public StockTrade(Stock stock, Date timestamp, long quantity, long price, boolean isBuy) {
         if (!InputValidator.validateStockObject(stock)) {
             throw new IllegalArgumentException(Messages.ERR_STOCK_NULL);
         }
@@ -49,6 +50,36 @@ public class StockTrade {
         
     }
     
+    /**
+     * Constructor. The timestamp of the trade is the current time of the given clock.
+     * It validates the input parameters in case they were not already validated by the
+     * business logic. If the validation fails, an {@link java.lang.IllegalArgumentException}
+     * is thrown.
+     * 
+     * @param stock - the Stock object
+     * @param clock - the clock which gives the time the trade was made
+     * @param quantity - the quantity of shares bought/sold
+     * @param price - the price at which the shares were traded
+     * @param isBuy - whether the shares were bought or sold
+     */
+    public StockTrade(Stock stock, Clock clock, long quantity, long price, boolean isBuy) {
+        this(stock, new Date(readClock(clock)), quantity, price, isBuy);
+    }
+    
+    /**
+     * Reads the time of the clock, validating that the clock is not null.
+     * 
+     * @param clock - the clock
+     * @return - the current time of the clock in milliseconds
+     */
+    private static long readClock(Clock clock) {
+        if (!InputValidator.validateClock(clock)) {
+            throw new IllegalArgumentException(Messages.ERR_CLOCK_NULL);
+        }
+        
+        return clock.millis();
+    }
+    
     /** The stock symbol that is traded */
     private Stock stock;
     
@@ -56,10 +87,10 @@ public class StockTrade {
     private Date timestamp;
     
     /** The quantity of the stock bought or sold */
-    private int quantity;
+    private long quantity;
     
     /** The price at which the stock was traded */
-    private int price;
+    private long price;
     
     /** The type of transaction (buy or sell) */
     private boolean isBuy;
@@ -96,7 +127,7 @@ public class StockTrade {
      * 
      * @return - the number of stocks traded
      */
-    public int getQuantity() {
+    public long getQuantity() {
         return quantity;
     }
     
@@ -105,7 +136,7 @@ public class StockTrade {
      * 
      * @return - the stock price
      */
-    public int getPrice() {
+    public long getPrice() {
         return price;
     }
 }
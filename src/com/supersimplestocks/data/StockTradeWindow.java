@@ -0,0 +1,1071 @@
+package com.supersimplestocks.data;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+
+/**
+ * This class keeps the trades of a single stock made during a sliding time window (for
+ * example the last 5 minutes). The trades are stored in a ring buffer made of parallel
+ * primitive arrays (timestamps, prices, quantities and sides) instead of a list of
+ * {@link com.supersimplestocks.data.StockTrade} objects. Trades which fall out of the
+ * window are evicted as new trades are added or the window is queried, so the memory
+ * used is bounded by the number of trades in the window, not by the number of trades
+ * ever made.
+ * 
+ * The sum of price multiplied by quantity and the sum of the quantities are kept as
+ * running totals: a new trade is added to them and an evicted trade is subtracted from
+ * them, so reading the sums takes constant time regardless of the number of trades in
+ * the window. Prices and quantities are longs, and the sum of price multiplied by quantity
+ * is kept in 128 bits (see {@link com.supersimplestocks.data.WideMath}), so it cannot
+ * overflow however many shares are traded at whatever price; the sum of the quantities
+ * is limited to {@link java.lang.Long#MAX_VALUE}.
+ * 
+ * The buffer also keeps the side of every trade (buy or sell), and every window keeps the
+ * same running sums for the buy trades only; the sums of the sell trades are the
+ * difference. The buy-side and sell-side Volume Weighted Prices and quantities, and
+ * the order-flow imbalance between them, are therefore read in constant time as well.
+ * 
+ * The trades are expected in the order of their timestamps; a trade older than the
+ * newest trade in the window (for example when two threads read the clock and then
+ * add their trades in the opposite order) is recorded at the time of the newest trade,
+ * so the buffer stays ordered. The buffer starts with a fixed capacity which is
+ * doubled only if all the slots hold trades that are still in the window.
+ * 
+ * Several windows of different lengths (for example 1, 5, 15 and 60 minutes) can be kept
+ * over the same buffer, which then holds the trades of the longest window: the trades of
+ * each window are the newest trades of the buffer, so every window only keeps the number
+ * of its trades and its own running sums, which are all updated by the same trade. The
+ * Volume Weighted Prices of all the windows are read at once. One of the windows is the
+ * main window, which gives the result of the methods that read a single window and the
+ * logarithm of the price.
+ * 
+ * The window is thread-safe. Writers (adding trades, evicting) are serialized by a
+ * {@link java.util.concurrent.locks.StampedLock}, while readers use optimistic reads
+ * which are retried if a writer got in the way, so a reader never waits for a writer.
+ * A reader which finds expired trades evicts them if the lock is free, so a writer
+ * which arrives in the meantime waits for that eviction.
+ * 
+ * The window can also keep the natural logarithm of its Volume Weighted Price in fixed
+ * point and add every change of it to an accumulator shared by several windows. The
+ * accumulator then holds the sum of the logarithms of the prices of all the windows,
+ * which gives their geometric mean without multiplying the prices together. A window
+ * which is detached from the accumulator (when its stock is removed) takes its logarithm
+ * out of the sum and no longer changes it.
+ */
+public class StockTradeWindow {
+    
+    /** The initial capacity of the ring buffer if none is specified */
+    public static final int DEFAULT_CAPACITY = 64;
+    
+    /** The scale of the fixed point logarithm of the Volume Weighted Price (32 fractional bits) */
+    public static final double LOG_PRICE_SCALE = 1L << 32;
+    
+    /** The number of failed optimistic reads after which a reader yields to the writers */
+    private static final int READ_SPINS = 16;
+    
+    /** The lock which serializes the writers and validates the optimistic reads */
+    private final StampedLock lock = new StampedLock();
+    
+    /** The lengths of the windows in milliseconds, in ascending order */
+    private final long[] windowLengths;
+    
+    /** The index of the main window in the lengths */
+    private final int mainWindow;
+    
+    /** The length of the main window in milliseconds */
+    private final long windowLength;
+    
+    /** The accumulator of the logarithms of the prices of several windows, can be null */
+    private final LongAdder logPriceSum;
+    
+    /** The timestamps of the trades in milliseconds */
+    private long[] timestamps;
+    
+    /** The prices at which the stock was traded */
+    private long[] prices;
+    
+    /** The quantities of the stock bought or sold */
+    private long[] quantities;
+    
+    /** Whether the stock was bought or sold */
+    private boolean[] buys;
+    
+    /** The position of the oldest trade in the buffer */
+    private int head;
+    
+    /** The number of trades in the buffer, which are the trades of the longest window */
+    private int size;
+    
+    /** The number of trades evicted from the buffer since the window was created */
+    private long evictedCount;
+    
+    /** The number of trades in each window: the newest trades of the buffer */
+    private final int[] windowSizes;
+    
+    /** The low 64 bits (unsigned) of the running sum of price multiplied by quantity of the trades in each window */
+    private final long[] sumsPriceQuantity;
+    
+    /** The high 64 bits of the running sum of price multiplied by quantity of the trades in each window */
+    private final long[] sumsPriceQuantityHigh;
+    
+    /** The running sum of the quantities of the trades in each window */
+    private final long[] sumsQuantity;
+    
+    /** The low 64 bits (unsigned) of the running sum of price multiplied by quantity of the buy trades in each window */
+    private final long[] buySumsPriceQuantity;
+    
+    /** The high 64 bits of the running sum of price multiplied by quantity of the buy trades in each window */
+    private final long[] buySumsPriceQuantityHigh;
+    
+    /** The running sum of the quantities of the buy trades in each window */
+    private final long[] buySumsQuantity;
+    
+    /** The fixed point logarithm of the Volume Weighted Price of the main window, zero if it is empty */
+    private long logPrice;
+    
+    /** Whether the window has been detached from the accumulator */
+    private volatile boolean detached;
+    
+    /**
+     * Constructor. Creates a window with the default capacity.
+     * 
+     * @param windowLength - the length of the window in milliseconds
+     */
+    public StockTradeWindow(long windowLength) {
+        this(windowLength, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown. The capacity is rounded
+     * up to a power of two.
+     * 
+     * @param windowLength - the length of the window in milliseconds
+     * @param capacity - the initial number of trades the buffer can hold
+     */
+    public StockTradeWindow(long windowLength, int capacity) {
+        this(windowLength, capacity, null);
+    }
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown. The capacity is rounded
+     * up to a power of two. Every change of the fixed point logarithm of the Volume
+     * Weighted Price of the window is added to the given accumulator.
+     * 
+     * @param windowLength - the length of the window in milliseconds
+     * @param capacity - the initial number of trades the buffer can hold
+     * @param logPriceSum - the accumulator of the logarithms of the prices, or null
+     */
+    public StockTradeWindow(long windowLength, int capacity, LongAdder logPriceSum) {
+        this(new long[] {windowLength}, 0, capacity, logPriceSum);
+    }
+    
+    /**
+     * Constructor. Creates several windows over the same buffer. It validates the input parameters;
+     * if the validation fails, an {@link java.lang.IllegalArgumentException} is thrown. The capacity
+     * is rounded up to a power of two. Every change of the fixed point logarithm of the Volume
+     * Weighted Price of the main window is added to the given accumulator.
+     * 
+     * @param windowLengths - the lengths of the windows in milliseconds, in strictly ascending order
+     * @param mainWindow - the index of the main window in the lengths
+     * @param capacity - the initial number of trades the buffer can hold
+     * @param logPriceSum - the accumulator of the logarithms of the prices, or null
+     */
+    public StockTradeWindow(long[] windowLengths, int mainWindow, int capacity, LongAdder logPriceSum) {
+        if (windowLengths == null || windowLengths.length == 0 || mainWindow < 0 || mainWindow >= windowLengths.length) {
+            throw new IllegalArgumentException(Messages.ERR_WINDOW_LENGTHS_INCORRECT);
+        }
+        
+        for (int i = 0; i < windowLengths.length; i++) {
+            if (windowLengths[i] <= 0) {
+                throw new IllegalArgumentException(Messages.ERR_WINDOW_LENGTH_NEGATIVE_ZERO);
+            }
+            
+            if (i > 0 && windowLengths[i] <= windowLengths[i - 1]) {
+                throw new IllegalArgumentException(Messages.ERR_WINDOW_LENGTHS_INCORRECT);
+            }
+        }
+        
+        if (!InputValidator.validateIntPositive(capacity)) {
+            throw new IllegalArgumentException(Messages.ERR_CAPACITY_NEGATIVE_ZERO);
+        }
+        
+        int roundedCapacity = Integer.highestOneBit(capacity);
+        if (roundedCapacity < capacity) {
+            roundedCapacity <<= 1;
+        }
+        
+        this.windowLengths = windowLengths.clone();
+        this.mainWindow = mainWindow;
+        this.windowLength = windowLengths[mainWindow];
+        this.windowSizes = new int[windowLengths.length];
+        this.sumsPriceQuantity = new long[windowLengths.length];
+        this.sumsPriceQuantityHigh = new long[windowLengths.length];
+        this.sumsQuantity = new long[windowLengths.length];
+        this.buySumsPriceQuantity = new long[windowLengths.length];
+        this.buySumsPriceQuantityHigh = new long[windowLengths.length];
+        this.buySumsQuantity = new long[windowLengths.length];
+        this.logPriceSum = logPriceSum;
+        this.timestamps = new long[roundedCapacity];
+        this.prices = new long[roundedCapacity];
+        this.quantities = new long[roundedCapacity];
+        this.buys = new boolean[roundedCapacity];
+    }
+    
+    /**
+     * Adds a trade to the window.
+     * 
+     * @param stockTrade - the trade to be added
+     */
+    public void add(StockTrade stockTrade) {
+        add(stockTrade.getTimestamp().getTime(), stockTrade.getQuantity(), stockTrade.getPrice(), stockTrade.isBuy());
+    }
+    
+    /**
+     * Adds a buy trade to the window. See {@link #add(long, long, long, boolean)}.
+     * 
+     * @param timestamp - the timestamp of the trade in milliseconds
+     * @param quantity - the quantity of shares bought
+     * @param price - the price at which the shares were traded
+     */
+    public void add(long timestamp, long quantity, long price) {
+        add(timestamp, quantity, price, true);
+    }
+    
+    /**
+     * Adds a trade to the window and evicts the trades which are older than the window
+     * relative to the timestamp of the new trade. Adding a trade does not allocate any
+     * memory unless the buffer is full and has to grow. It validates the input parameters in
+     * case they were not already validated by the business logic. If the validation fails,
+     * an {@link java.lang.IllegalArgumentException} is thrown; it is also thrown if the sum of
+     * the quantities of the trades in the window would exceed {@link java.lang.Long#MAX_VALUE}.
+     * 
+     * @param timestamp - the timestamp of the trade in milliseconds
+     * @param quantity - the quantity of shares bought/sold
+     * @param price - the price at which the shares were traded
+     * @param isBuy - whether the shares were bought or sold
+     */
+    public void add(long timestamp, long quantity, long price, boolean isBuy) {
+        if (!InputValidator.validateQuantity(quantity)) {
+            throw new IllegalArgumentException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validatePrice(price)) {
+            throw new IllegalArgumentException(Messages.ERR_PRICE_NEGATIVE_ZERO);
+        }
+        
+        long stamp = lock.writeLock();
+        try {
+            append(timestamp, quantity, price, isBuy);
+        } finally {
+            updateLogPrice();
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Adds several buy trades to the window while holding the lock once. See
+     * {@link #addAll(long[], long[], long[], boolean[], int, int)}.
+     * 
+     * @param timestamps - the timestamps of the trades in milliseconds
+     * @param quantities - the quantities of shares bought
+     * @param prices - the prices at which the shares were traded
+     * @param offset - the index of the first trade in the arrays
+     * @param length - the number of trades
+     */
+    public void addAll(long[] timestamps, long[] quantities, long[] prices, int offset, int length) {
+        addAll(timestamps, quantities, prices, null, offset, length);
+    }
+    
+    /**
+     * Adds several trades to the window while holding the lock once, and recalculates the
+     * logarithm of the Volume Weighted Price once at the end instead of after every trade.
+     * The trades are taken from the given range of the columnar arrays, in order. All the
+     * trades are validated before any of them is added; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown. If the sum of the quantities in
+     * the buffer would exceed {@link java.lang.Long#MAX_VALUE}, counting the trades which have
+     * not yet been evicted, none of the trades is added and the exception is thrown.
+     * 
+     * @param timestamps - the timestamps of the trades in milliseconds
+     * @param quantities - the quantities of shares bought/sold
+     * @param prices - the prices at which the shares were traded
+     * @param buys - whether the shares of each trade were bought or sold; if null, all the trades are buys
+     * @param offset - the index of the first trade in the arrays
+     * @param length - the number of trades
+     */
+    public void addAll(long[] timestamps, long[] quantities, long[] prices, boolean[] buys, int offset, int length) {
+        boolean valid = true;
+        for (int i = offset; i < offset + length; i++) {
+            valid &= quantities[i] > 0 & prices[i] > 0;
+        }
+        
+        if (!valid) {
+            for (int i = offset; i < offset + length; i++) {
+                if (!InputValidator.validateQuantity(quantities[i])) {
+                    throw new IllegalArgumentException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
+                }
+                
+                if (!InputValidator.validatePrice(prices[i])) {
+                    throw new IllegalArgumentException(Messages.ERR_PRICE_NEGATIVE_ZERO);
+                }
+            }
+        }
+        
+        long stamp = lock.writeLock();
+        try {
+            long available = Long.MAX_VALUE - sumsQuantity[windowLengths.length - 1];
+            for (int i = offset; i < offset + length; i++) {
+                if (quantities[i] > available) {
+                    throw new IllegalArgumentException(Messages.ERR_WINDOW_QUANTITY_OVERFLOW);
+                }
+                
+                available -= quantities[i];
+            }
+            
+            for (int i = offset; i < offset + length; i++) {
+                append(timestamps[i], quantities[i], prices[i], buys == null || buys[i]);
+            }
+        } finally {
+            updateLogPrice();
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Removes the trades which are older than the windows relative to the given time
+     * and subtracts them from the running sums.
+     * 
+     * @param now - the current time in milliseconds
+     */
+    public void evict(long now) {
+        long stamp = lock.writeLock();
+        try {
+            if (evictExpired(now)) {
+                updateLogPrice();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Calculates the Volume Weighted Price of the trades in the main window relative to the
+     * given time. The trades which have expired, but were not evicted yet, are left out
+     * of the result; they are evicted only if no writer holds the lock, so the reader
+     * never waits for a writer, but a writer may wait until they are evicted.
+     * 
+     * @param now - the current time in milliseconds
+     * @return - the Volume Weighted Price, or zero if there are no trades in the window
+     */
+    public double getVolumeWeightedPrice(long now) {
+        long windowStart = now - windowLength;
+        
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long[] readTimestamps = timestamps;
+            long[] readPrices = prices;
+            long[] readQuantities = quantities;
+            int readHead = head;
+            int readSize = size;
+            int readWindowSize = windowSizes[mainWindow];
+            long readSumPriceQuantity = sumsPriceQuantity[mainWindow];
+            long readSumPriceQuantityHigh = sumsPriceQuantityHigh[mainWindow];
+            long readSumQuantity = sumsQuantity[mainWindow];
+            int expired = 0;
+            
+            //The fields may be inconsistent if a writer got in the way; the loop must
+            //not fail in that case, as the result is discarded by validate
+            if (readPrices.length == readTimestamps.length && readQuantities.length == readTimestamps.length
+                    && readWindowSize <= readSize && readSize <= readTimestamps.length) {
+                int mask = readTimestamps.length - 1;
+                int windowHead = readHead + readSize - readWindowSize;
+                
+                while (expired < readWindowSize) {
+                    int index = (windowHead + expired) & mask;
+                    if (readTimestamps[index] >= windowStart) {
+                        break;
+                    }
+                    
+                    long priceQuantity = readPrices[index] * readQuantities[index];
+                    readSumPriceQuantityHigh -= WideMath.multiplyHigh(readPrices[index], readQuantities[index])
+                            + WideMath.borrow(readSumPriceQuantity, priceQuantity);
+                    readSumPriceQuantity -= priceQuantity;
+                    readSumQuantity -= readQuantities[index];
+                    expired++;
+                }
+            }
+            
+            if (lock.validate(stamp)) {
+                if (expired > 0) {
+                    tryEvict(now);
+                }
+                
+                return readSumQuantity != 0 ? WideMath.toDouble(readSumPriceQuantityHigh, readSumPriceQuantity) / readSumQuantity : 0;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Calculates the Volume Weighted Prices of the trades in all the windows relative to the
+     * given time, from the same state of the buffer. Like {@link #getVolumeWeightedPrice(long)},
+     * it leaves out the expired trades and never waits for a writer, but may make one wait
+     * while it evicts them.
+     * 
+     * @param now - the current time in milliseconds
+     * @param volWeighPrices - the array which receives the Volume Weighted Price of every window, in
+     *        the order of the lengths, or zero for a window without trades; it is validated, and if it
+     *        is shorter than the number of windows, an {@link java.lang.IllegalArgumentException} is thrown
+     */
+    public void getVolumeWeightedPrices(long now, double[] volWeighPrices) {
+        if (volWeighPrices == null || volWeighPrices.length < windowLengths.length) {
+            throw new IllegalArgumentException(Messages.ERR_WINDOW_PRICE_ARRAY_LENGTH + windowLengths.length);
+        }
+        
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long[] readTimestamps = timestamps;
+            long[] readPrices = prices;
+            long[] readQuantities = quantities;
+            int readHead = head;
+            int readSize = size;
+            boolean expired = false;
+            
+            if (readPrices.length == readTimestamps.length && readQuantities.length == readTimestamps.length
+                    && readSize <= readTimestamps.length) {
+                int mask = readTimestamps.length - 1;
+                
+                for (int window = 0; window < windowLengths.length; window++) {
+                    long windowStart = now - windowLengths[window];
+                    int readWindowSize = Math.min(windowSizes[window], readSize);
+                    long readSumPriceQuantity = sumsPriceQuantity[window];
+                    long readSumPriceQuantityHigh = sumsPriceQuantityHigh[window];
+                    long readSumQuantity = sumsQuantity[window];
+                    int index = (readHead + readSize - readWindowSize) & mask;
+                    
+                    for (int remaining = readWindowSize; remaining > 0 && readTimestamps[index] < windowStart; remaining--) {
+                        long priceQuantity = readPrices[index] * readQuantities[index];
+                        readSumPriceQuantityHigh -= WideMath.multiplyHigh(readPrices[index], readQuantities[index])
+                                + WideMath.borrow(readSumPriceQuantity, priceQuantity);
+                        readSumPriceQuantity -= priceQuantity;
+                        readSumQuantity -= readQuantities[index];
+                        index = (index + 1) & mask;
+                        expired = true;
+                    }
+                    
+                    volWeighPrices[window] = readSumQuantity != 0 ? WideMath.toDouble(readSumPriceQuantityHigh, readSumPriceQuantity) / readSumQuantity : 0;
+                }
+            }
+            
+            if (lock.validate(stamp)) {
+                if (expired) {
+                    tryEvict(now);
+                }
+                
+                return;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Calculates the buy-side and sell-side quantities and Volume Weighted Prices of the trades
+     * in the main window relative to the given time, from the same state of the buffer. Like
+     * {@link #getVolumeWeightedPrice(long)}, it leaves out the expired trades and never waits
+     * for a writer, but may make one wait while it evicts them.
+     * 
+     * @param now - the current time in milliseconds
+     * @param orderFlow - the object which receives the result
+     */
+    public void getOrderFlow(long now, OrderFlow orderFlow) {
+        long windowStart = now - windowLength;
+        
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long[] readTimestamps = timestamps;
+            long[] readPrices = prices;
+            long[] readQuantities = quantities;
+            boolean[] readBuys = buys;
+            int readHead = head;
+            int readSize = size;
+            int readWindowSize = windowSizes[mainWindow];
+            long readSumPriceQuantity = sumsPriceQuantity[mainWindow];
+            long readSumPriceQuantityHigh = sumsPriceQuantityHigh[mainWindow];
+            long readSumQuantity = sumsQuantity[mainWindow];
+            long readBuySumPriceQuantity = buySumsPriceQuantity[mainWindow];
+            long readBuySumPriceQuantityHigh = buySumsPriceQuantityHigh[mainWindow];
+            long readBuySumQuantity = buySumsQuantity[mainWindow];
+            int expired = 0;
+            
+            if (readPrices.length == readTimestamps.length && readQuantities.length == readTimestamps.length
+                    && readBuys.length == readTimestamps.length && readWindowSize <= readSize && readSize <= readTimestamps.length) {
+                int mask = readTimestamps.length - 1;
+                int windowHead = readHead + readSize - readWindowSize;
+                
+                while (expired < readWindowSize) {
+                    int index = (windowHead + expired) & mask;
+                    if (readTimestamps[index] >= windowStart) {
+                        break;
+                    }
+                    
+                    long priceQuantity = readPrices[index] * readQuantities[index];
+                    long priceQuantityHigh = WideMath.multiplyHigh(readPrices[index], readQuantities[index]);
+                    readSumPriceQuantityHigh -= priceQuantityHigh + WideMath.borrow(readSumPriceQuantity, priceQuantity);
+                    readSumPriceQuantity -= priceQuantity;
+                    readSumQuantity -= readQuantities[index];
+                    
+                    if (readBuys[index]) {
+                        readBuySumPriceQuantityHigh -= priceQuantityHigh + WideMath.borrow(readBuySumPriceQuantity, priceQuantity);
+                        readBuySumPriceQuantity -= priceQuantity;
+                        readBuySumQuantity -= readQuantities[index];
+                    }
+                    
+                    expired++;
+                }
+            }
+            
+            if (lock.validate(stamp)) {
+                if (expired > 0) {
+                    tryEvict(now);
+                }
+                
+                //The sums of the sell trades are the sums of all the trades minus the sums of the buy trades
+                long sellSumPriceQuantity = readSumPriceQuantity - readBuySumPriceQuantity;
+                long sellSumPriceQuantityHigh = readSumPriceQuantityHigh - readBuySumPriceQuantityHigh - WideMath.borrow(readSumPriceQuantity, readBuySumPriceQuantity);
+                long sellSumQuantity = readSumQuantity - readBuySumQuantity;
+                
+                orderFlow.set(readBuySumQuantity, readBuySumQuantity != 0 ? WideMath.toDouble(readBuySumPriceQuantityHigh, readBuySumPriceQuantity) / readBuySumQuantity : 0,
+                        sellSumQuantity, sellSumQuantity != 0 ? WideMath.toDouble(sellSumPriceQuantityHigh, sellSumPriceQuantity) / sellSumQuantity : 0);
+                return;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Calculates the quantity of shares traded in the main window relative to the given time.
+     * Like {@link #getVolumeWeightedPrice(long)}, it never waits for a writer, but may make one
+     * wait while it evicts the expired trades.
+     * 
+     * @param now - the current time in milliseconds
+     * @return - the sum of the quantities of the trades in the window
+     */
+    public long getQuantity(long now) {
+        long windowStart = now - windowLength;
+        
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long[] readTimestamps = timestamps;
+            long[] readQuantities = quantities;
+            int readHead = head;
+            int readSize = size;
+            int readWindowSize = windowSizes[mainWindow];
+            long readSumQuantity = sumsQuantity[mainWindow];
+            int expired = 0;
+            
+            if (readQuantities.length == readTimestamps.length && readWindowSize <= readSize && readSize <= readTimestamps.length) {
+                int mask = readTimestamps.length - 1;
+                int windowHead = readHead + readSize - readWindowSize;
+                
+                while (expired < readWindowSize) {
+                    int index = (windowHead + expired) & mask;
+                    if (readTimestamps[index] >= windowStart) {
+                        break;
+                    }
+                    
+                    readSumQuantity -= readQuantities[index];
+                    expired++;
+                }
+            }
+            
+            if (lock.validate(stamp)) {
+                if (expired > 0) {
+                    tryEvict(now);
+                }
+                
+                return readSumQuantity;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Evicts the expired trades only if the lock can be acquired without waiting
+     * for a writer.
+     * 
+     * @param now - the current time in milliseconds
+     * @return - true if the lock was free and the expired trades were evicted
+     */
+    public boolean tryEvict(long now) {
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            return false;
+        }
+        
+        try {
+            if (evictExpired(now)) {
+                updateLogPrice();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Detaches the window from the accumulator of the logarithms of the prices: the logarithm
+     * of its price is subtracted from the sum, and the trades added or evicted afterwards no
+     * longer change it
+     */
+    public void detach() {
+        long stamp = lock.writeLock();
+        
+        try {
+            if (logPriceSum != null && !detached) {
+                logPriceSum.add(-logPrice);
+                logPrice = 0;
+            }
+            
+            detached = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Checks if the window has been detached from the accumulator of the logarithms of the prices
+     * 
+     * @return - true if the window has been detached
+     */
+    public boolean isDetached() {
+        return detached;
+    }
+    
+    /**
+     * Retrieves the time at which the oldest trade in the main window expires, i.e. the first
+     * millisecond at which it is older than the window.
+     * 
+     * @return - the expiry time in milliseconds, or {@link java.lang.Long#MAX_VALUE} if
+     * the window is empty
+     */
+    public long getExpiryTime() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long[] readTimestamps = timestamps;
+            int readHead = head;
+            int readSize = size;
+            int readWindowSize = windowSizes[mainWindow];
+            long expiryTime = Long.MAX_VALUE;
+            
+            if (readWindowSize > 0 && readWindowSize <= readSize && readSize <= readTimestamps.length) {
+                expiryTime = readTimestamps[(readHead + readSize - readWindowSize) & (readTimestamps.length - 1)] + windowLength + 1;
+            }
+            
+            if (lock.validate(stamp)) {
+                return expiryTime;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the natural logarithm of the Volume Weighted Price of the main window as of the last trade
+     * or eviction, in fixed point scaled by {@link #LOG_PRICE_SCALE}. It is kept only if
+     * the window was created with an accumulator.
+     * 
+     * @return - the fixed point logarithm, zero if the window is empty
+     */
+    public long getLogPrice() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long readLogPrice = logPrice;
+            
+            if (lock.validate(stamp)) {
+                return readLogPrice;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the sum of price multiplied by quantity of the trades in the main window
+     * as of the last trade or eviction.
+     * 
+     * @return - the exact sum of price multiplied by quantity
+     */
+    public BigInteger getSumPriceQuantity() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long readSumPriceQuantity = sumsPriceQuantity[mainWindow];
+            long readSumPriceQuantityHigh = sumsPriceQuantityHigh[mainWindow];
+            
+            if (lock.validate(stamp)) {
+                return WideMath.toBigInteger(readSumPriceQuantityHigh, readSumPriceQuantity);
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the sum of price multiplied by quantity of the buy trades in the main window
+     * as of the last trade or eviction.
+     * 
+     * @return - the exact sum of price multiplied by quantity
+     */
+    public BigInteger getBuySumPriceQuantity() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long readSumPriceQuantity = buySumsPriceQuantity[mainWindow];
+            long readSumPriceQuantityHigh = buySumsPriceQuantityHigh[mainWindow];
+            
+            if (lock.validate(stamp)) {
+                return WideMath.toBigInteger(readSumPriceQuantityHigh, readSumPriceQuantity);
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the sum of the quantities of the trades in the main window as of the
+     * last trade or eviction.
+     * 
+     * @return - the sum of the quantities
+     */
+    public long getSumQuantity() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long readSumQuantity = sumsQuantity[mainWindow];
+            
+            if (lock.validate(stamp)) {
+                return readSumQuantity;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the sum of the quantities of the trades in the buffer, which are the trades of the
+     * longest window, as of the last trade or eviction. The trades added to the window are rejected
+     * once this sum would exceed {@link java.lang.Long#MAX_VALUE}.
+     * 
+     * @return - the sum of the quantities
+     */
+    public long getBufferQuantity() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long readSumQuantity = sumsQuantity[windowLengths.length - 1];
+            
+            if (lock.validate(stamp)) {
+                return readSumQuantity;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the number of trades in the buffer, which are the trades of the longest
+     * window, as of the last trade or eviction
+     * 
+     * @return - the number of trades
+     */
+    public int size() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            int readSize = size;
+            
+            if (lock.validate(stamp)) {
+                return readSize;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the number of trades evicted from the buffer, because they expired from the
+     * longest window, since the window was created
+     * 
+     * @return - the number of trades evicted
+     */
+    public long getEvictedCount() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            long readEvictedCount = evictedCount;
+            
+            if (lock.validate(stamp)) {
+                return readEvictedCount;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Copies the trades of the buffer, which are the trades of the longest window, oldest first,
+     * into the given arrays, as many as they can hold. The trades are copied under the read lock,
+     * so they are a consistent snapshot; the caller can tell that the arrays were too small, and
+     * copy again with larger arrays, when the returned number is larger than their length.
+     * 
+     * @param tradeTimestamps - the array which receives the timestamps of the trades
+     * @param tradeQuantities - the array which receives the quantities of the trades
+     * @param tradePrices - the array which receives the prices of the trades
+     * @param tradeBuys - the array which receives whether the trades were buys
+     * @return - the number of trades in the buffer
+     */
+    public int getTrades(long[] tradeTimestamps, long[] tradeQuantities, long[] tradePrices, boolean[] tradeBuys) {
+        long stamp = lock.readLock();
+        
+        try {
+            int mask = timestamps.length - 1;
+            int count = Math.min(size, Math.min(Math.min(tradeTimestamps.length, tradeQuantities.length), Math.min(tradePrices.length, tradeBuys.length)));
+            
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) & mask;
+                tradeTimestamps[i] = timestamps[index];
+                tradeQuantities[i] = quantities[index];
+                tradePrices[i] = prices[index];
+                tradeBuys[i] = buys[index];
+            }
+            
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Retrieves the number of trades the buffer can hold before it has to grow
+     * 
+     * @return - the capacity of the buffer
+     */
+    public int capacity() {
+        for (int attempt = 1; ; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            int capacity = timestamps.length;
+            
+            if (lock.validate(stamp)) {
+                return capacity;
+            }
+            
+            if (attempt % READ_SPINS == 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the length of the main window
+     * 
+     * @return - the length of the window in milliseconds
+     */
+    public long getWindowLength() {
+        return windowLength;
+    }
+    
+    /**
+     * Retrieves the lengths of all the windows
+     * 
+     * @return - a copy of the lengths in milliseconds, in ascending order
+     */
+    public long[] getWindowLengths() {
+        return windowLengths.clone();
+    }
+    
+    /**
+     * Appends a validated trade to the buffer, evicting the trades which are older than the
+     * windows relative to it, and updates the running sums of all the windows but not the
+     * logarithm of the price; the caller must hold the write lock. If the sum of the quantities
+     * of the longest window would overflow, an {@link java.lang.IllegalArgumentException} is
+     * thrown and the trade is not added.
+     * 
+     * @param timestamp - the timestamp of the trade in milliseconds
+     * @param quantity - the quantity of shares bought/sold
+     * @param price - the price at which the shares were traded
+     * @param isBuy - whether the shares were bought or sold
+     */
+    private void append(long timestamp, long quantity, long price, boolean isBuy) {
+        if (size > 0) {
+            timestamp = Math.max(timestamp, timestamps[(head + size - 1) & (timestamps.length - 1)]);
+        }
+        
+        evictExpired(timestamp);
+        
+        if (sumsQuantity[windowLengths.length - 1] > Long.MAX_VALUE - quantity) {
+            throw new IllegalArgumentException(Messages.ERR_WINDOW_QUANTITY_OVERFLOW);
+        }
+        
+        if (size == timestamps.length) {
+            grow();
+        }
+        
+        int tail = (head + size) & (timestamps.length - 1);
+        timestamps[tail] = timestamp;
+        prices[tail] = price;
+        quantities[tail] = quantity;
+        buys[tail] = isBuy;
+        size++;
+        
+        long priceQuantity = price * quantity;
+        long priceQuantityHigh = WideMath.multiplyHigh(price, quantity);
+        
+        for (int window = 0; window < windowLengths.length; window++) {
+            sumsPriceQuantity[window] += priceQuantity;
+            sumsPriceQuantityHigh[window] += priceQuantityHigh + WideMath.carry(sumsPriceQuantity[window], priceQuantity);
+            sumsQuantity[window] += quantity;
+            windowSizes[window]++;
+            
+            if (isBuy) {
+                buySumsPriceQuantity[window] += priceQuantity;
+                buySumsPriceQuantityHigh[window] += priceQuantityHigh + WideMath.carry(buySumsPriceQuantity[window], priceQuantity);
+                buySumsQuantity[window] += quantity;
+            }
+        }
+    }
+    
+    /**
+     * Removes the expired trades from each window and subtracts them from its running sums,
+     * and removes the trades of the longest window from the buffer, but does not update the
+     * logarithm of the price; the caller must hold the write lock
+     * 
+     * @param now - the current time in milliseconds
+     * @return - true if any trade was evicted from the main window
+     */
+    private boolean evictExpired(long now) {
+        int mask = timestamps.length - 1;
+        boolean mainEvicted = false;
+        
+        for (int window = 0; window < windowLengths.length; window++) {
+            long windowStart = now - windowLengths[window];
+            int windowSize = windowSizes[window];
+            int index = (head + size - windowSize) & mask;
+            long sumPriceQuantity = sumsPriceQuantity[window];
+            long sumPriceQuantityHigh = sumsPriceQuantityHigh[window];
+            long sumQuantity = sumsQuantity[window];
+            long buySumPriceQuantity = buySumsPriceQuantity[window];
+            long buySumPriceQuantityHigh = buySumsPriceQuantityHigh[window];
+            long buySumQuantity = buySumsQuantity[window];
+            
+            while (windowSize > 0 && timestamps[index] < windowStart) {
+                long priceQuantity = prices[index] * quantities[index];
+                long priceQuantityHigh = WideMath.multiplyHigh(prices[index], quantities[index]);
+                sumPriceQuantityHigh -= priceQuantityHigh + WideMath.borrow(sumPriceQuantity, priceQuantity);
+                sumPriceQuantity -= priceQuantity;
+                sumQuantity -= quantities[index];
+                
+                if (buys[index]) {
+                    buySumPriceQuantityHigh -= priceQuantityHigh + WideMath.borrow(buySumPriceQuantity, priceQuantity);
+                    buySumPriceQuantity -= priceQuantity;
+                    buySumQuantity -= quantities[index];
+                }
+                
+                index = (index + 1) & mask;
+                windowSize--;
+            }
+            
+            if (window == mainWindow) {
+                mainEvicted = windowSize != windowSizes[window];
+            }
+            
+            windowSizes[window] = windowSize;
+            sumsPriceQuantity[window] = sumPriceQuantity;
+            sumsPriceQuantityHigh[window] = sumPriceQuantityHigh;
+            sumsQuantity[window] = sumQuantity;
+            buySumsPriceQuantity[window] = buySumPriceQuantity;
+            buySumsPriceQuantityHigh[window] = buySumPriceQuantityHigh;
+            buySumsQuantity[window] = buySumQuantity;
+        }
+        
+        //The trades of the longest window are the trades of the buffer
+        int longestSize = windowSizes[windowLengths.length - 1];
+        evictedCount += size - longestSize;
+        head = (head + size - longestSize) & mask;
+        size = longestSize;
+        
+        return mainEvicted;
+    }
+    
+    /**
+     * Recalculates the fixed point logarithm of the Volume Weighted Price and adds its
+     * change to the accumulator; the caller must hold the write lock
+     */
+    private void updateLogPrice() {
+        if (logPriceSum == null || detached) {
+            return;
+        }
+        
+        long newLogPrice = 0;
+        if (sumsQuantity[mainWindow] != 0) {
+            newLogPrice = Math.round(Math.log(WideMath.toDouble(sumsPriceQuantityHigh[mainWindow], sumsPriceQuantity[mainWindow]) / sumsQuantity[mainWindow]) * LOG_PRICE_SCALE);
+        }
+        
+        if (newLogPrice != logPrice) {
+            logPriceSum.add(newLogPrice - logPrice);
+            logPrice = newLogPrice;
+        }
+    }
+    
+    /** Doubles the capacity of the buffer, moving the oldest trade to the beginning */
+    private void grow() {
+        int capacity = timestamps.length;
+        long[] newTimestamps = new long[capacity << 1];
+        long[] newPrices = new long[capacity << 1];
+        long[] newQuantities = new long[capacity << 1];
+        boolean[] newBuys = new boolean[capacity << 1];
+        int firstPart = capacity - head;
+        
+        System.arraycopy(timestamps, head, newTimestamps, 0, firstPart);
+        System.arraycopy(timestamps, 0, newTimestamps, firstPart, head);
+        System.arraycopy(prices, head, newPrices, 0, firstPart);
+        System.arraycopy(prices, 0, newPrices, firstPart, head);
+        System.arraycopy(quantities, head, newQuantities, 0, firstPart);
+        System.arraycopy(quantities, 0, newQuantities, firstPart, head);
+        System.arraycopy(buys, head, newBuys, 0, firstPart);
+        System.arraycopy(buys, 0, newBuys, firstPart, head);
+        
+        timestamps = newTimestamps;
+        prices = newPrices;
+        quantities = newQuantities;
+        buys = newBuys;
+        head = 0;
+    }
+}
@@ -0,0 +1,10 @@
+package com.supersimplestocks.data;
+
+/**
+ * The operations of the stock exchange whose calls are counted and timed by the metrics:
+ * a trade, a batch of trades, the Volume Weighted Stock Price, the All Share Index, the
+ * dividend yield and the P/E ratio
+ */
+public enum TradeOperation {
+    TRADE, TRADE_BATCH, VOLUME_WEIGHTED_PRICE, ALL_SHARE_INDEX, DIVIDEND_YIELD, PE_RATIO
+}
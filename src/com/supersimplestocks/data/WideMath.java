@@ -0,0 +1,95 @@
+package com.supersimplestocks.data;
+
+import java.math.BigInteger;
+
+/**
+ * Utility class with static methods for the 128 bit arithmetic used by the running sums of
+ * {@link com.supersimplestocks.data.StockTradeWindow}. A 128 bit value is kept in two longs:
+ * the high 64 bits, signed, and the low 64 bits, unsigned. Java 8 has no
+ * {@code Math.multiplyHigh}, so the high half of a product is calculated here.
+ */
+public final class WideMath {
+    
+    /** 2 to the power of 64, the weight of the high half of a 128 bit value */
+    private static final double TWO_POW_64 = 0x1p64;
+    
+    private WideMath() {
+    }
+    
+    /**
+     * Calculates the high 64 bits of the 128 bit product of two non-negative values. If both
+     * values fit in 31 bits the product fits in the low 64 bits and zero is returned without
+     * any further multiplication, so prices and quantities in the range of an int cost one
+     * extra comparison only.
+     * 
+     * @param x - the first value, not negative
+     * @param y - the second value, not negative
+     * @return - the high 64 bits of the product
+     */
+    public static long multiplyHigh(long x, long y) {
+        if (((x | y) >>> 31) == 0) {
+            return 0;
+        }
+        
+        long x1 = x >>> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        
+        long t = x1 * y2 + ((x2 * y2) >>> 32);
+        long z1 = (t & 0xFFFFFFFFL) + x2 * y1;
+        
+        return x1 * y1 + (t >>> 32) + (z1 >>> 32);
+    }
+    
+    /**
+     * Calculates the carry of the addition of the low halves of two 128 bit values
+     * 
+     * @param sumLow - the low half of the sum
+     * @param addedLow - the low half of the value which was added
+     * @return - one if the low half has wrapped around, zero otherwise
+     */
+    public static long carry(long sumLow, long addedLow) {
+        return Long.compareUnsigned(sumLow, addedLow) < 0 ? 1 : 0;
+    }
+    
+    /**
+     * Calculates the borrow of the subtraction of the low halves of two 128 bit values
+     * 
+     * @param low - the low half of the value subtracted from
+     * @param subtractedLow - the low half of the value which is subtracted
+     * @return - one if the low half wraps around, zero otherwise
+     */
+    public static long borrow(long low, long subtractedLow) {
+        return Long.compareUnsigned(low, subtractedLow) < 0 ? 1 : 0;
+    }
+    
+    /**
+     * Converts a 128 bit value to the nearest double. A value which fits in a non-negative
+     * long is converted exactly as a long would be.
+     * 
+     * @param high - the high 64 bits
+     * @param low - the low 64 bits, unsigned
+     * @return - the value as a double
+     */
+    public static double toDouble(long high, long low) {
+        if (high == 0 && low >= 0) {
+            return low;
+        }
+        
+        double unsignedLow = low >= 0 ? low : ((low >>> 1) | (low & 1)) * 2.0;
+        return high * TWO_POW_64 + unsignedLow;
+    }
+    
+    /**
+     * Converts a 128 bit value to a {@link java.math.BigInteger}
+     * 
+     * @param high - the high 64 bits
+     * @param low - the low 64 bits, unsigned
+     * @return - the exact value
+     */
+    public static BigInteger toBigInteger(long high, long low) {
+        BigInteger unsignedLow = BigInteger.valueOf(low >>> 1).shiftLeft(1).add(BigInteger.valueOf(low & 1));
+        return BigInteger.valueOf(high).shiftLeft(64).add(unsignedLow);
+    }
+}
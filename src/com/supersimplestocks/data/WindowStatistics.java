@@ -0,0 +1,75 @@
+package com.supersimplestocks.data;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The occupancy of the trade window of a stock: the number of trades it holds, the number it can
+ * hold before its buffer grows, and the number of trades it has evicted because they expired.
+ * The object is a snapshot; it is not updated by the trades made after it was created.
+ */
+public class WindowStatistics {
+    
+    /** The stock symbol */
+    private final String symbol;
+    
+    /** The number of trades in the window */
+    private final int size;
+    
+    /** The number of trades the buffer of the window can hold */
+    private final int capacity;
+    
+    /** The number of trades evicted from the window */
+    private final long evictedCount;
+    
+    /**
+     * Constructor
+     * 
+     * @param symbol - the stock symbol
+     * @param size - the number of trades in the window
+     * @param capacity - the number of trades the buffer of the window can hold
+     * @param evictedCount - the number of trades evicted from the window
+     */
+    @ConstructorProperties({"symbol", "size", "capacity", "evictedCount"})
+    public WindowStatistics(String symbol, int size, int capacity, long evictedCount) {
+        this.symbol = symbol;
+        this.size = size;
+        this.capacity = capacity;
+        this.evictedCount = evictedCount;
+    }
+    
+    /**
+     * Retrieves the stock symbol
+     * 
+     * @return - the stock symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+    
+    /**
+     * Retrieves the number of trades in the window
+     * 
+     * @return - the number of trades in the window
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Retrieves the number of trades the buffer of the window can hold
+     * 
+     * @return - the capacity of the buffer
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Retrieves the number of trades evicted from the window
+     * 
+     * @return - the number of trades evicted
+     */
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+}
@@ -25,8 +25,192 @@ public class Messages {
     
     public static final String ERR_TIMESTAMP_NULL = "Timestamp cannot be null";
     
+    public static final String ERR_CLOCK_NULL = "Clock cannot be null";
+    
+    public static final String ERR_TIMESTAMP_NEGATIVE = "Timestamp cannot be negative";
+    
+    public static final String ERR_WINDOW_LENGTH_NEGATIVE_ZERO = "Window length cannot be negative or zero";
+    
+    public static final String ERR_WINDOW_LENGTHS_INCORRECT = "Window lengths must be given in strictly ascending order";
+    
+    public static final String ERR_BAR_INTERVAL_NEGATIVE_ZERO = "Bar interval cannot be negative or zero";
+    
+    public static final String ERR_BAR_INTERVALS_EMPTY = "At least one bar interval must be given";
+    
+    public static final String ERR_BAR_VOLUME_OVERFLOW = "The quantity traded in a bar cannot exceed " + Long.MAX_VALUE;
+    
+    public static final String ERR_BAR_INTERVAL_NOT_FOUND = "No bars are kept over the interval ";
+    
+    public static final String ERR_BAR_SERIES_INTERVAL = "The bar series must have the interval ";
+    
+    public static final String ERR_BAR_AGGREGATOR_ATTACHED = "A bar aggregator is already attached";
+    
+    public static final String ERR_METRICS_ATTACHED = "Metrics are already attached";
+    
+    public static final String ERR_SAMPLE_INTERVAL_INCORRECT = "The sample interval must be a positive power of two";
+    
+    public static final String ERR_PERCENTILE_INCORRECT = "The percentile must be between 0 and 100";
+    
+    public static final String ERR_DUMP_PERIOD_INCORRECT = "The period of the dump must be at least a millisecond";
+    
+    public static final String ERR_METRICS_REGISTERED = "The metrics are already registered as ";
+    
+    public static final String ERR_METRICS_JMX = "Cannot register the metrics: ";
+    
+    public static final String ERR_METRICS_INCORRECT = "Trade metrics incorrect";
+    
+    public static final String ERR_LOGGER_CAPACITY_INCORRECT = "The capacity of the logger must be a positive power of two";
+    
+    public static final String ERR_LOGGER_CLOSED = "The logger is closed";
+    
+    public static final String ERR_ASYNC_LOGGER_INCORRECT = "Asynchronous logger incorrect";
+    
+    public static final String ERR_PIPELINE_PARAMETERS = "The pipeline needs a stock trade utility, a listener and at least one partition";
+    
+    public static final String ERR_PIPELINE_CAPACITY_INCORRECT = "The capacity of the pipeline must be a positive power of two";
+    
+    public static final String ERR_PIPELINE_CLOSED = "The trade pipeline is closed";
+    
+    public static final String ERR_PIPELINE_INCORRECT = "Trade pipeline incorrect";
+    
+    public static final String ERR_ENGINE_PARAMETERS = "The sharded engine needs the stocks, a clock and at least one shard";
+    
+    public static final String ERR_SHARD_CAPACITY_INCORRECT = "The capacity of a shard must be a positive power of two";
+    
+    public static final String ERR_ENGINE_CLOSED = "The sharded trade engine is closed";
+    
+    public static final String ERR_ENGINE_INCORRECT = "Sharded trade engine incorrect";
+    
+    public static final String ERR_CLUSTER_PARAMETERS = "The cluster router needs the stocks and at least one node";
+    
+    public static final String ERR_CLUSTER_NODE_EXISTS = "The node is already in the cluster: ";
+    
+    public static final String ERR_CLUSTER_NODE_IO = "Cluster node failed: ";
+    
+    public static final String ERR_CLUSTER_RESPONSE = "Unexpected response from a cluster node";
+    
+    public static final String ERR_CLUSTER_CLOSED = "The cluster router is closed";
+    
+    public static final String ERR_CLUSTER_INCORRECT = "Cluster router incorrect";
+    
+    public static final String ERR_BAR_SERIES_INCORRECT = "Bar series incorrect";
+    
+    public static final String ERR_CAPACITY_NEGATIVE_ZERO = "Capacity cannot be negative or zero";
+    
+    public static final String ERR_WINDOW_QUANTITY_OVERFLOW = "The quantity traded in the window cannot exceed " + Long.MAX_VALUE;
+    
     public static final String ERR_NO_STOCK_FOUND = "No stock found: ";
     
+    public static final String ERR_SYNC_INTERVAL_NEGATIVE = "Sync interval cannot be negative";
+    
+    public static final String ERR_SEGMENT_RECORDS_INCORRECT = "A journal segment must hold at least 2 records";
+    
+    public static final String ERR_NOT_TRADE_JOURNAL = "Not a trade journal: ";
+    
+    public static final String ERR_JOURNAL_CLOSED = "The trade journal is closed";
+    
+    public static final String ERR_JOURNAL_NULL = "Trade journal cannot be null";
+    
+    public static final String ERR_JOURNAL_ATTACHED = "A trade journal is already attached";
+    
+    public static final String ERR_JOURNAL_SYMBOL_LENGTH = "Stock symbol cannot be stored in the trade journal: ";
+    
+    public static final String ERR_JOURNAL_WRITE = "The trade could not be written to the journal: ";
+    
+    public static final String ERR_TRADE_JOURNAL_INCORRECT = "Trade journal incorrect";
+    
+    public static final String ERR_NO_STOCK_ID_FOUND = "No stock found with ID ";
+    
+    public static final String ERR_BATCH_TRADE = "Batch rejected, invalid trade at index ";
+    
+    public static final String ERR_TRADE_BATCH_INCORRECT = "Trade batch incorrect";
+    
+    public static final String ERR_BATCH_INDEX_INCORRECT = "No trade in the batch at index ";
+    
+    public static final String ERR_STOCK_TRADER_NULL = "Stock trade utility cannot be null";
+    
+    public static final String ERR_BUFFER_SIZE_INCORRECT = "Buffer size must be at least ";
+    
+    public static final String ERR_TRADE_FILE_LINE = "Malformed trade on line ";
+    
+    public static final String ERR_TRADE_FILE_SYMBOL = "Unknown stock symbol on line ";
+    
+    public static final String ERR_TRADE_FILE_LINE_LENGTH = "Line longer than the read buffer: line ";
+    
+    public static final String ERR_TRADE_FILE_HEADER = "The binary trade file does not start with a trade journal header";
+    
+    public static final String ERR_TRADE_FILE_RECORD_SYMBOL = "Unknown stock symbol in record ";
+    
+    public static final String ERR_TRADE_FILE_RECORD_PARTIAL = "The binary trade file ends in the middle of record ";
+    
+    public static final String ERR_TRADE_FILE_LOADER_INCORRECT = "Trade file loader incorrect";
+    
+    public static final String ERR_ORDER_FLOW_NULL = "Order flow cannot be null";
+    
+    public static final String ERR_ORDER_FLOW_INCORRECT = "Order flow incorrect";
+    
+    public static final String ERR_STOCK_MAP_NULL = "Stock map cannot be null";
+    
+    public static final String ERR_STOCK_SYMBOLS_CHANGED = "The stock data can only be updated for the same stock symbols";
+    
+    public static final String ERR_STOCK_DATA_INCORRECT = "Stock reference data incorrect";
+    
+    public static final String ERR_STOCK_FILE_NULL = "Stock file path cannot be null";
+    
+    public static final String ERR_STOCK_FILE_LINE = "Malformed stock on line ";
+    
+    public static final String ERR_STOCK_FILE_DUPLICATE = "Duplicate stock symbol on line ";
+    
+    public static final String ERR_STOCK_FILE_INCORRECT = "Stock file loader incorrect";
+    
+    public static final String ERR_GATEWAY_FRAME = "Malformed request";
+    
+    public static final String ERR_GATEWAY_COMMAND = "Unknown command: ";
+    
+    public static final String ERR_GATEWAY_CLOSED = "The connection was closed by the gateway";
+    
+    public static final String ERR_GATEWAY_INCORRECT = "Trade gateway incorrect";
+    
+    public static final String ERR_LOAD_GENERATOR_PARAMETERS = "The connections, the requests per connection and the pipeline depth must be positive, and the query percentage between 0 and 100";
+    
+    public static final String ERR_STOCK_REGISTRY_NULL = "Stock registry cannot be null";
+    
+    public static final String ERR_TRADE_HANDLER_NULL = "Trade handler cannot be null";
+    
+    public static final String ERR_WINDOW_PRICE_ARRAY_LENGTH = "The price array must have a place for every window: ";
+    
+    public static final String ERR_PRICES_NULL = "Prices cannot be null";
+    
+    public static final String ERR_PRICE_AT_INDEX = "Invalid price at index ";
+    
+    public static final String ERR_RESULT_ARRAY_LENGTH = "The result array must have a place for every result: ";
+    
+    public static final String ERR_PRICE_GRID_INCORRECT = "Dividend yields or P/E ratios of the price grid incorrect";
+    
+    public static final String ERR_PRICE_ARRAY_LENGTH = "The price array must have a place for every stock: ";
+    
+    public static final String ERR_REPLAY_LISTENER_NULL = "Replay listener cannot be null";
+    
+    public static final String ERR_REPLAY_INTERVAL_NEGATIVE_ZERO = "Replay interval cannot be negative or zero";
+    
+    public static final String ERR_REPLAY_SPEED_INCORRECT = "Replay speed must be a number which is not negative";
+    
+    public static final String ERR_REPLAY_INTERRUPTED = "The replay has been interrupted";
+    
+    public static final String ERR_REPLAY_ARGUMENTS = "Usage: TradeReplayer speed interval-seconds file...";
+    
+    public static final String ERR_GATEWAY_ARGUMENTS = "Usage: TradeGateway [port] [stock-file.csv]";
+    
+    public static final String ERR_LOAD_GENERATOR_ARGUMENTS = "Usage: LoadGenerator port connections requests-per-connection pipeline-depth [query-percent]";
+    
+    public static final String ERR_CLUSTER_NODE_ARGUMENTS = "Usage: ClusterNode [port]";
+    
+    public static final String ERR_CLUSTER_ROUTER_ARGUMENTS = "Usage: ClusterRouter port... (the last node joins after the first trades)";
+    
+    public static final String ERR_REPLAY_INCORRECT = "Trade replay incorrect";
+    
+    public static final String ERR_STOCK_ID_INCORRECT = " stock ID incorrect";
+    
     public static final String ERR_NO_STOCK_DATA_FOUND = "No data found for stock ";
     
     public static final String ERR_DIVIDENT_YIELD_INCORRECT = " dividend yield incorrect";
@@ -37,6 +221,14 @@ public class Messages {
     
     public static final String ERR_ALL_SHARE_INDEX_INCORRECT = " All Share Index incorrect";
     
+    public static final String ERR_WIDE_MATH_INCORRECT = "128 bit arithmetic incorrect";
+    
+    public static final String ERR_TRADE_WINDOW_INCORRECT = "Trade window incorrect";
+    
+    public static final String ERR_TRADED_QUANTITY_INCORRECT = " traded quantity incorrect";
+    
+    public static final String ERR_TRADE_ALLOCATION = "Recording trades allocated memory, bytes: ";
+    
     public static final String ERR_EXCEPTION_NOT_CAUGHT = "Exception not caught";
     
     public static final String MSG_WELCOME = "Welcome to the Simple Stock Market. ";
@@ -55,7 +247,10 @@ public class Messages {
           + "b - buy stocks\n"
           + "s - sell stocks\n"
           + "v - calculate Volume Weighted Stock Price from transactions during the last 5 minutes\n"
+          + "w - calculate Volume Weighted Stock Prices from transactions during the last 1, 5, 15 and 60 minutes\n"
+          + "f - calculate the buy and sell Volume Weighted Stock Prices and the order-flow imbalance from transactions during the last 5 minutes\n"
           + "a - calculate the All Share Index\n"
+          + "m - show the metrics of the operations and the trade windows\n"
           + "t - run unit tests\n"
           + "h - print the menu\n"
           + "q - quit the application\n";
@@ -80,16 +275,46 @@ public class Messages {
     
     public static final String MSG_SELL_STOCK = "Sold P0 shares of P1 at price P2";
     
+    public static final String MSG_VOL_WEIGH_PRICES = "The volume weighted stock price for P0 from transactions during the last P1 minutes is P2";
+    
     public static final String MSG_VOL_WEIGH_PRICE = "The volume weighted stock price for P0 from transactions during the last 5 minutes is P1";
     
+    public static final String MSG_ORDER_FLOW = "From transactions during the last 5 minutes, P0 shares of P1 were bought at a volume weighted price of P2 and P3 shares were sold at a volume weighted price of P4; the order-flow imbalance is P5";
+    
     public static final String MSG_ALL_SHARE_INDEX = "The All Share Index is P0";
     
+    public static final String MSG_JOURNAL_REPLAYED = "Replayed P0 trades from the journal P1";
+    
+    public static final String MSG_TRADES_LOADED = "Loaded P0 trades from P1 in P2 ms";
+    
+    public static final String MSG_STOCKS_LOADED = "Loaded P0 stocks from P1 in P2 ms";
+    
+    public static final String MSG_STOCKS_RELOADED = "Reloaded P0 stocks from P1";
+    
+    public static final String MSG_GATEWAY_STARTED = "The trade gateway is listening on port P0";
+    
+    public static final String MSG_CLUSTER_NODE_STARTED = "The cluster node is listening on port P0";
+    
+    public static final String MSG_CLUSTER_SPREAD = "P0 stocks spread over P1 nodes";
+    
+    public static final String MSG_CLUSTER_NODE_JOINED = "Node P0 joined the cluster, P1 stocks moved to it";
+    
+    public static final String MSG_METRICS_OPERATION = "P0: P1 calls, latency mean P2 ns, p50 P3 ns, p99 P4 ns, p99.9 P5 ns, max P6 ns";
+    
+    public static final String MSG_METRICS_WINDOWS = "The windows of P0 stocks hold P1 trades, the largest P2 trades; P3 trades have been evicted";
+    
+    public static final String MSG_LOAD_REPORT = "Sent P0 requests (P1 trades, P2 errors) in P3 ms: P4 requests per second, latency p50 P5 us, p99 P6 us, p99.9 P7 us";
+    
+    public static final String MSG_REPLAY_SNAPSHOT = "At P0 P1 stocks have been traded and the All Share Index is P2";
+    
+    public static final String MSG_TRADES_REPLAYED = "Replayed P0 trades from P1 in P2 ms";
+    
     public static final String MSG_TESTS_START = "Starting tests";
     
     public static final String MSG_TESTS_FINISH = "All tests have finished successfully";
     
-    //Sleep 6 minutes to ensure that in the subsequent transactions the Volume Weighted Stock Price is calculated
-    //based on transactions only from the last 5 minutes
-    public static final String MSG_SLEEP = "Sleeping 6 minutes to ensure that in the subsequent transactions the Volume Weighted Stock Price"
+    //Move the clock 6 minutes forward to ensure that in the subsequent transactions the Volume Weighted Stock Price
+    //is calculated based on transactions only from the last 5 minutes
+    public static final String MSG_ADVANCE_CLOCK = "Moving the clock 6 minutes forward to ensure that in the subsequent transactions the Volume Weighted Stock Price "
             + "is calculated based on transactions only from the last 5 minutes";
 }
@@ -1,5 +1,6 @@
 package com.supersimplestocks.data.validation;
 
+import java.time.Clock;
 import java.util.Date;
 
 import com.supersimplestocks.data.Stock;
@@ -71,8 +72,8 @@ public class InputValidator {
      * @param price - the price of the stock
      * @return - if the price is positive
      */
-    public static boolean validatePrice(int price) {
-        return validateIntPositive(price);
+    public static boolean validatePrice(long price) {
+        return validateLongPositive(price);
     }
     
     /**
@@ -99,6 +100,30 @@ public class InputValidator {
         return validateObjectNotNull(timestamp);
     }
     
+    /**
+     * Validates the timestamp in milliseconds since the epoch: it must not be negative.
+     * A separate method is written, instead of directly using validateLongPositiveZero
+     * where needed, in case some additional validation is needed in the future.
+     * 
+     * @param timestamp - the timestamp in milliseconds
+     * @return - if the timestamp is not negative
+     */
+    public static final boolean validateTimestamp(long timestamp) {
+        return validateLongPositiveZero(timestamp);
+    }
+    
+    /**
+     * Validates the clock object: it must not be null. A separate
+     * method is written, instead of directly using validateNullObject
+     * where needed, in case some additional validation is needed in the future.
+     * 
+     * @param clock - the clock object
+     * @return - if the clock is not null
+     */
+    public static final boolean validateClock(Clock clock) {
+        return validateObjectNotNull(clock);
+    }
+    
     /**
      * Validates the stock quantity: it must not be negative or zero. A separate
      * method is written, instead of directly using validateNegativeZeroInt
@@ -107,8 +132,8 @@ public class InputValidator {
      * @param quantity - the stock quantity
      * @return - if the quantity is positive
      */
-    public static final boolean validateQuantity(int quantity) {
-        return validateIntPositive(quantity);
+    public static final boolean validateQuantity(long quantity) {
+        return validateLongPositive(quantity);
     }
     
     /**
@@ -151,6 +176,26 @@ public class InputValidator {
         return value > 0;
     }
     
+    /**
+     * A generic method to validate if a long value is negative
+     * 
+     * @param value - the value to be validated
+     * @return - if the validated value is greater or equal to zero
+     */
+    public static boolean validateLongPositiveZero(long value) {
+        return value >= 0;
+    }
+    
+    /**
+     * A generic method to validate if a long value is negative or zero
+     * 
+     * @param value - the value to be validated
+     * @return - if the validated value is positive
+     */
+    public static boolean validateLongPositive(long value) {
+        return value > 0;
+    }
+    
     /**
      * A generic method to validate if a double value is negative
      * 
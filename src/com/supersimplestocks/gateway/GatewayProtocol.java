@@ -0,0 +1,268 @@
+package com.supersimplestocks.gateway;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol of the {@link TradeGateway}. Every request and every response is a frame
+ * which starts with its length in bytes, not counting the length itself, as an unsigned short;
+ * all numbers are big-endian. The symbols are in UTF-8, preceded by their length in a byte.
+ * 
+ * i.   request - command (byte), request ID (int), then the fields of the command:
+ *      TRADE: symbol, quantity (long), price (long), side (byte, BUY or SELL);
+ *      VOLUME_WEIGHTED_PRICE: symbol;
+ *      ALL_SHARE_INDEX: no field;
+ *      DIVIDEND_YIELD and PE_RATIO: symbol, price (long).
+ * ii.  response - status (byte, OK or ERROR), request ID (int), then for OK the result (double,
+ *      zero for a trade) and for ERROR the error message in UTF-8, up to the end of the frame.
+ * 
+ * The commands used by a {@link com.supersimplestocks.cluster.ClusterRouter} to share the stocks
+ * among the nodes of a cluster follow the same rules:
+ * 
+ * i.   TRADE_AT: symbol, timestamp (long), quantity (long), price (long), side (byte), for a trade
+ *      moved from another node with its original time;
+ * ii.  LOG_PRICE_SUM: no field; the OK response holds the sum of the fixed point logarithms of the
+ *      Volume Weighted Stock Prices (long) and the number of stocks traded (long) instead of a result;
+ * iii. ADD_STOCK: symbol, type (byte, COMMON or PREFERRED), last dividend (int), fixed dividend
+ *      (double), par value (int);
+ * iv.  REMOVE_STOCK: symbol; the trades held by the stock are sent first, oldest first, in frames
+ *      with the status MORE holding up to TRADES_PER_FRAME trades each (timestamp, quantity and
+ *      price as longs, side as a byte), then the OK response, whose result is the number of trades.
+ * 
+ * A client can send any number of requests without waiting for their responses (pipelining);
+ * the responses of a connection are sent in the order of its requests. The request ID is chosen
+ * by the client and returned in the response.
+ */
+public class GatewayProtocol {
+    
+    /** The size of the length which starts every frame */
+    public static final int LENGTH_SIZE = 2;
+    
+    /** The size of the command, or of the status, and of the request ID */
+    public static final int HEADER_SIZE = 5;
+    
+    /** The longest frame in bytes, not counting its length */
+    public static final int MAX_FRAME_LENGTH = 1024;
+    
+    /** The size of the response to a successful request, including its length */
+    public static final int RESULT_SIZE = LENGTH_SIZE + HEADER_SIZE + 8;
+    
+    public static final byte TRADE = 1;
+    public static final byte VOLUME_WEIGHTED_PRICE = 2;
+    public static final byte ALL_SHARE_INDEX = 3;
+    public static final byte DIVIDEND_YIELD = 4;
+    public static final byte PE_RATIO = 5;
+    
+    /** The commands of the cluster nodes */
+    public static final byte TRADE_AT = 10;
+    public static final byte LOG_PRICE_SUM = 11;
+    public static final byte ADD_STOCK = 12;
+    public static final byte REMOVE_STOCK = 13;
+    
+    public static final byte BUY = 1;
+    public static final byte SELL = 0;
+    
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+    public static final byte MORE = 2;
+    
+    public static final byte COMMON = 0;
+    public static final byte PREFERRED = 1;
+    
+    /** The size of the response to a LOG_PRICE_SUM request, including its length */
+    public static final int LOG_PRICE_SUM_SIZE = LENGTH_SIZE + HEADER_SIZE + 16;
+    
+    /** The size of a trade in a MORE frame */
+    public static final int TRADE_RECORD_SIZE = 25;
+    
+    /** The largest number of trades in a MORE frame */
+    public static final int TRADES_PER_FRAME = (MAX_FRAME_LENGTH - HEADER_SIZE) / TRADE_RECORD_SIZE;
+    
+    /**
+     * Writes a trade request
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     * @param symbol - the stock symbol in UTF-8, at most 255 bytes
+     * @param quantity - the quantity of shares traded
+     * @param price - the price at which the stock is traded
+     * @param isBuy - whether the stock is bought or sold
+     */
+    public static void putTrade(ByteBuffer buffer, int requestId, byte[] symbol, long quantity, long price, boolean isBuy) {
+        buffer.putShort((short) (HEADER_SIZE + 1 + symbol.length + 17));
+        buffer.put(TRADE).putInt(requestId);
+        buffer.put((byte) symbol.length).put(symbol);
+        buffer.putLong(quantity).putLong(price).put(isBuy ? BUY : SELL);
+    }
+    
+    /**
+     * Writes a request for a trade made at a given time
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     * @param symbol - the stock symbol in UTF-8, at most 255 bytes
+     * @param timestamp - the time of the trade in milliseconds
+     * @param quantity - the quantity of shares traded
+     * @param price - the price at which the stock is traded
+     * @param isBuy - whether the stock is bought or sold
+     */
+    public static void putTradeAt(ByteBuffer buffer, int requestId, byte[] symbol, long timestamp, long quantity, long price, boolean isBuy) {
+        buffer.putShort((short) (HEADER_SIZE + 1 + symbol.length + 25));
+        buffer.put(TRADE_AT).putInt(requestId);
+        buffer.put((byte) symbol.length).put(symbol);
+        buffer.putLong(timestamp).putLong(quantity).putLong(price).put(isBuy ? BUY : SELL);
+    }
+    
+    /**
+     * Writes a request for the Volume Weighted Stock Price of a stock
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     * @param symbol - the stock symbol in UTF-8, at most 255 bytes
+     */
+    public static void putVolumeWeightedPrice(ByteBuffer buffer, int requestId, byte[] symbol) {
+        buffer.putShort((short) (HEADER_SIZE + 1 + symbol.length));
+        buffer.put(VOLUME_WEIGHTED_PRICE).putInt(requestId);
+        buffer.put((byte) symbol.length).put(symbol);
+    }
+    
+    /**
+     * Writes a request for the All Share Index
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     */
+    public static void putAllShareIndex(ByteBuffer buffer, int requestId) {
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.put(ALL_SHARE_INDEX).putInt(requestId);
+    }
+    
+    /**
+     * Writes a request for the sum of the logarithms of the prices and the number of stocks traded
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     */
+    public static void putLogPriceSum(ByteBuffer buffer, int requestId) {
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.put(LOG_PRICE_SUM).putInt(requestId);
+    }
+    
+    /**
+     * Writes a request which adds a stock, or replaces its reference data
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     * @param symbol - the stock symbol in UTF-8, at most 255 bytes
+     * @param isPreferred - whether the stock is a preferred stock
+     * @param lastDividend - the last dividend of the stock
+     * @param fixedDividend - the fixed dividend of the stock
+     * @param parValue - the par value of the stock
+     */
+    public static void putAddStock(ByteBuffer buffer, int requestId, byte[] symbol, boolean isPreferred, int lastDividend, double fixedDividend, int parValue) {
+        buffer.putShort((short) (HEADER_SIZE + 1 + symbol.length + 17));
+        buffer.put(ADD_STOCK).putInt(requestId);
+        buffer.put((byte) symbol.length).put(symbol);
+        buffer.put(isPreferred ? PREFERRED : COMMON).putInt(lastDividend).putDouble(fixedDividend).putInt(parValue);
+    }
+    
+    /**
+     * Writes a request which removes a stock and returns its trades
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param requestId - the request ID
+     * @param symbol - the stock symbol in UTF-8, at most 255 bytes
+     */
+    public static void putRemoveStock(ByteBuffer buffer, int requestId, byte[] symbol) {
+        buffer.putShort((short) (HEADER_SIZE + 1 + symbol.length));
+        buffer.put(REMOVE_STOCK).putInt(requestId);
+        buffer.put((byte) symbol.length).put(symbol);
+    }
+    
+    /**
+     * Writes a request for the dividend yield or the P/E ratio of a stock for a given price
+     * 
+     * @param buffer - the buffer which receives the request
+     * @param command - DIVIDEND_YIELD or PE_RATIO
+     * @param requestId - the request ID
+     * @param symbol - the stock symbol in UTF-8, at most 255 bytes
+     * @param price - the price
+     */
+    public static void putPriceQuery(ByteBuffer buffer, byte command, int requestId, byte[] symbol, long price) {
+        buffer.putShort((short) (HEADER_SIZE + 1 + symbol.length + 8));
+        buffer.put(command).putInt(requestId);
+        buffer.put((byte) symbol.length).put(symbol);
+        buffer.putLong(price);
+    }
+    
+    /**
+     * Writes the response to a successful request
+     * 
+     * @param buffer - the buffer which receives the response
+     * @param requestId - the request ID
+     * @param result - the result, zero for a trade
+     */
+    public static void putResult(ByteBuffer buffer, int requestId, double result) {
+        buffer.putShort((short) (HEADER_SIZE + 8));
+        buffer.put(OK).putInt(requestId);
+        buffer.putDouble(result);
+    }
+    
+    /**
+     * Writes the response to a successful LOG_PRICE_SUM request
+     * 
+     * @param buffer - the buffer which receives the response
+     * @param requestId - the request ID
+     * @param logPriceSum - the sum of the fixed point logarithms of the prices
+     * @param stockCount - the number of stocks traded
+     */
+    public static void putLogPriceSumResult(ByteBuffer buffer, int requestId, long logPriceSum, long stockCount) {
+        buffer.putShort((short) (HEADER_SIZE + 16));
+        buffer.put(OK).putInt(requestId);
+        buffer.putLong(logPriceSum).putLong(stockCount);
+    }
+    
+    /**
+     * Writes a MORE frame holding trades of a stock being removed
+     * 
+     * @param buffer - the buffer which receives the frame
+     * @param requestId - the request ID
+     * @param timestamps - the timestamps of the trades
+     * @param quantities - the quantities of the trades
+     * @param prices - the prices of the trades
+     * @param buys - whether the trades were buys
+     * @param offset - the position of the first trade of the frame in the arrays
+     * @param count - the number of trades of the frame, at most TRADES_PER_FRAME
+     */
+    public static void putTrades(ByteBuffer buffer, int requestId, long[] timestamps, long[] quantities, long[] prices, boolean[] buys, int offset, int count) {
+        buffer.putShort((short) (HEADER_SIZE + count * TRADE_RECORD_SIZE));
+        buffer.put(MORE).putInt(requestId);
+        
+        for (int i = offset; i < offset + count; i++) {
+            buffer.putLong(timestamps[i]).putLong(quantities[i]).putLong(prices[i]).put(buys[i] ? BUY : SELL);
+        }
+    }
+    
+    /**
+     * Writes the response to a failed request
+     * 
+     * @param buffer - the buffer which receives the response
+     * @param requestId - the request ID
+     * @param message - the error message in UTF-8, at most MAX_FRAME_LENGTH - HEADER_SIZE bytes
+     */
+    public static void putError(ByteBuffer buffer, int requestId, byte[] message) {
+        buffer.putShort((short) (HEADER_SIZE + message.length));
+        buffer.put(ERROR).putInt(requestId);
+        buffer.put(message);
+    }
+    
+    /**
+     * Retrieves the length of the frame at a position of a buffer
+     * 
+     * @param buffer - the buffer
+     * @param position - the position of the frame
+     * @return - the length of the frame, not counting its length
+     */
+    public static int getFrameLength(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+}
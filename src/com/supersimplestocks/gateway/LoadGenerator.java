@@ -0,0 +1,294 @@
+package com.supersimplestocks.gateway;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * A load generator for the {@link TradeGateway}: it opens a number of connections, each on its own
+ * thread, and sends on each of them a number of requests, mostly trades of random stocks and otherwise
+ * queries for their Volume Weighted Stock Price. The requests are pipelined: each connection sends
+ * pipelineDepth requests at once and then reads their responses, so the gateway receives many requests
+ * together, as from busy clients.
+ * 
+ * The latency of a request is the time from the sending of its group of requests to the arrival of its
+ * response, so it includes the time the request waits behind the others of its group. Once all the
+ * connections have finished, the throughput and the latency percentiles of all the requests are
+ * available.
+ */
+public class LoadGenerator {
+    
+    /** The quantity of shares of every trade */
+    public static final long QUANTITY = 10;
+    
+    /** The lowest price of a trade; the prices go from PRICE to PRICE + 99 */
+    public static final long PRICE = 100;
+    
+    /** The size of the read buffer of a connection */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    
+    private final InetSocketAddress address;
+    
+    /** The symbols of the stocks traded, in UTF-8 */
+    private final byte[][] symbols;
+    
+    private final int connectionCount;
+    
+    private final int requestsPerConnection;
+    
+    private final int pipelineDepth;
+    
+    /** The percentage of the requests which are queries instead of trades */
+    private final int queryPercent;
+    
+    /** The latencies of all the requests in nanoseconds, sorted once the run has finished */
+    private final long[] latencies;
+    
+    private long tradeCount;
+    
+    private long errorCount;
+    
+    private long elapsedNanos;
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param address - the address of the gateway
+     * @param stockSymbols - the symbols of the stocks traded
+     * @param connectionCount - the number of connections
+     * @param requestsPerConnection - the number of requests sent on every connection
+     * @param pipelineDepth - the number of requests sent at once on a connection
+     * @param queryPercent - the percentage of the requests which are queries instead of trades
+     */
+    public LoadGenerator(InetSocketAddress address, String[] stockSymbols, int connectionCount, int requestsPerConnection, int pipelineDepth, int queryPercent) {
+        if (address == null || stockSymbols == null || stockSymbols.length == 0 || connectionCount <= 0 || requestsPerConnection <= 0
+                || pipelineDepth <= 0 || queryPercent < 0 || queryPercent > 100) {
+            throw new IllegalArgumentException(Messages.ERR_LOAD_GENERATOR_PARAMETERS);
+        }
+        
+        this.address = address;
+        this.symbols = new byte[stockSymbols.length][];
+        for (int i = 0; i < stockSymbols.length; i++) {
+            symbols[i] = stockSymbols[i].getBytes(StandardCharsets.UTF_8);
+        }
+        
+        this.connectionCount = connectionCount;
+        this.requestsPerConnection = requestsPerConnection;
+        this.pipelineDepth = pipelineDepth;
+        this.queryPercent = queryPercent;
+        this.latencies = new long[connectionCount * requestsPerConnection];
+    }
+    
+    /**
+     * Main method which sends load to a gateway on this machine, trading the predefined stocks,
+     * and prints the throughput and the latencies
+     * 
+     * @param args - method arguments: the port of the gateway, the number of connections, the
+     * number of requests per connection, the pipeline depth and the optional query percentage
+     */
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 5 || !Arrays.stream(args).allMatch(StockTradeUtil::checkStrPositiveInt)) {
+            Logger.error(Messages.ERR_LOAD_GENERATOR_ARGUMENTS);
+            return;
+        }
+        
+        try {
+            LoadGenerator generator = new LoadGenerator(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])),
+                    StockData.stockMap.keySet().toArray(new String[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), args.length > 4 ? Integer.parseInt(args[4]) : 0);
+            generator.run();
+            
+            Logger.log(Messages.MSG_LOAD_REPORT, new String[] {Long.toString(generator.getRequestCount()), Long.toString(generator.getTradeCount()),
+                    Long.toString(generator.getErrorCount()), Long.toString(generator.getElapsedNanos() / 1000000),
+                    Long.toString((long) generator.getThroughput()), Long.toString(generator.getLatencyPercentile(50) / 1000),
+                    Long.toString(generator.getLatencyPercentile(99) / 1000), Long.toString(generator.getLatencyPercentile(99.9) / 1000)});
+        } catch (IOException | IllegalArgumentException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Opens the connections, sends all the requests and waits for all the responses
+     * 
+     * @throws IOException - if a connection fails
+     */
+    public void run() throws IOException {
+        Thread[] threads = new Thread[connectionCount];
+        long[] tradeCounts = new long[connectionCount];
+        long[] errorCounts = new long[connectionCount];
+        AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        
+        for (int i = 0; i < connectionCount; i++) {
+            int connection = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    runConnection(connection, tradeCounts, errorCounts);
+                } catch (IOException ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }, "load-generator-" + i);
+        }
+        
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+        }
+        
+        elapsedNanos = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        
+        tradeCount = Arrays.stream(tradeCounts).sum();
+        errorCount = Arrays.stream(errorCounts).sum();
+        Arrays.sort(latencies);
+    }
+    
+    /**
+     * Sends the requests of a connection and reads their responses
+     * 
+     * @param connection - the index of the connection
+     * @param tradeCounts - the numbers of trades sent, by connection
+     * @param errorCounts - the numbers of ERROR responses, by connection
+     * @throws IOException - if the connection fails
+     */
+    private void runConnection(int connection, long[] tradeCounts, long[] errorCounts) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.socket().setTcpNoDelay(true);
+            
+            ByteBuffer requests = ByteBuffer.allocate(pipelineDepth * (GatewayProtocol.LENGTH_SIZE + GatewayProtocol.MAX_FRAME_LENGTH));
+            ByteBuffer responses = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            int latencyOffset = connection * requestsPerConnection;
+            int random = connection * 0x9E3779B9 + 1;
+            int sent = 0;
+            
+            while (sent < requestsPerConnection) {
+                int groupSize = Math.min(pipelineDepth, requestsPerConnection - sent);
+                
+                requests.clear();
+                for (int requestId = sent; requestId < sent + groupSize; requestId++) {
+                    random ^= random << 13;
+                    random ^= random >>> 17;
+                    random ^= random << 5;
+                    
+                    byte[] symbol = symbols[(random >>> 1) % symbols.length];
+                    if ((random >>> 8 & 0xFFFF) % 100 < queryPercent) {
+                        GatewayProtocol.putVolumeWeightedPrice(requests, requestId, symbol);
+                    } else {
+                        GatewayProtocol.putTrade(requests, requestId, symbol, QUANTITY, PRICE + (random >>> 24) % 100, (random & 1) == 0);
+                        tradeCounts[connection]++;
+                    }
+                }
+                
+                requests.flip();
+                long sendTime = System.nanoTime();
+                while (requests.hasRemaining()) {
+                    channel.write(requests);
+                }
+                
+                int received = 0;
+                while (received < groupSize) {
+                    if (channel.read(responses) < 0) {
+                        throw new IOException(Messages.ERR_GATEWAY_CLOSED);
+                    }
+                    
+                    long receiveTime = System.nanoTime();
+                    responses.flip();
+                    while (responses.remaining() >= GatewayProtocol.LENGTH_SIZE
+                            && responses.remaining() >= GatewayProtocol.LENGTH_SIZE + GatewayProtocol.getFrameLength(responses, responses.position())) {
+                        int position = responses.position();
+                        int requestId = responses.getInt(position + GatewayProtocol.LENGTH_SIZE + 1);
+                        
+                        if (responses.get(position + GatewayProtocol.LENGTH_SIZE) != GatewayProtocol.OK) {
+                            errorCounts[connection]++;
+                        }
+                        
+                        latencies[latencyOffset + requestId] = receiveTime - sendTime;
+                        responses.position(position + GatewayProtocol.LENGTH_SIZE + GatewayProtocol.getFrameLength(responses, position));
+                        received++;
+                    }
+                    
+                    responses.compact();
+                }
+                
+                sent += groupSize;
+            }
+        }
+    }
+    
+    /**
+     * Retrieves the number of requests sent
+     * 
+     * @return - the number of requests sent
+     */
+    public long getRequestCount() {
+        return latencies.length;
+    }
+    
+    /**
+     * Retrieves the number of trades sent
+     * 
+     * @return - the number of trades sent
+     */
+    public long getTradeCount() {
+        return tradeCount;
+    }
+    
+    /**
+     * Retrieves the number of requests which got an ERROR response
+     * 
+     * @return - the number of ERROR responses
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+    
+    /**
+     * Retrieves the time taken by the run
+     * 
+     * @return - the time taken by the run in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    /**
+     * Retrieves the throughput of the run
+     * 
+     * @return - the number of requests answered per second
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? latencies.length * 1e9 / elapsedNanos : 0;
+    }
+    
+    /**
+     * Retrieves a percentile of the latencies of the run
+     * 
+     * @param percentile - the percentile, between 0 and 100
+     * @return - the latency below which this percentage of the requests have been answered, in nanoseconds
+     */
+    public long getLatencyPercentile(double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+    }
+}
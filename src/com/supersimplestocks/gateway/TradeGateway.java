@@ -0,0 +1,731 @@
+package com.supersimplestocks.gateway;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.business.TradeBatch;
+import com.supersimplestocks.data.CommonStock;
+import com.supersimplestocks.data.PreferredStock;
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.loader.StockFileLoader;
+import com.supersimplestocks.logging.AsyncLogger;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * A TCP gateway which receives trade and query commands from many clients at once, in the binary
+ * protocol of {@link GatewayProtocol}, and executes them on a
+ * {@link com.supersimplestocks.business.StockTradeUtil}.
+ * 
+ * The gateway runs on a single thread around an NIO {@link java.nio.channels.Selector}: the sockets
+ * are non-blocking, so one thread serves all the connections and is never blocked by a slow client.
+ * Every time the selector wakes up, the requests of all the readable connections are parsed from
+ * their read buffers. The trades are validated and collected in a
+ * {@link com.supersimplestocks.business.TradeBatch}, which is recorded with tradeStocks when it is
+ * full, before a query or an error is answered (so the responses of a connection stay in the order
+ * of its requests, and a query sees the trades sent before it) and once all the connections have
+ * been read. The clients can therefore pipeline their requests, and the trades which arrive together
+ * are recorded together. The symbols are looked up in the registry by their bytes and the responses
+ * are written into a buffer per connection, so a trade does not create any object.
+ * 
+ * The gateway also serves as a node of a cluster (see {@link com.supersimplestocks.cluster.ClusterNode}):
+ * the stocks can be added and removed by their owner, the trades of a removed stock are sent back so
+ * they can be moved to another node, and the partial sums of the All Share Index can be queried.
+ * 
+ * A connection whose responses are not read by its client is no longer read once its unsent responses
+ * pass a limit, until the client catches up. A frame whose length is not valid closes the connection;
+ * a request which fails gets an ERROR response with the error message. If a batch is rejected by the
+ * utility, the trades it has recorded nevertheless are answered as recorded, and only the others are
+ * made again one by one, so every trade gets its own response and none is recorded twice.
+ */
+public class TradeGateway implements Closeable {
+    
+    /** The port on which the gateway listens if none is specified */
+    public static final int DEFAULT_PORT = 9090;
+    
+    /** The number of trades recorded together if none is specified */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    
+    /** The size of the read buffer of a connection */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    
+    /** The initial size of the write buffer of a connection */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    
+    /** The size of the unsent responses of a connection above which its requests are no longer read */
+    private static final int WRITE_BACKLOG_LIMIT = 1024 * 1024;
+    
+    /** The utility which executes the commands */
+    private final StockTradeUtil stockTrader;
+    
+    /** The clock which gives the time of the trades */
+    private final Clock clock;
+    
+    /** The selector of the connections */
+    private final Selector selector;
+    
+    /** The channel which accepts the connections */
+    private final ServerSocketChannel serverChannel;
+    
+    /** The trades which have been received and not yet recorded */
+    private final TradeBatch tradeBatch;
+    
+    /** The connections which sent the trades of the batch, in the order of the batch */
+    private final Connection[] batchConnections;
+    
+    /** The request IDs of the trades of the batch, in the order of the batch */
+    private final int[] batchRequestIds;
+    
+    /** The timestamps of the trades of a removed stock, grown as needed */
+    private long[] exportTimestamps = new long[0];
+    
+    /** The quantities of the trades of a removed stock, grown as needed */
+    private long[] exportQuantities = new long[0];
+    
+    /** The prices of the trades of a removed stock, grown as needed */
+    private long[] exportPrices = new long[0];
+    
+    /** Whether the trades of a removed stock were buys, grown as needed */
+    private boolean[] exportBuys = new boolean[0];
+    
+    /** The connections which have responses to be sent */
+    private final List<Connection> pendingConnections = new ArrayList<Connection>();
+    
+    /** The thread which runs the gateway */
+    private final Thread thread;
+    
+    private volatile boolean running;
+    
+    /**
+     * Constructor. Opens the server socket; the connections are accepted once the gateway is started.
+     * It also validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockTrader - the utility which executes the commands
+     * @param address - the address on which the gateway listens, with port 0 for any free port
+     * @param batchSize - the largest number of trades recorded together
+     * @throws IOException - if the server socket cannot be opened
+     */
+    public TradeGateway(StockTradeUtil stockTrader, InetSocketAddress address, int batchSize) throws IOException {
+        if (stockTrader == null) {
+            throw new IllegalArgumentException(Messages.ERR_STOCK_TRADER_NULL);
+        }
+        
+        this.stockTrader = stockTrader;
+        this.clock = stockTrader.getClock();
+        this.tradeBatch = new TradeBatch(batchSize);
+        this.batchConnections = new Connection[batchSize];
+        this.batchRequestIds = new int[batchSize];
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            serverChannel.close();
+            selector.close();
+            throw ex;
+        }
+        
+        this.thread = new Thread(this::run, "trade-gateway");
+    }
+    
+    /**
+     * Main method which starts a gateway. The stocks are read from a stock file, if its path
+     * is given, or the predefined stocks are used. The messages are written by an
+     * {@link com.supersimplestocks.logging.AsyncLogger}, so the gateway thread does not wait for
+     * the console; the messages left are written when the JVM stops.
+     * 
+     * @param args - method arguments: the optional port and the optional path of the stock file
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && !StockTradeUtil.checkStrPositiveInt(args[0])) {
+            Logger.error(Messages.ERR_GATEWAY_ARGUMENTS);
+            return;
+        }
+        
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        
+        AsyncLogger asyncLogger = new AsyncLogger();
+        Logger.setAsyncLogger(asyncLogger);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Logger.setAsyncLogger(null);
+            asyncLogger.close();
+        }));
+        
+        try {
+            Map<String, Stock> stockMap = args.length > 1 ? new StockFileLoader(Paths.get(args[1])).load() : StockData.stockMap;
+            TradeGateway gateway = new TradeGateway(new StockTradeUtil(stockMap), new InetSocketAddress(port), DEFAULT_BATCH_SIZE);
+            
+            gateway.start();
+            Logger.log(Messages.MSG_GATEWAY_STARTED, new String[] {Integer.toString(gateway.getPort())});
+        } catch (IOException | BusinessException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Starts the thread which accepts the connections and executes their commands
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+    
+    /**
+     * Retrieves the port on which the gateway listens
+     * 
+     * @return - the port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Stops the gateway and closes all the connections; the trades received and not yet
+     * recorded are dropped
+     * 
+     * @throws IOException - if a channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        
+        if (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        
+        selector.close();
+    }
+    
+    /**
+     * The loop of the gateway thread: waits for the connections to be ready, reads and executes
+     * their requests, records the trades and sends the responses
+     */
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isValid() && key.isWritable()) {
+                        write(connection);
+                    }
+                    
+                    if (key.isValid() && key.isReadable()) {
+                        read(connection);
+                    }
+                }
+                
+                flushTrades();
+                writePending();
+            } catch (IOException ex) {
+                Logger.error(ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Accepts a connection
+     * 
+     * @throws IOException - if the connection cannot be registered
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Reads the requests of a connection and executes the complete ones; the rest of an
+     * incomplete request is kept until more bytes arrive
+     * 
+     * @param connection - the connection
+     */
+    private void read(Connection connection) {
+        ByteBuffer input = connection.input;
+        
+        try {
+            if (connection.channel.read(input) < 0) {
+                closeConnection(connection);
+                return;
+            }
+        } catch (IOException ex) {
+            closeConnection(connection);
+            return;
+        }
+        
+        input.flip();
+        while (input.remaining() >= GatewayProtocol.LENGTH_SIZE) {
+            int position = input.position();
+            int length = GatewayProtocol.getFrameLength(input, position);
+            
+            if (length < GatewayProtocol.HEADER_SIZE || length > GatewayProtocol.MAX_FRAME_LENGTH) {
+                closeConnection(connection);
+                return;
+            }
+            
+            if (input.remaining() < GatewayProtocol.LENGTH_SIZE + length) {
+                break;
+            }
+            
+            handleRequest(connection, position + GatewayProtocol.LENGTH_SIZE, length);
+            input.position(position + GatewayProtocol.LENGTH_SIZE + length);
+        }
+        
+        input.compact();
+    }
+    
+    /**
+     * Executes a request: a trade is added to the batch, a query is answered at once
+     * 
+     * @param connection - the connection which sent the request
+     * @param offset - the position of the request in the read buffer, after its length
+     * @param length - the length of the request
+     */
+    private void handleRequest(Connection connection, int offset, int length) {
+        ByteBuffer input = connection.input;
+        byte command = input.get(offset);
+        int requestId = input.getInt(offset + 1);
+        int fieldsOffset = offset + GatewayProtocol.HEADER_SIZE;
+        int fieldsLength = length - GatewayProtocol.HEADER_SIZE;
+        int symbolLength = fieldsLength > 0 ? input.get(fieldsOffset) & 0xFF : 0;
+        int symbolEnd = fieldsOffset + 1 + symbolLength;
+        
+        try {
+            switch (command) {
+            case GatewayProtocol.TRADE:
+                validateLength(fieldsLength == 1 + symbolLength + 17);
+                addTrade(connection, requestId, findStockId(input, fieldsOffset + 1, symbolLength), clock.millis(), input.getLong(symbolEnd), input.getLong(symbolEnd + 8), input.get(symbolEnd + 16) == GatewayProtocol.BUY);
+                return;
+            case GatewayProtocol.TRADE_AT:
+                validateLength(fieldsLength == 1 + symbolLength + 25);
+                addTrade(connection, requestId, findStockId(input, fieldsOffset + 1, symbolLength), input.getLong(symbolEnd), input.getLong(symbolEnd + 8), input.getLong(symbolEnd + 16), input.get(symbolEnd + 24) == GatewayProtocol.BUY);
+                return;
+            case GatewayProtocol.VOLUME_WEIGHTED_PRICE:
+                validateLength(fieldsLength == 1 + symbolLength);
+                int stockId = findStockId(input, fieldsOffset + 1, symbolLength);
+                flushTrades();
+                reply(connection, requestId, stockTrader.getVolumeWeightedStockPrice(stockId));
+                return;
+            case GatewayProtocol.ALL_SHARE_INDEX:
+                validateLength(fieldsLength == 0);
+                flushTrades();
+                reply(connection, requestId, stockTrader.getGBCEAllShareIndex());
+                return;
+            case GatewayProtocol.DIVIDEND_YIELD:
+                validateLength(fieldsLength == 1 + symbolLength + 8);
+                flushTrades();
+                reply(connection, requestId, stockTrader.getDividendYield(findStockId(input, fieldsOffset + 1, symbolLength), input.getLong(symbolEnd)));
+                return;
+            case GatewayProtocol.PE_RATIO:
+                validateLength(fieldsLength == 1 + symbolLength + 8);
+                flushTrades();
+                reply(connection, requestId, stockTrader.getPERatio(findStockId(input, fieldsOffset + 1, symbolLength), input.getLong(symbolEnd)));
+                return;
+            case GatewayProtocol.LOG_PRICE_SUM:
+                validateLength(fieldsLength == 0);
+                flushTrades();
+                long logPriceSum = stockTrader.getLogPriceSum();
+                GatewayProtocol.putLogPriceSumResult(connection.reserve(GatewayProtocol.LOG_PRICE_SUM_SIZE), requestId, logPriceSum, stockTrader.getTradedStockCount());
+                markPending(connection);
+                return;
+            case GatewayProtocol.ADD_STOCK:
+                validateLength(fieldsLength == 1 + symbolLength + 17);
+                flushTrades();
+                stockTrader.addStock(readStock(input, fieldsOffset + 1, symbolLength));
+                reply(connection, requestId, 0);
+                return;
+            case GatewayProtocol.REMOVE_STOCK:
+                validateLength(fieldsLength == 1 + symbolLength);
+                int removedId = findStockId(input, fieldsOffset + 1, symbolLength);
+                flushTrades();
+                removeStock(connection, requestId, removedId);
+                return;
+            default:
+                throw new BusinessException(Messages.ERR_GATEWAY_COMMAND + command);
+            }
+        } catch (BusinessException ex) {
+            //The trades received before the failed request are answered first
+            flushTrades();
+            replyError(connection, requestId, ex.getMessage());
+        }
+    }
+    
+    /**
+     * Validates a trade and adds it to the batch, recording the batch if it is full. If the
+     * trade is not valid, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param connection - the connection which sent the trade
+     * @param requestId - the request ID
+     * @param stockId - the ID of the stock traded
+     * @param timestamp - the time of the trade in milliseconds
+     * @param quantity - the quantity of shares traded
+     * @param price - the price at which the stock is traded
+     * @param isBuy - whether the stock is bought or sold
+     * @throws BusinessException
+     */
+    private void addTrade(Connection connection, int requestId, int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+        if (!InputValidator.validateTimestamp(timestamp)) {
+            throw new BusinessException(Messages.ERR_TIMESTAMP_NEGATIVE);
+        }
+        
+        if (!InputValidator.validateQuantity(quantity)) {
+            throw new BusinessException(Messages.ERR_QUANTITY_NEGATIVE_ZERO);
+        }
+        
+        if (!InputValidator.validatePrice(price)) {
+            throw new BusinessException(Messages.ERR_PRICE_NEGATIVE_ZERO);
+        }
+        
+        int index = tradeBatch.size();
+        batchConnections[index] = connection;
+        batchRequestIds[index] = requestId;
+        tradeBatch.add(stockId, timestamp, quantity, price, isBuy);
+        
+        if (tradeBatch.isFull()) {
+            flushTrades();
+        }
+    }
+    
+    /**
+     * Records the trades of the batch and answers them. If the batch is rejected, the trades it
+     * has not recorded are made one by one, so a trade is not failed by the other trades of the
+     * batch; a trade it has recorded gets the error of the journal, if it could not be written.
+     */
+    private void flushTrades() {
+        int size = tradeBatch.size();
+        if (size == 0) {
+            return;
+        }
+        
+        boolean rejected = false;
+        try {
+            stockTrader.tradeStocks(tradeBatch);
+        } catch (BusinessException ex) {
+            rejected = true;
+        }
+        
+        for (int i = 0; i < size; i++) {
+            String error = tradeBatch.getJournalError();
+            
+            if (rejected && !tradeBatch.isRecorded(i)) {
+                try {
+                    stockTrader.tradeStock(tradeBatch, i);
+                    error = null;
+                } catch (BusinessException ex) {
+                    error = ex.getMessage();
+                }
+            }
+            
+            if (error == null) {
+                reply(batchConnections[i], batchRequestIds[i], 0);
+            } else {
+                replyError(batchConnections[i], batchRequestIds[i], error);
+            }
+            
+            batchConnections[i] = null;
+        }
+        
+        tradeBatch.clear();
+    }
+    
+    /**
+     * Removes a stock and sends its trades in MORE frames, followed by the response with their
+     * number. The trades are copied before the stock is removed, so none of them is lost if the
+     * stock cannot be removed.
+     * 
+     * @param connection - the connection which sent the request
+     * @param requestId - the request ID
+     * @param stockId - the ID of the stock
+     * @throws BusinessException
+     */
+    private void removeStock(Connection connection, int requestId, int stockId) throws BusinessException {
+        int count = stockTrader.getTrades(stockId, exportTimestamps, exportQuantities, exportPrices, exportBuys);
+        
+        while (count > exportTimestamps.length) {
+            exportTimestamps = new long[count];
+            exportQuantities = new long[count];
+            exportPrices = new long[count];
+            exportBuys = new boolean[count];
+            count = stockTrader.getTrades(stockId, exportTimestamps, exportQuantities, exportPrices, exportBuys);
+        }
+        
+        stockTrader.removeStock(stockTrader.getStockRegistry().getSymbol(stockId));
+        
+        for (int offset = 0; offset < count; offset += GatewayProtocol.TRADES_PER_FRAME) {
+            int frameCount = Math.min(GatewayProtocol.TRADES_PER_FRAME, count - offset);
+            ByteBuffer output = connection.reserve(GatewayProtocol.LENGTH_SIZE + GatewayProtocol.HEADER_SIZE + frameCount * GatewayProtocol.TRADE_RECORD_SIZE);
+            GatewayProtocol.putTrades(output, requestId, exportTimestamps, exportQuantities, exportPrices, exportBuys, offset, frameCount);
+        }
+        
+        reply(connection, requestId, count);
+    }
+    
+    /**
+     * Reads the fields of an ADD_STOCK request; if the reference data is not valid, a
+     * {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param input - the read buffer
+     * @param offset - the position of the symbol
+     * @param length - the length of the symbol in bytes
+     * @return - the stock
+     * @throws BusinessException
+     */
+    private static Stock readStock(ByteBuffer input, int offset, int length) throws BusinessException {
+        String symbol = new String(input.array(), offset, length, StandardCharsets.UTF_8);
+        int fieldsOffset = offset + length;
+        int lastDividend = input.getInt(fieldsOffset + 1);
+        double fixedDividend = input.getDouble(fieldsOffset + 5);
+        int parValue = input.getInt(fieldsOffset + 13);
+        
+        if (!InputValidator.validateStockSymbol(symbol)) {
+            throw new BusinessException(Messages.ERR_STOCK_SYMBOL_NULL_EMPTY);
+        }
+        
+        try {
+            if (input.get(fieldsOffset) == GatewayProtocol.PREFERRED) {
+                return new PreferredStock(symbol, lastDividend, fixedDividend, parValue);
+            }
+            
+            return new CommonStock(symbol, lastDividend, parValue);
+        } catch (IllegalArgumentException ex) {
+            throw new BusinessException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Finds the ID of a stock from the bytes of its symbol in a read buffer; if there is no stock
+     * with this symbol, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param input - the read buffer
+     * @param offset - the position of the symbol
+     * @param length - the length of the symbol in bytes
+     * @return - the ID of the stock
+     * @throws BusinessException
+     */
+    private int findStockId(ByteBuffer input, int offset, int length) throws BusinessException {
+        int stockId = stockTrader.getStockRegistry().getId(input.array(), offset, length);
+        
+        if (stockId == StockRegistry.NO_STOCK) {
+            throw new BusinessException(Messages.ERR_NO_STOCK_FOUND + new String(input.array(), offset, length, StandardCharsets.UTF_8));
+        }
+        
+        return stockId;
+    }
+    
+    /**
+     * Checks the length of the fields of a request; if it is not the length expected for the
+     * command, a {@link com.supersimplestocks.exceptions.BusinessException} is thrown.
+     * 
+     * @param valid - whether the length is the one expected
+     * @throws BusinessException
+     */
+    private static void validateLength(boolean valid) throws BusinessException {
+        if (!valid) {
+            throw new BusinessException(Messages.ERR_GATEWAY_FRAME);
+        }
+    }
+    
+    /**
+     * Writes the response to a successful request into the write buffer of its connection
+     * 
+     * @param connection - the connection
+     * @param requestId - the request ID
+     * @param result - the result
+     */
+    private void reply(Connection connection, int requestId, double result) {
+        GatewayProtocol.putResult(connection.reserve(GatewayProtocol.RESULT_SIZE), requestId, result);
+        markPending(connection);
+    }
+    
+    /**
+     * Writes the response to a failed request into the write buffer of its connection
+     * 
+     * @param connection - the connection
+     * @param requestId - the request ID
+     * @param message - the error message
+     */
+    private void replyError(Connection connection, int requestId, String message) {
+        byte[] messageBytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(messageBytes.length, GatewayProtocol.MAX_FRAME_LENGTH - GatewayProtocol.HEADER_SIZE);
+        
+        if (length < messageBytes.length) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(messageBytes, 0, truncated, 0, length);
+            messageBytes = truncated;
+        }
+        
+        GatewayProtocol.putError(connection.reserve(GatewayProtocol.LENGTH_SIZE + GatewayProtocol.HEADER_SIZE + length), requestId, messageBytes);
+        markPending(connection);
+    }
+    
+    /**
+     * Adds a connection to the connections which have responses to be sent
+     * 
+     * @param connection - the connection
+     */
+    private void markPending(Connection connection) {
+        if (!connection.pending) {
+            connection.pending = true;
+            pendingConnections.add(connection);
+        }
+    }
+    
+    /**
+     * Sends the responses of the connections which have responses to be sent
+     */
+    private void writePending() {
+        for (Connection connection : pendingConnections) {
+            connection.pending = false;
+            write(connection);
+        }
+        
+        pendingConnections.clear();
+    }
+    
+    /**
+     * Sends as many responses of a connection as the socket accepts without blocking. The
+     * connection is then watched for writing if responses are left, and no longer read if
+     * they pass the limit.
+     * 
+     * @param connection - the connection
+     */
+    private void write(Connection connection) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        
+        ByteBuffer output = connection.output;
+        output.flip();
+        
+        try {
+            connection.channel.write(output);
+        } catch (IOException ex) {
+            output.clear();
+            closeConnection(connection);
+            return;
+        }
+        
+        output.compact();
+        
+        int backlog = output.position();
+        int interestOps = backlog == 0 ? SelectionKey.OP_READ : backlog > WRITE_BACKLOG_LIMIT ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (connection.key.isValid()) {
+            connection.key.interestOps(interestOps);
+        }
+    }
+    
+    /**
+     * Closes a connection, dropping its unsent responses
+     * 
+     * @param connection - the connection
+     */
+    private void closeConnection(Connection connection) {
+        connection.key.cancel();
+        
+        try {
+            connection.channel.close();
+        } catch (IOException ex) {
+            //The connection is closed anyway
+        }
+    }
+    
+    /**
+     * A connection of a client, with its read and write buffers
+     */
+    private static class Connection {
+        
+        /** The channel of the connection */
+        private final SocketChannel channel;
+        
+        /** The buffer of the requests received and not yet executed */
+        private final ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        
+        /** The buffer of the responses not yet sent, ready to be written into */
+        private ByteBuffer output = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        
+        /** The key of the connection in the selector */
+        private SelectionKey key;
+        
+        /** Whether the connection is among the connections which have responses to be sent */
+        private boolean pending;
+        
+        /**
+         * Constructor
+         * 
+         * @param channel - the channel of the connection
+         */
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+        
+        /**
+         * Makes room for a response in the write buffer, growing it if needed
+         * 
+         * @param size - the size of the response
+         * @return - the write buffer
+         */
+        private ByteBuffer reserve(int size) {
+            if (output.remaining() < size) {
+                ByteBuffer newOutput = ByteBuffer.allocate(Math.max(output.capacity() << 1, output.position() + size));
+                output.flip();
+                newOutput.put(output);
+                output = newOutput;
+            }
+            
+            return output;
+        }
+    }
+}
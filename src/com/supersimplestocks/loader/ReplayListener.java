@@ -0,0 +1,22 @@
+package com.supersimplestocks.loader;
+
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Receives the state of the market at regular points of the event time of a {@link TradeReplayer}.
+ */
+public interface ReplayListener {
+    
+    /**
+     * Receives the state of the market at a point of the replay. The trades up to the given time
+     * have been recorded, and the Volume Weighted Stock Prices are calculated from the trades of
+     * the 5 minutes before it.
+     * 
+     * @param time - the event time of the snapshot in milliseconds since the epoch
+     * @param volWeighPrices - the Volume Weighted Stock Price of every stock at the index of its ID,
+     *        NaN if the stock has not been traded; the array is reused by the next snapshot
+     * @param allShareIndex - the GBCE All Share Index
+     * @throws BusinessException - if the replay must stop
+     */
+    void onSnapshot(long time, double[] volWeighPrices, double allShareIndex) throws BusinessException;
+}
@@ -0,0 +1,218 @@
+package com.supersimplestocks.loader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.data.CommonStock;
+import com.supersimplestocks.data.PreferredStock;
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.StockType;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.data.validation.InputValidator;
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * A loader which reads the stock universe (the {@link com.supersimplestocks.data.CommonStock} and
+ * {@link com.supersimplestocks.data.PreferredStock} definitions) from a CSV file, one stock per line:
+ * symbol,type,lastDividend,fixedDividend,parValue where the type is COMMON or PREFERRED and the
+ * fixed dividend is a fraction of the par value, left empty for a common stock, for example
+ * GIN,PREFERRED,8,0.02,100 or TEA,COMMON,0,,100. The first line is skipped if it is the header of
+ * these columns, and empty lines are skipped. A malformed stock or a symbol given twice stops the
+ * load with a {@link com.supersimplestocks.exceptions.BusinessException} which gives its line number.
+ * 
+ * The stocks read at startup are given to the {@link com.supersimplestocks.business.StockTradeUtil}.
+ * While the stocks are traded, reloadIfModified reads the file again if it has been modified since
+ * it was last read, and replaces the stocks of the utility with
+ * {@link com.supersimplestocks.business.StockTradeUtil#reloadStockData(Map)}, which keeps the windows
+ * of the stocks which are still in the file; it is meant to be called periodically, for example by a
+ * scheduled task.
+ * 
+ * A loader must not be used by several threads at once.
+ */
+public class StockFileLoader {
+    
+    private static final String SEPARATOR = ",";
+    
+    /** The number of fields of a stock */
+    private static final int FIELD_COUNT = 5;
+    
+    /** The names of the columns, which the first line may give as a header */
+    private static final String[] HEADER_FIELDS = {"symbol", "type", "lastDividend", "fixedDividend", "parValue"};
+    
+    /** The path of the stock file */
+    private final Path path;
+    
+    /** The time at which the file was last modified when it was last read, in milliseconds */
+    private long loadedModifiedTime = Long.MIN_VALUE;
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param path - the path of the stock file
+     */
+    public StockFileLoader(Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException(Messages.ERR_STOCK_FILE_NULL);
+        }
+        
+        this.path = path;
+    }
+    
+    /**
+     * Retrieves the path of the stock file
+     * 
+     * @return - the path of the stock file
+     */
+    public Path getPath() {
+        return path;
+    }
+    
+    /**
+     * Reads the stocks of the file
+     * 
+     * @return - the stocks, with their symbols as keys
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a stock is malformed or its symbol is given twice
+     */
+    public Map<String, Stock> load() throws IOException, BusinessException {
+        //The time is read first, so a change made while the file is read is found by the next check
+        long modifiedTime = Files.getLastModifiedTime(path).toMillis();
+        
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Map<String, Stock> stockMap = load(reader);
+            loadedModifiedTime = modifiedTime;
+            return stockMap;
+        }
+    }
+    
+    /**
+     * Reads the file again if it has been modified since it was last read, and replaces the stocks
+     * of the utility with its stocks. If the file is malformed, the stocks of the utility are not
+     * changed and the file is read again by the next call.
+     * 
+     * @param stockTrader - the utility whose stocks are replaced
+     * @return - true if the file has been read again
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a stock is malformed or cannot be added to the utility
+     */
+    public boolean reloadIfModified(StockTradeUtil stockTrader) throws IOException, BusinessException {
+        if (Files.getLastModifiedTime(path).toMillis() == loadedModifiedTime) {
+            return false;
+        }
+        
+        long previousModifiedTime = loadedModifiedTime;
+        try {
+            stockTrader.reloadStockData(load());
+        } catch (BusinessException ex) {
+            loadedModifiedTime = previousModifiedTime;
+            throw ex;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Reads the stocks of a CSV stream. The reader is read to its end but not closed.
+     * 
+     * @param reader - the reader from which the stocks are read
+     * @return - the stocks, with their symbols as keys
+     * @throws IOException - if the reader cannot be read
+     * @throws BusinessException - if a stock is malformed or its symbol is given twice
+     */
+    public static Map<String, Stock> load(BufferedReader reader) throws IOException, BusinessException {
+        Map<String, Stock> stockMap = new HashMap<String, Stock>();
+        long lineNumber = 0;
+        String line;
+        
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            
+            //The first line may be a header
+            if (lineNumber == 1 && isHeader(line)) {
+                continue;
+            }
+            
+            Stock stock = parseStock(line);
+            if (stock == null) {
+                throw new BusinessException(Messages.ERR_STOCK_FILE_LINE + lineNumber);
+            }
+            
+            if (stockMap.putIfAbsent(stock.getSymbol(), stock) != null) {
+                throw new BusinessException(Messages.ERR_STOCK_FILE_DUPLICATE + lineNumber);
+            }
+        }
+        
+        return stockMap;
+    }
+    
+    /**
+     * Checks whether a line is the header of the columns
+     * 
+     * @param line - the line
+     * @return - true if the line gives the names of the columns, in order
+     */
+    private static boolean isHeader(String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != FIELD_COUNT) {
+            return false;
+        }
+        
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (!fields[i].trim().equalsIgnoreCase(HEADER_FIELDS[i])) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Parses a line of the file
+     * 
+     * @param line - the line
+     * @return - the stock, or null if the line is not a valid stock
+     */
+    private static Stock parseStock(String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != FIELD_COUNT) {
+            return null;
+        }
+        
+        String symbol = fields[0].trim();
+        String type = fields[1].trim();
+        String fixedDividendField = fields[3].trim();
+        
+        try {
+            int lastDividend = Integer.parseInt(fields[2].trim());
+            int parValue = Integer.parseInt(fields[4].trim());
+            double fixedDividend = fixedDividendField.isEmpty() ? 0 : Double.parseDouble(fixedDividendField);
+            
+            if (!InputValidator.validateStockSymbol(symbol) || !InputValidator.validateLastDividend(lastDividend)
+                    || !InputValidator.validateFixedDividend(fixedDividend) || !InputValidator.validateParValue(parValue)) {
+                return null;
+            }
+            
+            if (type.equalsIgnoreCase(StockType.COMMON.name())) {
+                return new CommonStock(symbol, lastDividend, parValue);
+            }
+            
+            if (type.equalsIgnoreCase(StockType.PREFERRED.name()) && !fixedDividendField.isEmpty()) {
+                return new PreferredStock(symbol, lastDividend, fixedDividend, parValue);
+            }
+        } catch (NumberFormatException ex) {
+            //The line is not a valid stock
+        }
+        
+        return null;
+    }
+}
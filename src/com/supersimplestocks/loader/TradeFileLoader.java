@@ -0,0 +1,526 @@
+package com.supersimplestocks.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.business.TradeBatch;
+import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.logging.Logger;
+import com.supersimplestocks.persistence.TradeJournal;
+
+/**
+ * A loader which streams the trades of large files into a
+ * {@link com.supersimplestocks.business.StockTradeUtil}. Two formats are supported:
+ * 
+ * i.   CSV - one trade per line: symbol,timestamp,quantity,price,side where the timestamp is
+ *      in milliseconds since the epoch and the side is B (buy) or S (sell), for example
+ *      TEA,1476700000000,100,250,B. The first line is skipped if it is the header of these
+ *      columns, and empty lines are skipped.
+ * ii.  binary - the format of the {@link com.supersimplestocks.persistence.TradeJournal}: a header
+ *      followed by fixed-width records, so a journal can be loaded as well. A file which ends in
+ *      the middle of a record is rejected.
+ * 
+ * The file is read through an NIO channel into a single buffer which is reused for the whole
+ * file; the fields are parsed directly from the bytes of the buffer and the symbols are looked
+ * up in the {@link com.supersimplestocks.data.StockRegistry} by their bytes, so no String or
+ * other object is created per trade. The trades are recorded in batches with
+ * {@link com.supersimplestocks.business.StockTradeUtil#tradeStocks(TradeBatch)}, or passed one by
+ * one to a {@link TradeHandler}. A malformed trade or an unknown symbol stops the load with a
+ * {@link com.supersimplestocks.exceptions.BusinessException} which gives its line or record number;
+ * the batches recorded before it are kept. A loader which records the trades in a utility
+ * takes the registry of the utility at the start of every file, so it knows the stocks added
+ * by {@link com.supersimplestocks.business.StockTradeUtil#reloadStockData(java.util.Map)}.
+ * 
+ * A loader must not be used by several threads at once.
+ */
+public class TradeFileLoader {
+    
+    /** The number of trades recorded together if none is specified */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    
+    /** The size of the read buffer in bytes if none is specified */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    
+    private static final byte SEPARATOR = ',';
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    
+    /** The header of the columns, which the first line of a CSV file may give */
+    private static final byte[] HEADER = "symbol,timestamp,quantity,price,side".getBytes(StandardCharsets.US_ASCII);
+    
+    /** The registry used to find the stocks by the bytes of their symbols */
+    private StockRegistry stockRegistry;
+    
+    /** The utility in which the trades are recorded, null if they are passed to a handler */
+    private final StockTradeUtil stockTrader;
+    
+    /** The handler which receives the trades */
+    private final TradeHandler tradeHandler;
+    
+    /** The read buffer */
+    private final ByteBuffer buffer;
+    
+    /** The array behind the read buffer */
+    private final byte[] bytes;
+    
+    /** The position of the next field to be parsed in the current line */
+    private int cursor;
+    
+    /**
+     * Constructor. Creates a loader with the default batch and buffer sizes.
+     * 
+     * @param stockTrader - the utility in which the trades are recorded
+     */
+    public TradeFileLoader(StockTradeUtil stockTrader) {
+        this(stockTrader, DEFAULT_BATCH_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown. The buffer must hold at least
+     * one binary record, and the longest line of a CSV file.
+     * 
+     * @param stockTrader - the utility in which the trades are recorded
+     * @param batchSize - the number of trades recorded together
+     * @param bufferSize - the size of the read buffer in bytes
+     */
+    public TradeFileLoader(StockTradeUtil stockTrader, int batchSize, int bufferSize) {
+        this(validateStockTrader(stockTrader).getStockRegistry(), new BatchRecorder(stockTrader, batchSize), bufferSize, stockTrader);
+    }
+    
+    /**
+     * Constructor. Creates a loader which passes the trades to a handler instead of recording
+     * them. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockRegistry - the registry of the stocks which can be traded
+     * @param tradeHandler - the handler which receives the trades
+     * @param bufferSize - the size of the read buffer in bytes
+     */
+    public TradeFileLoader(StockRegistry stockRegistry, TradeHandler tradeHandler, int bufferSize) {
+        this(stockRegistry, tradeHandler, bufferSize, null);
+    }
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockRegistry - the registry of the stocks which can be traded
+     * @param tradeHandler - the handler which receives the trades
+     * @param bufferSize - the size of the read buffer in bytes
+     * @param stockTrader - the utility whose registry is taken at the start of every file, or null
+     */
+    private TradeFileLoader(StockRegistry stockRegistry, TradeHandler tradeHandler, int bufferSize, StockTradeUtil stockTrader) {
+        if (stockRegistry == null) {
+            throw new IllegalArgumentException(Messages.ERR_STOCK_REGISTRY_NULL);
+        }
+        
+        if (tradeHandler == null) {
+            throw new IllegalArgumentException(Messages.ERR_TRADE_HANDLER_NULL);
+        }
+        
+        if (bufferSize < TradeJournal.RECORD_SIZE) {
+            throw new IllegalArgumentException(Messages.ERR_BUFFER_SIZE_INCORRECT + TradeJournal.RECORD_SIZE);
+        }
+        
+        this.stockRegistry = stockRegistry;
+        this.tradeHandler = tradeHandler;
+        this.stockTrader = stockTrader;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.bytes = buffer.array();
+    }
+    
+    /**
+     * Main method which loads trade files into a utility with the predefined stocks. The files
+     * ending in .csv are loaded as CSV, the other files as binary.
+     * 
+     * @param args - method arguments: the paths of the files
+     */
+    public static void main(String[] args) {
+        TradeFileLoader loader = new TradeFileLoader(new StockTradeUtil(StockData.stockMap));
+        
+        for (String fileName : args) {
+            try {
+                long start = System.nanoTime();
+                Path path = Paths.get(fileName);
+                long tradeCount = fileName.endsWith(".csv") ? loader.loadCsv(path) : loader.loadBinary(path);
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                
+                Logger.log(Messages.MSG_TRADES_LOADED, new String[] {Long.toString(tradeCount), fileName, Long.toString(elapsed)});
+            } catch (IOException | BusinessException ex) {
+                Logger.error(ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Loads the trades of a CSV file
+     * 
+     * @param path - the path of the file
+     * @return - the number of trades loaded
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a trade is malformed or cannot be recorded
+     */
+    public long loadCsv(Path path) throws IOException, BusinessException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return loadCsv(channel);
+        }
+    }
+    
+    /**
+     * Loads the trades of a CSV stream. The channel is read to its end but not closed.
+     * 
+     * @param channel - the channel from which the trades are read
+     * @return - the number of trades loaded
+     * @throws IOException - if the channel cannot be read
+     * @throws BusinessException - if a trade is malformed or cannot be recorded
+     */
+    public long loadCsv(ReadableByteChannel channel) throws IOException, BusinessException {
+        startOfTrades();
+        buffer.clear();
+        
+        long tradeCount = 0;
+        long lineNumber = 0;
+        boolean endOfInput = false;
+        
+        while (!endOfInput) {
+            endOfInput = channel.read(buffer) < 0;
+            int limit = buffer.position();
+            int lineStart = 0;
+            
+            while (lineStart < limit) {
+                int lineEnd = indexOf(NEW_LINE, lineStart, limit);
+                
+                if (lineEnd < 0) {
+                    if (!endOfInput) {
+                        break;
+                    }
+                    
+                    //The last line may not end with a new line
+                    lineEnd = limit;
+                }
+                
+                lineNumber++;
+                if (parseLine(lineStart, lineEnd, lineNumber)) {
+                    tradeCount++;
+                }
+                
+                lineStart = lineEnd + 1;
+            }
+            
+            if (lineStart == 0 && limit == bytes.length) {
+                throw new BusinessException(Messages.ERR_TRADE_FILE_LINE_LENGTH + (lineNumber + 1));
+            }
+            
+            //The incomplete line is moved to the beginning of the buffer and completed by the next read
+            int remaining = Math.max(limit - lineStart, 0);
+            System.arraycopy(bytes, Math.min(lineStart, limit), bytes, 0, remaining);
+            buffer.clear();
+            buffer.position(remaining);
+        }
+        
+        tradeHandler.endOfTrades();
+        return tradeCount;
+    }
+    
+    /**
+     * Loads the trades of a binary file
+     * 
+     * @param path - the path of the file
+     * @return - the number of trades loaded
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if the file is not a journal or a trade cannot be recorded
+     */
+    public long loadBinary(Path path) throws IOException, BusinessException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return loadBinary(channel);
+        }
+    }
+    
+    /**
+     * Loads the trades of a binary stream, until its end or the first empty record. The channel
+     * is not closed.
+     * 
+     * @param channel - the channel from which the trades are read
+     * @return - the number of trades loaded
+     * @throws IOException - if the channel cannot be read
+     * @throws BusinessException - if the stream is not a journal, ends in the middle of a record
+     * or a trade cannot be recorded
+     */
+    public long loadBinary(ReadableByteChannel channel) throws IOException, BusinessException {
+        startOfTrades();
+        buffer.clear();
+        
+        //The header takes the place of the first record
+        long recordNumber = -1;
+        boolean endOfRecords = false;
+        
+        while (!endOfRecords) {
+            boolean endOfInput = channel.read(buffer) < 0;
+            endOfRecords = endOfInput;
+            int limit = buffer.position();
+            int recordStart = 0;
+            
+            while (!endOfRecords && recordStart + TradeJournal.RECORD_SIZE <= limit) {
+                if (recordNumber < 0) {
+                    if (!TradeJournal.isHeader(buffer, recordStart)) {
+                        throw new BusinessException(Messages.ERR_TRADE_FILE_HEADER);
+                    }
+                } else if (bytes[recordStart + TradeJournal.SYMBOL_LENGTH_OFFSET] == 0) {
+                    //The rest of a journal file is empty
+                    endOfRecords = true;
+                    break;
+                } else {
+                    addRecord(recordStart, recordNumber);
+                }
+                
+                recordNumber++;
+                recordStart += TradeJournal.RECORD_SIZE;
+            }
+            
+            //The bytes left at the end of the input are a record cut short
+            if (endOfInput && limit > 0 && recordNumber >= 0) {
+                throw new BusinessException(Messages.ERR_TRADE_FILE_RECORD_PARTIAL + recordNumber);
+            }
+            
+            int remaining = limit - recordStart;
+            System.arraycopy(bytes, recordStart, bytes, 0, remaining);
+            buffer.clear();
+            buffer.position(remaining);
+        }
+        
+        if (recordNumber < 0) {
+            throw new BusinessException(Messages.ERR_TRADE_FILE_HEADER);
+        }
+        
+        tradeHandler.endOfTrades();
+        return recordNumber;
+    }
+    
+    /**
+     * Adds a binary record of the buffer to the batch
+     * 
+     * @param recordStart - the position of the record in the buffer
+     * @param recordNumber - the number of the record, from zero, for the error messages
+     * @throws BusinessException - if the symbol is unknown or the trade cannot be handled
+     */
+    private void addRecord(int recordStart, long recordNumber) throws BusinessException {
+        int symbolLength = bytes[recordStart + TradeJournal.SYMBOL_LENGTH_OFFSET];
+        int stockId = StockRegistry.NO_STOCK;
+        
+        if (symbolLength > 0 && symbolLength <= TradeJournal.MAX_SYMBOL_LENGTH) {
+            stockId = stockRegistry.getId(bytes, recordStart + TradeJournal.SYMBOL_OFFSET, symbolLength);
+        }
+        
+        if (stockId == StockRegistry.NO_STOCK) {
+            throw new BusinessException(Messages.ERR_TRADE_FILE_RECORD_SYMBOL + recordNumber);
+        }
+        
+        tradeHandler.handleTrade(stockId, buffer.getLong(recordStart + TradeJournal.TIMESTAMP_OFFSET),
+                buffer.getLong(recordStart + TradeJournal.QUANTITY_OFFSET), buffer.getLong(recordStart + TradeJournal.PRICE_OFFSET),
+                bytes[recordStart + TradeJournal.SIDE_OFFSET] != 0);
+    }
+    
+    /**
+     * Parses a CSV line of the buffer and adds its trade to the batch
+     * 
+     * @param lineStart - the position of the first byte of the line
+     * @param lineEnd - the position of the new line, or the end of the data
+     * @param lineNumber - the number of the line, from one
+     * @return - true if a trade was added, false if the line is empty or the header
+     * @throws BusinessException - if the line is malformed or the trade cannot be handled
+     */
+    private boolean parseLine(int lineStart, int lineEnd, long lineNumber) throws BusinessException {
+        if (lineEnd > lineStart && bytes[lineEnd - 1] == CARRIAGE_RETURN) {
+            lineEnd--;
+        }
+        
+        if (lineEnd == lineStart || lineNumber == 1 && isHeader(lineStart, lineEnd)) {
+            return false;
+        }
+        
+        cursor = lineStart;
+        int symbolEnd = indexOf(SEPARATOR, lineStart, lineEnd);
+        int stockId = symbolEnd > lineStart ? stockRegistry.getId(bytes, lineStart, symbolEnd - lineStart) : StockRegistry.NO_STOCK;
+        cursor = symbolEnd + 1;
+        
+        long timestamp = symbolEnd < 0 ? -1 : parseField(lineEnd);
+        long quantity = parseField(lineEnd);
+        long price = parseField(lineEnd);
+        int side = cursor == lineEnd - 1 ? bytes[cursor] | 0x20 : 0;
+        
+        if (timestamp < 0 || quantity <= 0 || price <= 0 || (side != 'b' && side != 's')) {
+            throw new BusinessException(Messages.ERR_TRADE_FILE_LINE + lineNumber);
+        }
+        
+        if (stockId == StockRegistry.NO_STOCK) {
+            throw new BusinessException(Messages.ERR_TRADE_FILE_SYMBOL + lineNumber);
+        }
+        
+        tradeHandler.handleTrade(stockId, timestamp, quantity, price, side == 'b');
+        return true;
+    }
+    
+    /**
+     * Checks whether a CSV line of the buffer is the header of the columns, whatever the case of its letters
+     * 
+     * @param lineStart - the position of the first byte of the line
+     * @param lineEnd - the position after the last byte of the line
+     * @return - true if the line gives the names of the columns, in order
+     */
+    private boolean isHeader(int lineStart, int lineEnd) {
+        if (lineEnd - lineStart != HEADER.length) {
+            return false;
+        }
+        
+        for (int i = 0; i < HEADER.length; i++) {
+            if (Character.toLowerCase(bytes[lineStart + i]) != HEADER[i]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Parses the non-negative decimal number at the cursor, which ends with a separator, and
+     * moves the cursor after the separator
+     * 
+     * @param lineEnd - the end of the line
+     * @return - the number, or -1 if the field is empty, not a number, too large or the last field of the line
+     */
+    private long parseField(int lineEnd) {
+        if (cursor <= 0 || cursor >= lineEnd) {
+            cursor = -1;
+            return -1;
+        }
+        
+        long value = 0;
+        int position = cursor;
+        
+        while (position < lineEnd && bytes[position] != SEPARATOR) {
+            int digit = bytes[position] - '0';
+            
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                cursor = -1;
+                return -1;
+            }
+            
+            value = value * 10 + digit;
+            position++;
+        }
+        
+        if (position == cursor || position == lineEnd) {
+            cursor = -1;
+            return -1;
+        }
+        
+        cursor = position + 1;
+        return value;
+    }
+    
+    /**
+     * Finds a byte in a range of the buffer
+     * 
+     * @param value - the byte
+     * @param from - the first position of the range
+     * @param to - the position after the range
+     * @return - the position of the byte, or -1 if it is not in the range
+     */
+    private int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Prepares the loading of a file: takes the current registry of the utility, if the trades
+     * are recorded in one, and notifies the handler
+     */
+    private void startOfTrades() {
+        if (stockTrader != null) {
+            stockRegistry = stockTrader.getStockRegistry();
+        }
+        
+        tradeHandler.startOfTrades();
+    }
+    
+    /**
+     * Validates the utility given to the constructor
+     * 
+     * @param stockTrader - the utility in which the trades are recorded
+     * @return - the utility
+     */
+    private static StockTradeUtil validateStockTrader(StockTradeUtil stockTrader) {
+        if (stockTrader == null) {
+            throw new IllegalArgumentException(Messages.ERR_STOCK_TRADER_NULL);
+        }
+        
+        return stockTrader;
+    }
+    
+    /**
+     * The handler which records the trades of a file in batches
+     */
+    private static class BatchRecorder implements TradeHandler {
+        
+        /** The utility in which the trades are recorded */
+        private final StockTradeUtil stockTrader;
+        
+        /** The batch which collects the trades before they are recorded */
+        private final TradeBatch tradeBatch;
+        
+        /**
+         * Constructor
+         * 
+         * @param stockTrader - the utility in which the trades are recorded
+         * @param batchSize - the number of trades recorded together
+         */
+        private BatchRecorder(StockTradeUtil stockTrader, int batchSize) {
+            this.stockTrader = stockTrader;
+            this.tradeBatch = new TradeBatch(batchSize);
+        }
+        
+        @Override
+        public void startOfTrades() {
+            tradeBatch.clear();
+        }
+        
+        /**
+         * Adds a trade to the batch, recording the batch first if it is full
+         */
+        @Override
+        public void handleTrade(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+            if (tradeBatch.isFull()) {
+                endOfTrades();
+            }
+            
+            tradeBatch.add(stockId, timestamp, quantity, price, isBuy);
+        }
+        
+        /**
+         * Records the trades of the batch and clears it
+         */
+        @Override
+        public void endOfTrades() throws BusinessException {
+            if (tradeBatch.size() > 0) {
+                stockTrader.tradeStocks(tradeBatch);
+                tradeBatch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.supersimplestocks.loader;
+
+import com.supersimplestocks.exceptions.BusinessException;
+
+/**
+ * Receives the trades read by a {@link TradeFileLoader}, in the order of the file. The loader
+ * calls startOfTrades before the first trade of a file and endOfTrades after the last one; if
+ * the file is malformed, endOfTrades is not called.
+ */
+public interface TradeHandler {
+    
+    /**
+     * Called before the first trade of a file
+     */
+    void startOfTrades();
+    
+    /**
+     * Handles a trade of the file
+     * 
+     * @param stockId - the ID of the stock traded
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock was bought or sold
+     * @throws BusinessException - if the trade cannot be handled
+     */
+    void handleTrade(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException;
+    
+    /**
+     * Called after the last trade of a file
+     * 
+     * @throws BusinessException - if the trades cannot be handled
+     */
+    void endOfTrades() throws BusinessException;
+}
@@ -0,0 +1,325 @@
+package com.supersimplestocks.loader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import com.supersimplestocks.business.ManualClock;
+import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.business.TradeBatch;
+import com.supersimplestocks.data.Stock;
+import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.exceptions.BusinessException;
+import com.supersimplestocks.logging.Logger;
+
+/**
+ * Replays recorded trade files (CSV or binary, see {@link TradeFileLoader}) through a
+ * {@link com.supersimplestocks.business.StockTradeUtil} in the order of their timestamps, for
+ * backtesting and capacity planning. The utility reads the time from a
+ * {@link com.supersimplestocks.business.ManualClock} which follows the event time of the replay:
+ * the newest timestamp replayed so far. Every given interval of event time, a snapshot of the
+ * Volume Weighted Stock Price of every stock and of the All Share Index is passed to a
+ * {@link ReplayListener}; the snapshots are taken at the multiples of the interval, and once
+ * more after the last trade of a file.
+ * 
+ * The trades are replayed at a speed relative to the original pace: 1 replays them at the pace at
+ * which they were made, 10 ten times faster, and 0 as fast as possible. The files are streamed
+ * and the windows evict the trades which have left the 5 minutes window, so days of data can be
+ * replayed in the memory taken by 5 minutes of trades. A trade older than the event time, as may
+ * happen in a journal written by several threads, is recorded without moving the event time back.
+ * Several files can be replayed one after another, in the order of their trades.
+ * 
+ * A replayer must not be used by several threads at once, but its utility can be queried by other
+ * threads during the replay.
+ */
+public class TradeReplayer {
+    
+    /** The speed at which the trades are replayed without waiting */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    
+    /** The speed at which the trades are replayed at the pace at which they were made */
+    public static final double ORIGINAL_PACE = 1;
+    
+    /** The number of trades recorded together */
+    private static final int BATCH_SIZE = 256;
+    
+    /** The clock of the utility, which follows the event time */
+    private final ManualClock clock;
+    
+    /** The utility in which the trades are recorded */
+    private final StockTradeUtil stockTrader;
+    
+    /** The loader which reads the files */
+    private final TradeFileLoader loader;
+    
+    /** The batch which collects the trades before they are recorded */
+    private final TradeBatch tradeBatch;
+    
+    /** The listener which receives the snapshots */
+    private final ReplayListener listener;
+    
+    /** The event time between two snapshots in milliseconds */
+    private final long interval;
+    
+    /** The speed relative to the original pace, 0 for as fast as possible */
+    private final double speed;
+    
+    /** The Volume Weighted Stock Prices of the last snapshot */
+    private final double[] volWeighPrices;
+    
+    /** The newest timestamp replayed so far, Long.MIN_VALUE before the first trade */
+    private long eventTime = Long.MIN_VALUE;
+    
+    /** The time of the next snapshot at a multiple of the interval */
+    private long nextSnapshotTime;
+    
+    /** The time of the last snapshot */
+    private long lastSnapshotTime = Long.MIN_VALUE;
+    
+    /** The event time at which the current file started, Long.MIN_VALUE before its first trade */
+    private long startEventTime;
+    
+    /** The value of System.nanoTime when the current file started */
+    private long startNanos;
+    
+    /**
+     * Constructor. It validates the input parameters; if the validation fails, an
+     * {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param stockMap - the stocks which can be traded, with their symbols as keys
+     * @param listener - the listener which receives the snapshots
+     * @param interval - the event time between two snapshots in milliseconds
+     * @param speed - the speed relative to the original pace, {@link #AS_FAST_AS_POSSIBLE} to replay without waiting
+     */
+    public TradeReplayer(Map<String, Stock> stockMap, ReplayListener listener, long interval, double speed) {
+        if (listener == null) {
+            throw new IllegalArgumentException(Messages.ERR_REPLAY_LISTENER_NULL);
+        }
+        
+        if (interval <= 0) {
+            throw new IllegalArgumentException(Messages.ERR_REPLAY_INTERVAL_NEGATIVE_ZERO);
+        }
+        
+        if (!(speed >= 0)) {
+            throw new IllegalArgumentException(Messages.ERR_REPLAY_SPEED_INCORRECT);
+        }
+        
+        this.clock = new ManualClock(0);
+        this.stockTrader = new StockTradeUtil(stockMap, clock);
+        this.loader = new TradeFileLoader(stockTrader.getStockRegistry(), new ReplayHandler(), TradeFileLoader.DEFAULT_BUFFER_SIZE);
+        this.tradeBatch = new TradeBatch(BATCH_SIZE);
+        this.listener = listener;
+        this.interval = interval;
+        this.speed = speed;
+        this.volWeighPrices = new double[stockTrader.getStockRegistry().size()];
+    }
+    
+    /**
+     * Main method which replays trade files into the predefined stocks and prints the All Share
+     * Index at every snapshot. The files ending in .csv are read as CSV, the other files as binary.
+     * 
+     * @param args - method arguments: the speed, the interval between the snapshots in seconds
+     *        and the paths of the files
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || !StockTradeUtil.checkStrPositiveLong(args[1])) {
+            Logger.error(Messages.ERR_REPLAY_ARGUMENTS);
+            return;
+        }
+        
+        ReplayListener listener = (time, volWeighPrices, allShareIndex) -> {
+            int tradedCount = 0;
+            for (double volWeighPrice : volWeighPrices) {
+                if (!Double.isNaN(volWeighPrice)) {
+                    tradedCount++;
+                }
+            }
+            
+            Logger.log(Messages.MSG_REPLAY_SNAPSHOT, new String[] {Instant.ofEpochMilli(time).toString(), Integer.toString(tradedCount), Double.toString(allShareIndex)});
+        };
+        
+        try {
+            TradeReplayer replayer = new TradeReplayer(StockData.stockMap, listener, Long.parseLong(args[1]) * 1000, Double.parseDouble(args[0]));
+            
+            for (int i = 2; i < args.length; i++) {
+                long start = System.nanoTime();
+                Path path = Paths.get(args[i]);
+                long tradeCount = args[i].endsWith(".csv") ? replayer.replayCsv(path) : replayer.replayBinary(path);
+                long elapsed = (System.nanoTime() - start) / 1000000;
+                
+                Logger.log(Messages.MSG_TRADES_REPLAYED, new String[] {Long.toString(tradeCount), args[i], Long.toString(elapsed)});
+            }
+        } catch (IllegalArgumentException | IOException | BusinessException ex) {
+            Logger.error(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Replays the trades of a CSV file
+     * 
+     * @param path - the path of the file
+     * @return - the number of trades replayed
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if a trade is malformed or cannot be recorded, or if the replay is interrupted
+     */
+    public long replayCsv(Path path) throws IOException, BusinessException {
+        return loader.loadCsv(path);
+    }
+    
+    /**
+     * Replays the trades of a binary file
+     * 
+     * @param path - the path of the file
+     * @return - the number of trades replayed
+     * @throws IOException - if the file cannot be read
+     * @throws BusinessException - if the file is not a journal or a trade cannot be recorded, or if the replay is interrupted
+     */
+    public long replayBinary(Path path) throws IOException, BusinessException {
+        return loader.loadBinary(path);
+    }
+    
+    /**
+     * Retrieves the utility in which the trades are recorded, whose time is the event time of the replay
+     * 
+     * @return - the utility
+     */
+    public StockTradeUtil getStockTrader() {
+        return stockTrader;
+    }
+    
+    /**
+     * Retrieves the event time of the replay
+     * 
+     * @return - the newest timestamp replayed so far, Long.MIN_VALUE before the first trade
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+    
+    /**
+     * Records the trades of the batch, clears it and moves the clock forward to the event time.
+     * The clock is never moved back: after a snapshot, it stays at the time of the snapshot
+     * until the event time passes it.
+     * 
+     * @throws BusinessException - if the batch cannot be recorded
+     */
+    private void recordBatch() throws BusinessException {
+        if (tradeBatch.size() > 0) {
+            stockTrader.tradeStocks(tradeBatch);
+            tradeBatch.clear();
+        }
+        
+        clock.setMillis(Math.max(clock.millis(), eventTime));
+    }
+    
+    /**
+     * Passes a snapshot of the market at a given time to the listener, after the trades up to
+     * that time have been recorded
+     * 
+     * @param time - the time of the snapshot, not earlier than the event time
+     * @throws BusinessException - if the trades cannot be recorded, or if the replay is interrupted
+     */
+    private void takeSnapshot(long time) throws BusinessException {
+        pace(time);
+        recordBatch();
+        clock.setMillis(time);
+        
+        stockTrader.getAllVolumeWeightedStockPrices(volWeighPrices);
+        listener.onSnapshot(time, volWeighPrices, stockTrader.getGBCEAllShareIndex());
+        lastSnapshotTime = time;
+    }
+    
+    /**
+     * Waits until the wall time which corresponds to an event time at the speed of the replay.
+     * The trades of the batch are recorded before waiting, so they are visible at their time.
+     * 
+     * @param time - the event time
+     * @throws BusinessException - if the trades cannot be recorded, or if the replay is interrupted
+     */
+    private void pace(long time) throws BusinessException {
+        if (speed == AS_FAST_AS_POSSIBLE || Double.isInfinite(speed)) {
+            return;
+        }
+        
+        //A cast of a double larger than Long.MAX_VALUE gives Long.MAX_VALUE, so the subtraction cannot overflow
+        long dueNanos = (long) ((time - startEventTime) * 1e6 / speed);
+        long waitNanos = dueNanos - (System.nanoTime() - startNanos);
+        
+        if (waitNanos > 0) {
+            recordBatch();
+            
+            while (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+                
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new BusinessException(Messages.ERR_REPLAY_INTERRUPTED);
+                }
+                
+                waitNanos = dueNanos - (System.nanoTime() - startNanos);
+            }
+        }
+    }
+    
+    /**
+     * The handler which receives the trades read by the loader
+     */
+    private class ReplayHandler implements TradeHandler {
+        
+        @Override
+        public void startOfTrades() {
+            tradeBatch.clear();
+            startEventTime = Long.MIN_VALUE;
+        }
+        
+        /**
+         * Takes the snapshots which are due before the trade, waits for its time and adds it to the batch
+         */
+        @Override
+        public void handleTrade(int stockId, long timestamp, long quantity, long price, boolean isBuy) throws BusinessException {
+            long time = Math.max(timestamp, eventTime);
+            
+            if (eventTime == Long.MIN_VALUE) {
+                nextSnapshotTime = Math.floorDiv(time, interval) * interval + interval;
+            }
+            
+            if (startEventTime == Long.MIN_VALUE) {
+                startEventTime = time;
+                startNanos = System.nanoTime();
+            }
+            
+            while (time > nextSnapshotTime) {
+                takeSnapshot(nextSnapshotTime);
+                nextSnapshotTime += interval;
+            }
+            
+            pace(time);
+            eventTime = time;
+            
+            if (tradeBatch.isFull()) {
+                recordBatch();
+            }
+            
+            tradeBatch.add(stockId, timestamp, quantity, price, isBuy);
+        }
+        
+        /**
+         * Records the last trades and takes the snapshot at the time of the last trade
+         */
+        @Override
+        public void endOfTrades() throws BusinessException {
+            if (eventTime == Long.MIN_VALUE) {
+                return;
+            }
+            
+            if (eventTime != lastSnapshotTime) {
+                takeSnapshot(eventTime);
+            } else {
+                recordBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.supersimplestocks.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.supersimplestocks.data.resources.Messages;
+
+/**
+ * A logger which formats and writes the messages on a background thread, so logging costs the caller
+ * a few stores into a ring instead of building strings and writing to the console. The messages are
+ * kept in a preallocated ring of capacity slots: a caller claims the next slot, writes the template of
+ * the message and its parameters into it as primitives (see {@link LogRecord}) and publishes it; the
+ * writer thread formats the published messages in order into a reused buffer, encodes them into a
+ * reused byte buffer and writes them to the output in batches, one flush per batch. The writer thread
+ * sleeps while there is no message and is woken by the next one. Once the ring is full, the callers
+ * wait for the writer thread instead of losing messages.
+ * 
+ * Logging a message with numeric parameters does not create any object, neither on the caller's
+ * thread nor on the writer thread. The messages are written in the order of their slots, which is
+ * the order in which they have been logged, even from several threads.
+ * 
+ * {@link Logger} sends its messages to an AsyncLogger set with setAsyncLogger, which keeps the log
+ * and error methods; the callers which log often can log primitives directly with log(MessageTemplate).
+ */
+public class AsyncLogger implements Closeable {
+    
+    /** The number of messages the ring holds by default */
+    public static final int DEFAULT_CAPACITY = 4096;
+    
+    /** The kinds of the parameters kept in the ring */
+    static final byte KIND_LONG = 0;
+    
+    static final byte KIND_DOUBLE = 1;
+    
+    static final byte KIND_TEXT = 2;
+    
+    /** The prefix of an error, as written by Logger.error */
+    private static final String ERROR_PREFIX = "ERROR: ";
+    
+    /** The number of characters formatted before they are written to the output */
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    
+    /** The time the callers sleep while they wait for the writer thread */
+    private static final long IDLE_PARK_NANOS = 100000;
+    
+    /** The number of parameters of a slot claimed after the logger was closed, which is skipped */
+    private static final int DROPPED = -1;
+    
+    /** The kind of every parameter, MAX_PARAMS per slot */
+    final byte[] paramKinds;
+    
+    /** The integer parameters and the bits of the decimal parameters, MAX_PARAMS per slot */
+    final long[] longParams;
+    
+    /** The text parameters, MAX_PARAMS per slot */
+    final CharSequence[] textParams;
+    
+    private final OutputStream out;
+    
+    private final int capacity;
+    
+    /** The capacity minus one, used as a mask to find the slot of a sequence number */
+    private final int mask;
+    
+    /** The template of the message of every slot, null for a message without parameters */
+    private final MessageTemplate[] templates;
+    
+    /** The message without parameters of every slot */
+    private final String[] texts;
+    
+    /** Whether the message of every slot is an error */
+    private final boolean[] errors;
+    
+    /** The number of parameters of the message of every slot */
+    private final int[] paramCounts;
+    
+    /** The records of the slots, reused by every message */
+    private final LogRecord[] records;
+    
+    /** The sequence number of the message published in every slot */
+    private final AtomicLongArray published;
+    
+    /** The sequence number of the next message */
+    private final AtomicLong claimSequence = new AtomicLong();
+    
+    /** The sequence number of the first message not yet formatted; its slot and the next ones are in use */
+    private volatile long consumedSequence;
+    
+    /** The sequence number of the first message not yet written to the output */
+    private volatile long writtenSequence;
+    
+    private volatile boolean running = true;
+    
+    /** Whether the writer thread is sleeping, or about to, until a message is published */
+    private volatile boolean writerWaiting;
+    
+    /** The buffer in which the messages are formatted */
+    private final StringBuilder builder = new StringBuilder(2 * WRITE_BUFFER_SIZE);
+    
+    /** The characters being encoded */
+    private final CharBuffer chars = CharBuffer.allocate(WRITE_BUFFER_SIZE);
+    
+    /** The bytes being written */
+    private final ByteBuffer bytes;
+    
+    private final CharsetEncoder encoder;
+    
+    private final String lineSeparator = System.lineSeparator();
+    
+    private final Thread writer;
+    
+    /**
+     * Constructor. Writes to the console, with a ring of the default capacity.
+     */
+    public AsyncLogger() {
+        this(System.out, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Constructor. Starts the writer thread, a daemon thread. It also validates the input parameters;
+     * if the validation fails, an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param out - the output, in which the messages are written in the default charset
+     * @param capacity - the number of messages the ring holds; a power of two
+     */
+    public AsyncLogger(OutputStream out, int capacity) {
+        if (out == null) {
+            throw new IllegalArgumentException(Messages.ERR_ASYNC_LOGGER_INCORRECT);
+        }
+        
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(Messages.ERR_LOGGER_CAPACITY_INCORRECT);
+        }
+        
+        this.out = out;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.paramKinds = new byte[capacity * MessageTemplate.MAX_PARAMS];
+        this.longParams = new long[capacity * MessageTemplate.MAX_PARAMS];
+        this.textParams = new CharSequence[capacity * MessageTemplate.MAX_PARAMS];
+        this.templates = new MessageTemplate[capacity];
+        this.texts = new String[capacity];
+        this.errors = new boolean[capacity];
+        this.paramCounts = new int[capacity];
+        this.records = new LogRecord[capacity];
+        this.published = new AtomicLongArray(capacity);
+        
+        for (int i = 0; i < capacity; i++) {
+            records[i] = new LogRecord(this, i);
+            published.set(i, -1);
+        }
+        
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate((int) Math.ceil(WRITE_BUFFER_SIZE * encoder.maxBytesPerChar()));
+        
+        this.writer = new Thread(this::write, "async-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Starts a message with parameters; the parameters are then appended to the record returned, which
+     * must be committed. If the logger is closed, an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @param template - the template of the message
+     * @return - the record of the message
+     */
+    public LogRecord log(MessageTemplate template) {
+        int slot = claim();
+        templates[slot] = template;
+        return records[slot];
+    }
+    
+    /**
+     * Logs a message
+     * 
+     * @param message - the message to be logged
+     */
+    public void log(String message) {
+        logText(message, false);
+    }
+    
+    /**
+     * Logs a message with parameters, as {@link Logger#log(String, String[])}
+     * 
+     * @param message - the message to be logged
+     * @param params - an array of Strings, one String for every parameter
+     */
+    public void log(String message, String[] params) {
+        LogRecord record = log(MessageTemplate.of(message));
+        for (String param : params) {
+            record.append(param);
+        }
+        
+        record.commit();
+    }
+    
+    /**
+     * Logs an error, as {@link Logger#error(String)}
+     * 
+     * @param error - the error message to be logged
+     */
+    public void error(String error) {
+        logText(error, true);
+    }
+    
+    /**
+     * Waits until the messages logged before the call have been written to the output
+     */
+    public void flush() {
+        long sequence = claimSequence.get();
+        
+        while (writtenSequence < sequence && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+    
+    /**
+     * Writes the messages logged, including those whose slots were claimed before the call and are
+     * published afterwards, and stops the writer thread; the messages logged afterwards throw an
+     * {@link java.lang.IllegalStateException}
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Hands a message to the writer thread
+     * 
+     * @param slot - the slot of the message
+     * @param sequence - the sequence number of the message
+     * @param paramCount - the number of parameters of the message
+     */
+    void publish(int slot, long sequence, int paramCount) {
+        paramCounts[slot] = paramCount;
+        
+        //The store is not lazy, so it is seen by a writer thread which checks the slot before it sleeps
+        published.set(slot, sequence);
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+    
+    /**
+     * Logs a message without parameters
+     * 
+     * @param message - the message
+     * @param error - whether the message is an error
+     */
+    private void logText(String message, boolean error) {
+        int slot = claim();
+        texts[slot] = message;
+        errors[slot] = error;
+        records[slot].commit();
+    }
+    
+    /**
+     * Claims the slot of the next message, waiting while the ring is full, and prepares it. A slot
+     * claimed while the logger is being closed is published as dropped, so the writer thread does not
+     * wait for it, and an {@link java.lang.IllegalStateException} is thrown.
+     * 
+     * @return - the index of the slot
+     */
+    private int claim() {
+        if (!running) {
+            throw new IllegalStateException(Messages.ERR_LOGGER_CLOSED);
+        }
+        
+        long sequence = claimSequence.getAndIncrement();
+        while (sequence - consumedSequence >= capacity) {
+            //The writer thread writes every message claimed before it stops
+            if (!writer.isAlive()) {
+                throw new IllegalStateException(Messages.ERR_LOGGER_CLOSED);
+            }
+            
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        
+        int slot = (int) sequence & mask;
+        if (!running) {
+            publish(slot, sequence, DROPPED);
+            throw new IllegalStateException(Messages.ERR_LOGGER_CLOSED);
+        }
+        
+        errors[slot] = false;
+        records[slot].start(sequence);
+        return slot;
+    }
+    
+    /**
+     * The loop of the writer thread: formats the messages published, in order, and writes them in
+     * batches of at most one ring, sleeping while there is none; once the logger is closed, writes
+     * the messages left, waiting for those whose slots have been claimed, and stops
+     */
+    private void write() {
+        long next = 0;
+        
+        while (true) {
+            long end = next;
+            while (end - next < capacity && published.get((int) end & mask) == end) {
+                end++;
+            }
+            
+            if (end == next) {
+                if (!running && next == claimSequence.get()) {
+                    return;
+                }
+                
+                //The slot is checked again once the flag is set, so a message published in between wakes the thread
+                writerWaiting = true;
+                if (published.get((int) next & mask) != next && (running || next != claimSequence.get())) {
+                    LockSupport.park(this);
+                }
+                
+                writerWaiting = false;
+                continue;
+            }
+            
+            for (long sequence = next; sequence < end; sequence++) {
+                format((int) sequence & mask);
+                
+                if (builder.length() >= WRITE_BUFFER_SIZE) {
+                    writeBuilder();
+                }
+            }
+            
+            consumedSequence = end;
+            writeBuilder();
+            
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                // the messages which cannot be written are dropped
+            }
+            
+            writtenSequence = end;
+            next = end;
+        }
+    }
+    
+    /**
+     * Formats the message of a slot at the end of the buffer and releases the references it holds
+     * 
+     * @param slot - the slot of the message
+     */
+    private void format(int slot) {
+        if (paramCounts[slot] == DROPPED) {
+            return;
+        }
+        
+        if (errors[slot]) {
+            builder.append(ERROR_PREFIX);
+        }
+        
+        MessageTemplate template = templates[slot];
+        if (template == null) {
+            builder.append(texts[slot]);
+            texts[slot] = null;
+        } else {
+            int paramOffset = slot * MessageTemplate.MAX_PARAMS;
+            int placeholderCount = template.getPlaceholderCount();
+            
+            for (int i = 0; i < placeholderCount; i++) {
+                builder.append(template.getLiteral(i));
+                
+                int paramIndex = template.getParamIndex(i);
+                if (paramIndex < paramCounts[slot]) {
+                    appendParam(paramOffset + paramIndex);
+                } else {
+                    builder.append('P').append(paramIndex);
+                }
+            }
+            
+            builder.append(template.getLiteral(placeholderCount));
+            
+            templates[slot] = null;
+            for (int i = 0; i < paramCounts[slot]; i++) {
+                textParams[paramOffset + i] = null;
+            }
+        }
+        
+        builder.append(lineSeparator);
+    }
+    
+    /**
+     * Appends a parameter to the buffer
+     * 
+     * @param param - the position of the parameter in the parameter arrays
+     */
+    private void appendParam(int param) {
+        switch (paramKinds[param]) {
+            case KIND_LONG:
+                builder.append(longParams[param]);
+                break;
+            case KIND_DOUBLE:
+                builder.append(Double.longBitsToDouble(longParams[param]));
+                break;
+            default:
+                builder.append(textParams[param]);
+        }
+    }
+    
+    /**
+     * Encodes the buffer and writes it to the output, then empties it
+     */
+    private void writeBuilder() {
+        int length = builder.length();
+        int start = 0;
+        
+        try {
+            while (start < length) {
+                int count = Math.min(chars.remaining(), length - start);
+                builder.getChars(start, start + count, chars.array(), chars.position());
+                chars.position(chars.position() + count);
+                start += count;
+                
+                chars.flip();
+                while (encoder.encode(chars, bytes, false) == CoderResult.OVERFLOW) {
+                    writeBytes();
+                }
+                
+                chars.compact();
+                writeBytes();
+            }
+        } catch (IOException ex) {
+            // the messages which cannot be written are dropped
+            chars.clear();
+            bytes.clear();
+        }
+        
+        builder.setLength(0);
+    }
+    
+    /**
+     * Writes the encoded bytes to the output
+     * 
+     * @throws IOException - if the output cannot be written
+     */
+    private void writeBytes() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+}
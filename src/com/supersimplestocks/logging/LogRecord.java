@@ -0,0 +1,109 @@
+package com.supersimplestocks.logging;
+
+/**
+ * A message being written into the ring of an {@link AsyncLogger}: the parameters of the message are
+ * appended in the order of their indices (P0 first) and the record is then committed, which hands it
+ * to the writer thread. The parameters are kept as primitives in the arrays of the ring, so logging a
+ * message with numeric parameters does not create any object; a text parameter is kept by reference.
+ * A message has at most {@link MessageTemplate#MAX_PARAMS} parameters; the parameters appended after
+ * them are ignored, as no message can refer to them.
+ * 
+ * A record is one slot of the ring, reused once the message has been written; it must be committed
+ * exactly once, by the thread which obtained it, and not used afterwards. A record obtained and never
+ * committed stops the writer thread at its slot.
+ */
+public class LogRecord {
+    
+    /** The logger which owns the ring */
+    private final AsyncLogger logger;
+    
+    /** The index of the slot of the record in the ring */
+    private final int slot;
+    
+    /** The position of the first parameter of the record in the parameter arrays of the ring */
+    private final int paramOffset;
+    
+    /** The sequence number of the message held by the record */
+    private long sequence;
+    
+    /** The number of parameters appended */
+    private int paramCount;
+    
+    /**
+     * Constructor
+     * 
+     * @param logger - the logger which owns the ring
+     * @param slot - the index of the slot of the record in the ring
+     */
+    LogRecord(AsyncLogger logger, int slot) {
+        this.logger = logger;
+        this.slot = slot;
+        this.paramOffset = slot * MessageTemplate.MAX_PARAMS;
+    }
+    
+    /**
+     * Prepares the record for a new message
+     * 
+     * @param sequence - the sequence number of the message
+     */
+    void start(long sequence) {
+        this.sequence = sequence;
+        this.paramCount = 0;
+    }
+    
+    /**
+     * Appends an integer parameter
+     * 
+     * @param value - the value of the parameter
+     * @return - the record
+     */
+    public LogRecord append(long value) {
+        if (paramCount < MessageTemplate.MAX_PARAMS) {
+            int param = paramOffset + paramCount++;
+            logger.paramKinds[param] = AsyncLogger.KIND_LONG;
+            logger.longParams[param] = value;
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Appends a decimal parameter, written like Double.toString
+     * 
+     * @param value - the value of the parameter
+     * @return - the record
+     */
+    public LogRecord append(double value) {
+        if (paramCount < MessageTemplate.MAX_PARAMS) {
+            int param = paramOffset + paramCount++;
+            logger.paramKinds[param] = AsyncLogger.KIND_DOUBLE;
+            logger.longParams[param] = Double.doubleToRawLongBits(value);
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Appends a text parameter, for example a stock symbol; the text must not be changed until
+     * the message has been written
+     * 
+     * @param value - the value of the parameter
+     * @return - the record
+     */
+    public LogRecord append(CharSequence value) {
+        if (paramCount < MessageTemplate.MAX_PARAMS) {
+            int param = paramOffset + paramCount++;
+            logger.paramKinds[param] = AsyncLogger.KIND_TEXT;
+            logger.textParams[param] = value;
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Hands the message to the writer thread
+     */
+    public void commit() {
+        logger.publish(slot, sequence, paramCount);
+    }
+}
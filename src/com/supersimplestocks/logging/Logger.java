@@ -3,14 +3,50 @@ package com.supersimplestocks.logging;
 /**
  * A class that provides logging functionality to log output. It provides methods for logging
  * operation output, prompt the user for input, log errors and log messages with parameters.
+ * 
+ * Once an {@link AsyncLogger} is set with setAsyncLogger, the messages are handed to it and
+ * written by its background thread instead of on the caller's thread.
  */
 public class Logger {
+    
+    /** The logger which writes the messages, null to write them on the caller's thread */
+    private static volatile AsyncLogger asyncLogger;
+    
+    /**
+     * Sets the logger which writes the messages; it must not be closed while it is set
+     * 
+     * @param logger - the logger, or null to write the messages on the caller's thread again
+     */
+    public static void setAsyncLogger(AsyncLogger logger) {
+        AsyncLogger previousLogger = asyncLogger;
+        asyncLogger = logger;
+        
+        if (previousLogger != null) {
+            previousLogger.flush();
+        }
+    }
+    
+    /**
+     * Retrieves the logger which writes the messages
+     * 
+     * @return - the logger, null if the messages are written on the caller's thread
+     */
+    public static AsyncLogger getAsyncLogger() {
+        return asyncLogger;
+    }
+    
     /**
      * Logs the message to the console.
      * 
      * @param message - the message to be logged
      */
     public static void log(String message) {
+        AsyncLogger logger = asyncLogger;
+        if (logger != null) {
+            logger.log(message);
+            return;
+        }
+        
         System.out.println(message);
     }
     
@@ -21,6 +57,11 @@ public class Logger {
      * @param message - the message to be logged
      */
     public static void promptInput(String message) {
+        AsyncLogger logger = asyncLogger;
+        if (logger != null) {
+            logger.flush();
+        }
+        
         System.out.print(message);
     }
     
@@ -36,6 +77,12 @@ public class Logger {
      * @param params - an array of Strings, one String for every parameter
      */
     public static void log(String message, String[] params) {
+        AsyncLogger logger = asyncLogger;
+        if (logger != null) {
+            logger.log(message, params);
+            return;
+        }
+        
         for (int i = 0; i < params.length; i++) {
             message = message.replace("P" + i, params[i]);
         }
@@ -49,6 +96,12 @@ public class Logger {
      * @param error - the error message to be logged
      */
     public static void error(String error) {
+        AsyncLogger logger = asyncLogger;
+        if (logger != null) {
+            logger.error(error);
+            return;
+        }
+        
         log("ERROR: " + error);
     }
     
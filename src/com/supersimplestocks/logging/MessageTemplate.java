@@ -0,0 +1,156 @@
+package com.supersimplestocks.logging;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A message with parameters (see {@link com.supersimplestocks.data.resources.Messages}) parsed once into
+ * its literal parts and its parameters P0 to P9. An {@link AsyncLogger} formats the message by appending
+ * the parts and the parameters to a reused buffer, instead of searching and replacing every parameter in
+ * a new string as {@link Logger#log(String, String[])} does. A parameter without a value is written as
+ * its name, as Logger.log leaves it.
+ * 
+ * The templates are kept by message, so of returns the same template for the same message; a message
+ * of Messages is parsed only the first time it is logged.
+ */
+public class MessageTemplate {
+    
+    /** The number of parameters a message can have, P0 to P9 */
+    public static final int MAX_PARAMS = 10;
+    
+    /** The number of templates kept; the templates of other messages are parsed every time */
+    private static final int CACHE_SIZE = 1024;
+    
+    /** The templates of the messages already logged */
+    private static final ConcurrentHashMap<String, MessageTemplate> templates = new ConcurrentHashMap<String, MessageTemplate>();
+    
+    private final String message;
+    
+    /** The literal parts of the message: the part before each parameter, then the end of the message */
+    private final String[] literals;
+    
+    /** The index of each parameter, in the order of the message */
+    private final int[] paramIndices;
+    
+    /** The highest index of a parameter plus one */
+    private final int paramCount;
+    
+    /**
+     * Constructor. Parses the message.
+     * 
+     * @param message - the message
+     */
+    private MessageTemplate(String message) {
+        this.message = message;
+        
+        int placeholderCount = 0;
+        for (int i = 0; i < message.length() - 1; i++) {
+            if (isPlaceholder(message, i)) {
+                placeholderCount++;
+            }
+        }
+        
+        literals = new String[placeholderCount + 1];
+        paramIndices = new int[placeholderCount];
+        
+        int literalStart = 0;
+        int placeholder = 0;
+        int highestIndex = -1;
+        for (int i = 0; i < message.length() - 1; i++) {
+            if (isPlaceholder(message, i)) {
+                literals[placeholder] = message.substring(literalStart, i);
+                paramIndices[placeholder] = message.charAt(i + 1) - '0';
+                highestIndex = Math.max(highestIndex, paramIndices[placeholder]);
+                
+                placeholder++;
+                literalStart = i + 2;
+                i++;
+            }
+        }
+        
+        literals[placeholderCount] = message.substring(literalStart);
+        paramCount = highestIndex + 1;
+    }
+    
+    /**
+     * Retrieves the template of a message, parsing it if it has not been parsed before
+     * 
+     * @param message - the message
+     * @return - the template
+     */
+    public static MessageTemplate of(String message) {
+        MessageTemplate template = templates.get(message);
+        if (template != null) {
+            return template;
+        }
+        
+        template = new MessageTemplate(message);
+        if (templates.size() < CACHE_SIZE) {
+            MessageTemplate existingTemplate = templates.putIfAbsent(message, template);
+            if (existingTemplate != null) {
+                template = existingTemplate;
+            }
+        }
+        
+        return template;
+    }
+    
+    /**
+     * Retrieves the message
+     * 
+     * @return - the message
+     */
+    public String getMessage() {
+        return message;
+    }
+    
+    /**
+     * Retrieves the number of parameters of the message
+     * 
+     * @return - the highest index of a parameter plus one
+     */
+    public int getParamCount() {
+        return paramCount;
+    }
+    
+    /**
+     * Retrieves the number of parameters in the message, a parameter used twice being counted twice
+     * 
+     * @return - the number of placeholders
+     */
+    int getPlaceholderCount() {
+        return paramIndices.length;
+    }
+    
+    /**
+     * Retrieves a literal part of the message
+     * 
+     * @param placeholder - the index of the placeholder which follows the part, or the number of
+     * placeholders for the end of the message
+     * @return - the literal part
+     */
+    String getLiteral(int placeholder) {
+        return literals[placeholder];
+    }
+    
+    /**
+     * Retrieves the index of the parameter of a placeholder
+     * 
+     * @param placeholder - the index of the placeholder in the message
+     * @return - the index of the parameter
+     */
+    int getParamIndex(int placeholder) {
+        return paramIndices[placeholder];
+    }
+    
+    /**
+     * Checks whether a parameter starts at a position of a message
+     * 
+     * @param message - the message
+     * @param position - the position, before the last character
+     * @return - true if the position holds P followed by a digit
+     */
+    private static boolean isPlaceholder(String message, int position) {
+        char digit = message.charAt(position + 1);
+        return message.charAt(position) == 'P' && digit >= '0' && digit <= '9';
+    }
+}
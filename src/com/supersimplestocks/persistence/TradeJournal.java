@@ -0,0 +1,444 @@
+package com.supersimplestocks.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.resources.Messages;
+
+/**
+ * An append-only journal of trades, written to a file through memory mapping. Every trade is
+ * stored in a fixed-width record of {@link #RECORD_SIZE} bytes:
+ * 
+ * i.    timestamp - 8 bytes, milliseconds since the epoch
+ * ii.   quantity - 8 bytes
+ * iii.  price - 8 bytes
+ * iv.   buy/sell indicator - 1 byte, 1 for buy and 0 for sell
+ * v.    symbol length - 1 byte, at least 1 for a written record
+ * vi.   symbol - up to {@link #MAX_SYMBOL_LENGTH} bytes of UTF-8, padded with zeros
+ * 
+ * The first record slot of the file holds a header which identifies the file as a journal.
+ * The file is mapped in segments of a fixed number of records; a new segment is mapped (and
+ * the file extended) when the previous one is full, so appending a trade is a copy into
+ * memory, without a system call. The mapped pages are forced to the disk every given number
+ * of records, which bounds the number of trades lost if the machine crashes, and when the
+ * journal is flushed or closed.
+ * 
+ * The unwritten part of the file is filled with zeros, so the end of the journal is the first
+ * record whose symbol length is zero. The journal is thread-safe: the appends are serialized.
+ * The offsets of the fields in a record are public, so a journal file can also be read as a
+ * stream of records (see {@link com.supersimplestocks.loader.TradeFileLoader}).
+ */
+public class TradeJournal implements Closeable {
+    
+    /** The size of a record in bytes */
+    public static final int RECORD_SIZE = 48;
+    
+    /** The maximum length of a symbol in bytes */
+    public static final int MAX_SYMBOL_LENGTH = 22;
+    
+    /** The number of records in a segment if none is specified */
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 16;
+    
+    /** The value identifying a journal file, the ASCII codes of SSSJ */
+    private static final int MAGIC = 0x5353534A;
+    
+    /** The version of the record format */
+    private static final int VERSION = 1;
+    
+    /** The offset of the timestamp in a record */
+    public static final int TIMESTAMP_OFFSET = 0;
+    
+    /** The offset of the quantity in a record */
+    public static final int QUANTITY_OFFSET = 8;
+    
+    /** The offset of the price in a record */
+    public static final int PRICE_OFFSET = 16;
+    
+    /** The offset of the buy/sell indicator in a record */
+    public static final int SIDE_OFFSET = 24;
+    
+    /** The offset of the symbol length in a record */
+    public static final int SYMBOL_LENGTH_OFFSET = 25;
+    
+    /** The offset of the symbol in a record */
+    public static final int SYMBOL_OFFSET = 26;
+    
+    /** The channel of the journal file */
+    private final FileChannel channel;
+    
+    /** The number of records after which the mapped pages are forced to the disk, zero to never force them */
+    private final int syncInterval;
+    
+    /** The number of record slots in a segment, including the header in the first segment */
+    private final int segmentRecords;
+    
+    /** The mapped segments of the file */
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    
+    /** The symbol of the record being looked up in a registry */
+    private final byte[] symbolBuffer = new byte[MAX_SYMBOL_LENGTH];
+    
+    /** The number of records in the journal */
+    private long recordCount;
+    
+    /** The number of records appended since the pages were last forced to the disk */
+    private long unsyncedCount;
+    
+    /** The index of the first segment holding records appended since the pages were last forced to the disk */
+    private int unsyncedSegment;
+    
+    /** Whether the journal has been closed */
+    private boolean closed;
+    
+    /**
+     * Constructor. Opens the journal with the default segment size, creating the file if it
+     * does not exist.
+     * 
+     * @param path - the path of the journal file
+     * @param syncInterval - the number of records after which the journal is forced to the disk, zero to leave it to the operating system
+     * @throws IOException - if the file cannot be opened or is not a journal
+     */
+    public TradeJournal(Path path, int syncInterval) throws IOException {
+        this(path, syncInterval, DEFAULT_SEGMENT_RECORDS);
+    }
+    
+    /**
+     * Constructor. Opens the journal, creating the file if it does not exist, and finds the
+     * end of the records already written. It validates the input parameters; if the validation
+     * fails, an {@link java.lang.IllegalArgumentException} is thrown.
+     * 
+     * @param path - the path of the journal file
+     * @param syncInterval - the number of records after which the journal is forced to the disk, zero to leave it to the operating system
+     * @param segmentRecords - the number of records mapped at once
+     * @throws IOException - if the file cannot be opened or is not a journal
+     */
+    public TradeJournal(Path path, int syncInterval, int segmentRecords) throws IOException {
+        if (syncInterval < 0) {
+            throw new IllegalArgumentException(Messages.ERR_SYNC_INTERVAL_NEGATIVE);
+        }
+        
+        if (segmentRecords < 2) {
+            throw new IllegalArgumentException(Messages.ERR_SEGMENT_RECORDS_INCORRECT);
+        }
+        
+        this.syncInterval = syncInterval;
+        this.segmentRecords = segmentRecords;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        
+        try {
+            long fileSize = channel.size();
+            long segmentSize = (long) segmentRecords * RECORD_SIZE;
+            
+            do {
+                mapSegment();
+            } while (segments.size() * segmentSize < fileSize);
+            
+            MappedByteBuffer header = segments.get(0);
+            if (fileSize == 0) {
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, RECORD_SIZE);
+                header.force();
+            } else if (!isHeader(header, 0)) {
+                throw new IOException(Messages.ERR_NOT_TRADE_JOURNAL + path);
+            }
+            
+            recordCount = findRecordCount();
+            unsyncedSegment = (int) Math.min((recordCount + 1) / segmentRecords, segments.size() - 1);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Checks if a buffer holds the header of a journal file, which takes the first {@link #RECORD_SIZE} bytes of the file
+     * 
+     * @param buffer - the buffer
+     * @param offset - the position of the header in the buffer
+     * @return - true if the header identifies a journal with the record format of this class
+     */
+    public static boolean isHeader(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset) == MAGIC && buffer.getInt(offset + 4) == VERSION && buffer.getInt(offset + 8) == RECORD_SIZE;
+    }
+    
+    /**
+     * Checks if a symbol can be stored in the journal
+     * 
+     * @param symbol - the symbol in UTF-8
+     * @return - if the symbol is not empty and not longer than {@link #MAX_SYMBOL_LENGTH}
+     */
+    public static boolean canStoreSymbol(byte[] symbol) {
+        return symbol.length > 0 && symbol.length <= MAX_SYMBOL_LENGTH;
+    }
+    
+    /**
+     * Appends a trade to the journal. The record is copied into the mapped file; the file
+     * is forced to the disk only every sync interval records. The symbol must have been
+     * checked with {@link #canStoreSymbol(byte[])}.
+     * 
+     * @param symbol - the stock symbol in UTF-8
+     * @param timestamp - the time the trade was made in milliseconds since the epoch
+     * @param quantity - the quantity of shares that were traded
+     * @param price - the price at which the stock was traded
+     * @param isBuy - whether the stock was bought or sold
+     * @throws IOException - if the journal is closed or the file cannot be extended
+     */
+    public synchronized void append(byte[] symbol, long timestamp, long quantity, long price, boolean isBuy) throws IOException {
+        if (closed) {
+            throw new IOException(Messages.ERR_JOURNAL_CLOSED);
+        }
+        
+        long slot = recordCount + 1;
+        if (slot == (long) segments.size() * segmentRecords) {
+            //Force the full segment before moving on, unless the sync is left to the next flush
+            if (syncInterval > 0) {
+                forceUnsynced();
+            }
+            
+            mapSegment();
+        }
+        
+        MappedByteBuffer segment = segments.get((int) (slot / segmentRecords));
+        int offset = (int) (slot % segmentRecords) * RECORD_SIZE;
+        
+        segment.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        segment.putLong(offset + QUANTITY_OFFSET, quantity);
+        segment.putLong(offset + PRICE_OFFSET, price);
+        segment.put(offset + SIDE_OFFSET, isBuy ? (byte) 1 : (byte) 0);
+        
+        for (int i = 0; i < symbol.length; i++) {
+            segment.put(offset + SYMBOL_OFFSET + i, symbol[i]);
+        }
+        
+        //The length is written last, as it marks the record as written
+        segment.put(offset + SYMBOL_LENGTH_OFFSET, (byte) symbol.length);
+        recordCount++;
+        
+        if (++unsyncedCount >= syncInterval && syncInterval > 0) {
+            forceUnsynced();
+        }
+    }
+    
+    /**
+     * Retrieves the number of records in the journal
+     * 
+     * @return - the number of records
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+    
+    /**
+     * Retrieves the timestamp of a record
+     * 
+     * @param index - the index of the record, from zero
+     * @return - the timestamp in milliseconds since the epoch
+     */
+    public synchronized long getTimestamp(long index) {
+        return segmentOf(index).getLong(offsetOf(index) + TIMESTAMP_OFFSET);
+    }
+    
+    /**
+     * Retrieves the quantity of a record
+     * 
+     * @param index - the index of the record, from zero
+     * @return - the quantity of shares traded
+     */
+    public synchronized long getQuantity(long index) {
+        return segmentOf(index).getLong(offsetOf(index) + QUANTITY_OFFSET);
+    }
+    
+    /**
+     * Retrieves the price of a record
+     * 
+     * @param index - the index of the record, from zero
+     * @return - the price at which the stock was traded
+     */
+    public synchronized long getPrice(long index) {
+        return segmentOf(index).getLong(offsetOf(index) + PRICE_OFFSET);
+    }
+    
+    /**
+     * Retrieves the buy/sell indicator of a record
+     * 
+     * @param index - the index of the record, from zero
+     * @return - whether the stock was bought or sold
+     */
+    public synchronized boolean isBuy(long index) {
+        return segmentOf(index).get(offsetOf(index) + SIDE_OFFSET) != 0;
+    }
+    
+    /**
+     * Retrieves the stock symbol of a record
+     * 
+     * @param index - the index of the record, from zero
+     * @return - the stock symbol, or null if the length of the symbol is damaged
+     */
+    public synchronized String getSymbol(long index) {
+        MappedByteBuffer segment = segmentOf(index);
+        int offset = offsetOf(index);
+        int symbolLength = segment.get(offset + SYMBOL_LENGTH_OFFSET);
+        
+        if (symbolLength <= 0 || symbolLength > MAX_SYMBOL_LENGTH) {
+            return null;
+        }
+        
+        byte[] symbol = new byte[symbolLength];
+        for (int i = 0; i < symbol.length; i++) {
+            symbol[i] = segment.get(offset + SYMBOL_OFFSET + i);
+        }
+        
+        return new String(symbol, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Looks up the stock of a record in a registry by the bytes of its symbol, without creating
+     * a String
+     * 
+     * @param index - the index of the record, from zero
+     * @param registry - the registry of the stocks
+     * @return - the ID of the stock, or {@link com.supersimplestocks.data.StockRegistry#NO_STOCK} if
+     * the symbol is not registered or its length is damaged
+     */
+    public synchronized int getStockId(long index, StockRegistry registry) {
+        MappedByteBuffer segment = segmentOf(index);
+        int offset = offsetOf(index);
+        int symbolLength = segment.get(offset + SYMBOL_LENGTH_OFFSET);
+        
+        if (symbolLength <= 0 || symbolLength > MAX_SYMBOL_LENGTH) {
+            return StockRegistry.NO_STOCK;
+        }
+        
+        for (int i = 0; i < symbolLength; i++) {
+            symbolBuffer[i] = segment.get(offset + SYMBOL_OFFSET + i);
+        }
+        
+        return registry.getId(symbolBuffer, 0, symbolLength);
+    }
+    
+    /**
+     * Finds the first record of the tail of the journal made of the trades not older than the
+     * given time. The journal is searched backwards from the newest record, so only the tail
+     * and one older record are read.
+     * 
+     * @param startTime - the time of the oldest trade of the tail in milliseconds
+     * @return - the index of the first record of the tail, the record count if the tail is empty
+     */
+    public synchronized long findTail(long startTime) {
+        long index = recordCount;
+        
+        while (index > 0 && getTimestamp(index - 1) >= startTime) {
+            index--;
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Forces the records appended since the last sync to the disk, whatever the sync interval
+     */
+    public synchronized void flush() {
+        if (!closed && unsyncedCount > 0) {
+            forceUnsynced();
+        }
+    }
+    
+    /**
+     * Forces the journal to the disk and closes the file. The journal cannot be appended to
+     * after it is closed.
+     * 
+     * @throws IOException - if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            
+            try {
+                if (unsyncedCount > 0) {
+                    forceUnsynced();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+    
+    /**
+     * Forces the segments holding the records appended since the last sync to the disk: all the
+     * segments mapped since then when the journal is left to the operating system between two
+     * flushes, only the last one otherwise
+     */
+    private void forceUnsynced() {
+        for (int i = unsyncedSegment; i < segments.size(); i++) {
+            segments.get(i).force();
+        }
+        
+        unsyncedSegment = segments.size() - 1;
+        unsyncedCount = 0;
+    }
+    
+    /**
+     * Maps the next segment of the file, extending the file if needed
+     * 
+     * @throws IOException - if the file cannot be mapped
+     */
+    private void mapSegment() throws IOException {
+        long segmentSize = (long) segmentRecords * RECORD_SIZE;
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * segmentSize, segmentSize));
+    }
+    
+    /**
+     * Finds the number of written records with a binary search for the first empty slot:
+     * the records are written one after the other, so all the slots before the first empty
+     * one hold records.
+     * 
+     * @return - the number of records
+     */
+    private long findRecordCount() {
+        long low = 0;
+        long high = (long) segments.size() * segmentRecords - 1;
+        
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            
+            if (segmentOf(middle).get(offsetOf(middle) + SYMBOL_LENGTH_OFFSET) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        
+        return low;
+    }
+    
+    /**
+     * Retrieves the segment which holds a record
+     * 
+     * @param index - the index of the record, from zero
+     * @return - the mapped segment
+     */
+    private MappedByteBuffer segmentOf(long index) {
+        return segments.get((int) ((index + 1) / segmentRecords));
+    }
+    
+    /**
+     * Retrieves the position of a record in its segment
+     * 
+     * @param index - the index of the record, from zero
+     * @return - the offset of the record in bytes
+     */
+    private int offsetOf(long index) {
+        return (int) ((index + 1) % segmentRecords) * RECORD_SIZE;
+    }
+}
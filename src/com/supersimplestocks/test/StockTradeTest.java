@@ -1,12 +1,75 @@
 package com.supersimplestocks.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.supersimplestocks.business.BarAggregator;
+import com.supersimplestocks.business.ManualClock;
+import com.supersimplestocks.business.ShardedTradeEngine;
 import com.supersimplestocks.business.StockTradeUtil;
+import com.supersimplestocks.business.TradeBatch;
+import com.supersimplestocks.business.TradeMetrics;
+import com.supersimplestocks.business.TradeMetricsMXBean;
+import com.supersimplestocks.business.TradePipeline;
+import com.supersimplestocks.business.TradePipelineListener;
+import com.supersimplestocks.cluster.ClusterNode;
+import com.supersimplestocks.cluster.ClusterRouter;
+import com.supersimplestocks.data.BarSeries;
 import com.supersimplestocks.data.CommonStock;
+import com.supersimplestocks.data.LatencyHistogram;
+import com.supersimplestocks.data.OperationStatistics;
+import com.supersimplestocks.data.OrderFlow;
 import com.supersimplestocks.data.PreferredStock;
+import com.supersimplestocks.data.Stock;
 import com.supersimplestocks.data.StockData;
+import com.supersimplestocks.data.StockRegistry;
+import com.supersimplestocks.data.StockTradeWindow;
+import com.supersimplestocks.data.StockType;
+import com.supersimplestocks.data.TradeOperation;
+import com.supersimplestocks.data.WideMath;
+import com.supersimplestocks.data.WindowStatistics;
 import com.supersimplestocks.data.resources.Messages;
+import com.supersimplestocks.exceptions.BusinessException;
 import com.supersimplestocks.exceptions.TestFailedException;
+import com.supersimplestocks.gateway.GatewayProtocol;
+import com.supersimplestocks.gateway.LoadGenerator;
+import com.supersimplestocks.gateway.TradeGateway;
+import com.supersimplestocks.loader.StockFileLoader;
+import com.supersimplestocks.loader.TradeFileLoader;
+import com.supersimplestocks.loader.TradeReplayer;
+import com.supersimplestocks.logging.AsyncLogger;
+import com.supersimplestocks.logging.LogRecord;
 import com.supersimplestocks.logging.Logger;
+import com.supersimplestocks.logging.MessageTemplate;
+import com.supersimplestocks.persistence.TradeJournal;
 
 /**
  * Test class to test the stock trading functionality. It tests the business logic
@@ -17,66 +80,2250 @@ import com.supersimplestocks.logging.Logger;
  */
 public class StockTradeTest {
     
+    /** The total number of trades recorded by all threads in the concurrency test */
+    private static final int CONCURRENT_TRADES = 2000000;
+    
+    /** The relative precision of the All Share Index, which is calculated in log space with fixed point */
+    private static final double INDEX_PRECISION = 1e-9;
+    
+    /** The number of trades recorded before the allocation is measured, enough to fill the windows */
+    private static final int ALLOCATION_WARM_UP_TRADES = 2000000;
+    
+    /** The number of trades for which the allocation is measured */
+    private static final int ALLOCATION_TRADES = 1000000;
+    
+    /** The number of trades in a batch for which the allocation is measured */
+    private static final int ALLOCATION_BATCH_SIZE = 200;
+    
+    /** The number of stocks in the universe used to test the All Share Index */
+    private static final int INDEX_STOCK_COUNT = 5000;
+    
+    /**
+     * Main method used to run the test.
+     * 
+     * @param args - method arguments
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public static void main(String[] args) throws TestFailedException {
+        StockTradeTest stockTest = new StockTradeTest();
+        
+        Logger.log(Messages.MSG_TESTS_START);
+        stockTest.testTradeWindow();
+        stockTest.testMultiWindow();
+        stockTest.testBarAggregation();
+        stockTest.testOrderFlow();
+        stockTest.testWideTrades();
+        stockTest.testBusinessLogic();
+        stockTest.testAllShareIndex();
+        stockTest.testStockIds();
+        stockTest.testPriceGrid();
+        stockTest.testStockData();
+        stockTest.testStockUniverse();
+        stockTest.testTradeGateway();
+        stockTest.testTradeMetrics();
+        stockTest.testAsyncLogger();
+        stockTest.testTradePipeline();
+        stockTest.testShardedTradeEngine();
+        stockTest.testClusterRouter();
+        stockTest.testTradeJournal();
+        stockTest.testTradeBatch();
+        stockTest.testTradeFileLoader();
+        stockTest.testTradeReplay();
+        stockTest.testExceptionProcessing();
+        stockTest.testConcurrentTrading();
+        stockTest.testTradeAllocation();
+        Logger.log(Messages.MSG_TESTS_FINISH);
+    }
+    
+    /**
+     * Tests the ring buffer which keeps the trades of a stock: trades older
+     * than the window are evicted, the buffer grows only when it is full of
+     * trades in the window and the running sums always match the trades
+     * in the window, also after the buffer has wrapped around many times.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradeWindow() throws TestFailedException {
+        StockTradeWindow tradeWindow = new StockTradeWindow(1000, 2);
+        tradeWindow.add(0, 10, 100);
+        tradeWindow.add(500, 20, 50);
+        tradeWindow.add(900, 10, 200);
+        
+        assertTrue(tradeWindow.size() == 3 && tradeWindow.capacity() == 4, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        assertTrue(tradeWindow.getSumPriceQuantity().longValue() == 4000 && tradeWindow.getSumQuantity() == 40, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        tradeWindow.add(1600, 30, 10);
+        assertTrue(tradeWindow.size() == 2 && tradeWindow.capacity() == 4, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        assertTrue(tradeWindow.getSumPriceQuantity().longValue() == 2300 && tradeWindow.getSumQuantity() == 40, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        tradeWindow.evict(2600);
+        assertTrue(tradeWindow.size() == 1 && tradeWindow.getSumQuantity() == 30, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        tradeWindow.evict(3000);
+        assertTrue(tradeWindow.size() == 0 && tradeWindow.getSumPriceQuantity().signum() == 0, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        //Trade once every millisecond, so the window always holds the last 1001 trades
+        for (int t = 3000; t < 10000; t++) {
+            tradeWindow.add(t, t % 7 + 1, t % 13 + 1);
+        }
+        
+        long sumPriceQuantity = 0;
+        long sumQuantity = 0;
+        for (int t = 8999; t < 10000; t++) {
+            sumPriceQuantity += (t % 7 + 1) * (t % 13 + 1);
+            sumQuantity += t % 7 + 1;
+        }
+        
+        assertTrue(tradeWindow.size() == 1001, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        assertTrue(tradeWindow.getSumPriceQuantity().longValue() == sumPriceQuantity && tradeWindow.getSumQuantity() == sumQuantity, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+            public void run() {
+                new StockTradeWindow(0);
+            }
+        }, Messages.ERR_WINDOW_LENGTH_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        
+        assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+            public void run() {
+                tradeWindow.add(3000, 0, 100);
+            }
+        }, Messages.ERR_QUANTITY_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        
+        assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+            public void run() {
+                tradeWindow.add(3000, 10, -1);
+            }
+        }, Messages.ERR_PRICE_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+    }
+    
+    /**
+     * Tests several windows kept over the same buffer: while trades are added, every window
+     * must give the same Volume Weighted Price as a separate window of the same length, the
+     * main window must give the results of the single window reads and the logarithm of the
+     * price, and the buffer must hold only the trades of the longest window. The utility must
+     * add the 5 minutes window to the configured ones and return the prices of all the windows.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testMultiWindow() throws TestFailedException {
+        try {
+            long[] windowLengths = {1000, 5000, 15000, 60000};
+            LongAdder multiLogPriceSum = new LongAdder();
+            LongAdder singleLogPriceSum = new LongAdder();
+            StockTradeWindow multiWindow = new StockTradeWindow(windowLengths, 1, 2, multiLogPriceSum);
+            StockTradeWindow[] singleWindows = new StockTradeWindow[windowLengths.length];
+            double[] volWeighPrices = new double[windowLengths.length];
+            
+            for (int w = 0; w < windowLengths.length; w++) {
+                singleWindows[w] = new StockTradeWindow(windowLengths[w], 2, w == 1 ? singleLogPriceSum : null);
+            }
+            
+            //Bursts of trades every 37 milliseconds separated by pauses, read at times after the trades
+            for (long t = 0; t < 180000; t += t % 20000 < 10000 ? 37 : 1500) {
+                multiWindow.add(t, t % 11 + 1, t % 17 + 90);
+                for (StockTradeWindow singleWindow : singleWindows) {
+                    singleWindow.add(t, t % 11 + 1, t % 17 + 90);
+                }
+                
+                if (t % 5 == 0) {
+                    long now = t + t % 3000;
+                    multiWindow.getVolumeWeightedPrices(now, volWeighPrices);
+                    
+                    for (int w = 0; w < windowLengths.length; w++) {
+                        assertTrue(volWeighPrices[w] == singleWindows[w].getVolumeWeightedPrice(now), Messages.ERR_TRADE_WINDOW_INCORRECT);
+                    }
+                    
+                    assertTrue(multiWindow.getVolumeWeightedPrice(now) == volWeighPrices[1] && multiWindow.getQuantity(now) == singleWindows[1].getQuantity(now), Messages.ERR_TRADE_WINDOW_INCORRECT);
+                }
+            }
+            
+            assertTrue(multiWindow.size() == singleWindows[3].size() && multiWindow.getSumQuantity() == singleWindows[1].getSumQuantity(), Messages.ERR_TRADE_WINDOW_INCORRECT);
+            assertTrue(multiWindow.getSumPriceQuantity().equals(singleWindows[1].getSumPriceQuantity()) && multiWindow.getExpiryTime() == singleWindows[1].getExpiryTime(), Messages.ERR_TRADE_WINDOW_INCORRECT);
+            assertTrue(multiLogPriceSum.sum() == singleLogPriceSum.sum() && multiLogPriceSum.sum() != 0, Messages.ERR_TRADE_WINDOW_INCORRECT);
+            
+            multiWindow.evict(1000000);
+            multiWindow.getVolumeWeightedPrices(1000000, volWeighPrices);
+            assertTrue(multiWindow.size() == 0 && volWeighPrices[3] == 0 && multiLogPriceSum.sum() == 0, Messages.ERR_TRADE_WINDOW_INCORRECT);
+            
+            ManualClock clock = new ManualClock(0);
+            StockTradeUtil multiTrader = new StockTradeUtil(StockData.stockMap, clock, new long[] {3600000, 60000, 900000});
+            StockTradeUtil singleTrader = new StockTradeUtil(StockData.stockMap, clock);
+            long[] utilWindowLengths = multiTrader.getWindowLengths();
+            assertTrue(Arrays.equals(utilWindowLengths, new long[] {60000, StockTradeUtil.VOL_WEIGH_WINDOW, 900000, 3600000}), Messages.ERR_TRADE_WINDOW_INCORRECT);
+            
+            for (int i = 0; i < 120; i++) {
+                for (StockTradeUtil stockTrader : new StockTradeUtil[] {multiTrader, singleTrader}) {
+                    stockTrader.tradeStock("TEA", clock.millis(), i % 7 + 1, 100 + i, true);
+                    stockTrader.tradeStock("GIN", clock.millis(), 3, 200 - i, false);
+                }
+                
+                clock.advance(Duration.ofSeconds(10));
+            }
+            
+            double[] teaPrices = multiTrader.getVolumeWeightedStockPrices("TEA");
+            
+            for (int w = 0; w < utilWindowLengths.length; w++) {
+                long sumPriceQuantity = 0;
+                long sumQuantity = 0;
+                
+                for (int i = 0; i < 120; i++) {
+                    if (i * 10000L >= clock.millis() - utilWindowLengths[w]) {
+                        sumPriceQuantity += (i % 7 + 1) * (100 + i);
+                        sumQuantity += i % 7 + 1;
+                    }
+                }
+                
+                assertTrue(teaPrices[w] == (double) sumPriceQuantity / sumQuantity, "TEA" + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            }
+            
+            assertTrue(teaPrices[1] == singleTrader.getVolumeWeightedStockPrice("TEA") && teaPrices[1] == multiTrader.getVolumeWeightedStockPrice("TEA"), "TEA" + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue(isClose(multiTrader.getGBCEAllShareIndex(), singleTrader.getGBCEAllShareIndex()), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            
+            int ginId = multiTrader.getStockId("GIN");
+            double[] ginPrices = new double[utilWindowLengths.length];
+            multiTrader.getVolumeWeightedStockPrices(ginId, ginPrices);
+            assertTrue(Arrays.equals(ginPrices, multiTrader.getVolumeWeightedStockPrices("GIN")) && ginPrices[3] > ginPrices[0], "GIN" + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    multiTrader.getVolumeWeightedStockPrices(ginId, new double[2]);
+                }
+            }, Messages.ERR_WINDOW_PRICE_ARRAY_LENGTH + 4), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    multiTrader.getVolumeWeightedStockPrices("POP");
+                }
+            }, Messages.ERR_NO_STOCK_DATA_FOUND + "POP"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new StockTradeUtil(StockData.stockMap, clock, new long[] {60000, 0});
+                }
+            }, Messages.ERR_WINDOW_LENGTH_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new StockTradeWindow(new long[] {5000, 5000}, 0, 2, null);
+                }
+            }, Messages.ERR_WINDOW_LENGTHS_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the aggregation of the trades into open/high/low/close/volume bars: a bar must be
+     * completed when a trade or a query passes the end of its interval, the series must keep
+     * only its newest bars and keep them ordered, and the bars of every interval must match the
+     * bars computed directly from the trades, whether the trades are recorded one by one or
+     * in batches.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testBarAggregation() throws TestFailedException {
+        try {
+            BarSeries series = new BarSeries(1000, 3);
+            series.add(100, 2, 10);
+            series.add(900, 1, 14);
+            series.add(500, 3, 8);
+            assertTrue(series.size() == 0 && !series.complete(999) && series.complete(1000) && series.size() == 1, Messages.ERR_BAR_SERIES_INCORRECT);
+            assertTrue(series.getStartTime(0) == 0 && series.getOpen(0) == 10 && series.getHigh(0) == 14 && series.getLow(0) == 8 && series.getClose(0) == 8, Messages.ERR_BAR_SERIES_INCORRECT);
+            assertTrue(series.getVolume(0) == 6 && series.getVwap(0) == (20 + 14 + 24) / 6.0, Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            //A late trade starts the bar after the last completed one, so the bars stay ordered
+            series.add(700, 1, 20);
+            series.add(4200, 1, 30);
+            assertTrue(series.size() == 2 && series.getStartTime(1) == 1000 && series.getClose(1) == 20, Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            for (long t = 5000; t < 9000; t += 1000) {
+                series.add(t, 1, t / 100);
+            }
+            
+            assertTrue(series.size() == 3 && series.getStartTime(0) == 5000 && series.getStartTime(2) == 7000, Messages.ERR_BAR_SERIES_INCORRECT);
+            assertTrue(series.getHigh() == 70 && series.getLow() == 50 && series.getVolume() == 3 && series.getVwap() == 60, Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            BarSeries target = new BarSeries(1000, 10);
+            assertTrue(series.copyTo(6000, 9000, target) == 3 && target.getStartTime(0) == 6000 && target.getStartTime(2) == 8000 && target.getClose(2) == 80, Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            ManualClock clock = new ManualClock(0);
+            StockTradeUtil singleTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StockTradeUtil batchTrader = new StockTradeUtil(StockData.stockMap, clock);
+            long[] intervals = {60000, 1000, 300000};
+            BarAggregator singleBars = singleTrader.attachBarAggregator(intervals, 1500);
+            BarAggregator batchBars = batchTrader.attachBarAggregator(intervals, 1500);
+            assertTrue(Arrays.equals(singleBars.getIntervals(), new long[] {1000, 60000, 300000}), Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            TradeBatch tradeBatch = new TradeBatch(64);
+            int teaId = singleTrader.getStockId("TEA");
+            int tradeCount = 1800;
+            
+            for (int i = 0; i < tradeCount; i++) {
+                clock.setMillis(i * 700L);
+                singleTrader.tradeStock(teaId, clock.millis(), i % 9 + 1, 100 + i % 23 + i / 100, true);
+                
+                if (!tradeBatch.add(teaId, clock.millis(), i % 9 + 1, 100 + i % 23 + i / 100, true)) {
+                    batchTrader.tradeStocks(tradeBatch);
+                    tradeBatch.clear();
+                    tradeBatch.add(teaId, clock.millis(), i % 9 + 1, 100 + i % 23 + i / 100, true);
+                }
+            }
+            
+            batchTrader.tradeStocks(tradeBatch);
+            clock.advance(Duration.ofMinutes(10));
+            
+            for (long interval : intervals) {
+                BarSeries singleSeries = new BarSeries(interval, 1500);
+                BarSeries batchSeries = new BarSeries(interval, 1500);
+                int barCount = singleBars.getBars("TEA", interval, 0, clock.millis(), singleSeries);
+                assertTrue(barCount == batchBars.getBars(teaId, interval, 0, clock.millis(), batchSeries) && barCount == singleSeries.size(), Messages.ERR_BAR_SERIES_INCORRECT);
+                
+                //Only the intervals with trades have bars
+                assertTrue(barCount == LongStream.range(0, tradeCount).map(i -> i * 700 / interval).distinct().count(), "TEA" + Messages.ERR_BAR_SERIES_INCORRECT);
+                
+                for (int b = 0; b < barCount; b++) {
+                    long startTime = singleSeries.getStartTime(b);
+                    long open = 0;
+                    long high = 0;
+                    long low = Long.MAX_VALUE;
+                    long close = 0;
+                    long volume = 0;
+                    
+                    for (int i = 0; i < tradeCount; i++) {
+                        if (i * 700L >= startTime && i * 700L < startTime + interval) {
+                            long price = 100 + i % 23 + i / 100;
+                            open = volume == 0 ? price : open;
+                            high = Math.max(high, price);
+                            low = Math.min(low, price);
+                            close = price;
+                            volume += i % 9 + 1;
+                        }
+                    }
+                    
+                    assertTrue(startTime % interval == 0 && volume > 0 && singleSeries.getOpen(b) == open && singleSeries.getClose(b) == close, "TEA" + Messages.ERR_BAR_SERIES_INCORRECT);
+                    assertTrue(singleSeries.getHigh(b) == high && singleSeries.getLow(b) == low && singleSeries.getVolume(b) == volume, "TEA" + Messages.ERR_BAR_SERIES_INCORRECT);
+                    assertTrue(batchSeries.getStartTime(b) == startTime && batchSeries.getVolume(b) == volume && batchSeries.getVwap(b) == singleSeries.getVwap(b), "TEA" + Messages.ERR_BAR_SERIES_INCORRECT);
+                }
+            }
+            
+            BarSeries hourSeries = new BarSeries(60000, 60);
+            singleBars.getBars("TEA", 60000, clock.millis() - 3600000, clock.millis(), hourSeries);
+            assertTrue(hourSeries.getHigh() == 100 + 22 + (tradeCount - 1) / 100 && hourSeries.getVolume() == LongStream.range(0, tradeCount).map(i -> i % 9 + 1).sum(), "TEA" + Messages.ERR_BAR_SERIES_INCORRECT);
+            assertTrue(singleBars.getBars("GIN", 60000, 0, clock.millis(), hourSeries) == 0 && hourSeries.size() == 0, "GIN" + Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            //A bar longer than the window overflows while the window has room: the trade is recorded in neither
+            ManualClock barClock = new ManualClock(0);
+            StockTradeUtil barTrader = new StockTradeUtil(StockData.stockMap, barClock);
+            BarAggregator hourBars = barTrader.attachBarAggregator(new long[] {3600000}, 10);
+            barTrader.tradeStock("POP", Long.MAX_VALUE, 100, true);
+            barClock.advance(Duration.ofMinutes(6));
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    barTrader.tradeStock("POP", 1, 100, true);
+                }
+            }, Messages.ERR_BAR_VOLUME_OVERFLOW), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(barTrader.getTradedQuantity("POP") == 0, "POP" + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+            
+            TradeBatch barBatch = new TradeBatch(2);
+            barBatch.add(barTrader.getStockId("GIN"), barClock.millis(), 10, 100, true);
+            barBatch.add(barTrader.getStockId("POP"), barClock.millis(), 1, 100, true);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    barTrader.tradeStocks(barBatch);
+                }
+            }, Messages.ERR_BAR_VOLUME_OVERFLOW), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            BarSeries popBars = new BarSeries(3600000, 10);
+            hourBars.getBars("POP", 3600000, 0, barClock.millis() + 1, popBars);
+            assertTrue(barTrader.getTradedQuantity("GIN") == 0 && popBars.getVolume() == Long.MAX_VALUE, "POP" + Messages.ERR_BAR_SERIES_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    singleBars.getBars("TEA", 5000, 0, clock.millis(), new BarSeries(5000, 10));
+                }
+            }, Messages.ERR_BAR_INTERVAL_NOT_FOUND + 5000), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    singleBars.getBars("TEA", 1000, 0, clock.millis(), new BarSeries(60000, 10));
+                }
+            }, Messages.ERR_BAR_SERIES_INTERVAL + 1000), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    singleTrader.attachBarAggregator(intervals, 10);
+                }
+            }, Messages.ERR_BAR_AGGREGATOR_ATTACHED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new StockTradeUtil(StockData.stockMap, clock).attachBarAggregator(new long[] {1000, -1}, 10);
+                }
+            }, Messages.ERR_BAR_INTERVAL_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the buy-side and sell-side analytics: the quantities and Volume Weighted Prices of
+     * each side must match those computed from the trades still in the window, also after the
+     * buffer has grown and wrapped around and with sums beyond a long, and the utility must give
+     * the same order flow whether the trades are recorded one by one or in batches.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testOrderFlow() throws TestFailedException {
+        try {
+            StockTradeWindow tradeWindow = new StockTradeWindow(1000, 2);
+            OrderFlow orderFlow = new OrderFlow();
+            List<long[]> trades = new ArrayList<long[]>();
+            
+            for (long t = 0; t < 20000; t += 7) {
+                //Every 50th trade has a price and quantity whose product exceeds a long
+                long quantity = t % 350 == 0 ? (1L << 40) + t : t % 13 + 1;
+                long price = t % 350 == 0 ? 1L << 40 : t % 29 + 50;
+                boolean isBuy = t % 3 != 0;
+                tradeWindow.add(t, quantity, price, isBuy);
+                trades.add(new long[] {t, quantity, price, isBuy ? 1 : 0});
+                
+                long now = t + 300;
+                BigInteger[] sumsPriceQuantity = {BigInteger.ZERO, BigInteger.ZERO};
+                long[] sumsQuantity = {0, 0};
+                
+                for (long[] trade : trades) {
+                    if (trade[0] >= now - 1000) {
+                        sumsPriceQuantity[(int) trade[3]] = sumsPriceQuantity[(int) trade[3]].add(BigInteger.valueOf(trade[1]).multiply(BigInteger.valueOf(trade[2])));
+                        sumsQuantity[(int) trade[3]] += trade[1];
+                    }
+                }
+                
+                tradeWindow.getOrderFlow(now, orderFlow);
+                assertTrue(orderFlow.getBuyQuantity() == sumsQuantity[1] && orderFlow.getSellQuantity() == sumsQuantity[0], Messages.ERR_ORDER_FLOW_INCORRECT);
+                assertTrue(isClose(orderFlow.getBuyVolumeWeightedPrice(), sumsQuantity[1] != 0 ? sumsPriceQuantity[1].doubleValue() / sumsQuantity[1] : 0), Messages.ERR_ORDER_FLOW_INCORRECT);
+                assertTrue(isClose(orderFlow.getSellVolumeWeightedPrice(), sumsQuantity[0] != 0 ? sumsPriceQuantity[0].doubleValue() / sumsQuantity[0] : 0), Messages.ERR_ORDER_FLOW_INCORRECT);
+                assertTrue(orderFlow.getImbalance() == (double) (sumsQuantity[1] - sumsQuantity[0]) / (sumsQuantity[1] + sumsQuantity[0]), Messages.ERR_ORDER_FLOW_INCORRECT);
+                
+                //The trades which can no longer be in the window are dropped from the check
+                long oldestTimestamp = t - 2000;
+                trades.removeIf(trade -> trade[0] < oldestTimestamp);
+            }
+            
+            tradeWindow.evict(1000000);
+            tradeWindow.getOrderFlow(1000000, orderFlow);
+            assertTrue(orderFlow.getBuyQuantity() == 0 && orderFlow.getSellQuantity() == 0 && orderFlow.getImbalance() == 0, Messages.ERR_ORDER_FLOW_INCORRECT);
+            assertTrue(tradeWindow.getBuySumPriceQuantity().signum() == 0, Messages.ERR_ORDER_FLOW_INCORRECT);
+            
+            ManualClock clock = new ManualClock(0);
+            StockTradeUtil singleTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StockTradeUtil batchTrader = new StockTradeUtil(StockData.stockMap, clock);
+            TradeBatch tradeBatch = new TradeBatch(16);
+            int teaId = singleTrader.getStockId("TEA");
+            
+            for (int i = 0; i < 1000; i++) {
+                clock.setMillis(i * 1000L);
+                singleTrader.tradeStock(teaId, clock.millis(), i % 5 + 1, 100 + i % 11, i % 4 != 0);
+                
+                if (!tradeBatch.add(teaId, clock.millis(), i % 5 + 1, 100 + i % 11, i % 4 != 0)) {
+                    batchTrader.tradeStocks(tradeBatch);
+                    tradeBatch.clear();
+                    tradeBatch.add(teaId, clock.millis(), i % 5 + 1, 100 + i % 11, i % 4 != 0);
+                }
+            }
+            
+            batchTrader.tradeStocks(tradeBatch);
+            
+            OrderFlow singleFlow = singleTrader.getOrderFlow("TEA");
+            batchTrader.getOrderFlow(teaId, orderFlow);
+            assertTrue(singleFlow.getBuyQuantity() == orderFlow.getBuyQuantity() && singleFlow.getSellQuantity() == orderFlow.getSellQuantity(), "TEA" + Messages.ERR_ORDER_FLOW_INCORRECT);
+            assertTrue(singleFlow.getBuyVolumeWeightedPrice() == orderFlow.getBuyVolumeWeightedPrice() && singleFlow.getSellVolumeWeightedPrice() == orderFlow.getSellVolumeWeightedPrice(), "TEA" + Messages.ERR_ORDER_FLOW_INCORRECT);
+            assertTrue(singleFlow.getBuyQuantity() + singleFlow.getSellQuantity() == singleTrader.getTradedQuantity("TEA") && singleFlow.getImbalance() > 0, "TEA" + Messages.ERR_ORDER_FLOW_INCORRECT);
+            assertTrue(isClose((singleFlow.getBuyVolumeWeightedPrice() * singleFlow.getBuyQuantity() + singleFlow.getSellVolumeWeightedPrice() * singleFlow.getSellQuantity())
+                    / singleTrader.getTradedQuantity("TEA"), singleTrader.getVolumeWeightedStockPrice("TEA")), "TEA" + Messages.ERR_ORDER_FLOW_INCORRECT);
+            
+            singleTrader.getOrderFlow(singleTrader.getStockId("GIN"), orderFlow);
+            assertTrue(orderFlow.getBuyQuantity() == 0 && orderFlow.getSellQuantity() == 0 && orderFlow.getBuyVolumeWeightedPrice() == 0, "GIN" + Messages.ERR_ORDER_FLOW_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    singleTrader.getOrderFlow(teaId, null);
+                }
+            }, Messages.ERR_ORDER_FLOW_NULL), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    singleTrader.getOrderFlow("XYZ");
+                }
+            }, Messages.ERR_NO_STOCK_FOUND + "XYZ"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the trades with prices and quantities beyond the range of an int: the sum of
+     * price multiplied by quantity exceeds a long, but the window must keep it exactly and
+     * the Volume Weighted Stock Price must still be correct, also after the wide trades
+     * have been evicted. The sum of the quantities must not overflow silently.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testWideTrades() throws TestFailedException {
+        long x = 1;
+        for (int i = 0; i < 10000; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+            long a = x >>> (i % 40 + 1);
+            long b = (x * 31 + i) >>> (i % 50 + 1);
+            
+            BigInteger product = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b));
+            assertTrue(WideMath.multiplyHigh(a, b) == product.shiftRight(64).longValue(), Messages.ERR_WIDE_MATH_INCORRECT);
+            assertTrue(WideMath.toBigInteger(WideMath.multiplyHigh(a, b), a * b).equals(product), Messages.ERR_WIDE_MATH_INCORRECT);
+        }
+        
+        long price = 1000000000000L;
+        long quantity = 3000000000L;
+        BigInteger priceQuantity = BigInteger.valueOf(price).multiply(BigInteger.valueOf(quantity));
+        
+        StockTradeWindow tradeWindow = new StockTradeWindow(1000, 2);
+        tradeWindow.add(0, quantity, price);
+        tradeWindow.add(10, quantity, price);
+        tradeWindow.add(20, quantity, 3 * price);
+        
+        BigInteger sumPriceQuantity = priceQuantity.multiply(BigInteger.valueOf(5));
+        assertTrue(tradeWindow.getSumPriceQuantity().equals(sumPriceQuantity) && tradeWindow.getSumQuantity() == 3 * quantity, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        assertTrue(isClose(tradeWindow.getVolumeWeightedPrice(20), 5 * price / 3.0), Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        tradeWindow.evict(1015);
+        assertTrue(tradeWindow.getSumPriceQuantity().equals(priceQuantity.multiply(BigInteger.valueOf(3))), Messages.ERR_TRADE_WINDOW_INCORRECT);
+        assertTrue(tradeWindow.getVolumeWeightedPrice(1015) == 3 * price, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        tradeWindow.add(1500, 10, 100);
+        assertTrue(tradeWindow.getSumPriceQuantity().longValue() == 1000 && tradeWindow.getVolumeWeightedPrice(1500) == 100, Messages.ERR_TRADE_WINDOW_INCORRECT);
+        
+        try {
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, new ManualClock(0));
+            stockTrader.tradeStock("TEA", 0, Long.MAX_VALUE / 2, Long.MAX_VALUE, true);
+            stockTrader.tradeStock("TEA", 0, Long.MAX_VALUE / 2, Long.MAX_VALUE, false);
+            
+            assertTrue(stockTrader.getVolumeWeightedStockPrice("TEA") == Long.MAX_VALUE, "TEA" + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue(stockTrader.getTradedQuantity("TEA") == Long.MAX_VALUE - 1, "TEA" + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+            assertTrue(stockTrader.getDividendYield("POP", Long.MAX_VALUE) == 8.0 / Long.MAX_VALUE, "POP" + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.tradeStock("TEA", 0, 2, 100, true);
+                }
+            }, Messages.ERR_WINDOW_QUANTITY_OVERFLOW), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(stockTrader.getTradedQuantity("TEA") == Long.MAX_VALUE - 1, "TEA" + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+            
+            //A batch which would overflow the window of TEA does not record its trade of POP either
+            TradeBatch tradeBatch = new TradeBatch(2);
+            tradeBatch.add(stockTrader.getStockId("POP"), 0, 10, 100, true);
+            tradeBatch.add(stockTrader.getStockId("TEA"), 0, 2, 100, true);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.tradeStocks(tradeBatch);
+                }
+            }, Messages.ERR_WINDOW_QUANTITY_OVERFLOW), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(stockTrader.getTradedQuantity("POP") == 0 && stockTrader.getTradedQuantity("TEA") == Long.MAX_VALUE - 1, Messages.ERR_TRADED_QUANTITY_INCORRECT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the business logic of the application like dividend yield,
+     * P/E ratio, Volume Weighted Stock Price and All Share Index return
+     * correct values.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testBusinessLogic() throws TestFailedException {
+        try {
+            ManualClock clock = new ManualClock(System.currentTimeMillis());
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, clock);
+            assertTrue (stockTrader.getDividendYield(StockData.TEA, 50) == 0, StockData.TEA + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            assertTrue (stockTrader.getDividendYield(StockData.POP, 64) == 0.125, StockData.POP + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            assertTrue (stockTrader.getDividendYield(StockData.GIN, 50) == 0.04, StockData.GIN + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            
+            assertTrue (stockTrader.getPERatio(StockData.ALE, 69) == 3, StockData.ALE + Messages.ERR_PE_RATIO_INCORRECT);
+            assertTrue (stockTrader.getPERatio(StockData.POP, 64) == 8, StockData.POP + Messages.ERR_PE_RATIO_INCORRECT);
+            
+            stockTrader.tradeStock(StockData.TEA, 20, 60, false);
+            stockTrader.tradeStock(StockData.TEA, 30, 120, true);
+            
+            stockTrader.tradeStock(StockData.GIN, 10, 60, true);
+            stockTrader.tradeStock(StockData.GIN, 20, 150, false);
+            
+            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.TEA) == 96, StockData.TEA + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.GIN) == 120, StockData.GIN + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            
+            assertTrue (isClose(stockTrader.getGBCEAllShareIndex(), Math.sqrt(11520)), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            
+            //Move the clock 6 minutes forward to ensure that in the subsequent transactions the Volume Weighted Stock Price
+            //is calculated based on transactions only from the last 5 minutes
+            clock.advance(Duration.ofMinutes(6));
+            
+            //Without new trades, the windows are empty: the prices fall back to 1 and so does the index
+            assertTrue (stockTrader.getGBCEAllShareIndex() == 1, Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.TEA) == 1, StockData.TEA + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            
+            stockTrader.tradeStock(StockData.TEA, 10, 80, false);
+            stockTrader.tradeStock(StockData.TEA, 10, 60, true);
+            
+            stockTrader.tradeStock(StockData.GIN, 10, 60, true);
+            stockTrader.tradeStock(StockData.GIN, 20, 120, false);
+            
+            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.TEA) == 70, StockData.TEA + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.GIN) == 100, StockData.GIN + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            
+            assertTrue (isClose(stockTrader.getGBCEAllShareIndex(), Math.sqrt(7000)), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the All Share Index of a universe with thousands of stocks traded at high
+     * prices: the product of the prices would overflow, but the index, calculated in
+     * log space, must still be the geometric mean of the prices.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testAllShareIndex() throws TestFailedException {
+        Map<String, Stock> stockMap = new HashMap<String, Stock>();
+        for (int i = 0; i < INDEX_STOCK_COUNT; i++) {
+            String stockSymbol = "S" + i;
+            stockMap.put(stockSymbol, new CommonStock(stockSymbol, 1, 100));
+        }
+        
+        try {
+            StockTradeUtil stockTrader = new StockTradeUtil(stockMap);
+            assertTrue(stockTrader.getGBCEAllShareIndex() == 0, Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            
+            for (int i = 0; i < INDEX_STOCK_COUNT; i++) {
+                stockTrader.tradeStock("S" + i, 10, 1000000, true);
+            }
+            
+            assertTrue(isClose(stockTrader.getGBCEAllShareIndex(), 1000000), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            
+            //Half of the stocks at 4000000 and half at 250000 still give a geometric mean of 1000000
+            stockTrader = new StockTradeUtil(stockMap);
+            for (int i = 0; i < INDEX_STOCK_COUNT; i++) {
+                stockTrader.tradeStock("S" + i, 10, i % 2 == 0 ? 4000000 : 250000, true);
+            }
+            
+            assertTrue(isClose(stockTrader.getGBCEAllShareIndex(), 1000000), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the integer stock IDs: the IDs are dense and follow the order of the
+     * symbols, and trading and querying a stock by its ID gives the same results
+     * as by its symbol.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testStockIds() throws TestFailedException {
+        StockRegistry stockRegistry = new StockRegistry(StockData.stockMap);
+        assertTrue(stockRegistry.size() == StockData.stockMap.size(), Messages.ERR_STOCK_ID_INCORRECT);
+        assertTrue(stockRegistry.getId("NAN") == StockRegistry.NO_STOCK && !stockRegistry.isValidId(stockRegistry.size()), Messages.ERR_STOCK_ID_INCORRECT);
+        
+        for (int stockId = 0; stockId < stockRegistry.size(); stockId++) {
+            String stockSymbol = stockRegistry.getSymbol(stockId);
+            assertTrue(stockRegistry.getId(stockSymbol) == stockId && stockRegistry.getStock(stockId) == StockData.stockMap.get(stockSymbol), Messages.ERR_STOCK_ID_INCORRECT);
+            assertTrue(stockId == 0 || stockRegistry.getSymbol(stockId - 1).compareTo(stockSymbol) < 0, Messages.ERR_STOCK_ID_INCORRECT);
+        }
+        
+        try {
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, new ManualClock(0));
+            int teaId = stockTrader.getStockId("TEA");
+            int ginId = stockTrader.getStockId("GIN");
+            assertTrue(stockTrader.getStockRegistry().getSymbol(teaId).equals("TEA"), Messages.ERR_STOCK_ID_INCORRECT);
+            
+            stockTrader.tradeStock(teaId, 0, 10, 100, true);
+            stockTrader.tradeStock("TEA", 0, 30, 200, false);
+            stockTrader.tradeStock(ginId, 0, 10, 50, true);
+            
+            assertTrue(stockTrader.getVolumeWeightedStockPrice(teaId) == 175 && stockTrader.getVolumeWeightedStockPrice("TEA") == 175, "TEA" + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue(stockTrader.getTradedQuantity(teaId) == 40 && stockTrader.getTradedQuantity(ginId) == 10, "TEA" + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+            assertTrue(stockTrader.getDividendYield(ginId, 50) == stockTrader.getDividendYield("GIN", 50), "GIN" + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            assertTrue(stockTrader.getPERatio(ginId, 50) == stockTrader.getPERatio("GIN", 50), "GIN" + Messages.ERR_PE_RATIO_INCORRECT);
+            assertTrue(isClose(stockTrader.getGBCEAllShareIndex(), Math.sqrt(175 * 50)), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            
+            for (int stockId : new int[] {-1, stockTrader.getStockRegistry().size()}) {
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        stockTrader.tradeStock(stockId, 0, 10, 100, true);
+                    }
+                }, Messages.ERR_NO_STOCK_ID_FOUND + stockId), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+                
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        stockTrader.getVolumeWeightedStockPrice(stockId);
+                    }
+                }, Messages.ERR_NO_STOCK_ID_FOUND + stockId), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            }
+            
+            int popId = stockTrader.getStockId("POP");
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getVolumeWeightedStockPrice(popId);
+                }
+            }, Messages.ERR_NO_STOCK_DATA_FOUND + "POP"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getStockId("NAN");
+                }
+            }, Messages.ERR_NO_STOCK_FOUND + "NAN"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the dividend yields and P/E ratios of a grid of prices: for every stock and every
+     * price they must be equal to the results of the methods which take a single price, both
+     * for one stock and for all the stocks at once, and an invalid price must be reported
+     * with its index.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testPriceGrid() throws TestFailedException {
+        try {
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap);
+            StockRegistry stockRegistry = stockTrader.getStockRegistry();
+            long[] prices = new long[1000];
+            
+            for (int i = 0; i < prices.length; i++) {
+                prices[i] = i * 37 % 997 + 1;
+            }
+            
+            double[] allDividendYields = new double[stockRegistry.size() * prices.length];
+            double[] allPERatios = new double[stockRegistry.size() * prices.length];
+            double[] dividendYields = new double[prices.length];
+            double[] peRatios = new double[prices.length];
+            stockTrader.getAllDividendYields(prices, allDividendYields);
+            stockTrader.getAllPERatios(prices, allPERatios);
+            
+            for (int stockId = 0; stockId < stockRegistry.size(); stockId++) {
+                String stockSymbol = stockRegistry.getSymbol(stockId);
+                boolean hasDividend = stockRegistry.getStock(stockId).getLastDividend() != 0;
+                double[] symbolDividendYields = stockTrader.getDividendYields(stockSymbol, prices);
+                double[] symbolPERatios = hasDividend ? stockTrader.getPERatios(stockSymbol, prices) : null;
+                stockTrader.getDividendYields(stockId, prices, dividendYields);
+                
+                if (hasDividend) {
+                    stockTrader.getPERatios(stockId, prices, peRatios);
+                }
+                
+                for (int i = 0; i < prices.length; i++) {
+                    double dividendYield = stockTrader.getDividendYield(stockSymbol, prices[i]);
+                    assertTrue(symbolDividendYields[i] == dividendYield && dividendYields[i] == dividendYield, stockSymbol + Messages.ERR_PRICE_GRID_INCORRECT);
+                    assertTrue(allDividendYields[stockId * prices.length + i] == dividendYield, stockSymbol + Messages.ERR_PRICE_GRID_INCORRECT);
+                    
+                    if (hasDividend) {
+                        double peRatio = stockTrader.getPERatio(stockSymbol, prices[i]);
+                        assertTrue(symbolPERatios[i] == peRatio && peRatios[i] == peRatio && allPERatios[stockId * prices.length + i] == peRatio, stockSymbol + Messages.ERR_PRICE_GRID_INCORRECT);
+                    } else {
+                        assertTrue(Double.isNaN(allPERatios[stockId * prices.length + i]), stockSymbol + Messages.ERR_PRICE_GRID_INCORRECT);
+                    }
+                }
+            }
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getPERatios("TEA", prices);
+                }
+            }, Messages.ERR_PE_DIVIDEND_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getDividendYields("GIN", new long[] {10, 20, 0, -5});
+                }
+            }, Messages.ERR_PRICE_AT_INDEX + 2 + ": " + Messages.ERR_PRICE_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getPERatios("XYZ", prices);
+                }
+            }, Messages.ERR_NO_STOCK_FOUND + "XYZ"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getAllDividendYields(null, allDividendYields);
+                }
+            }, Messages.ERR_PRICES_NULL), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getAllPERatios(prices, dividendYields);
+                }
+            }, Messages.ERR_RESULT_ARRAY_LENGTH + allPERatios.length), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the reference data of the stocks: stocks with the same data are equal and have the
+     * same hash code, the sample stock map is read-only, the registry keeps a copy of the data
+     * which does not change with the stocks, and the data updated in the utility is swapped as a
+     * whole, so a reader never sees the data of two versions at once.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testStockData() throws TestFailedException {
+        try {
+            Stock common = new CommonStock("AAA", 5, 100);
+            Stock preferred = new PreferredStock("AAA", 5, 0, 100);
+            assertTrue(common.equals(new CommonStock("AAA", 5, 100)) && common.hashCode() == new CommonStock("AAA", 5, 100).hashCode(), Messages.ERR_STOCK_DATA_INCORRECT);
+            assertTrue(!common.equals(new CommonStock("AAA", 6, 100)) && !common.equals(preferred) && !common.equals(null), Messages.ERR_STOCK_DATA_INCORRECT);
+            assertTrue(new HashSet<Stock>(Arrays.asList(common, new CommonStock("AAA", 5, 100), preferred)).size() == 2, Messages.ERR_STOCK_DATA_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    try {
+                        StockData.stockMap.put("AAA", common);
+                    } catch (UnsupportedOperationException ex) {
+                        throw new Exception(Messages.ERR_STOCK_DATA_INCORRECT);
+                    }
+                }
+            }, Messages.ERR_STOCK_DATA_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            Map<String, Stock> stockMap = new HashMap<String, Stock>();
+            Stock other = new CommonStock("BBB", 7, 100);
+            stockMap.put("AAA", common);
+            stockMap.put("BBB", other);
+            
+            StockRegistry stockRegistry = new StockRegistry(stockMap);
+            common.setLastDividend(50);
+            assertTrue(stockRegistry.getLastDividend(0) == 5 && stockRegistry.getDividendYield(0, 100) == 0.05 && stockRegistry.getType(0) == StockType.COMMON, Messages.ERR_STOCK_DATA_INCORRECT);
+            assertTrue(stockRegistry.getParValue(1) == 100 && stockRegistry.getPERatio(1, 70) == 10, Messages.ERR_STOCK_DATA_INCORRECT);
+            common.setLastDividend(5);
+            
+            ManualClock clock = new ManualClock(0);
+            StockTradeUtil stockTrader = new StockTradeUtil(stockMap, clock);
+            stockTrader.tradeStock("AAA", 10, 100, true);
+            
+            Map<String, Stock> newStockMap = new HashMap<String, Stock>();
+            newStockMap.put("AAA", new CommonStock("AAA", 10, 100));
+            newStockMap.put("BBB", new CommonStock("BBB", 14, 100));
+            stockTrader.updateStockData(newStockMap);
+            
+            assertTrue(stockTrader.getDividendYield("AAA", 100) == 0.1 && stockTrader.getPERatio("BBB", 140) == 10, Messages.ERR_STOCK_DATA_INCORRECT);
+            assertTrue(stockTrader.getVolumeWeightedStockPrice("AAA") == 100 && stockTrader.getTradedQuantity("AAA") == 10, Messages.ERR_STOCK_DATA_INCORRECT);
+            
+            //A reader must always see the dividends of both stocks from the same version of the data
+            AtomicBoolean updatesFinished = new AtomicBoolean();
+            AtomicReference<Exception> failure = new AtomicReference<Exception>();
+            Thread reader = new Thread() {
+                public void run() {
+                    long[] prices = {100};
+                    double[] dividendYields = new double[2];
+                    
+                    try {
+                        while (!updatesFinished.get()) {
+                            stockTrader.getAllDividendYields(prices, dividendYields);
+                            assertTrue(dividendYields[0] == 0.05 && dividendYields[1] == 0.07 || dividendYields[0] == 0.1 && dividendYields[1] == 0.14, Messages.ERR_STOCK_DATA_INCORRECT);
+                        }
+                    } catch (Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            
+            reader.start();
+            for (int i = 0; i < 2000; i++) {
+                stockTrader.updateStockData(i % 2 == 0 ? stockMap : newStockMap);
+            }
+            
+            updatesFinished.set(true);
+            reader.join();
+            
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            
+            newStockMap.put("CCC", other);
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.updateStockData(newStockMap);
+                }
+            }, Messages.ERR_STOCK_SYMBOLS_CHANGED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.updateStockData(null);
+                }
+            }, Messages.ERR_STOCK_MAP_NULL), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the stock universe loaded from a file: the sample stocks are read from a CSV file with a
+     * header and empty lines, malformed files are rejected with the line at fault, a universe of 50000
+     * stocks is loaded in under a second, and a modified file is loaded again while the stocks are
+     * traded: the stocks which are kept keep their IDs and their trades, the removed stocks leave the
+     * All Share Index and their IDs are not reused, and no trade is lost while the stocks are added.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testStockUniverse() throws TestFailedException {
+        Path stockPath = null;
+        Path tradePath = null;
+        
+        try {
+            stockPath = Files.createTempFile("stocks", ".csv");
+            tradePath = Files.createTempFile("trades", ".csv");
+            String sampleStocks = "symbol,type,lastDividend,fixedDividend,parValue\r\nTEA,COMMON,0,,100\r\nPOP,COMMON,8,,100\n\nALE,common,23,,60\nGIN,PREFERRED,8,0.02,100\nJOE,COMMON,13,0,250\n";
+            Files.write(stockPath, sampleStocks.getBytes(StandardCharsets.US_ASCII));
+            
+            StockFileLoader stockLoader = new StockFileLoader(stockPath);
+            assertTrue(stockLoader.load().equals(StockData.stockMap), Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            String[] malformedFiles = {"TEA,COMMON,0,,100\nPOP,COMMON,8,100\n", "TEA,COMMON,0,,100\nPOP,COMMON,-8,,100\n", "TEA,COMMON,0,,100\n\nGIN,PREFERRED,8,,100\n",
+                    "TEA,COMMON,0,,100\nPOP,ORDINARY,8,,100\n", "TEA,COMMON,0,,100\nPOP,COMMON,8,,0\n", "TEA,COMMON,0,,100\nPOP,COMMON,8,,100\nTEA,COMMON,1,,100\n",
+                    "TEA,COMMON,-1,,100\nPOP,COMMON,8,,100\n", "symbol,type,dividend,fixedDividend,parValue\nTEA,COMMON,0,,100\n"};
+            String[] errorMessages = {Messages.ERR_STOCK_FILE_LINE + 2, Messages.ERR_STOCK_FILE_LINE + 2, Messages.ERR_STOCK_FILE_LINE + 3,
+                    Messages.ERR_STOCK_FILE_LINE + 2, Messages.ERR_STOCK_FILE_LINE + 2, Messages.ERR_STOCK_FILE_DUPLICATE + 3,
+                    Messages.ERR_STOCK_FILE_LINE + 1, Messages.ERR_STOCK_FILE_LINE + 1};
+            
+            for (int i = 0; i < malformedFiles.length; i++) {
+                Path malformedPath = tradePath;
+                Files.write(malformedPath, malformedFiles[i].getBytes(StandardCharsets.US_ASCII));
+                
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        new StockFileLoader(malformedPath).load();
+                    }
+                }, errorMessages[i]), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            }
+            
+            //A universe of 50000 stocks is ready to be traded in under a second
+            StringBuilder largeUniverse = new StringBuilder();
+            for (int i = 0; i < 50000; i++) {
+                largeUniverse.append('S').append(i).append(i % 10 == 0 ? ",PREFERRED," : ",COMMON,").append(i % 20).append(i % 10 == 0 ? ",0.05," : ",,").append(100).append('\n');
+            }
+            
+            Files.write(tradePath, largeUniverse.toString().getBytes(StandardCharsets.US_ASCII));
+            long start = System.nanoTime();
+            StockTradeUtil largeTrader = new StockTradeUtil(new StockFileLoader(tradePath).load(), new ManualClock(0));
+            assertTrue(System.nanoTime() - start < 1000000000L && largeTrader.getStockRegistry().getStockCount() == 50000, Messages.ERR_STOCK_FILE_INCORRECT);
+            assertTrue(largeTrader.getDividendYield("S30", 100) == 0.05 && largeTrader.getPERatio("S49999", 190) == 10, Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            ManualClock clock = new ManualClock(100000);
+            StockTradeUtil stockTrader = new StockTradeUtil(stockLoader.load(), clock);
+            BarAggregator bars = stockTrader.attachBarAggregator(new long[] {1000}, 10);
+            TradeFileLoader tradeLoader = new TradeFileLoader(stockTrader);
+            int teaId = stockTrader.getStockId("TEA");
+            int popId = stockTrader.getStockId("POP");
+            
+            stockTrader.tradeStock("TEA", 100000, 10, 120, true);
+            stockTrader.tradeStock("GIN", 100000, 20, 80, false);
+            stockTrader.tradeStock("POP", 100000, 30, 300, true);
+            assertTrue(!stockLoader.reloadIfModified(stockTrader), Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            //POP is removed, GIN is amended, AAB and ZZZ are added after the last ID
+            Files.write(stockPath, "TEA,COMMON,0,,100\nALE,COMMON,23,,60\nGIN,PREFERRED,8,0.05,100\nJOE,COMMON,13,,250\nZZZ,COMMON,4,,100\nAAB,COMMON,2,,100\n".getBytes(StandardCharsets.US_ASCII));
+            Files.setLastModifiedTime(stockPath, FileTime.fromMillis(Files.getLastModifiedTime(stockPath).toMillis() + 2000));
+            assertTrue(stockLoader.reloadIfModified(stockTrader) && !stockLoader.reloadIfModified(stockTrader), Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            StockRegistry stockRegistry = stockTrader.getStockRegistry();
+            assertTrue(stockRegistry.size() == 7 && stockRegistry.getStockCount() == 6, Messages.ERR_STOCK_FILE_INCORRECT);
+            assertTrue(stockTrader.getStockId("TEA") == teaId && stockTrader.getStockId("AAB") == 5 && stockTrader.getStockId("ZZZ") == 6, Messages.ERR_STOCK_ID_INCORRECT);
+            assertTrue(stockTrader.getVolumeWeightedStockPrice("TEA") == 120 && stockTrader.getTradedQuantity("GIN") == 20, Messages.ERR_STOCK_FILE_INCORRECT);
+            assertTrue(stockTrader.getDividendYield("GIN", 100) == 0.05, "GIN" + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getVolumeWeightedStockPrice("POP");
+                }
+            }, Messages.ERR_NO_STOCK_FOUND + "POP"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.tradeStock(popId, 100000, 10, 300, true);
+                }
+            }, Messages.ERR_NO_STOCK_ID_FOUND + popId), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //The new stocks are traded through the loader created before the reload and have bars
+            Files.write(tradePath, "AAB,100000,40,50,B\n".getBytes(StandardCharsets.US_ASCII));
+            assertTrue(tradeLoader.loadCsv(tradePath) == 1 && stockTrader.getVolumeWeightedStockPrice("AAB") == 50, Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            clock.advance(Duration.ofSeconds(1));
+            assertTrue(bars.getBars("AAB", 1000, 0, Long.MAX_VALUE, new BarSeries(1000, 10)) == 1, Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            //The removed stock is no longer part of the All Share Index
+            double expectedIndex = Math.exp((Math.log(120) + Math.log(80) + Math.log(50)) / 3);
+            assertTrue(isClose(stockTrader.getGBCEAllShareIndex(), expectedIndex), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            
+            double[] volWeighPrices = new double[stockRegistry.size()];
+            assertTrue(stockTrader.getAllVolumeWeightedStockPrices(volWeighPrices) == 3 && Double.isNaN(volWeighPrices[popId]), Messages.ERR_STOCK_FILE_INCORRECT);
+            
+            //A stock added again gets a new ID and has no trades
+            Map<String, Stock> stockMap = new HashMap<String, Stock>(StockData.stockMap);
+            stockTrader.reloadStockData(stockMap);
+            assertTrue(stockTrader.getStockId("POP") == 7 && !stockTrader.getStockRegistry().isValidId(popId) && !stockTrader.getStockRegistry().isValidId(5), Messages.ERR_STOCK_ID_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getVolumeWeightedStockPrice("POP");
+                }
+            }, Messages.ERR_NO_STOCK_DATA_FOUND + "POP"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //No trade is lost while thousands of stocks are added and removed
+            int tradeCount = 200000;
+            AtomicReference<Exception> failure = new AtomicReference<Exception>();
+            Thread trader = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < tradeCount; i++) {
+                            stockTrader.tradeStock(teaId, 100000, 1, 120, true);
+                        }
+                    } catch (Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            
+            trader.start();
+            for (int reload = 0; reload < 20; reload++) {
+                stockMap = new HashMap<String, Stock>(StockData.stockMap);
+                for (int i = 0; i < 1000; i++) {
+                    String symbol = "R" + reload + "_" + i;
+                    stockMap.put(symbol, new CommonStock(symbol, 1, 100));
+                }
+                
+                stockTrader.reloadStockData(stockMap);
+            }
+            
+            trader.join();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            
+            assertTrue(stockTrader.getTradedQuantity(teaId) == 10 + tradeCount && stockTrader.getStockRegistry().getStockCount() == 1005, "TEA" + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.reloadStockData(null);
+                }
+            }, Messages.ERR_STOCK_MAP_NULL), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        } finally {
+            deleteFile(stockPath);
+            deleteFile(tradePath);
+        }
+    }
+    
+    /**
+     * Tests the trade gateway: pipelined requests sent on one connection are executed and answered
+     * in order, with an ERROR response for every request which fails, a frame of invalid length closes
+     * the connection, the load generator then sends thousands of requests over several connections
+     * without any error or lost trade, a rejected batch fails only the trade which overflows, and a
+     * batch which fails once the windows have taken it is answered with the error without being
+     * recorded twice.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradeGateway() throws TestFailedException {
+        Path journalPath = null;
+        
+        try {
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, new ManualClock(100000));
+            
+            try (TradeGateway gateway = new TradeGateway(stockTrader, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4)) {
+                gateway.start();
+                InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), gateway.getPort());
+                byte[] tea = "TEA".getBytes(StandardCharsets.UTF_8);
+                byte[] gin = "GIN".getBytes(StandardCharsets.UTF_8);
+                
+                ByteBuffer requests = ByteBuffer.allocate(1024);
+                GatewayProtocol.putTrade(requests, 0, tea, 10, 100, true);
+                GatewayProtocol.putTrade(requests, 1, tea, 30, 200, false);
+                GatewayProtocol.putVolumeWeightedPrice(requests, 2, tea);
+                GatewayProtocol.putTrade(requests, 3, "XYZ".getBytes(StandardCharsets.UTF_8), 10, 100, true);
+                GatewayProtocol.putTrade(requests, 4, gin, 0, 100, true);
+                GatewayProtocol.putAllShareIndex(requests, 5);
+                GatewayProtocol.putPriceQuery(requests, GatewayProtocol.DIVIDEND_YIELD, 6, gin, 100);
+                GatewayProtocol.putPriceQuery(requests, GatewayProtocol.PE_RATIO, 7, tea, 100);
+                requests.putShort((short) GatewayProtocol.HEADER_SIZE).put((byte) 9).putInt(8);
+                GatewayProtocol.putTrade(requests, 9, gin, 20, 80, true);
+                requests.flip();
+                
+                double[] results = {0, 0, 175, 0, 0, 175, 0.02, 0, 0, 0};
+                String[] errorMessages = {null, null, null, Messages.ERR_NO_STOCK_FOUND + "XYZ", Messages.ERR_QUANTITY_NEGATIVE_ZERO, null, null,
+                        Messages.ERR_PE_DIVIDEND_ZERO, Messages.ERR_GATEWAY_COMMAND + 9, null};
+                
+                try (SocketChannel channel = SocketChannel.open(address)) {
+                    while (requests.hasRemaining()) {
+                        channel.write(requests);
+                    }
+                    
+                    for (int i = 0; i < results.length; i++) {
+                        ByteBuffer response = readFully(channel, readFully(channel, GatewayProtocol.LENGTH_SIZE).getShort() & 0xFFFF);
+                        byte status = response.get();
+                        assertTrue(response.getInt() == i, Messages.ERR_GATEWAY_INCORRECT);
+                        
+                        if (errorMessages[i] == null) {
+                            assertTrue(status == GatewayProtocol.OK && isClose(response.getDouble(), results[i]), Messages.ERR_GATEWAY_INCORRECT);
+                        } else {
+                            assertTrue(status == GatewayProtocol.ERROR && StandardCharsets.UTF_8.decode(response).toString().equals(errorMessages[i]), Messages.ERR_GATEWAY_INCORRECT);
+                        }
+                    }
+                }
+                
+                assertTrue(stockTrader.getTradedQuantity("TEA") == 40 && stockTrader.getTradedQuantity("GIN") == 20, Messages.ERR_GATEWAY_INCORRECT);
+                
+                //A frame shorter than its header closes the connection
+                try (SocketChannel channel = SocketChannel.open(address)) {
+                    channel.write((ByteBuffer) ByteBuffer.allocate(GatewayProtocol.LENGTH_SIZE).putShort((short) 2).flip());
+                    assertTrue(channel.read(ByteBuffer.allocate(1)) < 0, Messages.ERR_GATEWAY_INCORRECT);
+                }
+                
+                //Every stock has trades, so the queries of the load generator do not fail
+                stockTrader.tradeStock("POP", 10, 100, true);
+                stockTrader.tradeStock("ALE", 10, 100, true);
+                stockTrader.tradeStock("JOE", 10, 100, true);
+                
+                String[] stockSymbols = StockData.stockMap.keySet().toArray(new String[0]);
+                LoadGenerator generator = new LoadGenerator(address, stockSymbols, 4, 2000, 32, 10);
+                generator.run();
+                
+                long tradedQuantity = 0;
+                for (String stockSymbol : stockSymbols) {
+                    tradedQuantity += stockTrader.getTradedQuantity(stockSymbol);
+                }
+                
+                assertTrue(generator.getRequestCount() == 8000 && generator.getErrorCount() == 0 && tradedQuantity == 90 + generator.getTradeCount() * LoadGenerator.QUANTITY,
+                        Messages.ERR_GATEWAY_INCORRECT);
+                assertTrue(generator.getLatencyPercentile(50) > 0 && generator.getLatencyPercentile(99) >= generator.getLatencyPercentile(50), Messages.ERR_GATEWAY_INCORRECT);
+                
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        new LoadGenerator(address, stockSymbols, 4, 2000, 0, 10);
+                    }
+                }, Messages.ERR_LOAD_GENERATOR_PARAMETERS), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+                
+                //The last trade would overflow the window of ALE, so only that trade is rejected
+                long aleQuantity = stockTrader.getTradedQuantity("ALE");
+                long popQuantity = stockTrader.getTradedQuantity("POP");
+                byte[] ale = "ALE".getBytes(StandardCharsets.UTF_8);
+                
+                requests.clear();
+                GatewayProtocol.putTrade(requests, 0, ale, Long.MAX_VALUE - aleQuantity, 100, true);
+                GatewayProtocol.putTrade(requests, 1, "POP".getBytes(StandardCharsets.UTF_8), 10, 100, true);
+                GatewayProtocol.putTrade(requests, 2, ale, 1, 100, true);
+                requests.flip();
+                
+                try (SocketChannel channel = SocketChannel.open(address)) {
+                    while (requests.hasRemaining()) {
+                        channel.write(requests);
+                    }
+                    
+                    for (int i = 0; i < 3; i++) {
+                        ByteBuffer response = readFully(channel, readFully(channel, GatewayProtocol.LENGTH_SIZE).getShort() & 0xFFFF);
+                        byte status = response.get();
+                        assertTrue(response.getInt() == i, Messages.ERR_GATEWAY_INCORRECT);
+                        
+                        if (i < 2) {
+                            assertTrue(status == GatewayProtocol.OK, Messages.ERR_GATEWAY_INCORRECT);
+                        } else {
+                            assertTrue(status == GatewayProtocol.ERROR && StandardCharsets.UTF_8.decode(response).toString().equals(Messages.ERR_WINDOW_QUANTITY_OVERFLOW), Messages.ERR_GATEWAY_INCORRECT);
+                        }
+                    }
+                }
+                
+                assertTrue(stockTrader.getTradedQuantity("ALE") == Long.MAX_VALUE && stockTrader.getTradedQuantity("POP") == popQuantity + 10, Messages.ERR_GATEWAY_INCORRECT);
+            }
+            
+            //The journal is closed, so the batch fails after its trades have been added to the windows
+            journalPath = Files.createTempFile("gateway", ".journal");
+            StockTradeUtil journaledTrader = new StockTradeUtil(StockData.stockMap, new ManualClock(100000));
+            TradeJournal journal = new TradeJournal(journalPath, 0);
+            journaledTrader.attachJournal(journal);
+            journal.close();
+            
+            try (TradeGateway gateway = new TradeGateway(journaledTrader, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4)) {
+                gateway.start();
+                
+                ByteBuffer requests = ByteBuffer.allocate(256);
+                GatewayProtocol.putTrade(requests, 0, "TEA".getBytes(StandardCharsets.UTF_8), 10, 100, true);
+                GatewayProtocol.putTrade(requests, 1, "GIN".getBytes(StandardCharsets.UTF_8), 20, 100, true);
+                requests.flip();
+                
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), gateway.getPort()))) {
+                    while (requests.hasRemaining()) {
+                        channel.write(requests);
+                    }
+                    
+                    for (int i = 0; i < 2; i++) {
+                        ByteBuffer response = readFully(channel, readFully(channel, GatewayProtocol.LENGTH_SIZE).getShort() & 0xFFFF);
+                        byte status = response.get();
+                        
+                        assertTrue(response.getInt() == i && status == GatewayProtocol.ERROR
+                                && StandardCharsets.UTF_8.decode(response).toString().startsWith(Messages.ERR_JOURNAL_WRITE), Messages.ERR_GATEWAY_INCORRECT);
+                    }
+                }
+            }
+            
+            assertTrue(journaledTrader.getTradedQuantity("TEA") == 10 && journaledTrader.getTradedQuantity("GIN") == 20, Messages.ERR_GATEWAY_INCORRECT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        } finally {
+            deleteFile(journalPath);
+        }
+    }
+    
+    /**
+     * Tests the metrics: the latency histogram keeps every value within its precision, the calls of
+     * every operation are counted and timed (one in the sample interval), the calls which fail are not
+     * counted, the windows report their occupancy and the trades they have evicted, and the metrics are
+     * read back over JMX.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradeMetrics() throws TestFailedException {
+        try {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (long value = 1; value <= 1000; value++) {
+                histogram.record(value);
+            }
+            
+            assertTrue(histogram.getCount() == 1000 && histogram.getMax() == 1000 && histogram.getMean() == 500.5, Messages.ERR_METRICS_INCORRECT);
+            assertTrue(histogram.getValueAtPercentile(50) >= 500 && histogram.getValueAtPercentile(50) <= 500 * 17 / 16, Messages.ERR_METRICS_INCORRECT);
+            assertTrue(histogram.getValueAtPercentile(99) >= 990 && histogram.getValueAtPercentile(100) == 1000, Messages.ERR_METRICS_INCORRECT);
+            
+            //A value is kept within a sixteenth of itself over the whole range of long
+            for (long value : new long[] {0, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+                LatencyHistogram single = new LatencyHistogram();
+                single.record(value);
+                single.record(Long.MAX_VALUE);
+                assertTrue(single.getValueAtPercentile(50) >= value && single.getValueAtPercentile(50) - value <= value / 16, Messages.ERR_METRICS_INCORRECT);
+            }
+            
+            histogram.reset();
+            assertTrue(histogram.getCount() == 0 && histogram.getValueAtPercentile(99) == 0, Messages.ERR_METRICS_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    histogram.getValueAtPercentile(101);
+                }
+            }, Messages.ERR_PERCENTILE_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            ManualClock clock = new ManualClock(100000);
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, clock);
+            TradeMetrics metrics = stockTrader.attachMetrics(1);
+            
+            stockTrader.tradeStock("TEA", 10, 100, true);
+            stockTrader.tradeStock(stockTrader.getStockId("TEA"), clock.millis(), 20, 110, false);
+            stockTrader.tradeStock("GIN", 30, 90, true);
+            
+            TradeBatch batch = new TradeBatch(2);
+            batch.add(stockTrader.getStockId("POP"), clock.millis(), 10, 120, true);
+            batch.add(stockTrader.getStockId("GIN"), clock.millis(), 10, 95, false);
+            stockTrader.tradeStocks(batch);
+            
+            stockTrader.getVolumeWeightedStockPrice("TEA");
+            stockTrader.getGBCEAllShareIndex();
+            stockTrader.getDividendYield("GIN", 100);
+            stockTrader.getPERatio("POP", 100);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.getPERatio("TEA", 100);
+                }
+            }, Messages.ERR_PE_DIVIDEND_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            long[] expectedCounts = {3, 1, 1, 1, 1, 1};
+            OperationStatistics[] operationStatistics = metrics.getOperationStatistics();
+            for (TradeOperation operation : TradeOperation.values()) {
+                OperationStatistics statistics = operationStatistics[operation.ordinal()];
+                assertTrue(statistics.getOperation().equals(operation.name()) && statistics.getCount() == expectedCounts[operation.ordinal()]
+                        && statistics.getSampleCount() == statistics.getCount() && metrics.getCount(operation) == statistics.getCount(), Messages.ERR_METRICS_INCORRECT);
+                assertTrue(statistics.getMedianLatency() <= statistics.getP99Latency() && statistics.getP99Latency() <= statistics.getMaxLatency(), Messages.ERR_METRICS_INCORRECT);
+            }
+            
+            WindowStatistics[] windowStatistics = metrics.getWindowStatistics();
+            assertTrue(windowStatistics.length == 3 && windowStatistics[0].getSymbol().equals("GIN") && windowStatistics[0].getSize() == 2
+                    && windowStatistics[2].getSymbol().equals("TEA") && windowStatistics[2].getCapacity() == StockTradeWindow.DEFAULT_CAPACITY, Messages.ERR_METRICS_INCORRECT);
+            assertTrue(metrics.getWindowTradeCount() == 5 && metrics.getEvictedTradeCount() == 0, Messages.ERR_METRICS_INCORRECT);
+            
+            //The trades of TEA are evicted by its next trade, those of the other stocks by the All Share Index
+            clock.advance(Duration.ofMinutes(6));
+            stockTrader.tradeStock("TEA", 10, 100, true);
+            assertTrue(metrics.getWindowTradeCount() == 4 && metrics.getEvictedTradeCount() == 2, Messages.ERR_METRICS_INCORRECT);
+            
+            stockTrader.getGBCEAllShareIndex();
+            assertTrue(metrics.getWindowTradeCount() == 1 && metrics.getEvictedTradeCount() == 5, Messages.ERR_METRICS_INCORRECT);
+            
+            //The metrics are read over JMX
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = metrics.registerMBean("testTradeMetrics");
+            TradeMetricsMXBean proxy = JMX.newMXBeanProxy(mbeanServer, objectName, TradeMetricsMXBean.class);
+            
+            try {
+                assertTrue((Long) mbeanServer.getAttribute(objectName, "EvictedTradeCount") == 5, Messages.ERR_METRICS_INCORRECT);
+                assertTrue(proxy.getOperationStatistics()[TradeOperation.TRADE.ordinal()].getCount() == 4 && proxy.getWindowStatistics()[2].getSize() == 1,
+                        Messages.ERR_METRICS_INCORRECT);
+                
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        metrics.registerMBean("testTradeMetrics");
+                    }
+                }, Messages.ERR_METRICS_REGISTERED + objectName), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+                
+                proxy.reset();
+                assertTrue(metrics.getCount(TradeOperation.TRADE) == 0 && metrics.getLatencies(TradeOperation.TRADE).getCount() == 0, Messages.ERR_METRICS_INCORRECT);
+            } finally {
+                metrics.unregisterMBean();
+            }
+            
+            assertTrue(!mbeanServer.isRegistered(objectName), Messages.ERR_METRICS_INCORRECT);
+            
+            //The dump writes the summary of the windows, the operations having been reset
+            String windowsMessage = "The windows of 3 stocks hold 1 trades, the largest 1 trades; 5 trades have been evicted";
+            PrintStream console = System.out;
+            ByteArrayOutputStream dumpOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(dumpOutput, true));
+            
+            try {
+                metrics.dump();
+                assertTrue(dumpOutput.toString().trim().equals(windowsMessage), Messages.ERR_METRICS_INCORRECT);
+                
+                dumpOutput.reset();
+                metrics.startDump(Duration.ofMillis(10));
+                for (int i = 0; i < 500 && !dumpOutput.toString().contains(windowsMessage); i++) {
+                    Thread.sleep(10);
+                }
+                
+                metrics.stopDump();
+            } finally {
+                System.setOut(console);
+            }
+            
+            assertTrue(dumpOutput.toString().contains(windowsMessage), Messages.ERR_METRICS_INCORRECT);
+            
+            for (Duration period : new Duration[] {Duration.ZERO, Duration.ofNanos(999999)}) {
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        metrics.startDump(period);
+                    }
+                }, Messages.ERR_DUMP_PERIOD_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            }
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    stockTrader.attachMetrics(1);
+                }
+            }, Messages.ERR_METRICS_ATTACHED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //With a sample interval, every call is counted but only some are timed
+            StockTradeUtil sampledTrader = new StockTradeUtil(StockData.stockMap, clock);
+            TradeMetrics sampledMetrics = sampledTrader.attachMetrics(64);
+            for (int i = 0; i < 10000; i++) {
+                sampledTrader.tradeStock("ALE", 10, 100 + i % 7, i % 2 == 0);
+            }
+            
+            long sampleCount = sampledMetrics.getLatencies(TradeOperation.TRADE).getCount();
+            assertTrue(sampledMetrics.getCount(TradeOperation.TRADE) == 10000 && sampleCount > 0 && sampleCount < 1000, Messages.ERR_METRICS_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new StockTradeUtil(StockData.stockMap).attachMetrics(3);
+                }
+            }, Messages.ERR_SAMPLE_INTERVAL_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the trade pipeline: the trades submitted by several threads through a small ring give the
+     * same Volume Weighted Stock Prices and All Share Index as the same trades made directly, the invalid
+     * trades are rejected by the validate stage with the reason, and the listener receives the prices
+     * of the stocks traded.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradePipeline() throws TestFailedException {
+        try {
+            ManualClock clock = new ManualClock(StockTradeUtil.VOL_WEIGH_WINDOW);
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StockTradeUtil expectedTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StockRegistry registry = stockTrader.getStockRegistry();
+            String[] stockSymbols = {StockData.TEA, StockData.POP, StockData.ALE, StockData.GIN, StockData.JOE};
+            
+            double[] volWeighPrices = new double[registry.size()];
+            double[] allShareIndex = new double[1];
+            List<String> rejections = new ArrayList<String>();
+            
+            TradePipeline pipeline = new TradePipeline(stockTrader, 2, 64, new TradePipelineListener() {
+                @Override
+                public void onTradeRejected(long sequence, String error) {
+                    rejections.add(error);
+                }
+                
+                @Override
+                public void onVolumeWeightedPrice(int stockId, double volWeighPrice) {
+                    volWeighPrices[stockId] = volWeighPrice;
+                }
+                
+                @Override
+                public void onAllShareIndex(double index) {
+                    allShareIndex[0] = index;
+                }
+            });
+            
+            //Every thread submits 2500 trades, of which the trades 1000 and 2000 are not valid
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                int thread = i;
+                threads[i] = new Thread(() -> {
+                    for (int trade = 0; trade < 2500; trade++) {
+                        if (trade == 1000) {
+                            pipeline.submit("XYZ", 10, 100, true);
+                        } else if (trade == 2000) {
+                            pipeline.submit(registry.getId(StockData.GIN), clock.millis(), 0, 100, false);
+                        } else {
+                            pipeline.submit(stockSymbols[(thread + trade) % stockSymbols.length], 10 + thread, 100 + trade % 13, trade % 3 == 0);
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            
+            for (int i = 0; i < threads.length; i++) {
+                for (int trade = 0; trade < 2500; trade++) {
+                    if (trade != 1000 && trade != 2000) {
+                        expectedTrader.tradeStock(stockSymbols[(i + trade) % stockSymbols.length], 10 + i, 100 + trade % 13, trade % 3 == 0);
+                    }
+                }
+            }
+            
+            pipeline.flush();
+            assertTrue(pipeline.getPublishedCount() == 10000 && pipeline.getRejectedCount() == 8 && rejections.size() == 8, Messages.ERR_PIPELINE_INCORRECT);
+            assertTrue(rejections.stream().filter(error -> error.equals(Messages.ERR_NO_STOCK_FOUND + "XYZ")).count() == 4
+                    && rejections.stream().filter(error -> error.equals(Messages.ERR_QUANTITY_NEGATIVE_ZERO)).count() == 4, Messages.ERR_PIPELINE_INCORRECT);
+            
+            for (String stockSymbol : stockSymbols) {
+                double volWeighPrice = stockTrader.getVolumeWeightedStockPrice(stockSymbol);
+                
+                assertTrue(volWeighPrice == expectedTrader.getVolumeWeightedStockPrice(stockSymbol)
+                        && volWeighPrices[registry.getId(stockSymbol)] == volWeighPrice, Messages.ERR_PIPELINE_INCORRECT);
+            }
+            
+            assertTrue(stockTrader.getGBCEAllShareIndex() == expectedTrader.getGBCEAllShareIndex() && allShareIndex[0] == stockTrader.getGBCEAllShareIndex(),
+                    Messages.ERR_PIPELINE_INCORRECT);
+            
+            pipeline.close();
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    pipeline.submit(StockData.POP, 10, 100, true);
+                }
+            }, Messages.ERR_PIPELINE_CLOSED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //A listener which throws is logged, and every batch is still counted and handed over
+            int[] volWeighPriceCount = new int[1];
+            TradePipeline failingPipeline = new TradePipeline(stockTrader, 1, 64, new TradePipelineListener() {
+                @Override
+                public void onTradeRejected(long sequence, String error) {
+                    throw new IllegalStateException("Rejected " + sequence);
+                }
+                
+                @Override
+                public void onVolumeWeightedPrice(int stockId, double volWeighPrice) {
+                    volWeighPriceCount[0]++;
+                    throw new IllegalStateException("Price " + stockId);
+                }
+            });
+            
+            PrintStream console = System.out;
+            ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(errorOutput, true));
+            
+            try {
+                failingPipeline.submit("XYZ", 10, 100, true);
+                failingPipeline.submit(StockData.POP, 10, 100, true);
+                failingPipeline.flush();
+                failingPipeline.submit(StockData.POP, 10, 100, true);
+                failingPipeline.flush();
+                failingPipeline.close();
+            } finally {
+                System.setOut(console);
+            }
+            
+            assertTrue(failingPipeline.getRejectedCount() == 1 && volWeighPriceCount[0] == 2 && errorOutput.toString().contains("Rejected 0")
+                    && errorOutput.toString().contains("Price " + registry.getId(StockData.POP)), Messages.ERR_PIPELINE_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new TradePipeline(stockTrader, 2, 100, new TradePipelineListener() {});
+                }
+            }, Messages.ERR_PIPELINE_CAPACITY_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the sharded trade engine: every stock belongs to one shard, the trades made by several threads
+     * give the same Volume Weighted Stock Prices as a single StockTradeUtil, the All Share Index gathered
+     * from the shards is the index of all the stocks, also once trades have expired, and the invalid trades
+     * are rejected on the caller's thread.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testShardedTradeEngine() throws TestFailedException {
+        try {
+            ManualClock clock = new ManualClock(StockTradeUtil.VOL_WEIGH_WINDOW);
+            ShardedTradeEngine engine = new ShardedTradeEngine(StockData.stockMap, clock, 3, 64);
+            StockTradeUtil expectedTrader = new StockTradeUtil(StockData.stockMap, clock);
+            String[] stockSymbols = {StockData.TEA, StockData.POP, StockData.ALE, StockData.GIN, StockData.JOE};
+            
+            int stockCount = 0;
+            for (int shard = 0; shard < engine.getShardCount(); shard++) {
+                stockCount += engine.getShard(shard).getStockRegistry().getStockCount();
+            }
+            
+            for (String stockSymbol : stockSymbols) {
+                int shard = ShardedTradeEngine.getShardIndex(stockSymbol, engine.getShardCount());
+                assertTrue(engine.getShard(shard).getStockRegistry().getId(stockSymbol) != StockRegistry.NO_STOCK, Messages.ERR_ENGINE_INCORRECT);
+            }
+            
+            assertTrue(stockCount == stockSymbols.length, Messages.ERR_ENGINE_INCORRECT);
+            
+            //Every thread trades all the stocks; a ring of 64 trades makes the threads wait for the workers
+            AtomicReference<Exception> failure = new AtomicReference<Exception>();
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                int thread = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int trade = 0; trade < 2000; trade++) {
+                            engine.tradeStock(stockSymbols[(thread + trade) % stockSymbols.length], 10 + thread, 100 + trade % 11, trade % 2 == 0);
+                        }
+                    } catch (BusinessException ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                });
+                threads[i].start();
+            }
+            
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            
+            for (int i = 0; i < threads.length; i++) {
+                for (int trade = 0; trade < 2000; trade++) {
+                    expectedTrader.tradeStock(stockSymbols[(i + trade) % stockSymbols.length], 10 + i, 100 + trade % 11, trade % 2 == 0);
+                }
+            }
+            
+            for (String stockSymbol : stockSymbols) {
+                assertTrue(engine.getVolumeWeightedStockPrice(stockSymbol) == expectedTrader.getVolumeWeightedStockPrice(stockSymbol), Messages.ERR_ENGINE_INCORRECT);
+            }
+            
+            assertTrue(engine.getGBCEAllShareIndex() == expectedTrader.getGBCEAllShareIndex() && engine.getRejectedCount() == 0, Messages.ERR_ENGINE_INCORRECT);
+            
+            //Once the trades have expired, only the new trade of POP is in the index
+            clock.advance(Duration.ofMillis(StockTradeUtil.VOL_WEIGH_WINDOW + 1));
+            engine.tradeStock(StockData.POP, 10, 250, true);
+            expectedTrader.tradeStock(StockData.POP, 10, 250, true);
+            
+            assertTrue(engine.getGBCEAllShareIndex() == expectedTrader.getGBCEAllShareIndex(), Messages.ERR_ENGINE_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    engine.tradeStock("XYZ", 10, 100, true);
+                }
+            }, Messages.ERR_NO_STOCK_FOUND + "XYZ"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    engine.tradeStock(StockData.ALE, 10, 0, true);
+                }
+            }, Messages.ERR_PRICE_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            engine.close();
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    engine.tradeStock(StockData.POP, 10, 100, true);
+                }
+            }, Messages.ERR_ENGINE_CLOSED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the cluster router over nodes listening on the loopback interface: the stocks are spread
+     * over the nodes, the trades and queries forwarded to their owners give the same prices and index
+     * as a single utility, and a node which joins receives its stocks with their trades, so the prices
+     * and the index are unchanged and the trades keep expiring at their original times.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testClusterRouter() throws TestFailedException {
+        List<ClusterNode> clusterNodes = new ArrayList<ClusterNode>();
+        Path journalPath = null;
+        
+        try {
+            ManualClock clock = new ManualClock(StockTradeUtil.VOL_WEIGH_WINDOW);
+            Map<String, Stock> stockMap = new HashMap<String, Stock>(StockData.stockMap);
+            for (int i = 0; i < 40; i++) {
+                stockMap.put("C" + i, new CommonStock("C" + i, i % 9, 100));
+            }
+            
+            StockTradeUtil expectedTrader = new StockTradeUtil(stockMap, clock);
+            List<InetSocketAddress> nodeAddresses = new ArrayList<InetSocketAddress>();
+            for (int i = 0; i < 3; i++) {
+                ClusterNode clusterNode = new ClusterNode(clock, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                clusterNode.start();
+                clusterNodes.add(clusterNode);
+                nodeAddresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), clusterNode.getPort()));
+            }
+            
+            ClusterRouter router = new ClusterRouter(stockMap, nodeAddresses.subList(0, 2));
+            String[] stockSymbols = stockMap.keySet().toArray(new String[0]);
+            
+            for (int trade = 0; trade < 2000; trade++) {
+                String stockSymbol = stockSymbols[trade % stockSymbols.length];
+                router.tradeStock(stockSymbol, 10 + trade % 7, 100 + trade % 13, trade % 2 == 0);
+                expectedTrader.tradeStock(stockSymbol, 10 + trade % 7, 100 + trade % 13, trade % 2 == 0);
+                
+                if (trade % 100 == 0) {
+                    clock.advance(Duration.ofMillis(10000));
+                }
+            }
+            
+            assertTrue(getClusterStockCount(clusterNodes) == stockMap.size() && clusterNodes.get(2).getStockTrader().getStockRegistry().getStockCount() == 0, Messages.ERR_CLUSTER_INCORRECT);
+            assertClusterPrices(router, expectedTrader, stockSymbols);
+            assertTrue(router.getDividendYield(StockData.GIN, 150) == expectedTrader.getDividendYield(StockData.GIN, 150), Messages.ERR_CLUSTER_INCORRECT);
+            assertTrue(router.getPERatio(StockData.POP, 150) == expectedTrader.getPERatio(StockData.POP, 150), Messages.ERR_CLUSTER_INCORRECT);
+            
+            //Only the stocks owned by the new node move, and they move with their trades
+            int movedCount = router.addNode(nodeAddresses.get(2));
+            int ownedCount = 0;
+            for (String stockSymbol : stockSymbols) {
+                ownedCount += router.getOwner(stockSymbol).equals(nodeAddresses.get(2)) ? 1 : 0;
+            }
+            
+            assertTrue(movedCount > 0 && movedCount == ownedCount && router.getNodeCount() == 3, Messages.ERR_CLUSTER_INCORRECT);
+            assertTrue(getClusterStockCount(clusterNodes) == stockMap.size() && clusterNodes.get(2).getStockTrader().getStockRegistry().getStockCount() == movedCount, Messages.ERR_CLUSTER_INCORRECT);
+            assertClusterPrices(router, expectedTrader, stockSymbols);
+            
+            //The moved trades keep their times, so they expire with the trades of the other stocks
+            clock.advance(Duration.ofMillis(StockTradeUtil.VOL_WEIGH_WINDOW - 100000));
+            router.tradeStock(StockData.TEA, 10, 250, true);
+            expectedTrader.tradeStock(StockData.TEA, 10, 250, true);
+            assertClusterPrices(router, expectedTrader, stockSymbols);
+            
+            clock.advance(Duration.ofMillis(StockTradeUtil.VOL_WEIGH_WINDOW));
+            router.tradeStock(StockData.POP, 10, 250, true);
+            expectedTrader.tradeStock(StockData.POP, 10, 250, true);
+            assertClusterPrices(router, expectedTrader, stockSymbols);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    router.tradeStock("XYZ", 10, 100, true);
+                }
+            }, Messages.ERR_NO_STOCK_FOUND + "XYZ"), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    router.tradeStock(StockData.ALE, 0, 100, true);
+                }
+            }, Messages.ERR_QUANTITY_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    router.addNode(nodeAddresses.get(0));
+                }
+            }, Messages.ERR_CLUSTER_NODE_EXISTS + nodeAddresses.get(0)), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //A node which cannot record the moved trades leaves the stocks and their trades on their owners
+            ClusterNode failingNode = new ClusterNode(clock, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            failingNode.start();
+            clusterNodes.add(failingNode);
+            journalPath = Files.createTempFile("cluster", ".journal");
+            TradeJournal journal = new TradeJournal(journalPath, 0);
+            failingNode.getStockTrader().attachJournal(journal);
+            journal.close();
+            
+            for (String stockSymbol : stockSymbols) {
+                router.tradeStock(stockSymbol, 10, 120, true);
+                expectedTrader.tradeStock(stockSymbol, 10, 120, true);
+            }
+            
+            InetSocketAddress failingAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), failingNode.getPort());
+            boolean addRejected = false;
+            try {
+                router.addNode(failingAddress);
+            } catch (BusinessException ex) {
+                addRejected = ex.getMessage().startsWith(Messages.ERR_JOURNAL_WRITE);
+            }
+            
+            assertTrue(addRejected && router.getNodeCount() == 4, Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            for (String stockSymbol : stockSymbols) {
+                assertTrue(!router.getOwner(stockSymbol).equals(failingAddress), Messages.ERR_CLUSTER_INCORRECT);
+            }
+            
+            assertTrue(getClusterStockCount(clusterNodes) == stockMap.size() && failingNode.getStockTrader().getStockRegistry().getStockCount() == 0, Messages.ERR_CLUSTER_INCORRECT);
+            assertClusterPrices(router, expectedTrader, stockSymbols);
+            
+            router.close();
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    router.getGBCEAllShareIndex();
+                }
+            }, Messages.ERR_CLUSTER_CLOSED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        } finally {
+            for (ClusterNode clusterNode : clusterNodes) {
+                try {
+                    clusterNode.close();
+                } catch (IOException ex) {
+                    //The node is stopped anyway
+                }
+            }
+            
+            deleteFile(journalPath);
+        }
+    }
+    
+    /**
+     * Counts the stocks held by the nodes of a cluster
+     * 
+     * @param clusterNodes - the nodes
+     * @return - the number of stocks
+     */
+    private static int getClusterStockCount(List<ClusterNode> clusterNodes) {
+        int stockCount = 0;
+        for (ClusterNode clusterNode : clusterNodes) {
+            stockCount += clusterNode.getStockTrader().getStockRegistry().getStockCount();
+        }
+        
+        return stockCount;
+    }
+    
+    /**
+     * Checks that a cluster gives the same Volume Weighted Stock Prices and All Share Index as a utility
+     * 
+     * @param router - the router of the cluster
+     * @param expectedTrader - the utility which received the same trades
+     * @param stockSymbols - the stock symbols
+     * @throws Exception - if the cluster cannot be queried
+     */
+    private void assertClusterPrices(ClusterRouter router, StockTradeUtil expectedTrader, String[] stockSymbols) throws Exception {
+        for (String stockSymbol : stockSymbols) {
+            assertTrue(router.getVolumeWeightedStockPrice(stockSymbol) == expectedTrader.getVolumeWeightedStockPrice(stockSymbol), Messages.ERR_CLUSTER_INCORRECT);
+        }
+        
+        assertTrue(router.getGBCEAllShareIndex() == expectedTrader.getGBCEAllShareIndex(), Messages.ERR_CLUSTER_INCORRECT);
+    }
+    
+    /**
+     * Tests the asynchronous logger: the messages are written as Logger writes them, in the order
+     * in which they have been logged from several threads, a full ring makes the callers wait instead
+     * of losing messages, an idle writer sleeps until it is woken, closing the logger writes the messages
+     * claimed before, and Logger hands its messages to the logger once it is set.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testAsyncLogger() throws TestFailedException {
+        try {
+            //The messages are written as Logger writes them on the caller's thread
+            PrintStream console = System.out;
+            ByteArrayOutputStream syncOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(syncOutput, true));
+            
+            try {
+                Logger.log(Messages.MSG_BUY_STOCK, new String[] {"30", StockData.TEA, "120"});
+                Logger.log(Messages.MSG_STOCK_DIVIDEND_YIELD, new String[] {StockData.POP, Double.toString(0.125), "64"});
+                Logger.log(Messages.MSG_VOL_WEIGH_PRICE, new String[] {StockData.GIN});
+                Logger.log(Messages.MSG_ADVANCE_CLOCK);
+                Logger.error(Messages.ERR_NO_STOCK_FOUND + "XYZ");
+            } finally {
+                System.setOut(console);
+            }
+            
+            ByteArrayOutputStream asyncOutput = new ByteArrayOutputStream();
+            AsyncLogger asyncLogger = new AsyncLogger(asyncOutput, 16);
+            asyncLogger.log(MessageTemplate.of(Messages.MSG_BUY_STOCK)).append(30).append(StockData.TEA).append(120).commit();
+            asyncLogger.log(MessageTemplate.of(Messages.MSG_STOCK_DIVIDEND_YIELD)).append(StockData.POP).append(0.125).append(64).commit();
+            asyncLogger.log(Messages.MSG_VOL_WEIGH_PRICE, new String[] {StockData.GIN});
+            asyncLogger.log(Messages.MSG_ADVANCE_CLOCK);
+            asyncLogger.error(Messages.ERR_NO_STOCK_FOUND + "XYZ");
+            asyncLogger.flush();
+            
+            assertTrue(asyncOutput.toString().equals(syncOutput.toString()), Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            assertTrue(MessageTemplate.of(Messages.MSG_BUY_STOCK) == MessageTemplate.of(Messages.MSG_BUY_STOCK)
+                    && MessageTemplate.of(Messages.MSG_BUY_STOCK).getParamCount() == 3, Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            
+            //The messages of every thread are written in order, and a ring of 16 messages loses none of them
+            asyncOutput.reset();
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                long thread = i;
+                threads[i] = new Thread(() -> {
+                    for (long message = 0; message < 1000; message++) {
+                        asyncLogger.log(MessageTemplate.of("P0 P1")).append(thread).append(message).commit();
+                    }
+                });
+                threads[i].start();
+            }
+            
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            
+            asyncLogger.close();
+            
+            String[] lines = asyncOutput.toString().split(System.lineSeparator());
+            long[] nextMessages = new long[threads.length];
+            for (String line : lines) {
+                String[] values = line.split(" ");
+                int thread = Integer.parseInt(values[0]);
+                
+                assertTrue(Long.parseLong(values[1]) == nextMessages[thread]++, Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            }
+            
+            assertTrue(lines.length == 4000, Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    asyncLogger.log(Messages.MSG_ADVANCE_CLOCK);
+                }
+            }, Messages.ERR_LOGGER_CLOSED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new AsyncLogger(new ByteArrayOutputStream(), 100);
+                }
+            }, Messages.ERR_LOGGER_CAPACITY_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //An idle writer thread sleeps until it is woken, instead of checking the ring periodically
+            ByteArrayOutputStream closeOutput = new ByteArrayOutputStream();
+            AsyncLogger closingLogger = new AsyncLogger(closeOutput, 16);
+            closingLogger.log(Messages.MSG_ADVANCE_CLOCK);
+            closingLogger.flush();
+            
+            boolean writerParked = false;
+            for (int i = 0; i < 1000 && !writerParked; i++) {
+                writerParked = true;
+                for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                    writerParked &= !thread.getName().equals("async-logger") || thread.getState() == Thread.State.WAITING;
+                }
+                
+                Thread.sleep(writerParked ? 0 : 1);
+            }
+            
+            assertTrue(writerParked, Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            
+            //A message whose slot is claimed before the logger is closed is written, even if it is published afterwards
+            LogRecord lateRecord = closingLogger.log(MessageTemplate.of("P0 P1"));
+            Thread closer = new Thread(closingLogger::close);
+            closer.start();
+            
+            for (int i = 0; i < 1000 && closer.getState() != Thread.State.WAITING; i++) {
+                Thread.sleep(1);
+            }
+            
+            lateRecord.append(1).append(2).commit();
+            closer.join();
+            assertTrue(closeOutput.toString().equals(Messages.MSG_ADVANCE_CLOCK + System.lineSeparator() + "1 2" + System.lineSeparator()), Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            
+            //Logger hands its messages to the logger set, and writes them itself again once it is unset
+            ByteArrayOutputStream loggerOutput = new ByteArrayOutputStream();
+            try (AsyncLogger logger = new AsyncLogger(loggerOutput, AsyncLogger.DEFAULT_CAPACITY)) {
+                Logger.setAsyncLogger(logger);
+                
+                try {
+                    Logger.log(Messages.MSG_BUY_STOCK, new String[] {"30", StockData.TEA, "120"});
+                    Logger.log(Messages.MSG_STOCK_DIVIDEND_YIELD, new String[] {StockData.POP, Double.toString(0.125), "64"});
+                    Logger.log(Messages.MSG_VOL_WEIGH_PRICE, new String[] {StockData.GIN});
+                    Logger.log(Messages.MSG_ADVANCE_CLOCK);
+                    Logger.error(Messages.ERR_NO_STOCK_FOUND + "XYZ");
+                } finally {
+                    Logger.setAsyncLogger(null);
+                }
+                
+                assertTrue(loggerOutput.toString().equals(syncOutput.toString()), Messages.ERR_ASYNC_LOGGER_INCORRECT);
+            }
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
     /**
-     * Main method used to run the test.
+     * Tests the trade journal: the trades are written to the journal across several segments,
+     * read back after the journal is reopened, and the trades of the last 5 minutes are replayed
+     * into a new utility, which then gives the same Volume Weighted Stock Price as the original.
+     * The records whose symbol length is damaged are skipped by the replay.
      * 
-     * @param args - method arguments
      * @throws TestFailedException - if one of the tests has failed
      */
-    public static void main(String[] args) throws TestFailedException {
-        StockTradeTest stockTest = new StockTradeTest();
+    public void testTradeJournal() throws TestFailedException {
+        Path journalPath = null;
+        Path damagedPath = null;
         
-        Logger.log(Messages.MSG_TESTS_START);
-        stockTest.testBusinessLogic();
-        stockTest.testExceptionProcessing();
-        Logger.log(Messages.MSG_TESTS_FINISH);
+        try {
+            journalPath = Files.createTempFile("trades", ".journal");
+            ManualClock clock = new ManualClock(0);
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, clock);
+            
+            try (TradeJournal journal = new TradeJournal(journalPath, 3, 4)) {
+                assertTrue(stockTrader.attachJournal(journal) == 0, Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                
+                //The first trades expire before the journal is replayed
+                stockTrader.tradeStock("TEA", 10, 1000, true);
+                stockTrader.tradeStock("GIN", 10, 1000, false);
+                clock.advance(Duration.ofMinutes(6));
+                
+                for (int i = 1; i <= 10; i++) {
+                    stockTrader.tradeStock(i % 2 == 0 ? "TEA" : "GIN", i, 100 * i, i % 3 == 0);
+                    clock.advance(Duration.ofSeconds(1));
+                }
+                
+                assertTrue(journal.getRecordCount() == 12, Messages.ERR_TRADE_JOURNAL_INCORRECT);
+            }
+            
+            //A negative symbol length and one longer than a symbol, in two records of the tail
+            byte[] journalBytes = Files.readAllBytes(journalPath);
+            journalBytes[3 * TradeJournal.RECORD_SIZE + TradeJournal.SYMBOL_LENGTH_OFFSET] = -1;
+            journalBytes[4 * TradeJournal.RECORD_SIZE + TradeJournal.SYMBOL_LENGTH_OFFSET] = 30;
+            damagedPath = Files.createTempFile("damaged", ".journal");
+            Files.write(damagedPath, journalBytes);
+            
+            try (TradeJournal journal = new TradeJournal(damagedPath, 0)) {
+                assertTrue(journal.getSymbol(2) == null && journal.getSymbol(3) == null, Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                assertTrue(new StockTradeUtil(StockData.stockMap, clock).attachJournal(journal) == 8, Messages.ERR_TRADE_JOURNAL_INCORRECT);
+            }
+            
+            try (TradeJournal journal = new TradeJournal(journalPath, 0)) {
+                assertTrue(journal.getRecordCount() == 12 && journal.getSymbol(1).equals("GIN"), Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                assertTrue(journal.getTimestamp(2) == 6 * 60 * 1000 && journal.getQuantity(2) == 1 && journal.getPrice(2) == 100, Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                assertTrue(!journal.isBuy(2) && journal.isBuy(4) && journal.getSymbol(11).equals("TEA"), Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                
+                StockTradeUtil restoredTrader = new StockTradeUtil(StockData.stockMap, clock);
+                assertTrue(restoredTrader.attachJournal(journal) == 10, Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                
+                for (String stockSymbol : new String[] {"TEA", "GIN"}) {
+                    assertTrue(restoredTrader.getVolumeWeightedStockPrice(stockSymbol) == stockTrader.getVolumeWeightedStockPrice(stockSymbol), stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+                    assertTrue(restoredTrader.getOrderFlow(stockSymbol).getBuyQuantity() == stockTrader.getOrderFlow(stockSymbol).getBuyQuantity(), stockSymbol + Messages.ERR_ORDER_FLOW_INCORRECT);
+                }
+                
+                restoredTrader.tradeStock("POP", 5, 50, true);
+                assertTrue(journal.getRecordCount() == 13 && journal.getSymbol(12).equals("POP"), Messages.ERR_TRADE_JOURNAL_INCORRECT);
+                
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        restoredTrader.attachJournal(journal);
+                    }
+                }, Messages.ERR_JOURNAL_ATTACHED), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            }
+            
+            Path notJournalPath = journalPath;
+            Files.write(notJournalPath, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new TradeJournal(notJournalPath, 0).close();
+                }
+            }, Messages.ERR_NOT_TRADE_JOURNAL + notJournalPath), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new TradeJournal(notJournalPath, -1);
+                }
+            }, Messages.ERR_SYNC_INTERVAL_NEGATIVE), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        } finally {
+            deleteFile(journalPath);
+            deleteFile(damagedPath);
+        }
     }
     
     /**
-     * Tests the business logic of the application like dividend yield,
-     * P/E ratio, Volume Weighted Stock Price and All Share Index return
-     * correct values.
+     * Tests the batch trades: a batch of trades of several stocks, in any order, gives the
+     * same results as the same trades made one by one, and a batch with an invalid trade
+     * is rejected as a whole.
      * 
      * @throws TestFailedException - if one of the tests has failed
      */
-    public void testBusinessLogic() throws TestFailedException {
+    public void testTradeBatch() throws TestFailedException {
         try {
-            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap);
-            assertTrue (stockTrader.getDividendYield(StockData.TEA, 50) == 0, StockData.TEA + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
-            assertTrue (stockTrader.getDividendYield(StockData.POP, 64) == 0.125, StockData.POP + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
-            assertTrue (stockTrader.getDividendYield(StockData.GIN, 50) == 0.04, StockData.GIN + Messages.ERR_DIVIDENT_YIELD_INCORRECT);
+            ManualClock clock = new ManualClock(1000);
+            StockTradeUtil batchTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StockTradeUtil singleTrader = new StockTradeUtil(StockData.stockMap, clock);
+            String[] stockSymbols = {"TEA", "GIN", "POP", "TEA", "ALE", "GIN", "TEA", "POP"};
+            TradeBatch tradeBatch = new TradeBatch(stockSymbols.length);
             
-            assertTrue (stockTrader.getPERatio(StockData.ALE, 69) == 3, StockData.ALE + Messages.ERR_PE_RATIO_INCORRECT);
-            assertTrue (stockTrader.getPERatio(StockData.POP, 64) == 8, StockData.POP + Messages.ERR_PE_RATIO_INCORRECT);
+            for (int i = 0; i < stockSymbols.length; i++) {
+                int stockId = batchTrader.getStockId(stockSymbols[i]);
+                assertTrue(tradeBatch.add(stockId, 100 * i, i + 1, 50 * (i % 3 + 1), i % 2 == 0), Messages.ERR_TRADE_BATCH_INCORRECT);
+                singleTrader.tradeStock(stockId, 100 * i, i + 1, 50 * (i % 3 + 1), i % 2 == 0);
+            }
             
-            stockTrader.tradeStock(StockData.TEA, 20, 60, false);
-            stockTrader.tradeStock(StockData.TEA, 30, 120, true);
+            assertTrue(tradeBatch.isFull() && !tradeBatch.add(0, 0, 1, 1, true), Messages.ERR_TRADE_BATCH_INCORRECT);
+            batchTrader.tradeStocks(tradeBatch);
             
-            stockTrader.tradeStock(StockData.GIN, 10, 60, true);
-            stockTrader.tradeStock(StockData.GIN, 20, 150, false);
+            for (String stockSymbol : new String[] {"TEA", "GIN", "POP", "ALE"}) {
+                assertTrue(batchTrader.getVolumeWeightedStockPrice(stockSymbol) == singleTrader.getVolumeWeightedStockPrice(stockSymbol), stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+                assertTrue(batchTrader.getTradedQuantity(stockSymbol) == singleTrader.getTradedQuantity(stockSymbol), stockSymbol + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+            }
             
-            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.TEA) == 96, StockData.TEA + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
-            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.GIN) == 120, StockData.GIN + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue(isClose(batchTrader.getGBCEAllShareIndex(), singleTrader.getGBCEAllShareIndex()), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
             
-            assertTrue (stockTrader.getGBCEAllShareIndex() == Math.sqrt(11520), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            tradeBatch.clear();
+            tradeBatch.add(batchTrader.getStockId("TEA"), 1000, 10, 100, true);
+            tradeBatch.add(batchTrader.getStockId("GIN"), 1000, 0, 100, true);
             
-            //Sleep 6 minutes to ensure that in the subsequent transactions the Volume Weighted Stock Price is calculated
-            //based on transactions only from the last 5 minutes
-            Logger.log(Messages.MSG_SLEEP);
-            Thread.sleep(6 * 60 * 1000);
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    batchTrader.tradeStocks(tradeBatch);
+                }
+            }, Messages.ERR_BATCH_TRADE + 1 + ": " + Messages.ERR_QUANTITY_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
             
-            stockTrader.tradeStock(StockData.TEA, 10, 80, false);
-            stockTrader.tradeStock(StockData.TEA, 10, 60, true);
+            assertTrue(batchTrader.getTradedQuantity("TEA") == singleTrader.getTradedQuantity("TEA"), "TEA" + Messages.ERR_TRADED_QUANTITY_INCORRECT);
             
-            stockTrader.tradeStock(StockData.GIN, 10, 60, true);
-            stockTrader.tradeStock(StockData.GIN, 20, 120, false);
+            tradeBatch.clear();
+            tradeBatch.add(-1, 1000, 10, 100, true);
             
-            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.TEA) == 70, StockData.TEA + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
-            assertTrue (stockTrader.getVolumeWeightedStockPrice(StockData.GIN) == 100, StockData.GIN + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    batchTrader.tradeStocks(tradeBatch);
+                }
+            }, Messages.ERR_BATCH_TRADE + 0 + ": " + Messages.ERR_NO_STOCK_ID_FOUND + -1), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests the trade file loader: a CSV file with a header, blank lines and Windows line
+     * endings, read through a buffer smaller than the file, and a binary file written as
+     * a trade journal give the same results as the same trades made one by one, and the
+     * malformed files are rejected with the line or record at fault.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradeFileLoader() throws TestFailedException {
+        Path csvPath = null;
+        Path binaryPath = null;
+        
+        try {
+            csvPath = Files.createTempFile("trades", ".csv");
+            binaryPath = Files.createTempFile("trades", ".journal");
+            ManualClock clock = new ManualClock(100000);
+            StockTradeUtil singleTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StringBuilder csv = new StringBuilder("symbol,timestamp,quantity,price,side\r\n");
+            String[] stockSymbols = {"TEA", "GIN", "POP", "TEA", "ALE", "GIN", "TEA", "POP", "JOE", "TEA"};
+            
+            deleteFile(binaryPath);
+            try (TradeJournal journal = new TradeJournal(binaryPath, 0, 4)) {
+                for (int i = 0; i < stockSymbols.length; i++) {
+                    int stockId = singleTrader.getStockId(stockSymbols[i]);
+                    long quantity = 10 * i + 1;
+                    long price = 1000000000L * (i % 3 + 1) + i;
+                    boolean isBuy = i % 2 == 0;
+                    
+                    singleTrader.tradeStock(stockId, 1000 * i, quantity, price, isBuy);
+                    journal.append(singleTrader.getStockRegistry().getSymbolBytes(stockId), 1000 * i, quantity, price, isBuy);
+                    csv.append(stockSymbols[i]).append(',').append(1000 * i).append(',').append(quantity).append(',').append(price).append(',').append(isBuy ? 'B' : 's').append(i % 3 == 0 ? "\r\n\n" : "\n");
+                }
+            }
+            
+            Files.write(csvPath, csv.toString().getBytes(StandardCharsets.US_ASCII));
+            
+            StockTradeUtil csvTrader = new StockTradeUtil(StockData.stockMap, clock);
+            StockTradeUtil binaryTrader = new StockTradeUtil(StockData.stockMap, clock);
+            assertTrue(new TradeFileLoader(csvTrader, 3, TradeJournal.RECORD_SIZE).loadCsv(csvPath) == stockSymbols.length, Messages.ERR_TRADE_FILE_LOADER_INCORRECT);
+            assertTrue(new TradeFileLoader(binaryTrader, 4, 100).loadBinary(binaryPath) == stockSymbols.length, Messages.ERR_TRADE_FILE_LOADER_INCORRECT);
+            
+            for (String stockSymbol : new String[] {"TEA", "GIN", "POP", "ALE", "JOE"}) {
+                for (StockTradeUtil stockTrader : new StockTradeUtil[] {csvTrader, binaryTrader}) {
+                    assertTrue(stockTrader.getVolumeWeightedStockPrice(stockSymbol) == singleTrader.getVolumeWeightedStockPrice(stockSymbol), stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+                    assertTrue(stockTrader.getTradedQuantity(stockSymbol) == singleTrader.getTradedQuantity(stockSymbol), stockSymbol + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+                }
+            }
+            
+            TradeFileLoader loader = new TradeFileLoader(new StockTradeUtil(StockData.stockMap, clock), 4, TradeJournal.RECORD_SIZE);
+            String[] malformedFiles = {"TEA,1,2,3,B\nTEA,1,2,3\n", "TEA,1,2,3,B\nTEA,1,0,3,B\n", "TEA,1,2,3,B\nTEA,1,2,99999999999999999999,B\n",
+                    "TEA,1,2,3,B\n\nNAN,1,2,3,S", "TEA,1,2,3,B\nTEA,1,2,3,X\n", "TEA,1,2,3,B\nTEA,1,2,3,B," + new String(new char[TradeJournal.RECORD_SIZE]).replace('\0', ' '),
+                    "NAN,1,2,3,S\nTEA,1,2,3,B\n", "symbol,time,quantity,price,side\nTEA,1,2,3,B\n"};
+            String[] errorMessages = {Messages.ERR_TRADE_FILE_LINE + 2, Messages.ERR_TRADE_FILE_LINE + 2, Messages.ERR_TRADE_FILE_LINE + 2,
+                    Messages.ERR_TRADE_FILE_SYMBOL + 3, Messages.ERR_TRADE_FILE_LINE + 2, Messages.ERR_TRADE_FILE_LINE_LENGTH + 2,
+                    Messages.ERR_TRADE_FILE_SYMBOL + 1, Messages.ERR_TRADE_FILE_LINE + 1};
+            
+            for (int i = 0; i < malformedFiles.length; i++) {
+                Path malformedPath = csvPath;
+                Files.write(malformedPath, malformedFiles[i].getBytes(StandardCharsets.US_ASCII));
+                
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        loader.loadCsv(malformedPath);
+                    }
+                }, errorMessages[i]), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            }
+            
+            Path notBinaryPath = csvPath;
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    loader.loadBinary(notBinaryPath);
+                }
+            }, Messages.ERR_TRADE_FILE_HEADER), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            //A binary file cut in the middle of a record is rejected, not read up to its last whole record
+            Path truncatedPath = csvPath;
+            Files.write(truncatedPath, Arrays.copyOf(Files.readAllBytes(binaryPath), 4 * TradeJournal.RECORD_SIZE + 20));
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    loader.loadBinary(truncatedPath);
+                }
+            }, Messages.ERR_TRADE_FILE_RECORD_PARTIAL + 3), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new TradeFileLoader(null);
+                }
+            }, Messages.ERR_STOCK_TRADER_NULL), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        } finally {
+            deleteFile(csvPath);
+            deleteFile(binaryPath);
+        }
+    }
+    
+    /**
+     * Tests the trade replay: the trades of a file spanning 20 minutes are replayed as fast as
+     * possible, and every snapshot, taken at the multiples of the interval and after the last
+     * trade, must give the same Volume Weighted Stock Prices and All Share Index as a utility
+     * which recorded the trades up to the time of the snapshot. A replay at 100 times the original
+     * pace must take at least a hundredth of the time spanned by the trades.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradeReplay() throws TestFailedException {
+        Path csvPath = null;
+        
+        try {
+            csvPath = Files.createTempFile("trades", ".csv");
+            String[] stockSymbols = {"TEA", "GIN", "POP", "TEA", "ALE", "TEA", "GIN"};
+            long startTime = 1476700000000L;
+            int tradeCount = 50;
+            long[] timestamps = new long[tradeCount];
+            StringBuilder csv = new StringBuilder();
+            
+            for (int i = 0; i < tradeCount; i++) {
+                //Two trades out of time order, which do not move the event time back
+                timestamps[i] = startTime + 25000 * i - (i % 10 == 5 ? 30000 : 0);
+                csv.append(stockSymbols[i % stockSymbols.length]).append(',').append(timestamps[i]).append(',').append(i + 1).append(',').append(100 + 7 * i).append(",B\n");
+            }
+            
+            Files.write(csvPath, csv.toString().getBytes(StandardCharsets.US_ASCII));
+            
+            List<Long> snapshotTimes = new ArrayList<>();
+            List<double[]> snapshotPrices = new ArrayList<>();
+            List<Double> snapshotIndexes = new ArrayList<>();
+            TradeReplayer replayer = new TradeReplayer(StockData.stockMap, (time, volWeighPrices, allShareIndex) -> {
+                snapshotTimes.add(time);
+                snapshotPrices.add(volWeighPrices.clone());
+                snapshotIndexes.add(allShareIndex);
+            }, 60000, TradeReplayer.AS_FAST_AS_POSSIBLE);
+            
+            assertTrue(replayer.replayCsv(csvPath) == tradeCount && replayer.getEventTime() == startTime + 25000 * (tradeCount - 1), Messages.ERR_REPLAY_INCORRECT);
+            
+            long lastTime = startTime + 25000 * (tradeCount - 1);
+            long firstSnapshotTime = (startTime / 60000 + 1) * 60000;
+            assertTrue(snapshotTimes.size() == (lastTime - firstSnapshotTime) / 60000 + 2 && snapshotTimes.get(snapshotTimes.size() - 1) == lastTime, Messages.ERR_REPLAY_INCORRECT);
+            
+            ManualClock clock = new ManualClock(startTime);
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, clock);
+            int traded = 0;
+            
+            for (int s = 0; s < snapshotTimes.size(); s++) {
+                long snapshotTime = snapshotTimes.get(s);
+                assertTrue(s == snapshotTimes.size() - 1 || snapshotTime == firstSnapshotTime + 60000 * s, Messages.ERR_REPLAY_INCORRECT);
+                
+                while (traded < tradeCount && Math.max(timestamps[traded], startTime + 25000 * (traded - 1)) <= snapshotTime) {
+                    stockTrader.tradeStock(stockSymbols[traded % stockSymbols.length], timestamps[traded], traded + 1, 100 + 7 * traded, true);
+                    traded++;
+                }
+                
+                clock.setMillis(snapshotTime);
+                
+                for (String stockSymbol : new String[] {"TEA", "GIN", "POP", "ALE", "JOE"}) {
+                    double volWeighPrice = snapshotPrices.get(s)[stockTrader.getStockId(stockSymbol)];
+                    
+                    if (stockTrader.getTradedQuantity(stockSymbol) == 0 && Double.isNaN(volWeighPrice)) {
+                        assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                            public void run() throws Exception {
+                                stockTrader.getVolumeWeightedStockPrice(stockSymbol);
+                            }
+                        }, Messages.ERR_NO_STOCK_DATA_FOUND + stockSymbol), stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+                    } else {
+                        assertTrue(volWeighPrice == stockTrader.getVolumeWeightedStockPrice(stockSymbol), stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+                    }
+                }
+                
+                assertTrue(isClose(snapshotIndexes.get(s), stockTrader.getGBCEAllShareIndex()), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            }
+            
+            TradeReplayer pacedReplayer = new TradeReplayer(StockData.stockMap, (time, volWeighPrices, allShareIndex) -> {}, 60000, 100);
+            long start = System.nanoTime();
+            pacedReplayer.replayCsv(csvPath);
+            assertTrue(System.nanoTime() - start >= (lastTime - startTime) * 1000000 / 100, Messages.ERR_REPLAY_INCORRECT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new TradeReplayer(StockData.stockMap, null, 60000, 1);
+                }
+            }, Messages.ERR_REPLAY_LISTENER_NULL), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            
+            assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                public void run() throws Exception {
+                    new TradeReplayer(StockData.stockMap, (time, volWeighPrices, allShareIndex) -> {}, 0, 1);
+                }
+            }, Messages.ERR_REPLAY_INTERVAL_NEGATIVE_ZERO), Messages.ERR_EXCEPTION_NOT_CAUGHT);
             
-            assertTrue (stockTrader.getGBCEAllShareIndex() == Math.sqrt(7000), Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+            for (double speed : new double[] {-1, Double.NaN}) {
+                assertTrue(testExceptionCaughtWithMessage(this.new RunTestException() {
+                    public void run() throws Exception {
+                        new TradeReplayer(StockData.stockMap, (time, volWeighPrices, allShareIndex) -> {}, 60000, speed);
+                    }
+                }, Messages.ERR_REPLAY_SPEED_INCORRECT), Messages.ERR_EXCEPTION_NOT_CAUGHT);
+            }
         } catch (Exception ex) {
             throw new TestFailedException(ex.getMessage());
+        } finally {
+            deleteFile(csvPath);
         }
     }
     
@@ -205,6 +2452,241 @@ public class StockTradeTest {
         }
     }
     
+    /**
+     * Stress tests the concurrent recording of trades: several threads trade all the
+     * stocks at the same time, while other threads keep reading the Volume Weighted
+     * Stock Price and the All Share Index. When all threads have finished, the traded
+     * quantity and the Volume Weighted Stock Price of every stock must match the totals
+     * of the trades made by all threads.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testConcurrentTrading() throws TestFailedException {
+        StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap);
+        String[] stockSymbols = StockData.stockMap.keySet().toArray(new String[0]);
+        int writerCount = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int tradesPerWriter = CONCURRENT_TRADES / writerCount;
+        AtomicLongArray sumPriceQuantity = new AtomicLongArray(stockSymbols.length);
+        AtomicLongArray sumQuantity = new AtomicLongArray(stockSymbols.length);
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        AtomicBoolean tradingFinished = new AtomicBoolean();
+        CountDownLatch startSignal = new CountDownLatch(1);
+        
+        try {
+            //Trade every stock once, so the readers always find data for it
+            for (int i = 0; i < stockSymbols.length; i++) {
+                stockTrader.tradeStock(stockSymbols[i], 1, 100, true);
+                sumPriceQuantity.addAndGet(i, 100);
+                sumQuantity.addAndGet(i, 1);
+            }
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+        
+        Thread[] writers = new Thread[writerCount];
+        for (int w = 0; w < writerCount; w++) {
+            int quantity = w % 3 + 1;
+            int price = 100 + w;
+            
+            writers[w] = new Thread() {
+                public void run() {
+                    long[] writerQuantity = new long[stockSymbols.length];
+                    
+                    try {
+                        startSignal.await();
+                        for (int i = 0; i < tradesPerWriter; i++) {
+                            int stockIndex = i % stockSymbols.length;
+                            stockTrader.tradeStock(stockSymbols[stockIndex], quantity, price, (i & 1) == 0);
+                            writerQuantity[stockIndex] += quantity;
+                        }
+                    } catch (Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                    
+                    for (int i = 0; i < stockSymbols.length; i++) {
+                        sumPriceQuantity.addAndGet(i, writerQuantity[i] * price);
+                        sumQuantity.addAndGet(i, writerQuantity[i]);
+                    }
+                }
+            };
+        }
+        
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                public void run() {
+                    double minPrice = 100 * (1 - INDEX_PRECISION);
+                    double maxPrice = (100 + writerCount) * (1 + INDEX_PRECISION);
+                    
+                    try {
+                        startSignal.await();
+                        while (!tradingFinished.get()) {
+                            for (String stockSymbol : stockSymbols) {
+                                double volWeighPrice = stockTrader.getVolumeWeightedStockPrice(stockSymbol);
+                                assertTrue(volWeighPrice >= 100 && volWeighPrice <= maxPrice, stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+                            }
+                            
+                            double allShareIndex = stockTrader.getGBCEAllShareIndex();
+                            assertTrue(allShareIndex >= minPrice && allShareIndex <= maxPrice, Messages.ERR_ALL_SHARE_INDEX_INCORRECT);
+                        }
+                    } catch (Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+        }
+        
+        try {
+            for (Thread thread : writers) {
+                thread.start();
+            }
+            
+            for (Thread thread : readers) {
+                thread.start();
+            }
+            
+            startSignal.countDown();
+            for (Thread thread : writers) {
+                thread.join();
+            }
+            
+            tradingFinished.set(true);
+            for (Thread thread : readers) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+        
+        if (failure.get() != null) {
+            throw new TestFailedException(failure.get().getMessage());
+        }
+        
+        try {
+            for (int i = 0; i < stockSymbols.length; i++) {
+                String stockSymbol = stockSymbols[i];
+                double volWeighPrice = (double) sumPriceQuantity.get(i) / sumQuantity.get(i);
+                
+                assertTrue(stockTrader.getTradedQuantity(stockSymbol) == sumQuantity.get(i), stockSymbol + Messages.ERR_TRADED_QUANTITY_INCORRECT);
+                assertTrue(stockTrader.getVolumeWeightedStockPrice(stockSymbol) == volWeighPrice, stockSymbol + Messages.ERR_VOL_WEIGHT_PRICE_INCORRECT);
+            }
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tests that recording trades with primitive arguments does not allocate memory
+     * once the windows have reached their steady size: the trades are made once every
+     * millisecond, so after 5 minutes of trades every new trade evicts an old one and
+     * the buffers do not grow any more. The test is skipped if the JVM cannot measure
+     * the memory allocated by a thread.
+     * 
+     * @throws TestFailedException - if one of the tests has failed
+     */
+    public void testTradeAllocation() throws TestFailedException {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        
+        try {
+            StockTradeUtil stockTrader = new StockTradeUtil(StockData.stockMap, new ManualClock(0));
+            String[] stockSymbols = StockData.stockMap.keySet().toArray(new String[0]);
+            long timestamp = 0;
+            
+            for (int i = 0; i < ALLOCATION_WARM_UP_TRADES; i++) {
+                stockTrader.tradeStock(stockSymbols[i % stockSymbols.length], timestamp++, i % 50 + 1, i % 100 + 1, (i & 1) == 0);
+            }
+            
+            //Reading the allocated bytes allocates memory itself, which is measured first
+            long threadId = Thread.currentThread().getId();
+            long start = threadBean.getThreadAllocatedBytes(threadId);
+            long overhead = threadBean.getThreadAllocatedBytes(threadId) - start;
+            
+            start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ALLOCATION_TRADES; i++) {
+                stockTrader.tradeStock(stockSymbols[i % stockSymbols.length], timestamp++, i % 50 + 1, i % 100 + 1, (i & 1) == 0);
+            }
+            
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+            
+            //Allocating even a single object per trade would take at least 16 bytes per trade
+            assertTrue(allocated < ALLOCATION_TRADES, Messages.ERR_TRADE_ALLOCATION + allocated);
+            
+            int[] stockIds = new int[stockSymbols.length];
+            for (int i = 0; i < stockSymbols.length; i++) {
+                stockIds[i] = stockTrader.getStockId(stockSymbols[i]);
+            }
+            
+            start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ALLOCATION_TRADES; i++) {
+                stockTrader.tradeStock(stockIds[i % stockIds.length], timestamp++, i % 50 + 1, i % 100 + 1, (i & 1) == 0);
+            }
+            
+            allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+            assertTrue(allocated < ALLOCATION_TRADES, Messages.ERR_TRADE_ALLOCATION + allocated);
+            
+            TradeBatch tradeBatch = new TradeBatch(ALLOCATION_BATCH_SIZE);
+            
+            start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ALLOCATION_TRADES; i++) {
+                tradeBatch.add(stockIds[i % stockIds.length], timestamp++, i % 50 + 1, i % 100 + 1, (i & 1) == 0);
+                
+                if (tradeBatch.isFull()) {
+                    stockTrader.tradeStocks(tradeBatch);
+                    tradeBatch.clear();
+                }
+            }
+            
+            allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+            assertTrue(allocated < ALLOCATION_TRADES, Messages.ERR_TRADE_ALLOCATION + allocated);
+        } catch (Exception ex) {
+            throw new TestFailedException(ex.getMessage());
+        }
+    }
+    
+    /**
+     * Deletes a file created by a test, ignoring any error
+     * 
+     * @param path - the path of the file, can be null
+     */
+    private void deleteFile(Path path) {
+        if (path == null) {
+            return;
+        }
+        
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            //The file is left in the temporary directory
+        }
+    }
+    
+    /**
+     * Reads a given number of bytes from a channel
+     * 
+     * @param channel - the channel
+     * @param size - the number of bytes
+     * @return - a buffer with the bytes, ready to be read
+     * @throws IOException - if the channel is closed before the bytes are read
+     */
+    private static ByteBuffer readFully(SocketChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException(Messages.ERR_GATEWAY_CLOSED);
+            }
+        }
+        
+        buffer.flip();
+        return buffer;
+    }
+    
     /** Run a code block that would throw an exception */
     private abstract class RunTestException {
         
@@ -235,6 +2717,18 @@ public class StockTradeTest {
         return exceptionCaught;
     }
     
+    /**
+     * Checks if a value calculated in log space is equal to the expected value
+     * within the precision of the fixed point logarithms.
+     * 
+     * @param value - the calculated value
+     * @param expected - the expected value
+     * @return - if the relative difference is within the precision
+     */
+    private boolean isClose(double value, double expected) {
+        return Math.abs(value - expected) <= expected * INDEX_PRECISION;
+    }
+    
     /**
      * Tests whether a condition is true
      * 